@@ -0,0 +1,114 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.benchmark;
+
+import com.expedia.www.haystack.client.dispatchers.queues.RingBufferQueue;
+import com.expedia.www.haystack.client.dispatchers.queues.WaitStrategy;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the producer side of the RemoteDispatcher accept queue: many application threads offering finished
+ * spans while a single sender drains in batches, as the dispatcher does.
+ * <p>
+ * Run {@link #main(String[])} to sweep 1 to 64 producer threads, or pass <code>-t</code> to the benchmarks jar.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AcceptQueueBenchmark {
+    private static final int[] PRODUCER_THREADS = {1, 2, 4, 8, 16, 32, 64};
+
+    @Param({"ArrayBlockingQueue", "RingBufferQueue-SPIN", "RingBufferQueue-YIELD", "RingBufferQueue-PARK"})
+    public String queueType;
+
+    @Param({"1024"})
+    public int capacity;
+
+    private final Object element = new Object();
+    private BlockingQueue<Object> queue;
+    private Thread consumer;
+    private volatile boolean running;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        queue = createQueue(queueType, capacity);
+        running = true;
+        consumer = new Thread(() -> {
+            final List<Object> batch = new ArrayList<>(100);
+            while (running) {
+                try {
+                    final Object first = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (first != null) {
+                        queue.drainTo(batch, 99);
+                        batch.clear();
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "accept-queue-consumer");
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        running = false;
+        consumer.join();
+    }
+
+    private static BlockingQueue<Object> createQueue(String type, int capacity) {
+        if ("ArrayBlockingQueue".equals(type)) {
+            return new ArrayBlockingQueue<>(capacity);
+        }
+        final String strategy = type.substring(type.indexOf('-') + 1);
+        return new RingBufferQueue<>(capacity, WaitStrategy.valueOf(strategy));
+    }
+
+    @Benchmark
+    public boolean offer() {
+        return queue.offer(element);
+    }
+
+    @Benchmark
+    public int size() {
+        return queue.size();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (int threads : PRODUCER_THREADS) {
+            Options options = new OptionsBuilder()
+                    .include(AcceptQueueBenchmark.class.getSimpleName())
+                    .threads(threads)
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks that cover the tracer hot path, from starting a span to handing it to the dispatcher, with
+ * the GC profiler on, so every result comes with its bytes allocated per operation
+ * (<code>gc.alloc.rate.norm</code>).
+ * <p>
+ * Arguments are taken as extra benchmark name patterns; with none, the whole hot path runs.
+ */
+public final class HotPathBenchmarks {
+    private static final Class<?>[] HOT_PATH = {
+            TracerBenchmark.class,
+            SpanAllocationBenchmark.class,
+            SpanEncodingBenchmark.class,
+            PropagationBenchmark.class,
+            IdGeneratorBenchmark.class,
+            RemoteDispatcherBenchmark.class
+    };
+
+    private HotPathBenchmarks() {
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        final OptionsBuilder options = new OptionsBuilder();
+        if (args.length == 0) {
+            for (Class<?> benchmark : HOT_PATH) {
+                options.include(benchmark.getSimpleName());
+            }
+        } else {
+            for (String pattern : args) {
+                options.include(pattern);
+            }
+        }
+        final Options built = options.addProfiler(GCProfiler.class).build();
+        new Runner(built).run();
+    }
+}
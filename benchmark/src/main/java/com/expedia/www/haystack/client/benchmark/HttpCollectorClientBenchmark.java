@@ -0,0 +1,118 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.benchmark;
+
+import com.expedia.www.haystack.client.Span;
+import com.expedia.www.haystack.client.Tracer;
+import com.expedia.www.haystack.client.dispatchers.NoopDispatcher;
+import com.expedia.www.haystack.client.dispatchers.clients.AsyncHttpCollectorClient;
+import com.expedia.www.haystack.client.dispatchers.clients.HttpCollectorClient;
+import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
+import com.expedia.www.haystack.remote.clients.Client;
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spans per second a single sender thread pushes through the http collector clients against a local stub
+ * collector that answers after <code>latencyMicros</code>, as a stand-in for the network round trip.
+ * <p>
+ * The blocking client pays one round trip per span; the async one keeps up to <code>maxInFlight</code> requests
+ * outstanding over its keep-alive pool.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HttpCollectorClientBenchmark {
+    private static final int SPANS_PER_INVOCATION = 100;
+
+    @Param({"sync", "async"})
+    public String clientType;
+
+    @Param({"500"})
+    public long latencyMicros;
+
+    @Param({"64"})
+    public int maxInFlight;
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private Client<Span> client;
+    private Span span;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        server.createContext("/span", (exchange) -> {
+            try (InputStream body = exchange.getRequestBody()) {
+                while (body.read() >= 0) {
+                    // drain the request
+                }
+            }
+            try {
+                TimeUnit.MICROSECONDS.sleep(latencyMicros);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(202, -1);
+            exchange.close();
+        });
+        serverExecutor = Executors.newFixedThreadPool(Math.max(maxInFlight, 2));
+        server.setExecutor(serverExecutor);
+        server.start();
+
+        final String endpoint = "http://127.0.0.1:" + server.getAddress().getPort() + "/span";
+        final NoopMetricsRegistry metrics = new NoopMetricsRegistry();
+        if ("async".equals(clientType)) {
+            client = new AsyncHttpCollectorClient.Builder(metrics, endpoint)
+                    .withMaxConnections(maxInFlight)
+                    .withMaxInFlight(maxInFlight)
+                    .build();
+        } else {
+            client = new HttpCollectorClient(endpoint);
+        }
+
+        final Tracer tracer = new Tracer.Builder(metrics, "benchmark", new NoopDispatcher()).build();
+        span = tracer.buildSpan("http-collector").withTag("benchmark", true).start();
+        span.finish();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        client.close();
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SPANS_PER_INVOCATION)
+    public void send() {
+        for (int i = 0; i < SPANS_PER_INVOCATION; i++) {
+            client.send(span);
+        }
+        client.flush();
+    }
+}
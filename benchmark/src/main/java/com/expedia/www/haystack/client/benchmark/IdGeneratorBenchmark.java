@@ -0,0 +1,91 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.benchmark;
+
+import com.expedia.www.haystack.client.Id;
+import com.expedia.www.haystack.client.idgenerators.HexIdGenerator;
+import com.expedia.www.haystack.client.idgenerators.HexcharIdGenerator;
+import com.expedia.www.haystack.client.idgenerators.IdGenerator;
+import com.expedia.www.haystack.client.idgenerators.LongIdGenerator;
+import com.expedia.www.haystack.client.idgenerators.RandomUUIDGenerator;
+import com.expedia.www.haystack.client.idgenerators.TimeBasedUUIDGenerator;
+import com.expedia.www.haystack.client.idgenerators.TimeOrderedIdGenerator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the id generators on the span creation path: a trace id and a span id per operation.
+ * <p>
+ * <code>generate</code> is what starting a root span pays. <code>generateAndRender</code> also produces the
+ * strings the ids are reported and propagated as, which {@link HexIdGenerator} defers until first read.
+ * <p>
+ * Pass <code>-t</code> to see how each scales with threads; {@link TimeBasedUUIDGenerator} synchronizes internally.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IdGeneratorBenchmark {
+    @Param({"Long", "RandomUUID", "TimeBasedUUID", "Hexchar", "Hex64", "Hex128", "TimeOrdered"})
+    public String generatorType;
+
+    private IdGenerator generator;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        switch (generatorType) {
+            case "Long":
+                generator = new LongIdGenerator();
+                break;
+            case "RandomUUID":
+                generator = new RandomUUIDGenerator();
+                break;
+            case "TimeBasedUUID":
+                generator = new TimeBasedUUIDGenerator();
+                break;
+            case "Hexchar":
+                generator = new HexcharIdGenerator();
+                break;
+            case "Hex64":
+                generator = new HexIdGenerator(false);
+                break;
+            case "Hex128":
+                generator = new HexIdGenerator(true);
+                break;
+            case "TimeOrdered":
+                generator = new TimeOrderedIdGenerator();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown generator " + generatorType);
+        }
+    }
+
+    @Benchmark
+    public Object generate() {
+        generator.generateTraceId();
+        return generator.generateSpanId();
+    }
+
+    @Benchmark
+    public String generateAndRender() {
+        Id.from(generator.generateTraceId()).toString();
+        return Id.from(generator.generateSpanId()).toString();
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.benchmark;
+
+import com.expedia.www.haystack.client.Span;
+import com.expedia.www.haystack.client.Tracer;
+import com.expedia.www.haystack.client.dispatchers.NoopDispatcher;
+import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
+import io.opentracing.SpanContext;
+import io.opentracing.propagation.Format;
+import io.opentracing.propagation.TextMapAdapter;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of carrying a span context across a process boundary with the default text map propagator, as an
+ * instrumented http client and server would: one inject per outbound request, one extract per inbound one.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PropagationBenchmark {
+    private Tracer tracer;
+    private Span span;
+    private final Map<String, String> outbound = new HashMap<>();
+    private final Map<String, String> inbound = new HashMap<>();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        tracer = new Tracer.Builder(new NoopMetricsRegistry(), "benchmark", new NoopDispatcher()).build();
+        final Span parent = tracer.buildSpan("parent").start();
+        span = tracer.buildSpan("propagated").asChildOf(parent).withTag("benchmark", true).start();
+        span.setBaggageItem("customer", "1234");
+        tracer.inject(span.context(), Format.Builtin.TEXT_MAP, new TextMapAdapter(inbound));
+    }
+
+    @Benchmark
+    public Map<String, String> inject() {
+        outbound.clear();
+        tracer.inject(span.context(), Format.Builtin.TEXT_MAP, new TextMapAdapter(outbound));
+        return outbound;
+    }
+
+    @Benchmark
+    public SpanContext extract() {
+        return tracer.extract(Format.Builtin.TEXT_MAP, new TextMapAdapter(inbound));
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.benchmark;
+
+import com.expedia.www.haystack.client.Span;
+import com.expedia.www.haystack.client.Tracer;
+import com.expedia.www.haystack.client.dispatchers.NoopDispatcher;
+import com.expedia.www.haystack.client.dispatchers.RemoteDispatcher;
+import com.expedia.www.haystack.client.dispatchers.queues.WaitStrategy;
+import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
+import com.expedia.www.haystack.remote.clients.Client;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <code>RemoteDispatcher.dispatch</code> from many application threads at once, with a client that accepts and
+ * discards every batch. This is the accept queue and the bookkeeping around it, as a contended whole; use
+ * {@link AcceptQueueBenchmark} to compare the queues alone.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class RemoteDispatcherBenchmark {
+    @Param({"ArrayBlockingQueue", "RingBufferQueue"})
+    public String queueType;
+
+    private RemoteDispatcher dispatcher;
+    private Span span;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        final NoopMetricsRegistry metrics = new NoopMetricsRegistry();
+        final RemoteDispatcher.Builder builder = new RemoteDispatcher.Builder(metrics, new DiscardingClient())
+                .withBlockingQueueLimit(8192);
+        if ("RingBufferQueue".equals(queueType)) {
+            builder.withRingBufferQueue(8192, WaitStrategy.PARK);
+        }
+        dispatcher = builder.build();
+
+        final Tracer tracer = new Tracer.Builder(metrics, "benchmark", new NoopDispatcher()).build();
+        span = tracer.buildSpan("dispatched").withTag("benchmark", true).start();
+        span.finish();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        dispatcher.close();
+    }
+
+    @Benchmark
+    public void dispatch() {
+        dispatcher.dispatch(span);
+    }
+
+    private static final class DiscardingClient implements Client<Span> {
+        @Override
+        public boolean send(Span span) {
+            return true;
+        }
+
+        @Override
+        public boolean send(Collection<Span> spans) {
+            return true;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
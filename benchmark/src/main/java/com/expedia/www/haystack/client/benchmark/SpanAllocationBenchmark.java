@@ -0,0 +1,71 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.benchmark;
+
+import com.expedia.www.haystack.client.Span;
+import com.expedia.www.haystack.client.SpanPool;
+import com.expedia.www.haystack.client.Tracer;
+import com.expedia.www.haystack.client.dispatchers.NoopDispatcher;
+import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bytes allocated over a whole span lifecycle, from <code>buildSpan</code> to <code>finish</code>, with and without a
+ * {@link SpanPool}. Run it with <code>-prof gc</code> and read <code>gc.alloc.rate.norm</code>; the time is only
+ * there to show the pool doesn't cost more than it saves.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpanAllocationBenchmark {
+    @Param({"false", "true"})
+    public boolean pooled;
+
+    private Tracer tracer;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        final NoopMetricsRegistry registry = new NoopMetricsRegistry();
+        final Tracer.Builder builder = new Tracer.Builder(registry, "benchmark", new NoopDispatcher());
+        if (pooled) {
+            builder.withSpanPool(new SpanPool.Builder(registry).build());
+        }
+        tracer = builder.build();
+    }
+
+    @Benchmark
+    public Span rootSpan() {
+        final Span span = tracer.buildSpan("root").ignoreActiveSpan().start();
+        span.finish();
+        return span;
+    }
+
+    @Benchmark
+    public Span taggedSpan() {
+        final Span span = tracer.buildSpan("tagged").ignoreActiveSpan().withTag("http.method", "GET").start();
+        span.setTag("http.status_code", 200);
+        span.setTag("error", false);
+        span.log("response received");
+        span.finish();
+        return span;
+    }
+}
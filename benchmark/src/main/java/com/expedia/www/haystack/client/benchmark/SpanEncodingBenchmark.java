@@ -0,0 +1,82 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.benchmark;
+
+import com.expedia.www.haystack.client.Span;
+import com.expedia.www.haystack.client.Tracer;
+import com.expedia.www.haystack.client.dispatchers.NoopDispatcher;
+import com.expedia.www.haystack.client.dispatchers.formats.ProtoBufEncoder;
+import com.expedia.www.haystack.client.dispatchers.formats.ProtoBufFormat;
+import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
+import com.google.protobuf.CodedOutputStream;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning a finished span into collector bytes: through the generated protobuf builders, as
+ * <code>ProtoBufFormat</code> does, against {@link ProtoBufEncoder} writing the wire format directly.
+ * <p>
+ * Run with <code>-prof gc</code> and compare <code>gc.alloc.rate.norm</code>, the bytes allocated per span.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpanEncodingBenchmark {
+    private final ProtoBufFormat format = new ProtoBufFormat();
+    private final ProtoBufEncoder encoder = new ProtoBufEncoder();
+    private final byte[] buffer = new byte[64 * 1024];
+    private Span span;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        final NoopMetricsRegistry metrics = new NoopMetricsRegistry();
+        final Tracer tracer = new Tracer.Builder(metrics, "benchmark", new NoopDispatcher()).build();
+        final Span parent = tracer.buildSpan("parent").start();
+        span = tracer.buildSpan("span-encoding")
+                .asChildOf(parent)
+                .withTag("http.method", "GET")
+                .withTag("http.url", "https://www.example.com/some/path?with=query")
+                .withTag("http.status_code", 200)
+                .withTag("error", false)
+                .withTag("sampling.priority", 1.0d)
+                .start();
+        span.log("request sent");
+        span.finish();
+    }
+
+    @Benchmark
+    public byte[] protoBufFormat() {
+        return format.format(span).toByteArray();
+    }
+
+    @Benchmark
+    public byte[] encoder() {
+        return encoder.encode(span);
+    }
+
+    @Benchmark
+    public int encoderIntoReusedBuffer() throws IOException {
+        final CodedOutputStream out = CodedOutputStream.newInstance(buffer);
+        encoder.writeDelimitedTo(span, out);
+        return out.spaceLeft();
+    }
+}
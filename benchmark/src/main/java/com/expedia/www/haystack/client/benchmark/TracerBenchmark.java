@@ -0,0 +1,67 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.benchmark;
+
+import com.expedia.www.haystack.client.Span;
+import com.expedia.www.haystack.client.Tracer;
+import com.expedia.www.haystack.client.dispatchers.NoopDispatcher;
+import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The instrumentation side of the hot path: starting spans and recording on them, with a dispatcher that drops
+ * every span so only the tracer itself is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TracerBenchmark {
+    private Tracer tracer;
+    private Span parent;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        tracer = new Tracer.Builder(new NoopMetricsRegistry(), "benchmark", new NoopDispatcher()).build();
+        parent = tracer.buildSpan("parent").start();
+    }
+
+    @Benchmark
+    public Span startRootSpan() {
+        return tracer.buildSpan("root").ignoreActiveSpan().start();
+    }
+
+    @Benchmark
+    public Span startChildSpan() {
+        return tracer.buildSpan("child").asChildOf(parent).start();
+    }
+
+    @Benchmark
+    public Span tagLogAndFinish() {
+        final Span span = tracer.buildSpan("recorded").asChildOf(parent).start();
+        span.setTag("http.method", "GET");
+        span.setTag("http.status_code", 200);
+        span.setTag("error", false);
+        span.log("response received");
+        span.finish();
+        return span;
+    }
+}
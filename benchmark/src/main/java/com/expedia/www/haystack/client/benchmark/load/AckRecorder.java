@@ -0,0 +1,73 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.benchmark.load;
+
+import com.expedia.open.tracing.Span;
+import com.expedia.www.haystack.client.Clock;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What a stand-in agent or collector did with the spans it received: the spans it acknowledged, with the time from
+ * each span's finish to its acknowledgement, and the spans it refused.
+ * <p>
+ * The finish time is read off the span itself (start time plus duration), so the latency covers the accept queue,
+ * batching, encoding, the transport and the injected server latency.
+ */
+public class AckRecorder {
+    private final Clock clock;
+    private final LatencyHistogram latencyMicros = new LatencyHistogram();
+    private final LongAdder acked = new LongAdder();
+    private final LongAdder errored = new LongAdder();
+    private final LongAdder rateLimited = new LongAdder();
+
+    /**
+     * @param clock the clock the tracer stamps spans with
+     */
+    public AckRecorder(Clock clock) {
+        this.clock = clock;
+    }
+
+    public void acked(Span span) {
+        latencyMicros.record(clock.microTime() - (span.getStartTime() + span.getDuration()));
+        acked.increment();
+    }
+
+    public void refused(FaultInjector.Verdict verdict, int spans) {
+        if (verdict == FaultInjector.Verdict.RATE_LIMITED) {
+            rateLimited.add(spans);
+        } else {
+            errored.add(spans);
+        }
+    }
+
+    public LatencyHistogram latencyMicros() {
+        return latencyMicros;
+    }
+
+    public long acked() {
+        return acked.sum();
+    }
+
+    public long errored() {
+        return errored.sum();
+    }
+
+    public long rateLimited() {
+        return rateLimited.sum();
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.benchmark.load;
+
+import com.expedia.open.tracing.Span;
+import com.expedia.www.haystack.remote.clients.BaseBatchingHttpClient;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Local stand-in for the haystack http collector. It takes one span per request, or a batch of length delimited
+ * spans (optionally gzip compressed) as sent by the batching clients. Requests are handled on a fixed pool of
+ * threads, each blocking for the injected latency.
+ * <p>
+ * Injected errors answer 503 and rate limited requests 429; a batch is accepted or refused as a whole.
+ */
+public class FakeHttpCollector implements Closeable {
+    private final FaultInjector faults;
+    private final AckRecorder recorder;
+    private final ExecutorService executor;
+    private final HttpServer server;
+
+    public FakeHttpCollector(FaultInjector faults, AckRecorder recorder, int threads) throws IOException {
+        this.faults = faults;
+        this.recorder = recorder;
+        this.executor = Executors.newFixedThreadPool(threads);
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        server.createContext("/span", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * @return the url the clients should post to
+     */
+    public String endpoint() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/span";
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            final List<Span> spans = readSpans(exchange);
+            final FaultInjector.Verdict verdict = faults.admit(spans.size());
+            faults.delay();
+
+            final int status;
+            switch (verdict) {
+                case OK:
+                    spans.forEach(recorder::acked);
+                    status = 202;
+                    break;
+                case RATE_LIMITED:
+                    recorder.refused(verdict, spans.size());
+                    status = 429;
+                    break;
+                default:
+                    recorder.refused(verdict, spans.size());
+                    status = 503;
+            }
+            exchange.sendResponseHeaders(status, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static List<Span> readSpans(HttpExchange exchange) throws IOException {
+        InputStream body = exchange.getRequestBody();
+        if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+            body = new GZIPInputStream(body);
+        }
+        final String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        try (InputStream in = body) {
+            if (contentType == null || !contentType.startsWith(BaseBatchingHttpClient.DELIMITED_CONTENT_TYPE)) {
+                return Collections.singletonList(Span.parseFrom(in));
+            }
+            final List<Span> spans = new ArrayList<>();
+            Span span;
+            while ((span = Span.parseDelimitedFrom(in)) != null) {
+                spans.add(span);
+            }
+            return spans;
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.benchmark.load;
+
+import com.expedia.open.tracing.Span;
+import com.expedia.open.tracing.agent.api.DispatchResult;
+import com.expedia.open.tracing.agent.api.SpanAgentGrpc;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * In-process stand-in for the haystack agent's <code>SpanAgent</code> gRPC service. Calls are handled on a fixed
+ * pool of threads, each blocking for the injected latency, so the pool size is the agent's concurrency.
+ * <p>
+ * Injected errors answer <code>UNKNOWN_ERROR</code> and rate limited spans <code>RATE_LIMIT_ERROR</code>, as the
+ * agent does.
+ */
+public class FakeSpanAgent extends SpanAgentGrpc.SpanAgentImplBase implements Closeable {
+    private final String name;
+    private final FaultInjector faults;
+    private final AckRecorder recorder;
+    private final ExecutorService executor;
+    private final Server server;
+
+    public FakeSpanAgent(FaultInjector faults, AckRecorder recorder, int threads) throws IOException {
+        this.name = "fake-span-agent-" + System.identityHashCode(this);
+        this.faults = faults;
+        this.recorder = recorder;
+        this.executor = Executors.newFixedThreadPool(threads);
+        this.server = InProcessServerBuilder.forName(name)
+                .executor(executor)
+                .addService(this)
+                .build()
+                .start();
+    }
+
+    /**
+     * @return a new channel to this agent, for <code>GRPCAgentClient.Builder</code>
+     */
+    public ManagedChannel channel() {
+        return InProcessChannelBuilder.forName(name).build();
+    }
+
+    @Override
+    public void dispatch(Span span, StreamObserver<DispatchResult> responseObserver) {
+        final FaultInjector.Verdict verdict = faults.admit(1);
+        faults.delay();
+
+        final DispatchResult.ResultCode code;
+        switch (verdict) {
+            case OK:
+                recorder.acked(span);
+                code = DispatchResult.ResultCode.SUCCESS;
+                break;
+            case RATE_LIMITED:
+                recorder.refused(verdict, 1);
+                code = DispatchResult.ResultCode.RATE_LIMIT_ERROR;
+                break;
+            default:
+                recorder.refused(verdict, 1);
+                code = DispatchResult.ResultCode.UNKNOWN_ERROR;
+        }
+        responseObserver.onNext(DispatchResult.newBuilder().setCode(code).build());
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void close() {
+        server.shutdownNow();
+        executor.shutdownNow();
+    }
+}
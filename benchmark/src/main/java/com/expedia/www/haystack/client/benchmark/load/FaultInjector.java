@@ -0,0 +1,109 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.benchmark.load;
+
+import org.apache.commons.lang3.Validate;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The misbehaviour a stand-in agent or collector adds to every request: a fixed latency plus random jitter, a
+ * share of requests failed outright, and a token bucket that refuses requests above a span rate.
+ */
+public class FaultInjector {
+    public enum Verdict {
+        /** the request is accepted */
+        OK,
+        /** the request fails with a server error */
+        ERROR,
+        /** the request is over the rate limit */
+        RATE_LIMITED
+    }
+
+    private final long latencyMicros;
+    private final long jitterMicros;
+    private final double errorRate;
+    private final long spansPerSecond;
+
+    private double tokens;
+    private long lastRefillNanos;
+
+    public FaultInjector(long latencyMicros, long jitterMicros, double errorRate, long spansPerSecond) {
+        Validate.isTrue(latencyMicros >= 0 && jitterMicros >= 0, "latency and jitter can't be negative");
+        Validate.isTrue(errorRate >= 0 && errorRate <= 1, "errorRate must be between 0 and 1");
+        Validate.isTrue(spansPerSecond >= 0, "spansPerSecond can't be negative");
+
+        this.latencyMicros = latencyMicros;
+        this.jitterMicros = jitterMicros;
+        this.errorRate = errorRate;
+        this.spansPerSecond = spansPerSecond;
+        this.tokens = spansPerSecond;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * @return an injector that answers every request at once
+     */
+    public static FaultInjector none() {
+        return new FaultInjector(0, 0, 0, 0);
+    }
+
+    /**
+     * @param spans spans carried by the request
+     * @return how the request should be answered
+     */
+    public Verdict admit(int spans) {
+        if (spansPerSecond > 0 && !tryAcquire(spans)) {
+            return Verdict.RATE_LIMITED;
+        }
+        if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+            return Verdict.ERROR;
+        }
+        return Verdict.OK;
+    }
+
+    /**
+     * Blocks the calling server thread for the configured latency plus jitter.
+     */
+    public void delay() {
+        long micros = latencyMicros;
+        if (jitterMicros > 0) {
+            micros += ThreadLocalRandom.current().nextLong(jitterMicros + 1);
+        }
+        if (micros <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.MICROSECONDS.sleep(micros);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // the bucket holds at most one second's worth of spans
+    private synchronized boolean tryAcquire(int spans) {
+        final long now = System.nanoTime();
+        tokens = Math.min(spansPerSecond, tokens + (now - lastRefillNanos) * spansPerSecond / 1e9);
+        lastRefillNanos = now;
+        if (tokens < spans) {
+            return false;
+        }
+        tokens -= spans;
+        return true;
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.benchmark.load;
+
+import com.expedia.www.haystack.client.Span;
+import com.expedia.www.haystack.client.SystemClock;
+import com.expedia.www.haystack.client.Tracer;
+import com.expedia.www.haystack.client.dispatchers.Dispatcher;
+import com.expedia.www.haystack.client.dispatchers.RemoteDispatcher;
+import com.expedia.www.haystack.client.dispatchers.clients.AsyncHttpCollectorClient;
+import com.expedia.www.haystack.client.dispatchers.clients.BatchingHttpCollectorClient;
+import com.expedia.www.haystack.client.dispatchers.clients.GRPCAgentClient;
+import com.expedia.www.haystack.client.dispatchers.clients.HttpCollectorClient;
+import com.expedia.www.haystack.client.dispatchers.overflow.OverflowPolicy.Outcome;
+import com.expedia.www.haystack.client.metrics.MetricsRegistry;
+import com.expedia.www.haystack.client.metrics.micrometer.MicrometerMetricsRegistry;
+import com.expedia.www.haystack.remote.clients.Client;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives spans through <code>Tracer</code>, <code>RemoteDispatcher</code> and a real client into an in-process
+ * stand-in for the agent ({@link FakeSpanAgent}) or the http collector ({@link FakeHttpCollector}), and reports
+ * throughput, accept queue depth and drops every second, then the finish-to-ack latency percentiles for the run.
+ * <p>
+ * Producers run open loop at the target rate, so a slow or failing stand-in shows up as queue growth and drops
+ * rather than as a slower producer. Options are given as <code>--name=value</code>:
+ * <ul>
+ * <li><code>transport</code>: <code>grpc</code> (default), <code>http</code>, <code>http-async</code> or
+ * <code>http-batch</code></li>
+ * <li><code>rate</code>: target spans per second across all producers, 0 for as fast as possible (20000)</li>
+ * <li><code>threads</code>: producer threads (4)</li>
+ * <li><code>duration</code>: seconds to produce for (30)</li>
+ * <li><code>queue</code>: accept queue limit (1000)</li>
+ * <li><code>sender-threads</code>: dispatcher sender threads (1)</li>
+ * <li><code>server-threads</code>: threads serving the stand-in (8)</li>
+ * <li><code>latency-micros</code>, <code>jitter-micros</code>: stand-in response latency (1000, 0)</li>
+ * <li><code>error-rate</code>: share of requests the stand-in fails (0)</li>
+ * <li><code>rate-limit</code>: spans per second the stand-in accepts, 0 for no limit (0)</li>
+ * </ul>
+ */
+public class LoadHarness {
+    private static final String[] OPERATIONS = {"get-itinerary", "search-flights", "price-cart", "book-hotel"};
+    private static final String DISPATCHER_METRICS = Dispatcher.class.getName() + ".";
+
+    public static void main(String[] args) throws Exception {
+        final Map<String, String> options = parse(args);
+        final String transport = option(options, "transport", "grpc");
+        final long rate = Long.parseLong(option(options, "rate", "20000"));
+        final int threads = Integer.parseInt(option(options, "threads", "4"));
+        final int durationSeconds = Integer.parseInt(option(options, "duration", "30"));
+        final int queueLimit = Integer.parseInt(option(options, "queue", "1000"));
+        final int senderThreads = Integer.parseInt(option(options, "sender-threads", "1"));
+        final int serverThreads = Integer.parseInt(option(options, "server-threads", "8"));
+        final FaultInjector faults = new FaultInjector(
+                Long.parseLong(option(options, "latency-micros", "1000")),
+                Long.parseLong(option(options, "jitter-micros", "0")),
+                Double.parseDouble(option(options, "error-rate", "0")),
+                Long.parseLong(option(options, "rate-limit", "0")));
+
+        final SystemClock clock = new SystemClock();
+        final AckRecorder recorder = new AckRecorder(clock);
+        final SimpleMeterRegistry meters = new SimpleMeterRegistry();
+        final MetricsRegistry metrics = new MicrometerMetricsRegistry(meters);
+
+        final Closeable standIn;
+        final Client<Span> client;
+        if ("grpc".equals(transport)) {
+            final FakeSpanAgent agent = new FakeSpanAgent(faults, recorder, serverThreads);
+            standIn = agent;
+            client = new GRPCAgentClient.Builder(metrics, agent.channel()).build();
+        } else {
+            final FakeHttpCollector collector = new FakeHttpCollector(faults, recorder, serverThreads);
+            standIn = collector;
+            client = httpClient(transport, metrics, collector.endpoint());
+        }
+
+        final RemoteDispatcher dispatcher = new RemoteDispatcher.Builder(metrics, client)
+                .withBlockingQueueLimit(queueLimit)
+                .withSenderThreadCount(senderThreads)
+                .build();
+        final Tracer tracer = new Tracer.Builder(metrics, "load-harness", dispatcher)
+                .withClock(clock)
+                .build();
+
+        System.out.printf("transport=%s rate=%s threads=%d duration=%ds queue=%d%n",
+                transport, rate == 0 ? "max" : rate + "/s", threads, durationSeconds, queueLimit);
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final LongAdder produced = new LongAdder();
+        final long intervalNanos = rate == 0 ? 0 : TimeUnit.SECONDS.toNanos(threads) / rate;
+        final ExecutorService producers = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++) {
+            producers.execute(() -> produce(tracer, intervalNanos, running, produced));
+        }
+
+        long lastProduced = 0;
+        long lastAcked = 0;
+        long maxQueue = 0;
+        long queueTotal = 0;
+        System.out.printf("%5s %12s %12s %8s %10s %10s %10s%n",
+                "time", "produced/s", "acked/s", "queue", "dropped", "failed", "refused");
+        for (int second = 1; second <= durationSeconds; second++) {
+            TimeUnit.SECONDS.sleep(1);
+            final long producedNow = produced.sum();
+            final long ackedNow = recorder.acked();
+            final long queue = queueDepth(meters);
+            maxQueue = Math.max(maxQueue, queue);
+            queueTotal += queue;
+            System.out.printf("%4ds %12d %12d %8d %10d %10d %10d%n",
+                    second, producedNow - lastProduced, ackedNow - lastAcked, queue, dropped(meters),
+                    count(meters, "send", "exception"), recorder.errored() + recorder.rateLimited());
+            lastProduced = producedNow;
+            lastAcked = ackedNow;
+        }
+
+        running.set(false);
+        producers.shutdown();
+        producers.awaitTermination(10, TimeUnit.SECONDS);
+        tracer.close();
+        awaitAcks(recorder, TimeUnit.SECONDS.toMillis(5));
+        standIn.close();
+
+        report(meters, recorder, produced.sum(), durationSeconds, maxQueue, (double) queueTotal / durationSeconds);
+    }
+
+    private static Client<Span> httpClient(String transport, MetricsRegistry metrics, String endpoint) {
+        switch (transport) {
+            case "http":
+                return new HttpCollectorClient(endpoint);
+            case "http-async":
+                return new AsyncHttpCollectorClient.Builder(metrics, endpoint).build();
+            case "http-batch":
+                return new BatchingHttpCollectorClient.Builder(metrics, endpoint).build();
+            default:
+                throw new IllegalArgumentException("Unknown transport: " + transport);
+        }
+    }
+
+    private static void produce(Tracer tracer, long intervalNanos, AtomicBoolean running, LongAdder produced) {
+        long next = System.nanoTime();
+        long iteration = 0;
+        while (running.get()) {
+            if (intervalNanos > 0) {
+                next += intervalNanos;
+                final long wait = next - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+            }
+            final Span span = tracer.buildSpan(OPERATIONS[(int) (iteration % OPERATIONS.length)])
+                    .withTag("iteration", iteration)
+                    .start();
+            span.setTag("component", "load-harness");
+            span.finish();
+            produced.increment();
+            iteration++;
+        }
+    }
+
+    // the grpc client doesn't wait for the agent's answers, so some are still on their way after close
+    private static void awaitAcks(AckRecorder recorder, long timeoutMillis) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+        long last = -1;
+        while (System.currentTimeMillis() < deadline) {
+            final long settled = recorder.acked() + recorder.errored() + recorder.rateLimited();
+            if (settled == last) {
+                return;
+            }
+            last = settled;
+            TimeUnit.MILLISECONDS.sleep(200);
+        }
+    }
+
+    private static void report(SimpleMeterRegistry meters, AckRecorder recorder, long produced, int durationSeconds,
+                               long maxQueue, double meanQueue) {
+        final LatencyHistogram latency = recorder.latencyMicros();
+        System.out.println();
+        System.out.printf("produced  %d spans, %d/s%n", produced, produced / durationSeconds);
+        System.out.printf("acked     %d spans, %d/s%n", recorder.acked(), recorder.acked() / durationSeconds);
+        final StringBuilder drops = new StringBuilder();
+        for (Outcome outcome : Outcome.values()) {
+            if (outcome != Outcome.ACCEPTED) {
+                drops.append(' ').append(outcome.state()).append('=').append(count(meters, "dispatch", outcome.state()));
+            }
+        }
+        System.out.printf("dropped  %s%n", drops);
+        System.out.printf("failed    %d sends, %d shed%n", count(meters, "send", "exception"), count(meters, "send", "shed"));
+        System.out.printf("refused   errors=%d rate-limited=%d%n", recorder.errored(), recorder.rateLimited());
+        System.out.printf("queue     max=%d mean=%.1f%n", maxQueue, meanQueue);
+        System.out.printf("finish-to-ack us  p50=%d p90=%d p99=%d p99.9=%d max=%d%n",
+                latency.percentile(0.5), latency.percentile(0.9), latency.percentile(0.99),
+                latency.percentile(0.999), latency.max());
+    }
+
+    private static long dropped(SimpleMeterRegistry meters) {
+        long dropped = 0;
+        for (Outcome outcome : Outcome.values()) {
+            if (outcome != Outcome.ACCEPTED) {
+                dropped += count(meters, "dispatch", outcome.state());
+            }
+        }
+        return dropped;
+    }
+
+    private static long count(SimpleMeterRegistry meters, String name, String state) {
+        final Counter counter = meters.find(DISPATCHER_METRICS + name).tag("state", state).counter();
+        return counter == null ? 0 : (long) counter.count();
+    }
+
+    private static long queueDepth(SimpleMeterRegistry meters) {
+        final Gauge gauge = meters.find(DISPATCHER_METRICS + "acceptQueue").gauge();
+        return gauge == null ? 0 : (long) gauge.value();
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        final Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --name=value, got: " + arg);
+            }
+            final int equals = arg.indexOf('=');
+            options.put(arg.substring(2, equals), arg.substring(equals + 1));
+        }
+        return options;
+    }
+
+    private static String option(Map<String, String> options, String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client;
+
+import java.util.UUID;
+
+/**
+ * A trace or span id held as two longs, with its string form computed once and cached.
+ * <p>
+ * Ids come from an {@link com.expedia.www.haystack.client.idgenerators.IdGenerator} as a <code>Long</code>, a
+ * <code>UUID</code> or a <code>String</code>, or off the wire as a <code>String</code>. {@link #toString()} renders
+ * exactly what the original object's <code>toString()</code> did, and {@link #toObject()} hands the original back
+ * for callers of the <code>Object</code> accessors on {@link SpanContext}.
+ * <p>
+ * {@link #getHigh()} and {@link #getLow()} hold the numeric value: the long itself, the two halves of a UUID, or the
+ * parsed digits of a hex (16, 32 or UUID formatted) or decimal string. Other strings get a 64-bit mix of their
+ * characters in <code>low</code>, so the pair is always usable for hashing and sampling decisions.
+ */
+public final class Id {
+    private static final char[] UPPER_HEX = "0123456789ABCDEF".toCharArray();
+    private static final char[] LOWER_HEX = "0123456789abcdef".toCharArray();
+
+    private enum Kind { LONG, UUID, HEX64, HEX128, TEXT }
+
+    private final long high;
+    private final long low;
+    private final Kind kind;
+    private final Object original;
+
+    // racy single-check: Strings are safely published, so the worst case is rendering twice
+    private String text;
+
+    private Id(long high, long low, Kind kind, Object original, String text) {
+        this.high = high;
+        this.low = low;
+        this.kind = kind;
+        this.original = original;
+        this.text = text;
+    }
+
+    /**
+     * @param value 64-bit id
+     * @return an id that renders as the decimal value, like a <code>Long</code>
+     */
+    public static Id of(long value) {
+        return new Id(0, value, Kind.LONG, null, null);
+    }
+
+    /**
+     * @param uuid 128-bit id
+     * @return an id that renders like the UUID
+     */
+    public static Id of(UUID uuid) {
+        return new Id(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), Kind.UUID, uuid, null);
+    }
+
+    /**
+     * @param value 64-bit id
+     * @return an id that renders as 16 upper case hex digits
+     */
+    public static Id ofHex(long value) {
+        return new Id(0, value, Kind.HEX64, null, null);
+    }
+
+    /**
+     * @param high upper 64 bits
+     * @param low lower 64 bits
+     * @return an id that renders as 32 upper case hex digits
+     */
+    public static Id ofHex(long high, long low) {
+        return new Id(high, low, Kind.HEX128, null, null);
+    }
+
+    /**
+     * @param text id as received, typically from a propagation header
+     * @return an id that renders as <code>text</code>
+     */
+    public static Id parse(String text) {
+        return new Id(parseHigh(text), parseLow(text), Kind.TEXT, text, text);
+    }
+
+    /**
+     * @param id an id as produced by an id generator; may be <code>null</code>
+     * @return the id wrapped, or <code>null</code> for a <code>null</code> id
+     */
+    public static Id from(Object id) {
+        if (id == null || id instanceof Id) {
+            return (Id) id;
+        }
+        if (id instanceof Long || id instanceof Integer) {
+            return new Id(0, ((Number) id).longValue(), Kind.LONG, id, null);
+        }
+        if (id instanceof UUID) {
+            return of((UUID) id);
+        }
+        final String text = id.toString();
+        return new Id(parseHigh(text), parseLow(text), Kind.TEXT, id, text);
+    }
+
+    /**
+     * @return the upper 64 bits; zero for 64-bit ids
+     */
+    public long getHigh() {
+        return high;
+    }
+
+    /**
+     * @return the lower 64 bits
+     */
+    public long getLow() {
+        return low;
+    }
+
+    /**
+     * @return the id as the object the <code>Object</code> accessors have always returned
+     */
+    public Object toObject() {
+        if (original != null) {
+            return original;
+        }
+        switch (kind) {
+            case LONG:
+                return low;
+            case UUID:
+                return new UUID(high, low);
+            default:
+                return toString();
+        }
+    }
+
+    @Override
+    public String toString() {
+        String text = this.text;
+        if (text == null) {
+            text = render();
+            this.text = text;
+        }
+        return text;
+    }
+
+    private String render() {
+        switch (kind) {
+            case LONG:
+                return Long.toString(low);
+            case HEX64: {
+                final char[] chars = new char[16];
+                appendHex(chars, 0, low, UPPER_HEX);
+                return new String(chars);
+            }
+            case HEX128: {
+                final char[] chars = new char[32];
+                appendHex(chars, 0, high, UPPER_HEX);
+                appendHex(chars, 16, low, UPPER_HEX);
+                return new String(chars);
+            }
+            case UUID: {
+                final char[] chars = new char[36];
+                appendHex(chars, 0, high >>> 32, 8, LOWER_HEX);
+                chars[8] = '-';
+                appendHex(chars, 9, high >>> 16, 4, LOWER_HEX);
+                chars[13] = '-';
+                appendHex(chars, 14, high, 4, LOWER_HEX);
+                chars[18] = '-';
+                appendHex(chars, 19, low >>> 48, 4, LOWER_HEX);
+                chars[23] = '-';
+                appendHex(chars, 24, low, 12, LOWER_HEX);
+                return new String(chars);
+            }
+            default:
+                return original.toString();
+        }
+    }
+
+    private static void appendHex(char[] chars, int offset, long value, char[] digits) {
+        appendHex(chars, offset, value, 16, digits);
+    }
+
+    private static void appendHex(char[] chars, int offset, long value, int count, char[] digits) {
+        for (int i = offset + count - 1; i >= offset; i--) {
+            chars[i] = digits[(int) (value & 0xF)];
+            value >>>= 4;
+        }
+    }
+
+    private static boolean isHexFormatted(String text) {
+        final int length = text.length();
+        if (length == 16 || length == 32) {
+            return true;
+        }
+        return length == 36 && text.charAt(8) == '-' && text.charAt(13) == '-'
+                && text.charAt(18) == '-' && text.charAt(23) == '-';
+    }
+
+    private static long parseHigh(String text) {
+        if (!isHexFormatted(text) || text.length() == 16) {
+            return 0;
+        }
+        final long[] halves = parseHex(text);
+        return halves == null ? 0 : halves[0];
+    }
+
+    private static long parseLow(String text) {
+        if (isHexFormatted(text)) {
+            final long[] halves = parseHex(text);
+            if (halves != null) {
+                return halves[1];
+            }
+        }
+        try {
+            return Long.parseLong(text);
+        } catch (NumberFormatException e) {
+            return mix(text);
+        }
+    }
+
+    private static long[] parseHex(String text) {
+        long high = 0;
+        long low = 0;
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (c == '-') {
+                continue;
+            }
+            final int digit = Character.digit(c, 16);
+            if (digit < 0) {
+                return null;
+            }
+            high = (high << 4) | (low >>> 60);
+            low = (low << 4) | digit;
+        }
+        return new long[] {high, low};
+    }
+
+    private static long mix(String text) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < text.length(); i++) {
+            hash ^= text.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (obj == null || getClass() != obj.getClass()) return false;
+        final Id id = (Id) obj;
+        return high == id.high && low == id.low && kind == id.kind
+                && (kind != Kind.TEXT || toString().equals(id.toString()));
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(high * 31 + low);
+    }
+}
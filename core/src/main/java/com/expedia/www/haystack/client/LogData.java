@@ -16,29 +16,39 @@
  */
 package com.expedia.www.haystack.client;
 
-import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.apache.commons.lang3.builder.ToStringStyle;
 
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
 
+/**
+ * A timestamped log entry on a span. A single event, by far the most common kind, is held as just its name; the
+ * field map for it is only built when asked for.
+ */
 public class LogData {
-    private final Long timestamp;
+    private final long timestamp;
+    private final String event;
     private final Map<String, ?> fields;
 
     public LogData(Long timestamp, String event) {
-        this(timestamp,
-                new HashMap<String, Object>(1) {
-                    {
-                        put(event, null);
-                    }
-                });
+        this(timestamp.longValue(), event);
     }
 
     public LogData(Long timestamp, Map<String, ?> fields) {
+        this(timestamp.longValue(), fields);
+    }
+
+    public LogData(long timestamp, String event) {
+        this.timestamp = timestamp;
+        this.event = event;
+        this.fields = null;
+    }
+
+    public LogData(long timestamp, Map<String, ?> fields) {
         this.timestamp = timestamp;
+        this.event = null;
         if (fields != null) {
             this.fields = Collections.<String, Object>unmodifiableMap(fields);
         } else {
@@ -48,13 +58,15 @@ public class LogData {
 
     @Override
     public String toString() {
-        return new ReflectionToStringBuilder(this, ToStringStyle.SIMPLE_STYLE)
+        return new ToStringBuilder(this, ToStringStyle.SIMPLE_STYLE)
+                .append(timestamp)
+                .append(getFields())
                 .toString();
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(timestamp, fields);
+        return Objects.hash(timestamp, getFields());
     }
 
     @Override
@@ -62,8 +74,8 @@ public class LogData {
         if (this == obj) return true;
         if (obj == null || getClass() != obj.getClass()) return false;
         LogData logData = (LogData) obj;
-        return Objects.equals(timestamp, logData.getTimestamp())
-                && Objects.equals(fields, logData.getFields());
+        return timestamp == logData.getTimestampMicros()
+                && Objects.equals(getFields(), logData.getFields());
     }
 
     /**
@@ -74,9 +86,23 @@ public class LogData {
     }
 
     /**
-     * @return the fields
+     * @return the timestamp, without boxing it
+     */
+    public long getTimestampMicros() {
+        return timestamp;
+    }
+
+    /**
+     * @return the event name if this entry was logged as a single event; <code>null</code> if it was logged as fields
+     */
+    public String getEvent() {
+        return event;
+    }
+
+    /**
+     * @return the fields; a single event reads as a one entry map of its name to <code>null</code>
      */
     public Map<String, ?> getFields() {
-        return fields;
+        return fields == null ? Collections.singletonMap(event, null) : fields;
     }
 }
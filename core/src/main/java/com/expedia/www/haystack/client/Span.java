@@ -20,49 +20,188 @@ import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
 import org.apache.commons.lang3.builder.ToStringStyle;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 import io.opentracing.tag.Tag;
 
+/**
+ * A span is almost always written by the one thread that started it and read by another once it is finished, so
+ * it isn't guarded by its monitor.
+ * <p>
+ * Writers claim the span with a compare-and-set on its state and release it with an ordered store; for a single
+ * writer that's an uncontended CAS, and a second writer spins until the first is done. Finishing the span publishes
+ * it: the volatile store of the finished state makes every field written before visible to the thread that
+ * dispatches and serializes it, and nothing can change it afterwards.
+ * <p>
+ * {@link #getTags()} and {@link #getLogs()} are views that are only safe to iterate once the span is finished;
+ * {@link #snapshot()} reads everything consistently at any time.
+ * <p>
+ * With a {@link SpanPool} the span is recycled once everyone it was dispatched to has {@link #release() released}
+ * it; without one, releasing does nothing.
+ */
 public final class Span implements io.opentracing.Span {
-  private final Tracer tracer;
-  private final Clock clock;
-  private final Map<String, Object> tags;
-  private final List<LogData> logs;
-  private final List<Reference> references;
-  private SpanContext context;
-  private String operationName;
-  private final Long startTime;
-  private Long duration;
-  private Long endTime;
-  private Boolean finished;
-
-  Span(Tracer tracer, Clock clock, String operationName, SpanContext context, long startTime, Map<String, Object> tags, List<Reference> references) {
+  private static final int OPEN = 0;
+  private static final int WRITING = 1;
+  private static final int FINISHED = 2;
+  // only ever set with a debugging pool, which retires released spans instead of recycling them
+  private static final int RELEASED = 3;
+
+  private static final AtomicIntegerFieldUpdater<Span> STATE = AtomicIntegerFieldUpdater.newUpdater(Span.class, "state");
+  private static final AtomicIntegerFieldUpdater<Span> REFERENCES = AtomicIntegerFieldUpdater.newUpdater(Span.class, "referenceCount");
+
+  private final SpanPool pool;
+  private TagStore tags;
+  private Tracer tracer;
+  private Clock clock;
+  private boolean sampled;
+  private List<LogData> logs;
+  private List<Reference> references;
+  // only pooled spans, whose builders are reused, copy their references into a list of their own
+  private ArrayList<Reference> spareReferences;
+  private volatile SpanContext context;
+  private volatile String operationName;
+  private long startTime;
+  private long duration;
+  private long endTime;
+  private volatile int state;
+  private volatile int referenceCount;
+  private Thread owner;
+
+  /**
+   * @param tags the builder's tags, which the span takes over; may be <code>null</code>
+   * @param references the builder's references, which the span shares
+   */
+  Span(Tracer tracer, Clock clock, String operationName, SpanContext context, long startTime, TagStore tags, List<Reference> references) {
+    this.pool = null;
+    init(tracer, clock, operationName, context, startTime, tags, references);
+  }
+
+  /**
+   * A span to be handed out, and recycled, by a pool.
+   */
+  Span(SpanPool pool) {
+    this.pool = pool;
+  }
+
+  /**
+   * @return an emptied tag store for the builder to reuse: the one the span gave up for <code>tags</code>, or
+   * <code>tags</code> itself if the span isn't sampled; <code>null</code> if there is none to spare
+   */
+  TagStore init(Tracer tracer, Clock clock, String operationName, SpanContext context, long startTime, TagStore tags, List<Reference> references) {
+    final TagStore previous = this.tags == TagStore.EMPTY ? null : this.tags;
     this.tracer = tracer;
     this.clock = clock;
     this.operationName = operationName;
     this.context = context;
     this.startTime = startTime;
-    this.tags = tags;
-    finished = false;
-
-    if (references == null) {
+    this.sampled = context.isSampled();
+    final TagStore spare;
+    if (!sampled) {
+      // an unsampled span is never reported, so it keeps nothing but its context and timing
+      this.tags = TagStore.EMPTY;
+      if (tags != null) {
+        tags.clear();
+      }
+      spare = tags != null ? tags : previous;
+    } else if (tags != null) {
+      this.tags = tags;
+      spare = previous;
+    } else {
+      this.tags = previous != null ? previous : new TagStore();
+      spare = null;
+    }
+    if (references == null || references.isEmpty()) {
       this.references = Collections.emptyList();
+    } else if (pool == null) {
+      this.references = references;
     } else {
-      this.references = Collections.unmodifiableList(references);
+      if (spareReferences == null) {
+        spareReferences = new ArrayList<>(references.size());
+      }
+      spareReferences.addAll(references);
+      this.references = spareReferences;
+    }
+
+    this.duration = 0;
+    this.endTime = 0;
+    this.owner = pool == null ? null : Thread.currentThread();
+    this.referenceCount = 1;
+    this.state = OPEN;
+    return spare;
+  }
+
+  /**
+   * Drops everything the span refers to before it goes back to its pool.
+   */
+  void reset() {
+    this.tracer = null;
+    this.clock = null;
+    this.operationName = null;
+    this.context = null;
+    this.references = Collections.emptyList();
+    if (spareReferences != null) {
+      this.spareReferences.clear();
     }
+    this.tags.clear();
+    if (logs != null) {
+      this.logs.clear();
+    }
+  }
 
-    this.logs = new ArrayList<>();
+  /**
+   * Marks a released span so that any further use of it throws.
+   */
+  void retire() {
+    this.state = RELEASED;
+  }
 
+  /**
+   * @return the thread the span was last handed out to by its pool
+   */
+  Thread getOwner() {
+    return owner;
+  }
 
-    for (Map.Entry<String, Object> entry : tags.entrySet()) {
-      this.tags.put(entry.getKey(), entry.getValue());
+  /**
+   * Takes another reference to the span, for a consumer that holds on to it past the call that handed it over;
+   * it then {@link #release() releases} it when done.
+   *
+   * @return this span
+   */
+  public Span retain() {
+    if (pool != null) {
+      checkLive();
+      REFERENCES.incrementAndGet(this);
+    }
+    return this;
+  }
+
+  /**
+   * Gives up a reference to the span. A finished span comes with one reference, owned by the dispatcher it is
+   * dispatched to; the last consumer done with it releases it, and with a {@link SpanPool} that recycles it.
+   */
+  public void release() {
+    if (pool == null) {
+      return;
+    }
+    final int remaining = REFERENCES.decrementAndGet(this);
+    if (remaining == 0) {
+      pool.recycle(this);
+    } else if (remaining < 0 && pool.isDebug()) {
+      throw new IllegalStateException("Released a span more often than it was retained");
+    }
+  }
+
+  private void checkLive() {
+    if (state == RELEASED) {
+      throw new IllegalStateException("Using a span after it was released");
     }
   }
 
   @Override
   public String toString() {
     return new ReflectionToStringBuilder(this, ToStringStyle.SIMPLE_STYLE)
-        .setExcludeFieldNames("tracer", "clock")
+        .setExcludeFieldNames("tracer", "clock", "pool", "owner", "spareReferences")
         .toString();
   }
 
@@ -74,27 +213,23 @@ public final class Span implements io.opentracing.Span {
 
   @Override
   public void finish(long finishMicros) {
-    synchronized (this) {
-      finishTrace(finishMicros);
-    }
+    finishTrace(finishMicros);
   }
 
   /**
    * @return the duration
    */
   public Long getDuration() {
-    synchronized (this) {
-      return duration;
-    }
+    checkLive();
+    // reading the state first makes what finish() wrote visible
+    return state == FINISHED ? (Long) duration : null;
   }
 
   /**
    * @return the endTime
    */
   Long getEndTime() {
-    synchronized (this) {
-      return endTime;
-    }
+    return state == FINISHED ? (Long) endTime : null;
   }
 
   /**
@@ -113,15 +248,12 @@ public final class Span implements io.opentracing.Span {
 
   @Override
   public SpanContext context() {
-    synchronized (this) {
-      return this.context;
-    }
+    checkLive();
+    return this.context;
   }
 
   public String getServiceName() {
-    synchronized (this) {
-      return getTracer().getServiceName();
-    }
+    return getTracer().getServiceName();
   }
 
 
@@ -129,43 +261,42 @@ public final class Span implements io.opentracing.Span {
    * @return the operatiomName
    */
   public String getOperationName() {
-    synchronized (this) {
-      return this.operationName;
-    }
+    checkLive();
+    return this.operationName;
   }
 
   @Override
   public Span setOperationName(String operationName) {
-    synchronized (this) {
-      finishedCheck("Setting operation name (%s) to a finished span", operationName);
+    enter("Setting operation name (%s) to a finished span", operationName);
+    try {
       this.operationName = operationName;
       return this;
+    } finally {
+      exit();
     }
   }
 
   @Override
   public Span setBaggageItem(String key, String value) {
-    synchronized (this) {
-      if (key == null) {
-        return this;
-      }
-      finishedCheck("Setting baggage (%s:%s) on a finished span", key, value);
+    if (key == null) {
+      return this;
+    }
+    enter("Setting baggage (%s:%s) on a finished span", key, value);
+    try {
       this.context = this.context.addBaggage(key, value);
       return this;
+    } finally {
+      exit();
     }
   }
 
   @Override
   public String getBaggageItem(String key) {
-    synchronized (this) {
-      return this.context.getBaggageItem(key);
-    }
+    return this.context.getBaggageItem(key);
   }
 
   public Map<String, String> getBaggageItems() {
-    synchronized (this) {
-      return context.getBaggage();
-    }
+    return context.getBaggage();
   }
 
   @Override
@@ -183,7 +314,64 @@ public final class Span implements io.opentracing.Span {
 
   @Override
   public Span setTag(String key, boolean value) {
-    return addTag(key, value);
+    if (!sampled || key == null) {
+      return this;
+    }
+    enter("Setting a tag (%s:%s) on a finished span", key, value);
+    try {
+      tags.put(key, value);
+      return this;
+    } finally {
+      exit();
+    }
+  }
+
+  /**
+   * Sets a numeric tag without boxing it.
+   */
+  public Span setTag(String key, int value) {
+    if (!sampled || key == null) {
+      return this;
+    }
+    enter("Setting a tag (%s:%s) on a finished span", key, value);
+    try {
+      tags.put(key, value);
+      return this;
+    } finally {
+      exit();
+    }
+  }
+
+  /**
+   * Sets a numeric tag without boxing it.
+   */
+  public Span setTag(String key, long value) {
+    if (!sampled || key == null) {
+      return this;
+    }
+    enter("Setting a tag (%s:%s) on a finished span", key, value);
+    try {
+      tags.put(key, value);
+      return this;
+    } finally {
+      exit();
+    }
+  }
+
+  /**
+   * Sets a numeric tag without boxing it.
+   */
+  public Span setTag(String key, double value) {
+    if (!sampled || key == null) {
+      return this;
+    }
+    enter("Setting a tag (%s:%s) on a finished span", key, value);
+    try {
+      tags.put(key, value);
+      return this;
+    } finally {
+      exit();
+    }
   }
 
   @Override
@@ -191,91 +379,238 @@ public final class Span implements io.opentracing.Span {
     return addTag(key, value);
   }
 
+  /**
+   * @return a read-only view of the tags; only safe to iterate once the span is finished, see {@link #snapshot()}
+   */
   public Map<String, Object> getTags() {
-    synchronized (this) {
-      return Collections.unmodifiableMap(tags);
-    }
+    checkLive();
+    return tags.asMap();
   }
 
   @Override
   public Span log(long timestampMicroseconds, Map<String, ?> fields) {
-    synchronized (this) {
-      if (fields == null || fields.isEmpty()) {
-        return this;
-      }
-      finishedCheck("Setting a log event (%s:%s) on a finished span", timestampMicroseconds, fields);
-      logs.add(new LogData(timestampMicroseconds, fields));
+    if (!sampled || fields == null || fields.isEmpty()) {
+      return this;
+    }
+    enter("Setting a log event (%s:%s) on a finished span", timestampMicroseconds, fields);
+    try {
+      logsForWriting().add(new LogData(timestampMicroseconds, fields));
       return this;
+    } finally {
+      exit();
     }
   }
 
   @Override
   public Span log(long timestampMicroseconds, String event) {
-    synchronized (this) {
-      if (event == null) {
-        return this;
-      }
-      finishedCheck("Setting a log event (%s:%s) on a finished span", timestampMicroseconds, event);
-      logs.add(new LogData(timestampMicroseconds, event));
+    if (!sampled || event == null) {
       return this;
     }
+    enter("Setting a log event (%s:%s) on a finished span", timestampMicroseconds, event);
+    try {
+      logsForWriting().add(new LogData(timestampMicroseconds, event));
+      return this;
+    } finally {
+      exit();
+    }
   }
 
   @Override
   public Span log(Map<String, ?> fields) {
-    return log(System.nanoTime(), fields);
+    return log(clock.microTime(), fields);
   }
 
 
   @Override
   public Span log(String event) {
-    return log(System.nanoTime(), event);
+    return log(clock.microTime(), event);
   }
 
+  /**
+   * @return a read-only view of the logs; only safe to iterate once the span is finished, see {@link #snapshot()}
+   */
   public List<LogData> getLogs() {
-    synchronized (this) {
-      return Collections.unmodifiableList(logs);
+    checkLive();
+    return logs == null ? Collections.emptyList() : Collections.unmodifiableList(logs);
+  }
+
+  /**
+   * Most spans never log, so the list is only allocated for the first event.
+   */
+  private List<LogData> logsForWriting() {
+    if (logs == null) {
+      logs = new ArrayList<>(4);
+    }
+    return logs;
+  }
+
+  /**
+   * Reads the span in one consistent pass, for serializers. A finished span can't change, so its snapshot shares
+   * the span's collections; an open one has its tags and logs copied while writers are held off.
+   *
+   * @return the span's current state
+   */
+  public Snapshot snapshot() {
+    checkLive();
+    if (state != FINISHED && tryEnter()) {
+      try {
+        return new Snapshot(context, getServiceName(), operationName, startTime, false, 0,
+            tags.copy(), logs == null ? Collections.emptyList() : Collections.unmodifiableList(new ArrayList<>(logs)));
+      } finally {
+        exit();
+      }
+    }
+    return new Snapshot(context, getServiceName(), operationName, startTime, state == FINISHED, duration, tags, getLogs());
+  }
+
+  /**
+   * Claims the span for writing.
+   *
+   * @return <code>false</code> if the span is finished
+   */
+  private boolean tryEnter() {
+    while (!STATE.compareAndSet(this, OPEN, WRITING)) {
+      final int current = state;
+      if (current == FINISHED) {
+        return false;
+      }
+      if (current == RELEASED) {
+        throw new IllegalStateException("Using a span after it was released");
+      }
+      // another thread is writing; it only holds the span for a map put or two
+      Thread.yield();
     }
+    return true;
   }
 
   /**
-   * Helper to record illegal access to span internals after <code>finish()</code>
-   * has been called.
+   * Claims the span for writing, recording illegal access to span internals after <code>finish()</code> has been
+   * called.
    *
    * @param format The string format to include in the execption message
    * @param args   Any arguments needed to populate the supplied format
    */
-  private void finishedCheck(String format, Object... args) {
-    if (finished) {
+  private void enter(String format, Object... args) {
+    if (!tryEnter()) {
       throw new IllegalStateException(String.format(format, args));
     }
   }
 
+  private void exit() {
+    // an ordered store is enough: the next writer's CAS reads it
+    STATE.lazySet(this, OPEN);
+  }
+
 
   private Span addTag(String key, Object value) {
-    synchronized (this) {
-      if (key == null || value == null) {
-        return this;
-      }
-      finishedCheck("Setting a tag (%s:%s) on a finished span", key, value);
+    if (!sampled || key == null || value == null) {
+      return this;
+    }
+    enter("Setting a tag (%s:%s) on a finished span", key, value);
+    try {
       tags.put(key, value);
       return this;
+    } finally {
+      exit();
     }
   }
 
   private void finishTrace(long finishMicros) {
-    finishedCheck("Finishing a prior finished span");
+    enter("Finishing a prior finished span");
     this.endTime = finishMicros;
     this.duration = endTime - startTime;
-    finished = true;
-    tracer.dispatch(this);
+    // publishes the span: everything written before this store is visible to whoever reads the state after it
+    state = FINISHED;
+    if (sampled) {
+      tracer.dispatch(this);
+    } else {
+      // nobody else will see it
+      release();
+    }
   }
 
-  List<Reference> getReferences() {
-    synchronized (this) {
-      return references;
+  /**
+   * @return whether this span is where the trace entered this process: it has no parent, or only parents that
+   * were extracted from an incoming request
+   */
+  public boolean isLocalRoot() {
+    for (Reference reference : references) {
+      if (!reference.getContext().isExtractedContext()) {
+        return false;
+      }
     }
+    return true;
+  }
+
+  List<Reference> getReferences() {
+    return references;
   }
 
+  /**
+   * Everything a serializer reads from a {@link Span}, taken at one point in time.
+   */
+  public static final class Snapshot {
+    private final SpanContext context;
+    private final String serviceName;
+    private final String operationName;
+    private final long startTime;
+    private final boolean finished;
+    private final long duration;
+    private final TagStore tags;
+    private final List<LogData> logs;
+
+    Snapshot(SpanContext context, String serviceName, String operationName, long startTime, boolean finished,
+             long duration, TagStore tags, List<LogData> logs) {
+      this.context = context;
+      this.serviceName = serviceName;
+      this.operationName = operationName;
+      this.startTime = startTime;
+      this.finished = finished;
+      this.duration = duration;
+      this.tags = tags;
+      this.logs = logs;
+    }
 
+    public SpanContext context() {
+      return context;
+    }
+
+    public String getServiceName() {
+      return serviceName;
+    }
+
+    public String getOperationName() {
+      return operationName;
+    }
+
+    public long getStartTime() {
+      return startTime;
+    }
+
+    public boolean isFinished() {
+      return finished;
+    }
+
+    /**
+     * @return the duration; zero if the span wasn't finished when the snapshot was taken
+     */
+    public long getDuration() {
+      return duration;
+    }
+
+    public Map<String, Object> getTags() {
+      return tags.asMap();
+    }
+
+    /**
+     * @return the tags, for serializers to walk by type
+     */
+    public TagStore getTagStore() {
+      return tags;
+    }
+
+    public List<LogData> getLogs() {
+      return logs;
+    }
+  }
 }
@@ -26,10 +26,11 @@ import java.util.Map.Entry;
 public class SpanContext implements io.opentracing.SpanContext {
 
     private final Map<String, String> baggage;
-    private final Object traceId;
-    private final Object spanId;
-    private final Object parentId;
+    private final Id traceId;
+    private final Id spanId;
+    private final Id parentId;
     private boolean extractedContext;
+    private final boolean sampled;
 
     public SpanContext(UUID traceId, UUID spanId, UUID parentId) {
         this(traceId, spanId, parentId, false);
@@ -45,24 +46,24 @@ public class SpanContext implements io.opentracing.SpanContext {
     }
 
     SpanContext(UUID traceId, UUID spanId, UUID parentId, Map<String, String> baggage, boolean extractedContext) {
-        Validate.notNull(baggage);
-
-        this.traceId = traceId;
-        this.spanId = spanId;
-        this.parentId = parentId;
-        this.baggage = Collections.unmodifiableMap(baggage);
-        this.extractedContext = extractedContext;
+        this(traceId, spanId, parentId, baggage, extractedContext, true);
     }
 
 
     SpanContext(Object traceId, Object spanId, Object parentId, Map<String, String> baggage, boolean extractedContext) {
+        this(traceId, spanId, parentId, baggage, extractedContext, true);
+    }
+
+    SpanContext(Object traceId, Object spanId, Object parentId, Map<String, String> baggage, boolean extractedContext,
+                boolean sampled) {
         Validate.notNull(baggage);
 
-        this.traceId = traceId;
-        this.spanId = spanId;
-        this.parentId = parentId;
+        this.traceId = Id.from(traceId);
+        this.spanId = Id.from(spanId);
+        this.parentId = Id.from(parentId);
         this.baggage = Collections.unmodifiableMap(baggage);
         this.extractedContext = extractedContext;
+        this.sampled = sampled;
     }
 
     public SpanContext(Object traceId, Object spanId, Object parentId) {
@@ -72,6 +73,13 @@ public class SpanContext implements io.opentracing.SpanContext {
     public SpanContext(Object traceId, Object spanId, Object parentId, boolean extractedContext) {
         this(traceId, spanId, parentId, Collections.emptyMap(), extractedContext);
     }
+
+    /**
+     * @param sampled whether the trace is recorded; spans of an unsampled trace are neither kept nor dispatched
+     */
+    public SpanContext(Object traceId, Object spanId, Object parentId, boolean extractedContext, boolean sampled) {
+        this(traceId, spanId, parentId, Collections.emptyMap(), extractedContext, sampled);
+    }
     @Override
     public int hashCode() {
         return Objects.hash(traceId, spanId, parentId, baggage);
@@ -82,9 +90,9 @@ public class SpanContext implements io.opentracing.SpanContext {
         if (this == obj) return true;
         if (obj == null || getClass() != obj.getClass()) return false;
         SpanContext context = (SpanContext) obj;
-        return Objects.equals(traceId, context.getTraceId())
-                && Objects.equals(spanId, context.getSpanId())
-                && Objects.equals(parentId, context.getParentId())
+        return Objects.equals(traceId, context.traceId)
+                && Objects.equals(spanId, context.spanId)
+                && Objects.equals(parentId, context.parentId)
                 && Objects.equals(baggage, context.getBaggage());
     }
 
@@ -95,13 +103,13 @@ public class SpanContext implements io.opentracing.SpanContext {
     }
 
     public SpanContext addBaggage(Map<String, String> newBaggage) {
-        return new SpanContext(traceId, spanId, parentId, newBaggage, extractedContext);
+        return new SpanContext(traceId, spanId, parentId, newBaggage, extractedContext, sampled);
     }
 
     public SpanContext addBaggage(String key, String value) {
         Map<String, String> newBaggage = new HashMap<>(this.baggage);
         newBaggage.put(key, value);
-        return new SpanContext(traceId, spanId, parentId, newBaggage, extractedContext);
+        return new SpanContext(traceId, spanId, parentId, newBaggage, extractedContext, sampled);
     }
 
     @Override
@@ -129,26 +137,55 @@ public class SpanContext implements io.opentracing.SpanContext {
 
 
     /**
-     * @return the traceId
+     * @return the traceId, as the id generator or the propagator produced it
      */
     public Object getTraceId() {
-        return traceId;
+        return traceId.toObject();
     }
 
     /**
-     * @return the spanId
+     * @return the spanId, as the id generator or the propagator produced it
      */
     public Object getSpanId() {
-        return spanId;
+        return spanId.toObject();
     }
 
     /**
-     * @return the parentId
+     * @return the parentId, as the id generator or the propagator produced it
      */
     public Object getParentId() {
+        return parentId == null ? null : parentId.toObject();
+    }
+
+    /**
+     * @return the traceId with its cached string form
+     */
+    public Id getTraceIdAsId() {
+        return traceId;
+    }
+
+    /**
+     * @return the spanId with its cached string form
+     */
+    public Id getSpanIdAsId() {
+        return spanId;
+    }
+
+    /**
+     * @return the parentId with its cached string form, or <code>null</code> for a root span
+     */
+    public Id getParentIdAsId() {
         return parentId;
     }
 
+    /**
+     * @return whether the trace is recorded, as decided by the sampler at its root or by the caller that
+     * propagated it
+     */
+    public boolean isSampled() {
+        return sampled;
+    }
+
     boolean isExtractedContext() {
         return extractedContext;
     }
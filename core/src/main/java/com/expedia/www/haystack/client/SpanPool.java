@@ -0,0 +1,210 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client;
+
+import com.expedia.www.haystack.client.dispatchers.queues.RingBufferQueue;
+import com.expedia.www.haystack.client.metrics.Counter;
+import com.expedia.www.haystack.client.metrics.Gauge;
+import com.expedia.www.haystack.client.metrics.Metrics;
+import com.expedia.www.haystack.client.metrics.MetricsRegistry;
+import com.expedia.www.haystack.client.metrics.Tag;
+import org.apache.commons.lang3.Validate;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * Recycles the spans and span builders of a {@link Tracer} so that a traced request doesn't leave them behind as
+ * garbage. Opt in with {@link Tracer.Builder#withSpanPool(SpanPool)}.
+ * <p>
+ * Each thread keeps its own stack of spare spans and builders, taken and returned without synchronization. A
+ * builder goes back when its span is started. A span goes back when its last reference is
+ * {@link Span#release() released}, which usually happens on a sender thread rather than on the thread that
+ * started it; such spans are handed back through a shared lock-free ring, and a thread whose own stack runs dry
+ * takes a batch of them from there. Spans that don't fit in either are left to the garbage collector.
+ * <p>
+ * Span contexts aren't pooled: they are immutable and outlive their span as the parent of its children and in
+ * propagated headers.
+ * <p>
+ * In debug mode nothing is recycled: released spans and started builders are retired instead, so that any later
+ * use of them, or releasing a span once too often, throws an <code>IllegalStateException</code> at the culprit.
+ */
+public class SpanPool {
+    private final int maxPerThread;
+    private final boolean debug;
+    private final RingBufferQueue<Span> returned;
+    private final ThreadLocal<Spares> spares;
+
+    private final Counter spanHitCounter;
+    private final Counter spanMissCounter;
+    private final Counter spanDroppedCounter;
+    private final Counter builderHitCounter;
+    private final Counter builderMissCounter;
+    private final Counter retiredCounter;
+
+    public SpanPool(Metrics metrics, int maxPerThread, int sharedCapacity, boolean debug) {
+        Validate.isTrue(maxPerThread > 0, "maxPerThread must be positive");
+
+        this.maxPerThread = maxPerThread;
+        this.debug = debug;
+        this.returned = new RingBufferQueue<>(sharedCapacity);
+        this.spares = ThreadLocal.withInitial(Spares::new);
+
+        this.spanHitCounter = Counter.builder("pool").tag(new Tag("type", "span")).tag(new Tag("state", "hit")).register(metrics);
+        this.spanMissCounter = Counter.builder("pool").tag(new Tag("type", "span")).tag(new Tag("state", "miss")).register(metrics);
+        this.spanDroppedCounter = Counter.builder("pool").tag(new Tag("type", "span")).tag(new Tag("state", "dropped")).register(metrics);
+        this.builderHitCounter = Counter.builder("pool").tag(new Tag("type", "builder")).tag(new Tag("state", "hit")).register(metrics);
+        this.builderMissCounter = Counter.builder("pool").tag(new Tag("type", "builder")).tag(new Tag("state", "miss")).register(metrics);
+        this.retiredCounter = Counter.builder("pool").tag(new Tag("state", "retired")).register(metrics);
+
+        // held in the registry; but we don't need a local reference
+        Gauge.builder("poolReturned", returned, Collection::size).register(metrics);
+    }
+
+    boolean isDebug() {
+        return debug;
+    }
+
+    /**
+     * Starts a recycled span with the builder's state. The span takes over the builder's tags and hands back the
+     * emptied store it held before, so that neither side allocates one for the next span; a builder without tags
+     * leaves the span its old store. References are copied into a list the span keeps for reuse.
+     */
+    Span span(Tracer.SpanBuilder builder, SpanContext context, long startTime) {
+        final ArrayDeque<Span> spans = spares.get().spans;
+        Span span = spans.pollFirst();
+        if (span == null) {
+            // take back a batch of the spans other threads released
+            returned.drainTo(spans, maxPerThread);
+            span = spans.pollFirst();
+        }
+        if (span == null) {
+            spanMissCounter.increment();
+            span = new Span(this);
+        } else {
+            spanHitCounter.increment();
+        }
+        final TagStore spare = span.init(builder.tracer, builder.clock, builder.operationName, context, startTime,
+                builder.tagStore(), builder.references);
+        builder.tagStore(spare);
+        return span;
+    }
+
+    void recycle(Span span) {
+        if (debug) {
+            retiredCounter.increment();
+            span.retire();
+            return;
+        }
+
+        span.reset();
+        if (span.getOwner() == Thread.currentThread()) {
+            final ArrayDeque<Span> spans = spares.get().spans;
+            if (spans.size() < maxPerThread) {
+                spans.push(span);
+                return;
+            }
+        }
+        if (!returned.offer(span)) {
+            spanDroppedCounter.increment();
+        }
+    }
+
+    /**
+     * Builders stay with the tracer that made them; a spare of another tracer sharing the pool is left to the
+     * garbage collector.
+     */
+    Tracer.SpanBuilder builder(Tracer tracer, Clock clock, String operationName) {
+        final Tracer.SpanBuilder builder = spares.get().builders.pollFirst();
+        if (builder == null || builder.tracer != tracer) {
+            builderMissCounter.increment();
+            return new Tracer.SpanBuilder(tracer, clock, operationName, this);
+        }
+        builderHitCounter.increment();
+        builder.reset(clock, operationName);
+        return builder;
+    }
+
+    void recycle(Tracer.SpanBuilder builder) {
+        if (debug) {
+            retiredCounter.increment();
+            builder.retire();
+            return;
+        }
+
+        final ArrayDeque<Tracer.SpanBuilder> builders = spares.get().builders;
+        if (builders.size() < maxPerThread) {
+            builders.push(builder);
+        }
+    }
+
+    /**
+     * The spare spans and builders of one thread.
+     */
+    private static final class Spares {
+        private final ArrayDeque<Span> spans = new ArrayDeque<>();
+        private final ArrayDeque<Tracer.SpanBuilder> builders = new ArrayDeque<>();
+    }
+
+    public static final class Builder {
+        private final Metrics metrics;
+        private int maxPerThread = 256;
+        private int sharedCapacity = 4096;
+        private boolean debug;
+
+        public Builder(MetricsRegistry registry) {
+            this(new Metrics(registry, SpanPool.class.getName(), Collections.emptyList()));
+        }
+
+        public Builder(Metrics metrics) {
+            this.metrics = metrics;
+        }
+
+        /**
+         * @param maxPerThread most spare spans, and separately builders, a thread keeps
+         * @return this builder instance
+         */
+        public Builder withMaxPerThread(int maxPerThread) {
+            this.maxPerThread = maxPerThread;
+            return this;
+        }
+
+        /**
+         * @param sharedCapacity most spans waiting to go back to the threads that start spans
+         * @return this builder instance
+         */
+        public Builder withSharedCapacity(int sharedCapacity) {
+            this.sharedCapacity = sharedCapacity;
+            return this;
+        }
+
+        /**
+         * @param debug retire released spans and started builders instead of recycling them, so that any use
+         *              after release throws
+         * @return this builder instance
+         */
+        public Builder withDebug(boolean debug) {
+            this.debug = debug;
+            return this;
+        }
+
+        public SpanPool build() {
+            return new SpanPool(metrics, maxPerThread, sharedCapacity, debug);
+        }
+    }
+}
@@ -16,28 +16,129 @@
  */
 package com.expedia.www.haystack.client;
 
+import org.apache.commons.lang3.Validate;
+
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
 
 /**
  * Clock implementation using the System timer for all calculations.
+ * <p>
+ * Wall clock time is read once, when the clock is created, and then advanced with {@link System#nanoTime()}. This
+ * gives microsecond resolution where {@link System#currentTimeMillis()} only moves in whole milliseconds. Durations
+ * are monotonic, even when the wall clock is stepped backwards.
+ * <p>
+ * Every resync interval the clock compares itself with the wall clock again. Errors within the wall clock's own
+ * millisecond resolution are left alone. Larger ones are slewed away over the next interval, by at most
+ * <code>maxCorrectionMicros</code> per interval, so time never runs backwards. When the clock has fallen behind by
+ * more than the step threshold, such as after the wall clock was set forward or the host resumed from suspend, it
+ * re-anchors in one step. It never steps back, since spans open across the step would get negative durations; a wall
+ * clock set back is always slewed towards, however long that takes. The defaults follow NTP: a 500 ppm slew limit
+ * and a 128 ms step threshold.
  *
  * @see System#nanoTime()
  * @see System#currentTimeMillis()
  */
 public class SystemClock implements Clock {
+    private static final long WALL_RESOLUTION_MICROS = 1000;
+
+    private final LongSupplier wallMillis;
+    private final LongSupplier nanos;
+    private final long resyncIntervalNanos;
+    private final long maxCorrectionMicros;
+    private final long stepThresholdMicros;
+    private final AtomicReference<Anchor> anchor;
+
+    public SystemClock() {
+        this(1000, 500, 128000);
+    }
+
+    /**
+     * @param resyncIntervalMillis how often the clock is compared with the wall clock
+     * @param maxCorrectionMicros most drift corrected per resync interval
+     * @param stepThresholdMicros lag past which the clock steps forward instead of slewing
+     */
+    public SystemClock(long resyncIntervalMillis, long maxCorrectionMicros, long stepThresholdMicros) {
+        this(System::currentTimeMillis, System::nanoTime, resyncIntervalMillis, maxCorrectionMicros, stepThresholdMicros);
+    }
+
+    SystemClock(LongSupplier wallMillis, LongSupplier nanos,
+                long resyncIntervalMillis, long maxCorrectionMicros, long stepThresholdMicros) {
+        Validate.isTrue(resyncIntervalMillis > 0, "resyncIntervalMillis must be positive");
+        // a correction as large as the interval would stop the clock
+        Validate.isTrue(maxCorrectionMicros >= 0 && maxCorrectionMicros < TimeUnit.MILLISECONDS.toMicros(resyncIntervalMillis),
+                "maxCorrectionMicros must be non-negative and less than the resync interval");
+
+        this.wallMillis = wallMillis;
+        this.nanos = nanos;
+        this.resyncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(resyncIntervalMillis);
+        this.maxCorrectionMicros = maxCorrectionMicros;
+        this.stepThresholdMicros = stepThresholdMicros;
+        this.anchor = new AtomicReference<>(new Anchor(wallMicros(), nanos.getAsLong(), 0));
+    }
 
     @Override
     public long nanoTime() {
-        return System.nanoTime();
+        return nanos.getAsLong();
     }
 
     @Override
     public long microTime() {
-        return TimeUnit.MILLISECONDS.toMicros(milliTime());
+        final long now = nanos.getAsLong();
+        Anchor current = anchor.get();
+        if (now - current.nanos >= resyncIntervalNanos) {
+            current = resync(current, now);
+        }
+        return current.microTime(now, resyncIntervalNanos);
     }
 
     @Override
     public long milliTime() {
-        return System.currentTimeMillis();
+        return TimeUnit.MICROSECONDS.toMillis(microTime());
+    }
+
+    private long wallMicros() {
+        return TimeUnit.MILLISECONDS.toMicros(wallMillis.getAsLong());
+    }
+
+    private Anchor resync(Anchor current, long now) {
+        final long estimated = current.microTime(now, resyncIntervalNanos);
+        // the wall clock truncates to the millisecond, so its true value is on average half of one ahead
+        final long error = wallMicros() + WALL_RESOLUTION_MICROS / 2 - estimated;
+
+        final Anchor next;
+        if (error > stepThresholdMicros) {
+            next = new Anchor(wallMicros(), now, 0);
+        } else if (Math.abs(error) <= WALL_RESOLUTION_MICROS) {
+            next = new Anchor(estimated, now, 0);
+        } else {
+            next = new Anchor(estimated, now, Math.max(-maxCorrectionMicros, Math.min(maxCorrectionMicros, error)));
+        }
+        // whoever loses the race uses the winner's anchor; both start from the same estimate
+        return anchor.compareAndSet(current, next) ? next : anchor.get();
+    }
+
+    /**
+     * Wall clock time at a point on the nano timer, and a correction spread evenly over the interval that follows.
+     */
+    private static final class Anchor {
+        private final long micros;
+        private final long nanos;
+        private final long correctionMicros;
+
+        private Anchor(long micros, long nanos, long correctionMicros) {
+            this.micros = micros;
+            this.nanos = nanos;
+            this.correctionMicros = correctionMicros;
+        }
+
+        private long microTime(long now, long intervalNanos) {
+            final long elapsed = now - nanos;
+            final long slewed = correctionMicros == 0
+                    ? 0
+                    : correctionMicros * Math.min(elapsed, intervalNanos) / intervalNanos;
+            return micros + TimeUnit.NANOSECONDS.toMicros(elapsed) + slewed;
+        }
     }
 }
@@ -0,0 +1,332 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A span's tags in parallel arrays: the keys, a type byte, a <code>long</code> slot for numbers and booleans
+ * (doubles as their raw bits) and a reference slot for strings and anything else.
+ * <p>
+ * Setting a primitive tag boxes nothing and allocates no map entry; the arrays are allocated on the first tag and
+ * double when full. Serializers walk the tags by index and {@link #type(int)}, rather than recovering the type of
+ * a boxed value. Keys are found by a linear scan, which beats hashing for the handful of tags a span has; setting
+ * a key again replaces its value in place, as a map would.
+ * <p>
+ * {@link #asMap()} is a read-only view for callers of {@link Span#getTags()}; it boxes values as they are read,
+ * into the type they were set with. Not thread safe: {@link Span} guards it.
+ */
+public final class TagStore {
+    public static final byte STRING = 1;
+    public static final byte LONG = 2;
+    public static final byte DOUBLE = 3;
+    public static final byte BOOLEAN = 4;
+    /**
+     * Any other value, written out as its <code>toString()</code>; may be <code>null</code>.
+     */
+    public static final byte OTHER = 5;
+
+    // the upper bits remember the boxed type a number was set with, so the map view hands back an equal value
+    private static final byte KIND_MASK = 0x0F;
+    private static final byte INTEGER = LONG | 0x10;
+    private static final byte SHORT = LONG | 0x20;
+    private static final byte FLOAT = DOUBLE | 0x10;
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    /**
+     * Shared by every span that isn't sampled, which keeps no tags; it can't be written to.
+     */
+    static final TagStore EMPTY = new TagStore();
+
+    private String[] keys;
+    private byte[] types;
+    private long[] numbers;
+    private Object[] objects;
+    private int size;
+
+    public TagStore() {
+    }
+
+    private TagStore(TagStore other) {
+        if (other.size > 0) {
+            this.keys = Arrays.copyOf(other.keys, other.size);
+            this.types = Arrays.copyOf(other.types, other.size);
+            this.numbers = Arrays.copyOf(other.numbers, other.size);
+            this.objects = Arrays.copyOf(other.objects, other.size);
+            this.size = other.size;
+        }
+    }
+
+    public void put(String key, String value) {
+        set(slot(key), value == null ? OTHER : STRING, 0, value);
+    }
+
+    public void put(String key, int value) {
+        set(slot(key), INTEGER, value, null);
+    }
+
+    public void put(String key, long value) {
+        set(slot(key), LONG, value, null);
+    }
+
+    public void put(String key, double value) {
+        set(slot(key), DOUBLE, Double.doubleToRawLongBits(value), null);
+    }
+
+    public void put(String key, boolean value) {
+        set(slot(key), BOOLEAN, value ? 1 : 0, null);
+    }
+
+    /**
+     * Stores a value of any type, unboxing the ones the span format has a type for.
+     */
+    public void put(String key, Object value) {
+        final int slot = slot(key);
+        if (value instanceof String) {
+            set(slot, STRING, 0, value);
+        } else if (value instanceof Long) {
+            set(slot, LONG, (Long) value, null);
+        } else if (value instanceof Integer) {
+            set(slot, INTEGER, (Integer) value, null);
+        } else if (value instanceof Short) {
+            set(slot, SHORT, (Short) value, null);
+        } else if (value instanceof Double) {
+            set(slot, DOUBLE, Double.doubleToRawLongBits((Double) value), null);
+        } else if (value instanceof Float) {
+            set(slot, FLOAT, Double.doubleToRawLongBits((Float) value), null);
+        } else if (value instanceof Boolean) {
+            set(slot, BOOLEAN, (Boolean) value ? 1 : 0, null);
+        } else {
+            set(slot, OTHER, 0, value);
+        }
+    }
+
+    /**
+     * Stores every tag of a map; tags without a key are skipped, as the span format can't carry them.
+     */
+    public void putAll(Map<String, ?> tags) {
+        for (Map.Entry<String, ?> tag : tags.entrySet()) {
+            if (tag.getKey() != null) {
+                put(tag.getKey(), tag.getValue());
+            }
+        }
+    }
+
+    private int slot(String key) {
+        if (this == EMPTY) {
+            throw new UnsupportedOperationException("The shared empty tag store can't be written to");
+        }
+        for (int i = 0; i < size; i++) {
+            if (keys[i].equals(key)) {
+                return i;
+            }
+        }
+        if (keys == null) {
+            keys = new String[INITIAL_CAPACITY];
+            types = new byte[INITIAL_CAPACITY];
+            numbers = new long[INITIAL_CAPACITY];
+            objects = new Object[INITIAL_CAPACITY];
+        } else if (size == keys.length) {
+            final int capacity = size * 2;
+            keys = Arrays.copyOf(keys, capacity);
+            types = Arrays.copyOf(types, capacity);
+            numbers = Arrays.copyOf(numbers, capacity);
+            objects = Arrays.copyOf(objects, capacity);
+        }
+        keys[size] = key;
+        return size++;
+    }
+
+    private void set(int slot, byte type, long number, Object object) {
+        types[slot] = type;
+        numbers[slot] = number;
+        objects[slot] = object;
+    }
+
+    /**
+     * @return the value the tag had, boxed as {@link #value(int)} does; <code>null</code> if there was no such tag
+     */
+    public Object remove(Object key) {
+        final int index = indexOf(key);
+        if (index < 0) {
+            return null;
+        }
+        final Object previous = value(index);
+        final int moved = size - index - 1;
+        System.arraycopy(keys, index + 1, keys, index, moved);
+        System.arraycopy(types, index + 1, types, index, moved);
+        System.arraycopy(numbers, index + 1, numbers, index, moved);
+        System.arraycopy(objects, index + 1, objects, index, moved);
+        size--;
+        keys[size] = null;
+        objects[size] = null;
+        return previous;
+    }
+
+    /**
+     * Removes every tag, keeping the arrays for reuse.
+     */
+    public void clear() {
+        if (size > 0) {
+            Arrays.fill(keys, 0, size, null);
+            Arrays.fill(objects, 0, size, null);
+            size = 0;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String key(int index) {
+        return keys[index];
+    }
+
+    /**
+     * @return one of {@link #STRING}, {@link #LONG}, {@link #DOUBLE}, {@link #BOOLEAN} or {@link #OTHER}
+     */
+    public byte type(int index) {
+        return (byte) (types[index] & KIND_MASK);
+    }
+
+    public long longValue(int index) {
+        return numbers[index];
+    }
+
+    public double doubleValue(int index) {
+        return Double.longBitsToDouble(numbers[index]);
+    }
+
+    public boolean booleanValue(int index) {
+        return numbers[index] != 0;
+    }
+
+    /**
+     * @return the value of a {@link #STRING} or {@link #OTHER} tag
+     */
+    public Object objectValue(int index) {
+        return objects[index];
+    }
+
+    /**
+     * @return the value boxed into the type it was set with
+     */
+    public Object value(int index) {
+        switch (types[index]) {
+            case LONG:
+                return numbers[index];
+            case INTEGER:
+                return (int) numbers[index];
+            case SHORT:
+                return (short) numbers[index];
+            case DOUBLE:
+                return doubleValue(index);
+            case FLOAT:
+                return (float) doubleValue(index);
+            case BOOLEAN:
+                return booleanValue(index);
+            default:
+                return objects[index];
+        }
+    }
+
+    /**
+     * @return the value of the tag boxed as {@link #value(int)} does; <code>null</code> if there is no such tag
+     */
+    public Object get(Object key) {
+        final int index = indexOf(key);
+        return index < 0 ? null : value(index);
+    }
+
+    int indexOf(Object key) {
+        for (int i = 0; i < size; i++) {
+            if (keys[i].equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return a copy sized to the tags it holds
+     */
+    public TagStore copy() {
+        return new TagStore(this);
+    }
+
+    /**
+     * @return a read-only map view, in the order the keys were first set
+     */
+    public Map<String, Object> asMap() {
+        return new MapView();
+    }
+
+    private final class MapView extends AbstractMap<String, Object> {
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return indexOf(key) >= 0;
+        }
+
+        @Override
+        public Object get(Object key) {
+            return TagStore.this.get(key);
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            return new AbstractSet<Entry<String, Object>>() {
+                @Override
+                public int size() {
+                    return size;
+                }
+
+                @Override
+                public Iterator<Entry<String, Object>> iterator() {
+                    return new Iterator<Entry<String, Object>>() {
+                        private int next;
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < size;
+                        }
+
+                        @Override
+                        public Entry<String, Object> next() {
+                            if (next >= size) {
+                                throw new NoSuchElementException();
+                            }
+                            final int index = next++;
+                            return new SimpleImmutableEntry<>(keys[index], value(index));
+                        }
+                    };
+                }
+            };
+        }
+    }
+}
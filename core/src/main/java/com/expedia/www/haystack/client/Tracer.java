@@ -26,6 +26,8 @@ import com.expedia.www.haystack.client.propagation.Extractor;
 import com.expedia.www.haystack.client.propagation.Injector;
 import com.expedia.www.haystack.client.propagation.PropagationRegistry;
 import com.expedia.www.haystack.client.propagation.TextMapPropagator;
+import com.expedia.www.haystack.client.samplers.ConstantSampler;
+import com.expedia.www.haystack.client.samplers.Sampler;
 import io.opentracing.References;
 import io.opentracing.Scope;
 import io.opentracing.ScopeManager;
@@ -44,6 +46,7 @@ public class Tracer implements io.opentracing.Tracer {
 
     private final static IdGenerator DEFAULT_ID_GENERATOR = new LongIdGenerator();
     private final static Boolean DEFAULT_DUAL_SPAN_MODE = false;
+    private final static Sampler DEFAULT_SAMPLER = new ConstantSampler(true);
 
     private final Dispatcher dispatcher;
     private final IdGenerator idGenerator;
@@ -52,8 +55,12 @@ public class Tracer implements io.opentracing.Tracer {
     private final String serviceName;
     private final ScopeManager scopeManager;
     private final boolean dualSpanMode;
+    private final Sampler sampler;
+    private final SpanPool spanPool;
 
     private final Counter spansCreatedCounter;
+    private final Counter tracesSampledCounter;
+    private final Counter tracesNotSampledCounter;
 
     private final Timer dispatchTimer;
 
@@ -76,6 +83,21 @@ public class Tracer implements io.opentracing.Tracer {
     public Tracer(String serviceName, ScopeManager scopeManager, Clock clock,
                   Dispatcher dispatcher, PropagationRegistry registry,
                   Metrics metrics, boolean dualSpanMode, IdGenerator idGenerator) {
+        this(serviceName, scopeManager, clock, dispatcher, registry, metrics, dualSpanMode, idGenerator, DEFAULT_SAMPLER);
+    }
+
+    public Tracer(String serviceName, ScopeManager scopeManager, Clock clock,
+                  Dispatcher dispatcher, PropagationRegistry registry,
+                  Metrics metrics, boolean dualSpanMode, IdGenerator idGenerator, Sampler sampler) {
+        this(serviceName, scopeManager, clock, dispatcher, registry, metrics, dualSpanMode, idGenerator, sampler, null);
+    }
+
+    /**
+     * @param spanPool pool to recycle spans and span builders through; <code>null</code> allocates new ones
+     */
+    public Tracer(String serviceName, ScopeManager scopeManager, Clock clock,
+                  Dispatcher dispatcher, PropagationRegistry registry,
+                  Metrics metrics, boolean dualSpanMode, IdGenerator idGenerator, Sampler sampler, SpanPool spanPool) {
         this.serviceName = serviceName;
         this.scopeManager = scopeManager;
         this.clock = clock;
@@ -83,6 +105,8 @@ public class Tracer implements io.opentracing.Tracer {
         this.dispatcher = dispatcher;
         this.registry = registry;
         this.dualSpanMode = dualSpanMode;
+        this.sampler = sampler;
+        this.spanPool = spanPool;
 
         this.dispatchTimer = Timer.builder("dispatch").register(metrics);
         this.closeTimer = Timer.builder("close").register(metrics);
@@ -91,6 +115,8 @@ public class Tracer implements io.opentracing.Tracer {
         this.flushExceptionCounter = Counter.builder("flush").tag(new Tag("state", "exception")).register(metrics);
 
         this.spansCreatedCounter = Counter.builder("spans").register(metrics);
+        this.tracesSampledCounter = Counter.builder("traces").tag(new Tag("state", "sampled")).register(metrics);
+        this.tracesNotSampledCounter = Counter.builder("traces").tag(new Tag("state", "notsampled")).register(metrics);
 
         this.injectTimer = Timer.builder("inject").register(metrics);
         this.injectFailureCounter = Counter.builder("inject").tag(new Tag("state", "exception")).register(metrics);
@@ -132,6 +158,12 @@ public class Tracer implements io.opentracing.Tracer {
         }
     }
 
+    boolean sample(Id traceId, String operationName) {
+        final boolean sampled = sampler.sample(traceId, operationName);
+        (sampled ? tracesSampledCounter : tracesNotSampledCounter).increment();
+        return sampled;
+    }
+
     /**
      * @return the dispatcher
      */
@@ -149,6 +181,9 @@ public class Tracer implements io.opentracing.Tracer {
     @Override
     public SpanBuilder buildSpan(String operationName) {
         spansCreatedCounter.increment();
+        if (spanPool != null) {
+            return spanPool.builder(this, clock, operationName);
+        }
         return new SpanBuilder(this, clock, operationName);
     }
 
@@ -204,16 +239,46 @@ public class Tracer implements io.opentracing.Tracer {
         protected Long startTime;
 
         protected final List<Reference> references;
+        // a live view of the store, which is only allocated on the first tag and is handed over to the span at start
         protected final Map<String, Object> tags;
+        private TagStore store;
+
+        private final SpanPool pool;
+        private boolean released;
 
         protected SpanBuilder(Tracer tracer, Clock clock, String operationName) {
+            this(tracer, clock, operationName, null);
+        }
+
+        SpanBuilder(Tracer tracer, Clock clock, String operationName, SpanPool pool) {
             this.tracer = tracer;
             this.clock = clock;
             this.operationName = operationName;
             this.startTime = 0l;
             this.ignoreActive = false;
+            // an empty ArrayList allocates no array until the first reference
             this.references = new ArrayList<>();
-            this.tags = new HashMap<>();
+            this.tags = new TagView();
+            this.pool = pool;
+        }
+
+        /**
+         * Readies a pooled builder for another span of the same tracer.
+         */
+        void reset(Clock clock, String operationName) {
+            this.clock = clock;
+            this.operationName = operationName;
+            this.startTime = 0l;
+            this.ignoreActive = false;
+            // the last span copied the references; its tags were swapped for an empty store at start
+            this.references.clear();
+        }
+
+        /**
+         * Marks a pooled builder that was started, so that starting it again throws.
+         */
+        void retire() {
+            this.released = true;
         }
 
         @Override
@@ -252,26 +317,32 @@ public class Tracer implements io.opentracing.Tracer {
 
         @Override
         public SpanBuilder withTag(String key, String value) {
-            this.tags.put(key, value);
+            if (keepsTag(key)) {
+                tags().put(key, value);
+            }
             return this;
         }
 
         @Override
         public SpanBuilder withTag(String key, boolean value) {
-            this.tags.put(key, value);
+            if (keepsTag(key)) {
+                tags().put(key, value);
+            }
             return this;
         }
 
         @Override
         public SpanBuilder withTag(String key, Number value) {
-            this.tags.put(key, value);
+            if (keepsTag(key)) {
+                tags().put(key, value);
+            }
             return this;
         }
 
         @Override
         public <T> io.opentracing.Tracer.SpanBuilder withTag(io.opentracing.tag.Tag<T> tag, T value) {
-            if (tag != null && tag.getKey() != null) {
-                this.tags.put(tag.getKey(), value);
+            if (tag != null && keepsTag(tag.getKey())) {
+                tags().put(tag.getKey(), (Object) value);
             }
             return this;
         }
@@ -282,13 +353,44 @@ public class Tracer implements io.opentracing.Tracer {
             return this;
         }
 
+        /**
+         * A child of an unsampled parent is never reported, so its tags aren't kept; except for the span kind, which
+         * decides its context.
+         */
+        private boolean keepsTag(String key) {
+            return key != null
+                    && (references.isEmpty() || parentReference().getContext().isSampled() || Tags.SPAN_KIND.getKey().equals(key));
+        }
+
+        private TagStore tags() {
+            if (store == null) {
+                store = new TagStore();
+            }
+            return store;
+        }
+
+        /**
+         * @return the tags set so far, which the span takes over at start; <code>null</code> if none were
+         */
+        TagStore tagStore() {
+            return store;
+        }
+
+        /**
+         * Hands the builder the store to fill for its next span.
+         */
+        void tagStore(TagStore store) {
+            this.store = store;
+        }
+
         boolean isServerSpan() {
-            return Tags.SPAN_KIND_SERVER.equals(tags.get(Tags.SPAN_KIND.getKey()));
+            return store != null && Tags.SPAN_KIND_SERVER.equals(store.get(Tags.SPAN_KIND.getKey()));
         }
 
         protected SpanContext createNewContext() {
-
-            return createContext(tracer.idGenerator.generateTraceId(), tracer.idGenerator.generateSpanId(), null, Collections.emptyMap());
+            final Id traceId = Id.from(tracer.idGenerator.generateTraceId());
+            final boolean sampled = tracer.sample(traceId, operationName);
+            return createContext(traceId, tracer.idGenerator.generateSpanId(), null, Collections.emptyMap(), sampled);
         }
 
         protected SpanContext createContext(UUID traceId, UUID spanId, UUID parentId, Map<String, String> baggage) {
@@ -300,15 +402,22 @@ public class Tracer implements io.opentracing.Tracer {
             return new SpanContext(traceId, spanId, parentId, baggage, false);
         }
 
-        protected SpanContext createDependentContext() {
-            Reference parent = references.get(0);
+        protected SpanContext createContext(Object traceId, Object spanId, Object parentId, Map<String, String> baggage, boolean sampled) {
+            return new SpanContext(traceId, spanId, parentId, baggage, false, sampled);
+        }
+
+        private Reference parentReference() {
             for (Reference reference : references) {
                 if (References.CHILD_OF.equals(reference.getReferenceType())) {
                     // first parent wins
-                    parent = reference;
-                    break;
+                    return reference;
                 }
             }
+            return references.get(0);
+        }
+
+        protected SpanContext createDependentContext() {
+            Reference parent = parentReference();
 
             Map<String, String> baggage = new HashMap<>();
             for (Reference reference : references) {
@@ -324,16 +433,18 @@ public class Tracer implements io.opentracing.Tracer {
             // then we assume this is the first span in the server and so just return the parent context
             // with the same shared span ids
             if (!tracer.dualSpanMode && (isServerSpan() || parent.getContext().isExtractedContext())) {
-                return createContext(parent.getContext().getTraceId(),
-                                     parent.getContext().getSpanId(),
-                                     parent.getContext().getParentId(),
-                                     baggage);
+                return createContext(parent.getContext().getTraceIdAsId(),
+                                     parent.getContext().getSpanIdAsId(),
+                                     parent.getContext().getParentIdAsId(),
+                                     baggage,
+                                     parent.getContext().isSampled());
             }
 
-            return createContext(parent.getContext().getTraceId(),
+            return createContext(parent.getContext().getTraceIdAsId(),
                     tracer.idGenerator.generateSpanId(),
-                    parent.getContext().getSpanId(),
-                    baggage);
+                    parent.getContext().getSpanIdAsId(),
+                    baggage,
+                    parent.getContext().isSampled());
         }
 
         SpanContext createContext() {
@@ -350,7 +461,7 @@ public class Tracer implements io.opentracing.Tracer {
         }
 
         private long calculateStartTime() {
-            if (startTime == 0) {
+            if (startTime == null || startTime == 0) {
                 return clock.microTime();
             }
             return startTime;
@@ -358,7 +469,62 @@ public class Tracer implements io.opentracing.Tracer {
 
         @Override
         public com.expedia.www.haystack.client.Span start() {
-            return new com.expedia.www.haystack.client.Span(tracer, clock, operationName, createContext(), calculateStartTime(), tags, references);
+            if (pool == null) {
+                final com.expedia.www.haystack.client.Span span = new com.expedia.www.haystack.client.Span(tracer, clock, operationName, createContext(), calculateStartTime(), store, references);
+                // the span owns the store now
+                this.store = null;
+                return span;
+            }
+            if (released) {
+                throw new IllegalStateException("Starting a span builder that was already started");
+            }
+            final com.expedia.www.haystack.client.Span span = pool.span(this, createContext(), calculateStartTime());
+            pool.recycle(this);
+            return span;
+        }
+
+        /**
+         * The builder's tags as a map, for subclasses; reads and writes go to the store of the moment.
+         */
+        private final class TagView extends AbstractMap<String, Object> {
+            @Override
+            public int size() {
+                return store == null ? 0 : store.size();
+            }
+
+            @Override
+            public boolean containsKey(Object key) {
+                return store != null && store.indexOf(key) >= 0;
+            }
+
+            @Override
+            public Object get(Object key) {
+                return store == null ? null : store.get(key);
+            }
+
+            @Override
+            public Object put(String key, Object value) {
+                final Object previous = get(key);
+                tags().put(key, value);
+                return previous;
+            }
+
+            @Override
+            public Object remove(Object key) {
+                return store == null ? null : store.remove(key);
+            }
+
+            @Override
+            public void clear() {
+                if (store != null) {
+                    store.clear();
+                }
+            }
+
+            @Override
+            public Set<Entry<String, Object>> entrySet() {
+                return store == null ? Collections.emptySet() : store.asMap().entrySet();
+            }
         }
     }
 
@@ -371,7 +537,9 @@ public class Tracer implements io.opentracing.Tracer {
         protected PropagationRegistry registry = new PropagationRegistry();
         protected Metrics metrics;
         protected IdGenerator idGenerator;
+        protected Sampler sampler = DEFAULT_SAMPLER;
         private boolean dualSpanMode;
+        private SpanPool spanPool;
 
         public Builder(MetricsRegistry registry, String serviceName, Dispatcher dispatcher) {
             this(new Metrics(registry, Tracer.class.getName(), Collections.emptyList()), serviceName, dispatcher);
@@ -406,6 +574,18 @@ public class Tracer implements io.opentracing.Tracer {
             return this;
         }
 
+        /**
+         * Decides which new traces are recorded; defaults to recording all of them. Spans of an unsampled trace
+         * keep their context, so it still propagates, but drop their tags and logs and are never dispatched.
+         *
+         * @param sampler sampler to consult at the root of each trace
+         * @return this builder instance
+         */
+        public Builder withSampler(Sampler sampler) {
+            this.sampler = sampler;
+            return this;
+        }
+
         public <T> Builder withFormat(Format<T> format, Injector<T> injector) {
             registry.register(format, injector);
             return this;
@@ -437,9 +617,23 @@ public class Tracer implements io.opentracing.Tracer {
             return this;
         }
 
+        /**
+         * Recycles spans and span builders instead of allocating new ones. Spans then go back to the pool once
+         * the dispatcher releases them, so nothing may use a span after it is finished: not its context, and not
+         * the span still active in a scope. Every dispatcher and client that keeps spans past the call that hands
+         * them over must retain them.
+         *
+         * @param spanPool pool to take spans and span builders from
+         * @return this builder instance
+         */
+        public Builder withSpanPool(SpanPool spanPool) {
+            this.spanPool = spanPool;
+            return this;
+        }
+
         public Tracer build() {
             idGenerator = idGenerator == null ? DEFAULT_ID_GENERATOR : idGenerator;
-            return new Tracer(serviceName, scopeManager, clock, dispatcher, registry, metrics, dualSpanMode, idGenerator);
+            return new Tracer(serviceName, scopeManager, clock, dispatcher, registry, metrics, dualSpanMode, idGenerator, sampler, spanPool);
         }
     }
 }
@@ -0,0 +1,286 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers;
+
+import com.expedia.www.haystack.client.Span;
+import com.expedia.www.haystack.client.metrics.*;
+import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Collects finished spans in small buffers confined to the thread that finished them and hands them to the
+ * wrapped dispatcher in chunks, so the request path doesn't touch shared state for every span.
+ * <p>
+ * A buffer is published when it fills up. A periodic sweep additionally publishes buffers holding a span from
+ * before the previous sweep, whether the thread went idle or just writes slowly, and reclaims the buffers of threads
+ * that have died. The owning thread and the sweep coordinate through the buffer's own monitor, which only the owner
+ * touches between sweeps.
+ */
+public class BufferedDispatcher implements Dispatcher {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BufferedDispatcher.class);
+
+    private final Dispatcher delegate;
+    private final int bufferSize;
+    private final ScheduledExecutorService executor;
+    private final Future sweepTask;
+    private final AtomicBoolean running;
+
+    private final ThreadLocal<SpanBuffer> buffers;
+    private final Set<SpanBuffer> registered;
+    private volatile long sweepEpoch;
+
+    private final Counter publishCounter;
+    private final Counter publishedSpansCounter;
+    private final Counter sweptCounter;
+    private final Counter reclaimedCounter;
+
+    public BufferedDispatcher(Metrics metrics, Dispatcher delegate, int bufferSize, long sweepInterval, ScheduledExecutorService executor) {
+        Validate.notNull(delegate);
+        Validate.isTrue(bufferSize > 0, "bufferSize must be positive");
+
+        this.delegate = delegate;
+        this.bufferSize = bufferSize;
+        this.executor = executor;
+        this.running = new AtomicBoolean(true);
+        this.registered = ConcurrentHashMap.newKeySet();
+        this.buffers = ThreadLocal.withInitial(() -> {
+            final SpanBuffer buffer = new SpanBuffer(Thread.currentThread(), this.bufferSize);
+            registered.add(buffer);
+            return buffer;
+        });
+
+        this.publishCounter = Counter.builder("publish").register(metrics);
+        this.publishedSpansCounter = Counter.builder("publish").tag(new Tag("state", "spans")).register(metrics);
+        this.sweptCounter = Counter.builder("sweep").tag(new Tag("state", "idle")).register(metrics);
+        this.reclaimedCounter = Counter.builder("sweep").tag(new Tag("state", "reclaimed")).register(metrics);
+
+        // held in the registry; but we don't need a local reference
+        Gauge.builder("buffers", registered, Set::size).register(metrics);
+
+        this.sweepTask = executor.scheduleWithFixedDelay(this::sweep, sweepInterval, sweepInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public String toString() {
+        return new ReflectionToStringBuilder(this, ToStringStyle.SIMPLE_STYLE)
+                .setExcludeFieldNames("executor", "sweepTask", "buffers", "registered")
+                .toString();
+    }
+
+    @Override
+    public void dispatch(Span span) {
+        if (!running.get()) {
+            delegate.dispatch(span);
+            return;
+        }
+
+        final SpanBuffer buffer = buffers.get();
+        publish(buffer.add(span, sweepEpoch));
+
+        if (!running.get()) {
+            // close() may have drained every buffer between our check and the add
+            publish(buffer.drain());
+        }
+    }
+
+    private void publish(List<Span> chunk) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        publishCounter.increment();
+        publishedSpansCounter.increment(chunk.size());
+        delegate.dispatch(chunk);
+    }
+
+    /**
+     * Publishes buffers whose oldest span predates the last sweep and drops the buffers of dead threads.
+     */
+    void sweep() {
+        try {
+            final long epoch = sweepEpoch;
+            for (SpanBuffer buffer : registered) {
+                if (!buffer.isOwnerAlive()) {
+                    registered.remove(buffer);
+                    reclaimedCounter.increment();
+                    publish(buffer.drain());
+                } else if (buffer.isStaleSince(epoch)) {
+                    final List<Span> chunk = buffer.drain();
+                    if (!chunk.isEmpty()) {
+                        sweptCounter.increment();
+                        publish(chunk);
+                    }
+                }
+            }
+            sweepEpoch = epoch + 1;
+        } catch (RuntimeException e) {
+            // never let an exception cancel the periodic sweep
+            LOGGER.error("Failed sweeping thread local span buffers", e);
+        }
+    }
+
+    private void drainAll() {
+        for (SpanBuffer buffer : registered) {
+            publish(buffer.drain());
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        drainAll();
+        delegate.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        running.set(false);
+        sweepTask.cancel(false);
+        try {
+            drainAll();
+            registered.clear();
+            delegate.close();
+        } finally {
+            try {
+                executor.shutdown();
+            } catch (SecurityException e) {
+                LOGGER.warn("Executor pool failed to close", e);
+            }
+        }
+    }
+
+    /**
+     * A fixed size buffer owned by a single thread. The owner appends without any cross-thread traffic; the
+     * monitor is only ever contended when a sweep or flush drains the buffer from another thread.
+     */
+    private static final class SpanBuffer {
+        private final WeakReference<Thread> owner;
+        private final Span[] spans;
+        private int count;
+        private long firstWriteEpoch;
+
+        SpanBuffer(Thread owner, int size) {
+            this.owner = new WeakReference<>(owner);
+            this.spans = new Span[size];
+        }
+
+        /**
+         * @return a full chunk to publish, or an empty list if the span fit in the buffer
+         */
+        synchronized List<Span> add(Span span, long epoch) {
+            if (count == 0) {
+                firstWriteEpoch = epoch;
+            }
+            spans[count++] = span;
+            if (count == spans.length) {
+                return take();
+            }
+            return Collections.emptyList();
+        }
+
+        synchronized List<Span> drain() {
+            return take();
+        }
+
+        /**
+         * @return whether the buffer holds a span written before the sweep that started <code>epoch</code>
+         */
+        synchronized boolean isStaleSince(long epoch) {
+            return count > 0 && firstWriteEpoch < epoch;
+        }
+
+        boolean isOwnerAlive() {
+            final Thread thread = owner.get();
+            return thread != null && thread.isAlive();
+        }
+
+        private List<Span> take() {
+            if (count == 0) {
+                return Collections.emptyList();
+            }
+            final List<Span> chunk = Arrays.asList(Arrays.copyOf(spans, count));
+            Arrays.fill(spans, 0, count, null);
+            count = 0;
+            return chunk;
+        }
+    }
+
+    public static final class Builder {
+        private final Metrics metrics;
+        private final Dispatcher delegate;
+        private int bufferSize;
+        private long sweepInterval;
+        private ScheduledExecutorService executor;
+
+        public Builder(MetricsRegistry registry, Dispatcher delegate) {
+            this(new Metrics(registry, Dispatcher.class.getName(), Collections.singletonList(new Tag("type", "buffered"))), delegate);
+        }
+
+        public Builder(Metrics metrics, Dispatcher delegate) {
+            this.metrics = metrics;
+            this.delegate = delegate;
+            this.bufferSize = 32;
+            this.sweepInterval = 500;
+        }
+
+        /**
+         * @param bufferSize number of spans a thread collects before publishing them as one chunk
+         * @return this builder instance
+         */
+        public Builder withBufferSize(int bufferSize) {
+            this.bufferSize = bufferSize;
+            return this;
+        }
+
+        /**
+         * @param sweepInterval how often buffers of slow, idle and dead threads are published; a span sits in a
+         *                      buffer for at most two sweep intervals
+         * @return this builder instance
+         */
+        public Builder withSweepIntervalMillis(long sweepInterval) {
+            this.sweepInterval = sweepInterval;
+            return this;
+        }
+
+        public Builder withExecutor(ScheduledExecutorService executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        public BufferedDispatcher build() {
+            ScheduledExecutorService executor = this.executor;
+            if (executor == null) {
+                executor = Executors.newSingleThreadScheduledExecutor();
+            }
+            return new BufferedDispatcher(metrics, delegate, bufferSize, sweepInterval, executor);
+        }
+    }
+}
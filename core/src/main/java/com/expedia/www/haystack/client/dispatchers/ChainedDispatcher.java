@@ -22,6 +22,7 @@ import org.apache.commons.lang3.builder.ToStringStyle;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 
@@ -46,11 +47,35 @@ public class ChainedDispatcher implements Dispatcher {
 
     @Override
     public void dispatch(Span span) {
+        retainForEach(span);
         for (Dispatcher dispatcher : dispatchers) {
             dispatcher.dispatch(span);
         }
     }
 
+    @Override
+    public void dispatch(Collection<Span> spans) {
+        for (Span span : spans) {
+            retainForEach(span);
+        }
+        for (Dispatcher dispatcher : dispatchers) {
+            dispatcher.dispatch(spans);
+        }
+    }
+
+    /**
+     * Each dispatcher releases the span when it's done with it, so the span needs a reference for every one of
+     * them, and none with no dispatchers at all.
+     */
+    private void retainForEach(Span span) {
+        if (dispatchers.isEmpty()) {
+            span.release();
+        }
+        for (int i = 1; i < dispatchers.size(); i++) {
+            span.retain();
+        }
+    }
+
     @Override
     public void close() throws IOException {
         List<IOException> exceptions = new ArrayList<>();
@@ -18,6 +18,7 @@ package com.expedia.www.haystack.client.dispatchers;
 
 import java.io.Closeable;
 import java.io.Flushable;
+import java.util.Collection;
 
 import com.expedia.www.haystack.client.Span;
 
@@ -28,10 +29,25 @@ public interface Dispatcher extends Closeable, Flushable {
 
     /**
      * All dispatchers should dispatch to somewhere
+     * <p>
+     * The dispatcher is handed the span's reference: once done with the span it {@link Span#release() releases}
+     * it, or passes it on to a dispatcher that will.
      *
      * @param span Span to dispatch to the registered sink
      */
     void dispatch(Span span);
 
+    /**
+     * Dispatches a chunk of spans at once. Dispatchers that can amortize work over many spans should override
+     * this; by default every span is dispatched on its own.
+     *
+     * @param spans Spans to dispatch to the registered sink
+     */
+    default void dispatch(Collection<Span> spans) {
+        for (Span span : spans) {
+            dispatch(span);
+        }
+    }
+
 }
 
@@ -58,6 +58,7 @@ public class LoggerDispatcher implements Dispatcher {
         try (Sample timer = dispatchTimer.start()) {
             logger.info("{}", span);
         }
+        span.release();
     }
 
     @Override
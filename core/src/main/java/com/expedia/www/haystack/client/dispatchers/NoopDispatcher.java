@@ -25,6 +25,7 @@ public class NoopDispatcher implements Dispatcher {
     @Override
     public void dispatch(Span span) {
         // do nothing
+        span.release();
     }
 
     @Override
@@ -17,49 +17,119 @@
 package com.expedia.www.haystack.client.dispatchers;
 
 import com.expedia.www.haystack.client.Span;
+import com.expedia.www.haystack.client.dispatchers.overflow.DropNewestPolicy;
+import com.expedia.www.haystack.client.dispatchers.overflow.OverflowPolicy;
+import com.expedia.www.haystack.client.dispatchers.overflow.OverflowPolicy.Outcome;
+import com.expedia.www.haystack.client.dispatchers.queues.RingBufferQueue;
+import com.expedia.www.haystack.client.dispatchers.queues.WaitStrategy;
+import com.expedia.www.haystack.client.dispatchers.spill.SpillTier;
 import com.expedia.www.haystack.client.metrics.*;
 import com.expedia.www.haystack.client.metrics.Timer.Sample;
+import com.expedia.www.haystack.remote.clients.AsyncClient;
+import com.expedia.www.haystack.remote.clients.CircuitOpenException;
 import com.expedia.www.haystack.remote.clients.Client;
 import com.expedia.www.haystack.remote.clients.ClientException;
+import org.apache.commons.lang3.Validate;
 import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
 import org.apache.commons.lang3.builder.ToStringStyle;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
 public class RemoteDispatcher implements Dispatcher {
     private static final Logger LOGGER = LoggerFactory.getLogger(RemoteDispatcher.class);
 
+    private static final int DEFAULT_SENDER_THREADS = 1;
+    private static final int DEFAULT_MAX_BATCH_SIZE = 100;
+    private static final long DEFAULT_POLL_TIMEOUT_MILLIS = 100;
+    private static final long DEFAULT_OVERFLOW_LOG_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
     private final BlockingQueue<Span> acceptQueue;
     private final ScheduledExecutorService executor;
     private final Client client;
+    private final AsyncClient asyncClient;
     private final long shutdownTimeoutMillis;
+    private final int maxBatchSize;
+    private final long pollTimeoutMillis;
+    private final OverflowPolicy overflowPolicy;
+    private final long overflowLogIntervalMillis;
+    private final SpillTier spillTier;
 
     private final Future flushTask;
+    private final Future overflowLogTask;
+    private final Future replayTask;
+    private final List<SenderWorker> workers;
+    private final List<CompletableFuture<Void>> senderTasks;
     private final CompletableFuture<Void> senderTask;
 
     private final AtomicBoolean running;
 
+    // smoothed over roughly the last eight sends; workers race on it, which only ever loses a sample
+    private volatile long sendLatencyNanos;
+
     private final Timer sendTimer;
     private final Counter sendInterruptedCounter;
     private final Counter sendExceptionCounter;
+    private final Counter sendShedCounter;
+    private final Counter sendSpilledCounter;
     private final Timer dispatchTimer;
     private final Counter dispatchRejectedCounter;
+    private final Map<Outcome, Counter> overflowCounters;
+    private final Map<Outcome, LongAdder> overflowsSinceLastLog;
+    private final Counter dispatchSpilledCounter;
+    private final LongAdder shutdownRejectionsSinceLastLog;
+    private final LongAdder shedSinceLastLog;
+    private final LongAdder asyncFailuresSinceLastLog;
     private final Timer closeTimer;
     private final Counter closeTimeoutCounter;
     private final Counter closeInterruptedCounter;
     private final Counter closeExceptionCounter;
     private final Timer flushTimer;
+    private final Timer batchTimer;
+    private final Counter batchSizeCounter;
 
     public RemoteDispatcher(Metrics metrics, Client client, BlockingQueue<Span> queue, long flushInterval, long shutdownTimeout, ScheduledExecutorService executor) {
+        this(metrics, client, queue, flushInterval, shutdownTimeout, executor, DEFAULT_SENDER_THREADS, DEFAULT_MAX_BATCH_SIZE,
+             DEFAULT_POLL_TIMEOUT_MILLIS, new DropNewestPolicy(), DEFAULT_OVERFLOW_LOG_INTERVAL_MILLIS, null);
+    }
+
+    /**
+     * @param senderThreads number of workers draining the accept queue; each one occupies a thread of the executor
+     *                      for the lifetime of the dispatcher, so the executor needs at least one more thread than
+     *                      this for the periodic flush to run
+     * @param maxBatchSize maximum number of spans a worker drains from the accept queue per wakeup
+     * @param pollTimeoutMillis how long an idle worker waits for a span before re-checking if it should shut down
+     * @param overflowPolicy what to do with spans that don't fit in the accept queue
+     * @param overflowLogIntervalMillis dropped spans are reported in a single warning per interval
+     * @param spillTier optional disk tier for spans the overflow policy rejects; replayed on its own executor
+     *                  thread, so the executor then needs one more thread again
+     */
+    public RemoteDispatcher(Metrics metrics, Client client, BlockingQueue<Span> queue, long flushInterval, long shutdownTimeout,
+                            ScheduledExecutorService executor, int senderThreads, int maxBatchSize, long pollTimeoutMillis,
+                            OverflowPolicy overflowPolicy, long overflowLogIntervalMillis, SpillTier spillTier) {
+        Validate.isTrue(senderThreads > 0, "senderThreads must be positive");
+        Validate.isTrue(maxBatchSize > 0, "maxBatchSize must be positive");
+
         this.client = client;
+        this.asyncClient = client instanceof AsyncClient ? (AsyncClient) client : null;
         this.acceptQueue = queue;
         this.executor = executor;
         this.shutdownTimeoutMillis = shutdownTimeout;
+        this.maxBatchSize = maxBatchSize;
+        this.pollTimeoutMillis = pollTimeoutMillis;
+        this.overflowPolicy = overflowPolicy;
+        overflowPolicy.bind(queue);
+        this.overflowLogIntervalMillis = overflowLogIntervalMillis;
+        this.spillTier = spillTier;
 
         this.running = new AtomicBoolean(true);
 
@@ -77,24 +147,25 @@ public class RemoteDispatcher implements Dispatcher {
         this.sendTimer = Timer.builder("send").register(metrics);
         this.sendInterruptedCounter = Counter.builder("send").tag(new Tag("state", "interrupted")).register(metrics);
         this.sendExceptionCounter = Counter.builder("send").tag(new Tag("state", "exception")).register(metrics);
-
-        this.senderTask = CompletableFuture.runAsync(() -> {
-            while (running.get() || !(acceptQueue.isEmpty())) {
-
-                try (Sample timer = sendTimer.start()) {
-                    Span span = acceptQueue.take();
-                    try {
-                        client.send(span);
-                    } catch (ClientException e) {
-                        sendExceptionCounter.increment();
-                        LOGGER.error("Client reported a failure:", e);
-                    }
-                } catch (InterruptedException e) {
-                    // do nothing; will retry next interation
-                    sendInterruptedCounter.increment();
-                }
-            }
-        }, executor);
+        this.sendShedCounter = Counter.builder("send").tag(new Tag("state", "shed")).register(metrics);
+        this.sendSpilledCounter = Counter.builder("send").tag(new Tag("state", "spilled")).register(metrics);
+
+        this.batchTimer = Timer.builder("batch").register(metrics);
+        this.batchSizeCounter = Counter.builder("batchSize").register(metrics);
+
+        this.workers = new ArrayList<>(senderThreads);
+        this.senderTasks = new ArrayList<>(senderThreads);
+        for (int i = 0; i < senderThreads; i++) {
+            final SenderWorker worker = new SenderWorker();
+            workers.add(worker);
+            senderTasks.add(CompletableFuture.runAsync(worker, executor));
+
+            // held in the registry; but we don't need a local reference
+            Gauge.builder("utilization", worker, SenderWorker::utilization)
+                    .tag(new Tag("worker", String.valueOf(i)))
+                    .register(metrics);
+        }
+        this.senderTask = CompletableFuture.allOf(senderTasks.toArray(new CompletableFuture[0]));
 
         // held in the registry; but we don't need a local reference
         Gauge.builder("acceptQueue", acceptQueue, Collection::size)
@@ -103,7 +174,32 @@ public class RemoteDispatcher implements Dispatcher {
                 .register(metrics);
 
         this.dispatchTimer = Timer.builder("dispatch").register(metrics);
-        this.dispatchRejectedCounter = Counter.builder("dispatch").tag(new Tag("state", "rejected")).register(metrics);
+        this.dispatchRejectedCounter = Counter.builder("dispatch").tag(new Tag("state", Outcome.REJECTED.state())).register(metrics);
+        this.overflowCounters = new EnumMap<>(Outcome.class);
+        this.overflowsSinceLastLog = new EnumMap<>(Outcome.class);
+        for (Outcome outcome : Outcome.values()) {
+            if (outcome == Outcome.ACCEPTED) {
+                continue;
+            }
+            overflowCounters.put(outcome, outcome == Outcome.REJECTED
+                    ? dispatchRejectedCounter
+                    : Counter.builder("dispatch").tag(new Tag("state", outcome.state())).register(metrics));
+            overflowsSinceLastLog.put(outcome, new LongAdder());
+        }
+        this.shutdownRejectionsSinceLastLog = new LongAdder();
+        this.shedSinceLastLog = new LongAdder();
+        this.asyncFailuresSinceLastLog = new LongAdder();
+        this.dispatchSpilledCounter = Counter.builder("dispatch").tag(new Tag("state", "spilled")).register(metrics);
+
+        this.overflowLogTask = executor.scheduleAtFixedRate(this::logOverflows,
+                overflowLogIntervalMillis, overflowLogIntervalMillis, TimeUnit.MILLISECONDS);
+
+        if (spillTier != null) {
+            this.replayTask = executor.scheduleWithFixedDelay(this::replaySpilled,
+                    spillTier.getReplayIntervalMillis(), spillTier.getReplayIntervalMillis(), TimeUnit.MILLISECONDS);
+        } else {
+            this.replayTask = null;
+        }
 
         this.closeTimer = Timer.builder("close").register(metrics);
         this.closeTimeoutCounter = Counter.builder("close").tag(new Tag("state", "timeout")).register(metrics);
@@ -116,7 +212,9 @@ public class RemoteDispatcher implements Dispatcher {
     @Override
     public String toString() {
         return new ReflectionToStringBuilder(this, ToStringStyle.SIMPLE_STYLE)
-                .setExcludeFieldNames("acceptQueue", "executor", "flushTask", "senderTask")
+                .setExcludeFieldNames("acceptQueue", "executor", "flushTask", "overflowLogTask", "replayTask", "workers", "senderTasks", "senderTask",
+                                       "overflowCounters", "overflowsSinceLastLog", "shutdownRejectionsSinceLastLog", "shedSinceLastLog",
+                                       "asyncClient", "asyncFailuresSinceLastLog")
                 .toString();
     }
 
@@ -124,18 +222,94 @@ public class RemoteDispatcher implements Dispatcher {
     public void dispatch(Span span) {
         try (Sample timer = dispatchTimer.start()) {
             if (running.get()) {
-                final boolean accepted = acceptQueue.offer(span);
-                if (!accepted) {
-                    dispatchRejectedCounter.increment();
-                    LOGGER.warn("Send queue is rejecting new spans");
-                }
+                accept(span);
             } else {
                 dispatchRejectedCounter.increment();
-                LOGGER.warn("Dispatcher is shutting down and queue is now rejecting new spans");
+                shutdownRejectionsSinceLastLog.increment();
+                span.release();
+            }
+        }
+    }
+
+    @Override
+    public void dispatch(Collection<Span> spans) {
+        try (Sample timer = dispatchTimer.start()) {
+            if (running.get()) {
+                for (Span span : spans) {
+                    accept(span);
+                }
+            } else {
+                dispatchRejectedCounter.increment(spans.size());
+                shutdownRejectionsSinceLastLog.add(spans.size());
+                for (Span span : spans) {
+                    span.release();
+                }
             }
         }
     }
 
+    private void accept(Span span) {
+        final Outcome outcome = overflowPolicy.offer(acceptQueue, span);
+        if (outcome == Outcome.ACCEPTED) {
+            return;
+        }
+        if ((outcome == Outcome.REJECTED || outcome == Outcome.TIMED_OUT) && spillTier != null && spillTier.spill(span)) {
+            dispatchSpilledCounter.increment();
+        } else {
+            overflowCounters.get(outcome).increment();
+            overflowsSinceLastLog.get(outcome).increment();
+        }
+        if (outcome != Outcome.EVICTED) {
+            // dropped, or spilled as bytes; an evicted span is an older one, which the policy released
+            span.release();
+        }
+    }
+
+    private void replaySpilled() {
+        try {
+            spillTier.replay();
+        } catch (RuntimeException e) {
+            // never let an exception cancel the periodic replay
+            LOGGER.error("Failed replaying spilled spans", e);
+        }
+    }
+
+    /**
+     * Reports every span dropped since the previous call in a single warning, so an outage doesn't turn into a
+     * logging storm on the threads finishing spans.
+     */
+    private void logOverflows() {
+        final StringBuilder details = new StringBuilder();
+        long total = 0;
+        for (Map.Entry<Outcome, LongAdder> entry : overflowsSinceLastLog.entrySet()) {
+            final long count = entry.getValue().sumThenReset();
+            if (count > 0) {
+                total += count;
+                details.append(' ').append(entry.getKey().state()).append('=').append(count);
+            }
+        }
+        final long shutdownRejections = shutdownRejectionsSinceLastLog.sumThenReset();
+        if (shutdownRejections > 0) {
+            total += shutdownRejections;
+            details.append(" shutdown=").append(shutdownRejections);
+        }
+        final long shed = shedSinceLastLog.sumThenReset();
+        if (shed > 0) {
+            total += shed;
+            details.append(" circuitOpen=").append(shed);
+        }
+        final long asyncFailures = asyncFailuresSinceLastLog.sumThenReset();
+        if (asyncFailures > 0) {
+            total += asyncFailures;
+            details.append(" sendFailed=").append(asyncFailures);
+        }
+
+        if (total > 0) {
+            LOGGER.warn("Send queue dropped {} spans in the last {}ms with the {} overflow policy:{}",
+                        total, overflowLogIntervalMillis, overflowPolicy.name(), details);
+        }
+    }
+
     @Override
     public void close() {
         try (Sample timer = closeTimer.start()) {
@@ -147,11 +321,11 @@ public class RemoteDispatcher implements Dispatcher {
                 // failed to fully flush the queue so force canceling
                 closeTimeoutCounter.increment();
                 LOGGER.warn("Timeout attempting to fully empty the queue before shutting down");
-                senderTask.cancel(true);
+                cancelSenderTasks();
             } catch (InterruptedException e) {
                 LOGGER.warn("Interrupted attempting to shutting down");
                 closeInterruptedCounter.increment();
-                senderTask.cancel(true);
+                cancelSenderTasks();
             } catch (CancellationException | ExecutionException e) {
                 // do nothing, task was cancelled or finished with an exception
                 closeExceptionCounter.increment();
@@ -159,6 +333,9 @@ public class RemoteDispatcher implements Dispatcher {
             } finally {
                 client.close();
                 flushTask.cancel(true);
+                overflowLogTask.cancel(false);
+                logOverflows();
+                closeSpillTier();
 
                 try {
                     executor.shutdown();
@@ -177,6 +354,167 @@ public class RemoteDispatcher implements Dispatcher {
         }
     }
 
+    /**
+     * @return the share of the accept queue's capacity in use, between 0 and 1
+     */
+    public double getQueueOccupancy() {
+        final int size = acceptQueue.size();
+        final long capacity = (long) size + acceptQueue.remainingCapacity();
+        return capacity <= 0 ? 0 : (double) size / capacity;
+    }
+
+    /**
+     * @return recent time the client took to send a batch, or for an async client to complete a span, smoothed
+     * over the last few sends; zero before the first send
+     */
+    public long getSendLatencyMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(sendLatencyNanos);
+    }
+
+    private void recordSendLatency(long nanos) {
+        final long current = sendLatencyNanos;
+        sendLatencyNanos = current + ((nanos - current) >> 3);
+    }
+
+    /**
+     * Lets the spill tier hold replay off while the client is failing, and resume once it succeeds again.
+     */
+    private void recordSendOutcome(boolean succeeded) {
+        if (spillTier == null) {
+            return;
+        }
+        if (succeeded) {
+            spillTier.onSendSuccess();
+        } else {
+            spillTier.onSendFailure();
+        }
+    }
+
+    private void closeSpillTier() {
+        if (spillTier == null) {
+            return;
+        }
+        replayTask.cancel(false);
+        try {
+            spillTier.close();
+        } catch (ClientException e) {
+            closeExceptionCounter.increment();
+            LOGGER.warn("Spill tier failed to close", e);
+        }
+    }
+
+    private void cancelSenderTasks() {
+        for (CompletableFuture<Void> task : senderTasks) {
+            task.cancel(true);
+        }
+    }
+
+    /**
+     * Drains the accept queue in batches of up to <code>maxBatchSize</code> spans per wakeup and hands them to
+     * the client. Each worker keeps its own batch buffer and busy time so workers never contend with each other
+     * outside of the accept queue itself.
+     */
+    private final class SenderWorker implements Runnable {
+        private final List<Span> batch = new ArrayList<>(maxBatchSize);
+        private final long startNanos = System.nanoTime();
+        private volatile long busyNanos;
+
+        @Override
+        public void run() {
+            while (running.get() || !(acceptQueue.isEmpty())) {
+                try {
+                    final Span first = acceptQueue.poll(pollTimeoutMillis, TimeUnit.MILLISECONDS);
+                    if (first != null) {
+                        sendBatch(first);
+                    }
+                } catch (InterruptedException e) {
+                    // do nothing; will retry next interation
+                    sendInterruptedCounter.increment();
+                }
+            }
+        }
+
+        private void sendBatch(Span first) {
+            final long start = System.nanoTime();
+            try (Sample batchSample = batchTimer.start()) {
+                batch.add(first);
+                acceptQueue.drainTo(batch, maxBatchSize - 1);
+                batchSizeCounter.increment(batch.size());
+
+                if (asyncClient != null) {
+                    sendAsync();
+                    return;
+                }
+
+                final long sendStart = System.nanoTime();
+                try (Sample timer = sendTimer.start()) {
+                    final boolean sent = client.send(batch);
+                    recordSendLatency(System.nanoTime() - sendStart);
+                    recordSendOutcome(sent);
+                } catch (CircuitOpenException e) {
+                    recordSendOutcome(false);
+                    // the endpoint is known to be down and the batch wasn't delivered; don't log or wait on it
+                    final Collection<?> unsent = e.getUnsent().isEmpty() ? batch : e.getUnsent();
+                    for (Object unsentSpan : unsent) {
+                        if (!(unsentSpan instanceof Span)) {
+                            continue;
+                        }
+                        final Span span = (Span) unsentSpan;
+                        if (spillTier != null && spillTier.spill(span)) {
+                            sendSpilledCounter.increment();
+                        } else {
+                            sendShedCounter.increment();
+                            shedSinceLastLog.increment();
+                        }
+                    }
+                } catch (ClientException e) {
+                    recordSendLatency(System.nanoTime() - sendStart);
+                    recordSendOutcome(false);
+                    sendExceptionCounter.increment();
+                    LOGGER.error("Client reported a failure sending a batch of {} spans:", batch.size(), e);
+                }
+            } finally {
+                // clients serialize the spans as they send them
+                for (Span span : batch) {
+                    span.release();
+                }
+                batch.clear();
+                busyNanos += System.nanoTime() - start;
+            }
+        }
+
+        /**
+         * Hands every span to the async client without waiting on the responses; failures come back through the
+         * futures and are folded into the periodic overflow warning. The client blocks us once it has as many
+         * requests in flight as it allows.
+         */
+        @SuppressWarnings("unchecked")
+        private void sendAsync() {
+            try (Sample timer = sendTimer.start()) {
+                for (Span span : batch) {
+                    final long sendStart = System.nanoTime();
+                    final CompletableFuture<Boolean> sent = asyncClient.sendAsync(span);
+                    sent.whenComplete((result, failure) -> {
+                        recordSendLatency(System.nanoTime() - sendStart);
+                        recordSendOutcome(failure == null && Boolean.TRUE.equals(result));
+                        if (failure != null) {
+                            sendExceptionCounter.increment();
+                            asyncFailuresSinceLastLog.increment();
+                        }
+                    });
+                }
+            }
+        }
+
+        /**
+         * @return the fraction of time since this worker started that it spent sending spans
+         */
+        double utilization() {
+            final long elapsed = System.nanoTime() - startNanos;
+            return elapsed <= 0 ? 0 : (double) busyNanos / elapsed;
+        }
+    }
+
     public static final class Builder {
         private Metrics metrics;
         private Client client;
@@ -184,6 +522,13 @@ public class RemoteDispatcher implements Dispatcher {
         private long flushInterval;
         private long shutdownTimeout;
         private ScheduledExecutorService executor;
+        private int executorThreads;
+        private int senderThreads;
+        private int maxBatchSize;
+        private long pollTimeoutMillis;
+        private OverflowPolicy overflowPolicy;
+        private long overflowLogIntervalMillis;
+        private SpillTier spillTier;
 
         public Builder(MetricsRegistry registry, Client client) {
             this(new Metrics(registry, Dispatcher.class.getName(), Arrays.asList(new Tag("type", "remote"))), client);
@@ -195,7 +540,12 @@ public class RemoteDispatcher implements Dispatcher {
             acceptQueue = new ArrayBlockingQueue<>(1000);
             flushInterval = TimeUnit.MINUTES.toMillis(1);
             shutdownTimeout = TimeUnit.MINUTES.toMillis(1);
-            executor = Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors());
+            executorThreads = Runtime.getRuntime().availableProcessors();
+            senderThreads = DEFAULT_SENDER_THREADS;
+            maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+            pollTimeoutMillis = DEFAULT_POLL_TIMEOUT_MILLIS;
+            overflowPolicy = new DropNewestPolicy();
+            overflowLogIntervalMillis = DEFAULT_OVERFLOW_LOG_INTERVAL_MILLIS;
         }
 
         public Builder withExecutor(ScheduledExecutorService executor) {
@@ -203,8 +553,43 @@ public class RemoteDispatcher implements Dispatcher {
             return this;
         }
 
+        /**
+         * Sizes the executor the dispatcher creates for itself. It is always given at least one thread more than
+         * the number of sender workers so that the periodic flush can still run.
+         *
+         * @param threads number of threads for the dispatcher's own executor
+         * @return this builder instance
+         */
         public Builder withExecutorThreadCount(int threads) {
-            executor = Executors.newScheduledThreadPool(threads);
+            this.executor = null;
+            this.executorThreads = threads;
+            return this;
+        }
+
+        /**
+         * @param senderThreads number of workers concurrently draining the queue and sending to the client
+         * @return this builder instance
+         */
+        public Builder withSenderThreadCount(int senderThreads) {
+            this.senderThreads = senderThreads;
+            return this;
+        }
+
+        /**
+         * @param maxBatchSize maximum number of spans a sender worker takes off the queue per wakeup
+         * @return this builder instance
+         */
+        public Builder withMaxBatchSize(int maxBatchSize) {
+            this.maxBatchSize = maxBatchSize;
+            return this;
+        }
+
+        /**
+         * @param pollTimeoutMillis how long an idle sender worker waits for a span before checking for shutdown
+         * @return this builder instance
+         */
+        public Builder withPollTimeoutMillis(long pollTimeoutMillis) {
+            this.pollTimeoutMillis = pollTimeoutMillis;
             return this;
         }
 
@@ -218,6 +603,50 @@ public class RemoteDispatcher implements Dispatcher {
             return this;
         }
 
+        /**
+         * Uses a pre-allocated, lock-free {@link RingBufferQueue} as the accept queue instead of an
+         * {@link ArrayBlockingQueue}, so finishing a span never contends on a lock.
+         *
+         * @param limit minimum number of spans the queue holds; rounded up to the next power of two
+         * @param waitStrategy how idle sender workers wait for new spans
+         * @return this builder instance
+         */
+        public Builder withRingBufferQueue(int limit, WaitStrategy waitStrategy) {
+            this.acceptQueue = new RingBufferQueue<>(limit, waitStrategy);
+            return this;
+        }
+
+        /**
+         * @param overflowPolicy what to do with spans when the accept queue is full; defaults to dropping them
+         * @return this builder instance
+         * @see com.expedia.www.haystack.client.dispatchers.overflow
+         */
+        public Builder withOverflowPolicy(OverflowPolicy overflowPolicy) {
+            this.overflowPolicy = overflowPolicy;
+            return this;
+        }
+
+        /**
+         * @param overflowLogIntervalMillis how often a single warning summarizing dropped spans is logged
+         * @return this builder instance
+         */
+        public Builder withOverflowLogIntervalMillis(long overflowLogIntervalMillis) {
+            this.overflowLogIntervalMillis = overflowLogIntervalMillis;
+            return this;
+        }
+
+        /**
+         * Spills spans the overflow policy rejects to disk instead of dropping them, and replays them once the
+         * remote end accepts spans again. Spans a policy evicts or samples out are still dropped.
+         *
+         * @param spillTier disk tier to spill to; closed along with the dispatcher
+         * @return this builder instance
+         */
+        public Builder withSpillTier(SpillTier spillTier) {
+            this.spillTier = spillTier;
+            return this;
+        }
+
         public Builder withFlushIntervalMillis(long flushInterval) {
             this.flushInterval = flushInterval;
             return this;
@@ -229,7 +658,14 @@ public class RemoteDispatcher implements Dispatcher {
         }
 
         public RemoteDispatcher build() {
-            return new RemoteDispatcher(metrics, client, acceptQueue, flushInterval, shutdownTimeout, executor);
+            ScheduledExecutorService executor = this.executor;
+            if (executor == null) {
+                final int periodicTasks = spillTier == null ? 1 : 2;
+                executor = Executors.newScheduledThreadPool(Math.max(executorThreads, senderThreads + periodicTasks));
+            }
+            return new RemoteDispatcher(metrics, client, acceptQueue, flushInterval, shutdownTimeout, executor,
+                                        senderThreads, maxBatchSize, pollTimeoutMillis, overflowPolicy, overflowLogIntervalMillis,
+                                        spillTier);
         }
     }
 }
@@ -0,0 +1,444 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers;
+
+import com.expedia.www.haystack.client.Id;
+import com.expedia.www.haystack.client.LogData;
+import com.expedia.www.haystack.client.Span;
+import com.expedia.www.haystack.client.dispatchers.tail.TraceRule;
+import com.expedia.www.haystack.client.metrics.*;
+import org.apache.commons.lang3.Validate;
+import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
+import org.apache.commons.lang3.builder.ToStringStyle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds finished spans back by trace and decides per whole trace whether to hand them to the wrapped dispatcher,
+ * so slow and failed traces can be kept while the bulk of unremarkable ones are never exported.
+ * <p>
+ * A trace is decided when its local root span (the one without a parent in this process) finishes, or once it
+ * has been buffered for <code>traceTimeoutMillis</code>, and it is kept when any of the {@link TraceRule}s keeps
+ * it. Spans that finish after their trace was decided follow the decision, for as long as it is remembered.
+ * <p>
+ * Buffered spans are held to a memory budget, estimated from their tags and logs. When a new span goes over it,
+ * the oldest traces are decided early on the spans they have so far.
+ */
+public class TailSamplingDispatcher implements Dispatcher {
+    private static final Logger LOGGER = LoggerFactory.getLogger(TailSamplingDispatcher.class);
+
+    private final Dispatcher delegate;
+    private final List<TraceRule> rules;
+    private final long traceTimeoutNanos;
+    private final long memoryBudgetBytes;
+    private final int maxDecisions;
+    private final ScheduledExecutorService executor;
+    private final Future sweepTask;
+    private final AtomicBoolean running;
+
+    private final ConcurrentHashMap<Id, PendingTrace> pending;
+    private final ConcurrentLinkedQueue<Id> arrivals;
+    private final ConcurrentHashMap<Id, Boolean> decisions;
+    private final ConcurrentLinkedQueue<Id> decisionOrder;
+    private final AtomicLong bufferedBytes;
+
+    private final Counter keptCounter;
+    private final Counter droppedCounter;
+    private final Counter rootDecisionCounter;
+    private final Counter timeoutDecisionCounter;
+    private final Counter evictionDecisionCounter;
+    private final Counter closeDecisionCounter;
+    private final Counter lateKeptCounter;
+    private final Counter lateDroppedCounter;
+
+    public TailSamplingDispatcher(Metrics metrics, Dispatcher delegate, List<TraceRule> rules, long traceTimeoutMillis,
+                                  long memoryBudgetBytes, int maxDecisions, long sweepInterval,
+                                  ScheduledExecutorService executor) {
+        Validate.notNull(delegate);
+        Validate.isTrue(memoryBudgetBytes > 0, "memoryBudgetBytes must be positive");
+        Validate.isTrue(maxDecisions > 0, "maxDecisions must be positive");
+
+        this.delegate = delegate;
+        this.rules = new ArrayList<>(rules);
+        this.traceTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(traceTimeoutMillis);
+        this.memoryBudgetBytes = memoryBudgetBytes;
+        this.maxDecisions = maxDecisions;
+        this.executor = executor;
+        this.running = new AtomicBoolean(true);
+
+        this.pending = new ConcurrentHashMap<>();
+        this.arrivals = new ConcurrentLinkedQueue<>();
+        this.decisions = new ConcurrentHashMap<>();
+        this.decisionOrder = new ConcurrentLinkedQueue<>();
+        this.bufferedBytes = new AtomicLong();
+
+        this.keptCounter = Counter.builder("trace").tag(new Tag("state", "kept")).register(metrics);
+        this.droppedCounter = Counter.builder("trace").tag(new Tag("state", "dropped")).register(metrics);
+        this.rootDecisionCounter = Counter.builder("decision").tag(new Tag("state", "root")).register(metrics);
+        this.timeoutDecisionCounter = Counter.builder("decision").tag(new Tag("state", "timeout")).register(metrics);
+        this.evictionDecisionCounter = Counter.builder("decision").tag(new Tag("state", "evicted")).register(metrics);
+        this.closeDecisionCounter = Counter.builder("decision").tag(new Tag("state", "close")).register(metrics);
+        this.lateKeptCounter = Counter.builder("late").tag(new Tag("state", "kept")).register(metrics);
+        this.lateDroppedCounter = Counter.builder("late").tag(new Tag("state", "dropped")).register(metrics);
+
+        // held in the registry; but we don't need a local reference
+        Gauge.builder("pendingTraces", pending, Map::size).register(metrics);
+        Gauge.builder("bufferedBytes", bufferedBytes, AtomicLong::get).register(metrics);
+
+        this.sweepTask = executor.scheduleWithFixedDelay(this::sweep, sweepInterval, sweepInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public String toString() {
+        return new ReflectionToStringBuilder(this, ToStringStyle.SIMPLE_STYLE)
+                .setExcludeFieldNames("executor", "sweepTask", "pending", "arrivals", "decisions", "decisionOrder")
+                .toString();
+    }
+
+    @Override
+    public void dispatch(Span span) {
+        if (!running.get()) {
+            delegate.dispatch(span);
+            return;
+        }
+
+        final Id traceId = span.context().getTraceIdAsId();
+        final Boolean decided = decisions.get(traceId);
+        if (decided != null) {
+            late(span, decided);
+            return;
+        }
+
+        final long size = estimateSize(span);
+        final PendingTrace trace = pending.computeIfAbsent(traceId, (id) -> {
+            arrivals.add(id);
+            return new PendingTrace(System.nanoTime());
+        });
+        if (!trace.add(span, size)) {
+            // decided between our lookup and the add
+            late(span, trace.isKept());
+            return;
+        }
+        bufferedBytes.addAndGet(size);
+
+        if (span.isLocalRoot()) {
+            decide(traceId, trace, rootDecisionCounter);
+        }
+        if (bufferedBytes.get() > memoryBudgetBytes) {
+            evictOverBudget();
+        }
+    }
+
+    private void late(Span span, boolean kept) {
+        if (kept) {
+            lateKeptCounter.increment();
+            delegate.dispatch(span);
+        } else {
+            lateDroppedCounter.increment();
+            span.release();
+        }
+    }
+
+    /**
+     * Decides the trace, then publishes the decision, and only then drops the pending entry. A span arriving in
+     * between finds either the decided entry, which turns it away to follow the decision, or the decision itself;
+     * never neither, which would start the trace over.
+     */
+    private void decide(Id traceId, PendingTrace trace, Counter reason) {
+        final List<Span> spans = trace.decide(this::keep);
+        if (spans == null) {
+            // another thread got to it first
+            return;
+        }
+        bufferedBytes.addAndGet(-trace.bytes());
+        reason.increment();
+        remember(traceId, trace.isKept());
+        pending.remove(traceId, trace);
+
+        if (trace.isKept()) {
+            keptCounter.increment();
+            delegate.dispatch(spans);
+        } else {
+            droppedCounter.increment();
+            for (Span span : spans) {
+                span.release();
+            }
+        }
+    }
+
+    private boolean keep(List<Span> spans) {
+        for (TraceRule rule : rules) {
+            if (rule.keep(spans)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Remembers the decision, forgetting the oldest decisions once there are more than <code>maxDecisions</code>.
+     */
+    private void remember(Id traceId, boolean kept) {
+        if (decisions.put(traceId, kept) == null) {
+            decisionOrder.offer(traceId);
+        }
+        while (decisions.size() > maxDecisions) {
+            final Id oldest = decisionOrder.poll();
+            if (oldest == null) {
+                return;
+            }
+            decisions.remove(oldest);
+        }
+    }
+
+    private void evictOverBudget() {
+        while (bufferedBytes.get() > memoryBudgetBytes) {
+            final Id oldest = arrivals.poll();
+            if (oldest == null) {
+                return;
+            }
+            final PendingTrace trace = pending.get(oldest);
+            if (trace != null) {
+                decide(oldest, trace, evictionDecisionCounter);
+            }
+        }
+    }
+
+    /**
+     * Decides the traces that have been waiting for longer than the timeout, and drops the arrival records of
+     * traces that were decided since.
+     */
+    void sweep() {
+        try {
+            final long now = System.nanoTime();
+            for (Map.Entry<Id, PendingTrace> entry : pending.entrySet()) {
+                if (now - entry.getValue().firstSeenNanos() >= traceTimeoutNanos) {
+                    decide(entry.getKey(), entry.getValue(), timeoutDecisionCounter);
+                }
+            }
+            arrivals.removeIf((id) -> !pending.containsKey(id));
+        } catch (RuntimeException e) {
+            // never let an exception cancel the periodic sweep
+            LOGGER.error("Failed sweeping tail sampled traces", e);
+        }
+    }
+
+    /**
+     * Rough heap footprint of a buffered span: the span with its context and ids, plus its tags and logs.
+     */
+    static long estimateSize(Span span) {
+        long size = 256;
+        for (Map.Entry<String, Object> tag : span.getTags().entrySet()) {
+            size += 48 + sizeOf(tag.getKey()) + sizeOf(tag.getValue());
+        }
+        for (LogData log : span.getLogs()) {
+            size += 64;
+            for (Map.Entry<String, ?> field : log.getFields().entrySet()) {
+                size += 48 + sizeOf(field.getKey()) + sizeOf(field.getValue());
+            }
+        }
+        return size;
+    }
+
+    private static long sizeOf(Object value) {
+        if (value instanceof String) {
+            return 40 + 2L * ((String) value).length();
+        }
+        return 16;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        delegate.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        running.set(false);
+        sweepTask.cancel(false);
+        try {
+            // the traces still buffered are decided on what they have
+            for (Map.Entry<Id, PendingTrace> entry : pending.entrySet()) {
+                decide(entry.getKey(), entry.getValue(), closeDecisionCounter);
+            }
+            arrivals.clear();
+            decisions.clear();
+            decisionOrder.clear();
+            delegate.close();
+        } finally {
+            try {
+                executor.shutdown();
+            } catch (SecurityException e) {
+                LOGGER.warn("Executor pool failed to close", e);
+            }
+        }
+    }
+
+    int pendingTraces() {
+        return pending.size();
+    }
+
+    long bufferedBytes() {
+        return bufferedBytes.get();
+    }
+
+    /**
+     * The spans of one trace finished so far. Threads finishing spans of the same trace and the thread deciding it
+     * meet on its monitor; once decided it takes no more spans.
+     */
+    private static final class PendingTrace {
+        private final long firstSeenNanos;
+        private final List<Span> spans = new ArrayList<>(4);
+        private long bytes;
+        private boolean decided;
+        private boolean kept;
+
+        PendingTrace(long firstSeenNanos) {
+            this.firstSeenNanos = firstSeenNanos;
+        }
+
+        long firstSeenNanos() {
+            return firstSeenNanos;
+        }
+
+        synchronized boolean add(Span span, long size) {
+            if (decided) {
+                return false;
+            }
+            spans.add(span);
+            bytes += size;
+            return true;
+        }
+
+        /**
+         * @return the trace's spans, or <code>null</code> if it was already decided
+         */
+        synchronized List<Span> decide(TraceRule rule) {
+            if (decided) {
+                return null;
+            }
+            decided = true;
+            kept = rule.keep(spans);
+            return spans;
+        }
+
+        synchronized boolean isKept() {
+            return kept;
+        }
+
+        synchronized long bytes() {
+            return bytes;
+        }
+    }
+
+    public static final class Builder {
+        private final Metrics metrics;
+        private final Dispatcher delegate;
+        private final List<TraceRule> rules = new ArrayList<>();
+        private long traceTimeoutMillis;
+        private long memoryBudgetBytes;
+        private int maxDecisions;
+        private long sweepInterval;
+        private ScheduledExecutorService executor;
+
+        public Builder(MetricsRegistry registry, Dispatcher delegate) {
+            this(new Metrics(registry, Dispatcher.class.getName(), Collections.singletonList(new Tag("type", "tail"))), delegate);
+        }
+
+        public Builder(Metrics metrics, Dispatcher delegate) {
+            this.metrics = metrics;
+            this.delegate = delegate;
+            this.traceTimeoutMillis = TimeUnit.SECONDS.toMillis(10);
+            this.memoryBudgetBytes = 16 * 1024 * 1024;
+            this.maxDecisions = 10_000;
+            this.sweepInterval = TimeUnit.SECONDS.toMillis(1);
+        }
+
+        /**
+         * @param rule rule that can keep a trace; with no rules every trace is dropped
+         * @return this builder instance
+         */
+        public Builder withRule(TraceRule rule) {
+            rules.add(rule);
+            return this;
+        }
+
+        /**
+         * @param traceTimeoutMillis how long a trace is buffered before it is decided without its local root
+         * @return this builder instance
+         */
+        public Builder withTraceTimeoutMillis(long traceTimeoutMillis) {
+            this.traceTimeoutMillis = traceTimeoutMillis;
+            return this;
+        }
+
+        /**
+         * @param memoryBudgetBytes estimated heap the buffered spans may take before the oldest traces are decided
+         * @return this builder instance
+         */
+        public Builder withMemoryBudgetBytes(long memoryBudgetBytes) {
+            this.memoryBudgetBytes = memoryBudgetBytes;
+            return this;
+        }
+
+        /**
+         * @param maxDecisions decided traces remembered for spans that finish after the decision
+         * @return this builder instance
+         */
+        public Builder withMaxDecisions(int maxDecisions) {
+            this.maxDecisions = maxDecisions;
+            return this;
+        }
+
+        /**
+         * @param sweepInterval how often traces are checked for the timeout
+         * @return this builder instance
+         */
+        public Builder withSweepIntervalMillis(long sweepInterval) {
+            this.sweepInterval = sweepInterval;
+            return this;
+        }
+
+        public Builder withExecutor(ScheduledExecutorService executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        public TailSamplingDispatcher build() {
+            ScheduledExecutorService executor = this.executor;
+            if (executor == null) {
+                executor = Executors.newSingleThreadScheduledExecutor();
+            }
+            return new TailSamplingDispatcher(metrics, delegate, rules, traceTimeoutMillis, memoryBudgetBytes,
+                    maxDecisions, sweepInterval, executor);
+        }
+    }
+}
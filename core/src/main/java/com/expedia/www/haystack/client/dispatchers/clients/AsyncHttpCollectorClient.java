@@ -0,0 +1,70 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers.clients;
+
+import com.expedia.www.haystack.client.Span;
+import com.expedia.www.haystack.client.dispatchers.formats.Format;
+import com.expedia.www.haystack.client.dispatchers.formats.ProtoBufEncoder;
+import com.expedia.www.haystack.client.dispatchers.formats.Utf8Cache;
+import com.expedia.www.haystack.client.metrics.Metrics;
+import com.expedia.www.haystack.client.metrics.MetricsRegistry;
+import com.expedia.www.haystack.remote.clients.BaseAsyncHttpClient;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+
+import java.util.Map;
+
+public class AsyncHttpCollectorClient extends BaseAsyncHttpClient<Span> {
+    private final Format<com.expedia.open.tracing.Span> format;
+    private final ProtoBufEncoder encoder;
+
+    /**
+     * @param format format to build the protobuf span with; <code>null</code> writes the default protobuf format
+     *               directly with a {@link ProtoBufEncoder}
+     */
+    public AsyncHttpCollectorClient(Metrics metrics, Format<com.expedia.open.tracing.Span> format, String endpoint, Map<String, String> headers,
+                                    CloseableHttpAsyncClient httpClient, int maxInFlight, long flushTimeoutMillis) {
+        super(metrics, endpoint, headers, httpClient, maxInFlight, flushTimeoutMillis);
+        this.format = format;
+        this.encoder = format == null ? new ProtoBufEncoder(new Utf8Cache.Builder(metrics).build()) : null;
+    }
+
+    @Override
+    protected byte[] encode(Span span) {
+        return encoder != null ? encoder.encode(span) : format.format(span).toByteArray();
+    }
+
+    public static final class Builder extends BaseAsyncHttpClient.Builder<Builder> {
+        private Format<com.expedia.open.tracing.Span> format;
+
+        public Builder(MetricsRegistry registry, String endpoint) {
+            super(registry, endpoint);
+        }
+
+        public Builder(Metrics metrics, String endpoint) {
+            super(metrics, endpoint);
+        }
+
+        public AsyncHttpCollectorClient.Builder withFormat(Format<com.expedia.open.tracing.Span> format) {
+            this.format = format;
+            return this;
+        }
+
+        public AsyncHttpCollectorClient build() {
+            return new AsyncHttpCollectorClient(metrics, format, endpoint, headers, buildHttpClient(), maxInFlight, flushTimeoutMillis);
+        }
+    }
+}
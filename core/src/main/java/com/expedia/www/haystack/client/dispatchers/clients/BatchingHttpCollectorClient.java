@@ -0,0 +1,93 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers.clients;
+
+import com.expedia.www.haystack.client.Span;
+import com.expedia.www.haystack.client.dispatchers.formats.Format;
+import com.expedia.www.haystack.client.dispatchers.formats.ProtoBufEncoder;
+import com.expedia.www.haystack.client.dispatchers.formats.Utf8Cache;
+import com.expedia.www.haystack.client.metrics.Metrics;
+import com.expedia.www.haystack.client.metrics.MetricsRegistry;
+import com.expedia.www.haystack.remote.clients.BaseBatchingHttpClient;
+import com.google.protobuf.CodedOutputStream;
+import org.apache.http.impl.client.CloseableHttpClient;
+
+import java.io.IOException;
+import java.util.Map;
+
+public class BatchingHttpCollectorClient extends BaseBatchingHttpClient<Span> {
+    private final Format<com.expedia.open.tracing.Span> format;
+    private final ProtoBufEncoder encoder;
+
+    /**
+     * @param format format to build the protobuf span with; <code>null</code> writes the default protobuf format
+     *               directly with a {@link ProtoBufEncoder}
+     */
+    public BatchingHttpCollectorClient(Metrics metrics, Format<com.expedia.open.tracing.Span> format, String endpoint,
+                                       Map<String, String> headers, CloseableHttpClient httpClient,
+                                       int maxBatchSpans, int maxBatchBytes, long lingerMillis,
+                                       Compression compression, int compressionThreshold) {
+        this(metrics, format, endpoint, headers, httpClient, maxBatchSpans, maxBatchBytes, lingerMillis, compression,
+                compressionThreshold, DEFAULT_MAX_RETAINED_BATCHES);
+    }
+
+    public BatchingHttpCollectorClient(Metrics metrics, Format<com.expedia.open.tracing.Span> format, String endpoint,
+                                       Map<String, String> headers, CloseableHttpClient httpClient,
+                                       int maxBatchSpans, int maxBatchBytes, long lingerMillis,
+                                       Compression compression, int compressionThreshold, int maxRetainedBatches) {
+        super(metrics, endpoint, headers, httpClient, maxBatchSpans, maxBatchBytes, lingerMillis, compression,
+                compressionThreshold, maxRetainedBatches);
+        this.format = format;
+        this.encoder = format == null ? new ProtoBufEncoder(new Utf8Cache.Builder(metrics).build()) : null;
+    }
+
+    @Override
+    protected com.expedia.open.tracing.Span toProto(Span span) {
+        return format.format(span);
+    }
+
+    @Override
+    protected void writeDelimited(Span span, CodedOutputStream out) throws IOException {
+        if (encoder != null) {
+            encoder.writeDelimitedTo(span, out);
+        } else {
+            super.writeDelimited(span, out);
+        }
+    }
+
+    public static final class Builder extends BaseBatchingHttpClient.Builder<Builder> {
+        private Format<com.expedia.open.tracing.Span> format;
+
+        public Builder(MetricsRegistry registry, String endpoint) {
+            super(registry, endpoint);
+        }
+
+        public Builder(Metrics metrics, String endpoint) {
+            super(metrics, endpoint);
+        }
+
+        public BatchingHttpCollectorClient.Builder withFormat(Format<com.expedia.open.tracing.Span> format) {
+            this.format = format;
+            return this;
+        }
+
+        public BatchingHttpCollectorClient build() {
+            return new BatchingHttpCollectorClient(metrics, format, endpoint, headers, buildHttpClient(),
+                    maxBatchSpans, maxBatchBytes, lingerMillis, compression, compressionThreshold, maxRetainedBatches);
+        }
+    }
+}
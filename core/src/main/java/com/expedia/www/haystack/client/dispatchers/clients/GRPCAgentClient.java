@@ -22,6 +22,7 @@ import com.expedia.open.tracing.agent.api.SpanAgentGrpc.SpanAgentStub;
 import com.expedia.www.haystack.client.Span;
 import com.expedia.www.haystack.client.dispatchers.formats.Format;
 import com.expedia.www.haystack.client.dispatchers.formats.ProtoBufFormat;
+import com.expedia.www.haystack.client.dispatchers.formats.Utf8Cache;
 import com.expedia.www.haystack.client.metrics.Metrics;
 import com.expedia.www.haystack.client.metrics.MetricsRegistry;
 import com.expedia.www.haystack.client.metrics.Timer.Sample;
@@ -30,6 +31,8 @@ import com.expedia.www.haystack.remote.clients.ClientException;
 import io.grpc.ManagedChannel;
 import io.grpc.stub.StreamObserver;
 
+import java.util.Collection;
+
 public class GRPCAgentClient extends BaseGrpcClient<Span> {
     private final Format<com.expedia.open.tracing.Span> format;
 
@@ -51,6 +54,11 @@ public class GRPCAgentClient extends BaseGrpcClient<Span> {
         return true;
     }
 
+    @Override
+    public boolean send(Collection<Span> spans) throws ClientException {
+        return dispatch(spans, format::format);
+    }
+
     public static final class Builder extends BaseGrpcClient.Builder {
         private Format<com.expedia.open.tracing.Span> format;
 
@@ -83,7 +91,7 @@ public class GRPCAgentClient extends BaseGrpcClient<Span> {
             Format<com.expedia.open.tracing.Span> format = this.format;
 
             if(format == null) {
-                format = new ProtoBufFormat();
+                format = new ProtoBufFormat(new Utf8Cache.Builder(metrics).build());
             }
             return new GRPCAgentClient(metrics, format, managedChannel, stub, observer, shutdownTimeoutMS);
         }
@@ -17,8 +17,7 @@
 package com.expedia.www.haystack.client.dispatchers.clients;
 
 import com.expedia.www.haystack.client.Span;
-import com.expedia.www.haystack.client.dispatchers.formats.Format;
-import com.expedia.www.haystack.client.dispatchers.formats.ProtoBufFormat;
+import com.expedia.www.haystack.client.dispatchers.formats.ProtoBufEncoder;
 import com.expedia.www.haystack.remote.clients.BaseHttpClient;
 import com.expedia.www.haystack.remote.clients.Client;
 import com.expedia.www.haystack.remote.clients.ClientException;
@@ -28,11 +27,11 @@ import java.util.Collections;
 import java.util.Map;
 
 public class HttpCollectorClient extends BaseHttpClient implements Client<Span> {
-    private final Format<com.expedia.open.tracing.Span> format;
+    private final ProtoBufEncoder encoder;
 
     public HttpCollectorClient(String endpoint, Map<String, String> headers) {
         super(endpoint, headers);
-        this.format = new ProtoBufFormat();
+        this.encoder = new ProtoBufEncoder();
     }
 
     public HttpCollectorClient(String endpoint) {
@@ -43,12 +42,12 @@ public class HttpCollectorClient extends BaseHttpClient implements Client<Span>
                                final Map<String, String> headers,
                                final CloseableHttpClient httpClient) {
         super(endpoint, headers, httpClient);
-        this.format = new ProtoBufFormat();
+        this.encoder = new ProtoBufEncoder();
     }
 
     @Override
     public boolean send(Span span) throws ClientException {
-        final byte[] spanBytes = format.format(span).toByteArray();
-       return super.send(spanBytes);
+        final byte[] spanBytes = encoder.encode(span);
+        return super.send(spanBytes);
     }
 }
\ No newline at end of file
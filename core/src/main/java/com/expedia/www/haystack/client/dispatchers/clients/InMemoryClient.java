@@ -16,6 +16,7 @@
  */
 package com.expedia.www.haystack.client.dispatchers.clients;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -45,6 +46,8 @@ public class InMemoryClient implements Client<Span> {
     private List<Span> flushed;
 
     private final Timer sendTimer;
+    private final Timer batchTimer;
+    private final Counter batchSizeCounter;
     private final Counter sendExceptionCounter;
     private final Timer closeTimer;
     private final Timer flushTimer;
@@ -56,6 +59,8 @@ public class InMemoryClient implements Client<Span> {
         flushed = new LinkedList<>();
 
         this.sendTimer = Timer.builder("send").register(metrics);
+        this.batchTimer = Timer.builder("batch").register(metrics);
+        this.batchSizeCounter = Counter.builder("batchSize").register(metrics);
         this.sendExceptionCounter = Counter.builder("send").tag(new Tag("state", "exception")).register(metrics);
         this.closeTimer = Timer.builder("close").register(metrics);
         this.flushTimer = Timer.builder("flush").register(metrics);
@@ -71,8 +76,33 @@ public class InMemoryClient implements Client<Span> {
         LOGGER.info("Span sent to client: " + span);
         try (Sample timer = sendTimer.start()) {
             limiter.acquire();
-            total.add(span);
-            received.add(span);
+            synchronized (this) {
+                // kept for inspection, past the send
+                total.add(span.retain());
+                received.add(span);
+            }
+            limiter.release();
+            return true;
+        } catch (InterruptedException e) {
+            sendExceptionCounter.increment();
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public boolean send(Collection<Span> spans) {
+        LOGGER.info("Batch of {} spans sent to client", spans.size());
+        try (Sample timer = batchTimer.start()) {
+            batchSizeCounter.increment(spans.size());
+            limiter.acquire();
+            synchronized (this) {
+                for (Span span : spans) {
+                    // kept for inspection, past the send
+                    span.retain();
+                }
+                total.addAll(spans);
+                received.addAll(spans);
+            }
             limiter.release();
             return true;
         } catch (InterruptedException e) {
@@ -93,21 +123,30 @@ public class InMemoryClient implements Client<Span> {
     public void flush() {
         try (Sample timer = flushTimer.start()) {
             LOGGER.info("Client flushed");
-            flushed.addAll(received);
-            received = new LinkedList<>();
+            synchronized (this) {
+                flushed.addAll(received);
+                received = new LinkedList<>();
+            }
         }
     }
 
+    // the getters copy under the lock, as sender workers keep appending while callers iterate
     public List<Span> getTotalSpans() {
-        return Collections.unmodifiableList(total);
+        synchronized (this) {
+            return Collections.unmodifiableList(new ArrayList<>(total));
+        }
     }
 
     public List<Span> getFlushedSpans() {
-        return Collections.unmodifiableList(flushed);
+        synchronized (this) {
+            return Collections.unmodifiableList(new ArrayList<>(flushed));
+        }
     }
 
     public List<Span> getReceivedSpans() {
-        return Collections.unmodifiableList(received);
+        synchronized (this) {
+            return Collections.unmodifiableList(new ArrayList<>(received));
+        }
     }
 
     public static final class Builder {
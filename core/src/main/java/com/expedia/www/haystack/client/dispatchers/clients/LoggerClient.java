@@ -17,6 +17,7 @@
 package com.expedia.www.haystack.client.dispatchers.clients;
 
 import java.util.Arrays;
+import java.util.Collection;
 
 import com.expedia.www.haystack.remote.clients.Client;
 import org.slf4j.Logger;
@@ -38,6 +39,8 @@ public class LoggerClient implements Client<Span> {
     private final Logger logger;
 
     private final Timer sendTimer;
+    private final Timer batchTimer;
+    private final Counter batchSizeCounter;
     private final Counter closeCounter;
     private final Counter flushCounter;
 
@@ -50,6 +53,8 @@ public class LoggerClient implements Client<Span> {
         }
 
         this.sendTimer = Timer.builder("send").register(metrics);
+        this.batchTimer = Timer.builder("batch").register(metrics);
+        this.batchSizeCounter = Counter.builder("batchSize").register(metrics);
         this.closeCounter = Counter.builder("close").register(metrics);
         this.flushCounter = Counter.builder("flush").register(metrics);
     }
@@ -62,6 +67,19 @@ public class LoggerClient implements Client<Span> {
         }
     }
 
+    @Override
+    public boolean send(Collection<Span> spans) {
+        try (Sample timer = batchTimer.start()) {
+            batchSizeCounter.increment(spans.size());
+            if (logger.isInfoEnabled()) {
+                for (Span span : spans) {
+                    logger.info("{}", format.format(span));
+                }
+            }
+            return true;
+        }
+    }
+
     @Override
     public void close() {
         closeCounter.increment();
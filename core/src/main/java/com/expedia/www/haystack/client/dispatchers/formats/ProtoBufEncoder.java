@@ -0,0 +1,328 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers.formats;
+
+import com.expedia.open.tracing.Tag.TagType;
+import com.expedia.www.haystack.client.LogData;
+import com.expedia.www.haystack.client.Span;
+import com.expedia.www.haystack.client.SpanContext;
+import com.expedia.www.haystack.client.TagStore;
+import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a {@link Span} in the haystack <code>Span</code> wire format without building the generated protobuf
+ * messages in between.
+ * <p>
+ * The output is byte for byte what <code>new ProtoBufFormat().format(span).toByteArray()</code> produces: the same
+ * fields, in field number order, with proto3 defaults left out. Nested tags and logs are length prefixed, so their
+ * sizes are computed once for the enclosing size and again as they are written; that costs some cpu but no
+ * allocation. Tag values of types the format doesn't know are written through <code>toString()</code>, which is
+ * called once for the size and once for the write.
+ * <p>
+ * Service names, operation names and tag keys are written from a {@link Utf8Cache}, so the usual small set of
+ * them is encoded to UTF-8 once rather than for every span.
+ */
+public class ProtoBufEncoder {
+    private static final int SPAN_TRACE_ID = com.expedia.open.tracing.Span.TRACEID_FIELD_NUMBER;
+    private static final int SPAN_SPAN_ID = com.expedia.open.tracing.Span.SPANID_FIELD_NUMBER;
+    private static final int SPAN_PARENT_SPAN_ID = com.expedia.open.tracing.Span.PARENTSPANID_FIELD_NUMBER;
+    private static final int SPAN_SERVICE_NAME = com.expedia.open.tracing.Span.SERVICENAME_FIELD_NUMBER;
+    private static final int SPAN_OPERATION_NAME = com.expedia.open.tracing.Span.OPERATIONNAME_FIELD_NUMBER;
+    private static final int SPAN_START_TIME = com.expedia.open.tracing.Span.STARTTIME_FIELD_NUMBER;
+    private static final int SPAN_DURATION = com.expedia.open.tracing.Span.DURATION_FIELD_NUMBER;
+    private static final int SPAN_LOGS = com.expedia.open.tracing.Span.LOGS_FIELD_NUMBER;
+    private static final int SPAN_TAGS = com.expedia.open.tracing.Span.TAGS_FIELD_NUMBER;
+
+    private static final int LOG_TIMESTAMP = com.expedia.open.tracing.Log.TIMESTAMP_FIELD_NUMBER;
+    private static final int LOG_FIELDS = com.expedia.open.tracing.Log.FIELDS_FIELD_NUMBER;
+
+    private static final int TAG_KEY = com.expedia.open.tracing.Tag.KEY_FIELD_NUMBER;
+    private static final int TAG_TYPE = com.expedia.open.tracing.Tag.TYPE_FIELD_NUMBER;
+    private static final int TAG_VSTR = com.expedia.open.tracing.Tag.VSTR_FIELD_NUMBER;
+    private static final int TAG_VLONG = com.expedia.open.tracing.Tag.VLONG_FIELD_NUMBER;
+    private static final int TAG_VDOUBLE = com.expedia.open.tracing.Tag.VDOUBLE_FIELD_NUMBER;
+    private static final int TAG_VBOOL = com.expedia.open.tracing.Tag.VBOOL_FIELD_NUMBER;
+
+    private final Utf8Cache names;
+
+    public ProtoBufEncoder() {
+        this(new Utf8Cache.Builder(new NoopMetricsRegistry()).build());
+    }
+
+    /**
+     * @param names cache for the UTF-8 form of service names, operation names and tag keys
+     */
+    public ProtoBufEncoder(Utf8Cache names) {
+        this.names = names;
+    }
+
+    /**
+     * @param span span to encode
+     * @return the serialized span, sized exactly
+     */
+    public byte[] encode(Span span) {
+        final Span.Snapshot snapshot = span.snapshot();
+        final SpanContext context = snapshot.context();
+        final String traceId = context.toTraceId();
+        final String spanId = context.toSpanId();
+        final String parentId = context.getParentIdAsId() == null ? null : context.getParentIdAsId().toString();
+
+        final byte[] bytes = new byte[spanSize(snapshot, traceId, spanId, parentId)];
+        final CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+        try {
+            writeSpan(out, snapshot, traceId, spanId, parentId);
+            out.checkNoSpaceLeft();
+        } catch (IOException e) {
+            throw new IllegalStateException("Serializing a span to a byte array threw an IOException (should never happen).", e);
+        }
+        return bytes;
+    }
+
+    /**
+     * Writes the span's size as a varint followed by the span, the framing of
+     * {@link com.google.protobuf.MessageLite#writeDelimitedTo}.
+     *
+     * @param span span to encode
+     * @param out stream to write into; the caller owns flushing it
+     * @throws IOException if the underlying stream fails
+     */
+    public void writeDelimitedTo(Span span, CodedOutputStream out) throws IOException {
+        final Span.Snapshot snapshot = span.snapshot();
+        final SpanContext context = snapshot.context();
+        final String traceId = context.toTraceId();
+        final String spanId = context.toSpanId();
+        final String parentId = context.getParentIdAsId() == null ? null : context.getParentIdAsId().toString();
+
+        out.writeUInt32NoTag(spanSize(snapshot, traceId, spanId, parentId));
+        writeSpan(out, snapshot, traceId, spanId, parentId);
+    }
+
+    private int spanSize(Span.Snapshot span, String traceId, String spanId, String parentId) {
+        int size = stringSize(SPAN_TRACE_ID, traceId)
+                + stringSize(SPAN_SPAN_ID, spanId)
+                + stringSize(SPAN_PARENT_SPAN_ID, parentId)
+                + bytesSize(SPAN_SERVICE_NAME, names.get(span.getServiceName()))
+                + bytesSize(SPAN_OPERATION_NAME, names.get(span.getOperationName()))
+                + int64Size(SPAN_START_TIME, span.getStartTime())
+                + int64Size(SPAN_DURATION, span.getDuration());
+
+        final List<LogData> logs = span.getLogs();
+        for (int i = 0; i < logs.size(); i++) {
+            size += messageSize(SPAN_LOGS, logSize(logs.get(i)));
+        }
+        final TagStore tags = span.getTagStore();
+        for (int i = 0; i < tags.size(); i++) {
+            size += messageSize(SPAN_TAGS, tagSize(names.get(tags.key(i)), tags, i));
+        }
+        // baggage items go out as tags, as ProtoBufFormat does
+        for (Map.Entry<String, String> item : span.context().getBaggage().entrySet()) {
+            size += messageSize(SPAN_TAGS, tagSize(item.getKey(), item.getValue()));
+        }
+        return size;
+    }
+
+    private void writeSpan(CodedOutputStream out, Span.Snapshot span, String traceId, String spanId, String parentId) throws IOException {
+        writeString(out, SPAN_TRACE_ID, traceId);
+        writeString(out, SPAN_SPAN_ID, spanId);
+        writeString(out, SPAN_PARENT_SPAN_ID, parentId);
+        writeBytes(out, SPAN_SERVICE_NAME, names.get(span.getServiceName()));
+        writeBytes(out, SPAN_OPERATION_NAME, names.get(span.getOperationName()));
+        writeInt64(out, SPAN_START_TIME, span.getStartTime());
+        writeInt64(out, SPAN_DURATION, span.getDuration());
+
+        final List<LogData> logs = span.getLogs();
+        for (int i = 0; i < logs.size(); i++) {
+            final LogData log = logs.get(i);
+            writeMessageHeader(out, SPAN_LOGS, logSize(log));
+            writeInt64(out, LOG_TIMESTAMP, log.getTimestampMicros());
+            if (log.getEvent() != null) {
+                writeTag(out, LOG_FIELDS, log.getEvent(), null);
+            } else if (log.getFields() != null) {
+                for (Map.Entry<String, ?> field : log.getFields().entrySet()) {
+                    writeTag(out, LOG_FIELDS, field.getKey(), field.getValue());
+                }
+            }
+        }
+        final TagStore tags = span.getTagStore();
+        for (int i = 0; i < tags.size(); i++) {
+            writeTag(out, SPAN_TAGS, tags, i);
+        }
+        for (Map.Entry<String, String> item : span.context().getBaggage().entrySet()) {
+            writeTag(out, SPAN_TAGS, item.getKey(), item.getValue());
+        }
+    }
+
+    private int logSize(LogData log) {
+        int size = int64Size(LOG_TIMESTAMP, log.getTimestampMicros());
+        // a single event is written as one valueless field, without building the map it reads as
+        if (log.getEvent() != null) {
+            size += messageSize(LOG_FIELDS, tagSize(log.getEvent(), null));
+        } else if (log.getFields() != null) {
+            for (Map.Entry<String, ?> field : log.getFields().entrySet()) {
+                size += messageSize(LOG_FIELDS, tagSize(field.getKey(), field.getValue()));
+            }
+        }
+        return size;
+    }
+
+    private int tagSize(String key, Object value) {
+        return tagSize(names.get(key), value);
+    }
+
+    private static int tagSize(ByteString key, Object value) {
+        final int keySize = bytesSize(TAG_KEY, key);
+
+        // mirrors ProtoBufFormat.buildTag; the value is a oneof, so it is written even when it is the default
+        if (value == null) {
+            return keySize + CodedOutputStream.computeStringSize(TAG_VSTR, "");
+        } else if (value instanceof String) {
+            return keySize + CodedOutputStream.computeStringSize(TAG_VSTR, (String) value);
+        } else if (value instanceof Double || value instanceof Float) {
+            return keySize + CodedOutputStream.computeEnumSize(TAG_TYPE, TagType.DOUBLE_VALUE)
+                    + CodedOutputStream.computeDoubleSize(TAG_VDOUBLE, ((Number) value).doubleValue());
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short) {
+            return keySize + CodedOutputStream.computeEnumSize(TAG_TYPE, TagType.LONG_VALUE)
+                    + CodedOutputStream.computeInt64Size(TAG_VLONG, ((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            return keySize + CodedOutputStream.computeEnumSize(TAG_TYPE, TagType.BOOL_VALUE)
+                    + CodedOutputStream.computeBoolSize(TAG_VBOOL, (Boolean) value);
+        } else {
+            return keySize + CodedOutputStream.computeStringSize(TAG_VSTR, value.toString());
+        }
+    }
+
+    private static int tagSize(ByteString key, TagStore tags, int index) {
+        final int keySize = bytesSize(TAG_KEY, key);
+
+        switch (tags.type(index)) {
+            case TagStore.STRING:
+                return keySize + CodedOutputStream.computeStringSize(TAG_VSTR, (String) tags.objectValue(index));
+            case TagStore.LONG:
+                return keySize + CodedOutputStream.computeEnumSize(TAG_TYPE, TagType.LONG_VALUE)
+                        + CodedOutputStream.computeInt64Size(TAG_VLONG, tags.longValue(index));
+            case TagStore.DOUBLE:
+                return keySize + CodedOutputStream.computeEnumSize(TAG_TYPE, TagType.DOUBLE_VALUE)
+                        + CodedOutputStream.computeDoubleSize(TAG_VDOUBLE, tags.doubleValue(index));
+            case TagStore.BOOLEAN:
+                return keySize + CodedOutputStream.computeEnumSize(TAG_TYPE, TagType.BOOL_VALUE)
+                        + CodedOutputStream.computeBoolSize(TAG_VBOOL, tags.booleanValue(index));
+            default:
+                return tagSize(key, tags.objectValue(index));
+        }
+    }
+
+    private void writeTag(CodedOutputStream out, int fieldNumber, TagStore tags, int index) throws IOException {
+        final ByteString keyBytes = names.get(tags.key(index));
+
+        switch (tags.type(index)) {
+            case TagStore.STRING:
+                writeMessageHeader(out, fieldNumber, tagSize(keyBytes, tags, index));
+                writeBytes(out, TAG_KEY, keyBytes);
+                out.writeString(TAG_VSTR, (String) tags.objectValue(index));
+                break;
+            case TagStore.LONG:
+                writeMessageHeader(out, fieldNumber, tagSize(keyBytes, tags, index));
+                writeBytes(out, TAG_KEY, keyBytes);
+                out.writeEnum(TAG_TYPE, TagType.LONG_VALUE);
+                out.writeInt64(TAG_VLONG, tags.longValue(index));
+                break;
+            case TagStore.DOUBLE:
+                writeMessageHeader(out, fieldNumber, tagSize(keyBytes, tags, index));
+                writeBytes(out, TAG_KEY, keyBytes);
+                out.writeEnum(TAG_TYPE, TagType.DOUBLE_VALUE);
+                out.writeDouble(TAG_VDOUBLE, tags.doubleValue(index));
+                break;
+            case TagStore.BOOLEAN:
+                writeMessageHeader(out, fieldNumber, tagSize(keyBytes, tags, index));
+                writeBytes(out, TAG_KEY, keyBytes);
+                out.writeEnum(TAG_TYPE, TagType.BOOL_VALUE);
+                out.writeBool(TAG_VBOOL, tags.booleanValue(index));
+                break;
+            default:
+                writeTag(out, fieldNumber, tags.key(index), tags.objectValue(index));
+        }
+    }
+
+    private void writeTag(CodedOutputStream out, int fieldNumber, String key, Object value) throws IOException {
+        final ByteString keyBytes = names.get(key);
+        writeMessageHeader(out, fieldNumber, tagSize(keyBytes, value));
+        writeBytes(out, TAG_KEY, keyBytes);
+
+        if (value == null) {
+            out.writeString(TAG_VSTR, "");
+        } else if (value instanceof String) {
+            out.writeString(TAG_VSTR, (String) value);
+        } else if (value instanceof Double || value instanceof Float) {
+            out.writeEnum(TAG_TYPE, TagType.DOUBLE_VALUE);
+            out.writeDouble(TAG_VDOUBLE, ((Number) value).doubleValue());
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short) {
+            out.writeEnum(TAG_TYPE, TagType.LONG_VALUE);
+            out.writeInt64(TAG_VLONG, ((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            out.writeEnum(TAG_TYPE, TagType.BOOL_VALUE);
+            out.writeBool(TAG_VBOOL, (Boolean) value);
+        } else {
+            out.writeString(TAG_VSTR, value.toString());
+        }
+    }
+
+    private static int messageSize(int fieldNumber, int size) {
+        return CodedOutputStream.computeTagSize(fieldNumber) + CodedOutputStream.computeUInt32SizeNoTag(size) + size;
+    }
+
+    private static void writeMessageHeader(CodedOutputStream out, int fieldNumber, int size) throws IOException {
+        out.writeTag(fieldNumber, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        out.writeUInt32NoTag(size);
+    }
+
+    private static int stringSize(int fieldNumber, String value) {
+        return value == null || value.isEmpty() ? 0 : CodedOutputStream.computeStringSize(fieldNumber, value);
+    }
+
+    private static void writeString(CodedOutputStream out, int fieldNumber, String value) throws IOException {
+        if (value != null && !value.isEmpty()) {
+            out.writeString(fieldNumber, value);
+        }
+    }
+
+    private static int bytesSize(int fieldNumber, ByteString value) {
+        return value == null || value.isEmpty() ? 0 : CodedOutputStream.computeBytesSize(fieldNumber, value);
+    }
+
+    private static void writeBytes(CodedOutputStream out, int fieldNumber, ByteString value) throws IOException {
+        if (value != null && !value.isEmpty()) {
+            out.writeBytes(fieldNumber, value);
+        }
+    }
+
+    private static int int64Size(int fieldNumber, long value) {
+        return value == 0 ? 0 : CodedOutputStream.computeInt64Size(fieldNumber, value);
+    }
+
+    private static void writeInt64(CodedOutputStream out, int fieldNumber, long value) throws IOException {
+        if (value != 0) {
+            out.writeInt64(fieldNumber, value);
+        }
+    }
+}
@@ -22,6 +22,8 @@ import com.expedia.open.tracing.Tag.TagType;
 import com.expedia.www.haystack.client.LogData;
 import com.expedia.www.haystack.client.Span;
 import com.expedia.www.haystack.client.SpanContext;
+import com.expedia.www.haystack.client.TagStore;
+import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -30,33 +32,50 @@ import java.util.stream.Collectors;
 public class ProtoBufFormat implements Format<com.expedia.open.tracing.Span> {
     private static final Logger LOGGER = LoggerFactory.getLogger(ProtoBufFormat.class);
 
+    private final Utf8Cache names;
+
+    public ProtoBufFormat() {
+        this(new Utf8Cache.Builder(new NoopMetricsRegistry()).build());
+    }
+
+    /**
+     * @param names cache for the UTF-8 form of service names, operation names and tag keys
+     */
+    public ProtoBufFormat(Utf8Cache names) {
+        this.names = names;
+    }
+
     @Override
     public com.expedia.open.tracing.Span format(Span span) {
         com.expedia.open.tracing.Span.Builder builder = com.expedia.open.tracing.Span.newBuilder();
 
-        SpanContext context = span.context();
-        builder.setTraceId(context.getTraceId().toString())
-                .setSpanId(context.getSpanId().toString());
+        Span.Snapshot snapshot = span.snapshot();
+        SpanContext context = snapshot.context();
+        builder.setTraceId(context.toTraceId())
+                .setSpanId(context.toSpanId());
 
-        if (context.getParentId() != null) {
-            builder.setParentSpanId(context.getParentId().toString());
+        if (context.getParentIdAsId() != null) {
+            builder.setParentSpanId(context.getParentIdAsId().toString());
         }
 
-        builder.setServiceName(span.getServiceName())
-                .setOperationName(span.getOperationName())
-                .setStartTime(span.getStartTime());
+        builder.setServiceNameBytes(names.get(snapshot.getServiceName()))
+                .setOperationNameBytes(names.get(snapshot.getOperationName()))
+                .setStartTime(snapshot.getStartTime());
 
-        if (span.getDuration() != null) {
-            builder.setDuration(span.getDuration());
+        if (snapshot.isFinished()) {
+            builder.setDuration(snapshot.getDuration());
         }
 
-        builder.addAllLogs(span.getLogs().stream()
+        builder.addAllLogs(snapshot.getLogs().stream()
                            .map(this::buildLog)
-                           .collect(Collectors.toList()))
-                .addAllTags(span.getTags().entrySet().stream()
-                           .map(e -> buildTag(e.getKey(), e.getValue()))
-                           .collect(Collectors.toList()))
-                .addAllTags(context.getBaggage().entrySet().stream() // add the baggage items as tags for now
+                           .collect(Collectors.toList()));
+
+        final TagStore tags = snapshot.getTagStore();
+        for (int i = 0; i < tags.size(); i++) {
+            builder.addTags(buildTag(tags, i));
+        }
+
+        builder.addAllTags(context.getBaggage().entrySet().stream() // add the baggage items as tags for now
                            .map(e -> buildTag(e.getKey(), e.getValue()))
                            .collect(Collectors.toList()));
 
@@ -65,7 +84,7 @@ public class ProtoBufFormat implements Format<com.expedia.open.tracing.Span> {
 
     private Log buildLog(final LogData log) {
         final Log.Builder builder = Log.newBuilder()
-            .setTimestamp(log.getTimestamp());
+            .setTimestamp(log.getTimestampMicros());
 
         if (log.getFields() != null ) {
             builder.addAllFields(log.getFields().entrySet().stream()
@@ -75,8 +94,37 @@ public class ProtoBufFormat implements Format<com.expedia.open.tracing.Span> {
         return builder.build();
     }
 
+    private Tag buildTag(TagStore tags, int index) {
+        final Tag.Builder builder = Tag.newBuilder().setKeyBytes(names.get(tags.key(index)));
+
+        switch (tags.type(index)) {
+            case TagStore.STRING:
+                builder.setType(TagType.STRING);
+                builder.setVStr((String) tags.objectValue(index));
+                break;
+            case TagStore.LONG:
+                builder.setType(TagType.LONG);
+                builder.setVLong(tags.longValue(index));
+                break;
+            case TagStore.DOUBLE:
+                builder.setType(TagType.DOUBLE);
+                builder.setVDouble(tags.doubleValue(index));
+                break;
+            case TagStore.BOOLEAN:
+                builder.setType(TagType.BOOL);
+                builder.setVBool(tags.booleanValue(index));
+                break;
+            default:
+                final Object value = tags.objectValue(index);
+                builder.setType(TagType.STRING);
+                builder.setVStr(value == null ? "" : value.toString());
+        }
+
+        return builder.build();
+    }
+
     private Tag buildTag(String key, Object value) {
-        Tag.Builder builder = Tag.newBuilder().setKey(key);
+        Tag.Builder builder = Tag.newBuilder().setKeyBytes(names.get(key));
 
         if (value == null) {
             // just a message collected; adding an empty payload
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers.formats;
+
+import com.expedia.www.haystack.client.metrics.Counter;
+import com.expedia.www.haystack.client.metrics.Gauge;
+import com.expedia.www.haystack.client.metrics.Metrics;
+import com.expedia.www.haystack.client.metrics.MetricsRegistry;
+import com.expedia.www.haystack.client.metrics.Tag;
+import com.google.protobuf.ByteString;
+import org.apache.commons.lang3.Validate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bounded cache of the UTF-8 encoded form of low cardinality strings: service names, operation names and tag
+ * keys. A hit is a map lookup on the string's cached hash code and allocates nothing.
+ * <p>
+ * Strings longer than <code>maxLength</code> are never cached, so values that smuggle ids or urls in don't churn
+ * it. Once <code>maxEntries</code> strings are cached, each new one evicts an entry chosen by a clock sweep: a hit
+ * marks its entry, and the sweep gives marked entries a second chance, so the names in use stay while one-off
+ * names are the first to go. Hits only set a flag; the sweep and inserts are serialized, which only misses pay for.
+ */
+public class Utf8Cache {
+    private final int maxEntries;
+    private final int maxLength;
+    private final ConcurrentHashMap<String, Entry> encoded;
+    // the cached entries in the order the clock hand visits them; guarded by itself
+    private final List<Entry> ring;
+    private int hand;
+
+    private final Counter hitCounter;
+    private final Counter missCounter;
+    private final Counter evictionCounter;
+    private final Counter rejectedCounter;
+
+    public Utf8Cache(Metrics metrics, int maxEntries, int maxLength) {
+        Validate.isTrue(maxEntries > 0, "maxEntries must be positive");
+
+        this.maxEntries = maxEntries;
+        this.maxLength = maxLength;
+        this.encoded = new ConcurrentHashMap<>(Math.min(maxEntries, 1024));
+        this.ring = new ArrayList<>(Math.min(maxEntries, 1024));
+
+        this.hitCounter = Counter.builder("utf8Cache").tag(new Tag("state", "hit")).register(metrics);
+        this.missCounter = Counter.builder("utf8Cache").tag(new Tag("state", "miss")).register(metrics);
+        this.evictionCounter = Counter.builder("utf8Cache").tag(new Tag("state", "evicted")).register(metrics);
+        this.rejectedCounter = Counter.builder("utf8Cache").tag(new Tag("state", "rejected")).register(metrics);
+
+        // held in the registry; but we don't need a local reference
+        Gauge.builder("utf8CacheSize", encoded, Map::size).register(metrics);
+    }
+
+    /**
+     * @param value string to encode; may be <code>null</code>
+     * @return the UTF-8 bytes of the value, or <code>null</code> for a <code>null</code> value
+     */
+    public ByteString get(String value) {
+        if (value == null) {
+            return null;
+        }
+
+        final Entry cached = encoded.get(value);
+        if (cached != null) {
+            hitCounter.increment();
+            // only written when it changes, so hot entries don't keep dirtying their cache line
+            if (!cached.referenced) {
+                cached.referenced = true;
+            }
+            return cached.bytes;
+        }
+
+        final ByteString bytes = ByteString.copyFromUtf8(value);
+        if (value.length() > maxLength) {
+            rejectedCounter.increment();
+            return bytes;
+        }
+
+        missCounter.increment();
+        synchronized (ring) {
+            final Entry raced = encoded.get(value);
+            if (raced != null) {
+                return raced.bytes;
+            }
+            final Entry entry = new Entry(value, bytes);
+            if (ring.size() < maxEntries) {
+                ring.add(entry);
+            } else {
+                ring.set(evictOne(), entry);
+            }
+            encoded.put(value, entry);
+        }
+        return bytes;
+    }
+
+    /**
+     * Advances the clock hand past the entries hit since it last passed them, clearing their mark, and evicts the
+     * first unmarked one.
+     *
+     * @return the ring slot the evicted entry held
+     */
+    private int evictOne() {
+        while (true) {
+            final Entry entry = ring.get(hand);
+            final int slot = hand;
+            hand = (hand + 1) % ring.size();
+            if (entry.referenced) {
+                entry.referenced = false;
+            } else {
+                encoded.remove(entry.key);
+                evictionCounter.increment();
+                return slot;
+            }
+        }
+    }
+
+    int size() {
+        return encoded.size();
+    }
+
+    private static final class Entry {
+        private final String key;
+        private final ByteString bytes;
+        private volatile boolean referenced;
+
+        private Entry(String key, ByteString bytes) {
+            this.key = key;
+            this.bytes = bytes;
+        }
+    }
+
+    public static final class Builder {
+        private final Metrics metrics;
+        private int maxEntries = 1024;
+        private int maxLength = 128;
+
+        public Builder(MetricsRegistry registry) {
+            this(new Metrics(registry, Utf8Cache.class.getName(), Collections.emptyList()));
+        }
+
+        public Builder(Metrics metrics) {
+            this.metrics = metrics;
+        }
+
+        /**
+         * @param maxEntries most strings held at once
+         * @return this builder instance
+         */
+        public Builder withMaxEntries(int maxEntries) {
+            this.maxEntries = maxEntries;
+            return this;
+        }
+
+        /**
+         * @param maxLength longest string, in chars, worth caching
+         * @return this builder instance
+         */
+        public Builder withMaxLength(int maxLength) {
+            this.maxLength = maxLength;
+            return this;
+        }
+
+        public Utf8Cache build() {
+            return new Utf8Cache(metrics, maxEntries, maxLength);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers.overflow;
+
+import com.expedia.www.haystack.client.Span;
+import org.apache.commons.lang3.Validate;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Makes the finishing thread wait up to a timeout for room in the queue before dropping the span. This trades
+ * application latency for completeness and should only be used with short timeouts.
+ */
+public class BlockWithTimeoutPolicy implements OverflowPolicy {
+    private final long timeoutMillis;
+
+    public BlockWithTimeoutPolicy(long timeoutMillis) {
+        Validate.isTrue(timeoutMillis >= 0, "timeoutMillis can't be negative");
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public String name() {
+        return "block-with-timeout";
+    }
+
+    @Override
+    public Outcome offer(BlockingQueue<Span> queue, Span span) {
+        if (queue.offer(span)) {
+            return Outcome.ACCEPTED;
+        }
+        try {
+            return queue.offer(span, timeoutMillis, TimeUnit.MILLISECONDS) ? Outcome.ACCEPTED : Outcome.TIMED_OUT;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Outcome.REJECTED;
+        }
+    }
+}
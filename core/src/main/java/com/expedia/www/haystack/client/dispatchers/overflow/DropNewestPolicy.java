@@ -0,0 +1,37 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers.overflow;
+
+import com.expedia.www.haystack.client.Span;
+
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Drops the span being dispatched when the queue is full. This is the default policy.
+ */
+public class DropNewestPolicy implements OverflowPolicy {
+
+    @Override
+    public String name() {
+        return "drop-newest";
+    }
+
+    @Override
+    public Outcome offer(BlockingQueue<Span> queue, Span span) {
+        return queue.offer(span) ? Outcome.ACCEPTED : Outcome.REJECTED;
+    }
+}
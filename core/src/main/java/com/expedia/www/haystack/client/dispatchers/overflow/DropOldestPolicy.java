@@ -0,0 +1,52 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers.overflow;
+
+import com.expedia.www.haystack.client.Span;
+
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Makes room for the span being dispatched by dropping the oldest queued span, favouring fresh data during an
+ * outage.
+ */
+public class DropOldestPolicy implements OverflowPolicy {
+    private static final int MAX_ATTEMPTS = 3;
+
+    @Override
+    public String name() {
+        return "drop-oldest";
+    }
+
+    @Override
+    public Outcome offer(BlockingQueue<Span> queue, Span span) {
+        if (queue.offer(span)) {
+            return Outcome.ACCEPTED;
+        }
+        // other producers compete for the slot we free up, so give up after a few rounds
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            final Span evicted = queue.poll();
+            if (evicted != null) {
+                evicted.release();
+            }
+            if (queue.offer(span)) {
+                return Outcome.EVICTED;
+            }
+        }
+        return Outcome.REJECTED;
+    }
+}
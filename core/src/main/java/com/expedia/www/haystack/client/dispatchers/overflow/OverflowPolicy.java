@@ -0,0 +1,76 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers.overflow;
+
+import com.expedia.www.haystack.client.Span;
+
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Decides what happens to a span when the dispatcher's accept queue can't take it right away.
+ */
+public interface OverflowPolicy {
+
+    /**
+     * @return short name identifying this policy in the dispatcher's overflow log line
+     */
+    String name();
+
+    /**
+     * Called by the dispatcher with its accept queue before any span is offered, so a policy can read what it needs
+     * from the queue once. A policy serves the one queue it's bound to.
+     *
+     * @param queue the accept queue
+     */
+    default void bind(BlockingQueue<Span> queue) {
+    }
+
+    /**
+     * Places the span on the queue, applying this policy if the queue is full.
+     *
+     * @param queue the accept queue
+     * @param span span being dispatched
+     * @return what happened to the span
+     */
+    Outcome offer(BlockingQueue<Span> queue, Span span);
+
+    enum Outcome {
+        /** the span was queued without dropping anything */
+        ACCEPTED("accepted"),
+        /** the queue was full and the span was dropped */
+        REJECTED("rejected"),
+        /** the span was queued after dropping the oldest queued span */
+        EVICTED("evicted"),
+        /** the span was dropped after waiting for room in the queue */
+        TIMED_OUT("timeout"),
+        /** the queue was close to full and the span was dropped to shed load */
+        SAMPLED_OUT("sampled");
+
+        private final String state;
+
+        Outcome(String state) {
+            this.state = state;
+        }
+
+        /**
+         * @return the value used for the <code>state</code> tag of the dispatcher's metrics
+         */
+        public String state() {
+            return state;
+        }
+    }
+}
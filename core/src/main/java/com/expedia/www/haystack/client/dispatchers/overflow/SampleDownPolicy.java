@@ -0,0 +1,73 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers.overflow;
+
+import com.expedia.www.haystack.client.Span;
+import org.apache.commons.lang3.Validate;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Starts shedding spans before the queue is full. Once occupancy passes the high water mark, spans are admitted
+ * with a probability that falls linearly from one at the mark to zero when the queue is full, so a backlog
+ * thins out the stream gradually instead of cutting it off.
+ * <p>
+ * The queue's capacity is read once, when the policy is bound to it, so reading the occupancy costs a single
+ * <code>size()</code> call per dispatch, which is lock-free on a
+ * {@link com.expedia.www.haystack.client.dispatchers.queues.RingBufferQueue}.
+ */
+public class SampleDownPolicy implements OverflowPolicy {
+    private final double highWaterMark;
+    private volatile int capacity = -1;
+
+    /**
+     * @param highWaterMark fraction of the queue capacity, between 0 and 1, above which spans are sampled
+     */
+    public SampleDownPolicy(double highWaterMark) {
+        Validate.isTrue(highWaterMark >= 0 && highWaterMark < 1, "highWaterMark must be in [0, 1)");
+        this.highWaterMark = highWaterMark;
+    }
+
+    @Override
+    public String name() {
+        return "sample-down";
+    }
+
+    @Override
+    public void bind(BlockingQueue<Span> queue) {
+        // an unbounded queue reports Integer.MAX_VALUE remaining
+        capacity = (int) Math.min(Integer.MAX_VALUE, (long) queue.size() + queue.remainingCapacity());
+    }
+
+    @Override
+    public Outcome offer(BlockingQueue<Span> queue, Span span) {
+        if (capacity < 0) {
+            bind(queue);
+        }
+        final int size = queue.size();
+        final double occupancy = capacity == 0 ? 1 : (double) size / capacity;
+
+        if (occupancy > highWaterMark) {
+            final double admit = (1 - occupancy) / (1 - highWaterMark);
+            if (ThreadLocalRandom.current().nextDouble() >= admit) {
+                return Outcome.SAMPLED_OUT;
+            }
+        }
+        return queue.offer(span) ? Outcome.ACCEPTED : Outcome.REJECTED;
+    }
+}
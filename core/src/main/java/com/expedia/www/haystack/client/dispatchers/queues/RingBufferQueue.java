@@ -0,0 +1,279 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers.queues;
+
+import org.apache.commons.lang3.Validate;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded, pre-allocated, lock-free ring buffer usable wherever a {@link BlockingQueue} is expected.
+ * <p>
+ * Producers claim a slot by advancing a shared sequence with a single CAS, Disruptor style, and publish the
+ * element by stamping the slot's own sequence. Consumers claim slots the same way, so any number of sender
+ * workers may drain the buffer concurrently. No operation takes a lock; {@link #size()} is computed from the two
+ * sequences and never blocks producers. Blocking variants wait according to the configured {@link WaitStrategy}.
+ * <p>
+ * The capacity is rounded up to the next power of two, and is at least two: with a single slot a published
+ * element's sequence would be indistinguishable from the next free position.
+ *
+ * @param <E> the type of elements held in this queue
+ */
+public class RingBufferQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+    private final int capacity;
+    private final int mask;
+    private final Object[] buffer;
+    private final AtomicLongArray sequences;
+    private final WaitStrategy waitStrategy;
+
+    private final Sequence tail = new Sequence();
+    private final Sequence head = new Sequence();
+
+    public RingBufferQueue(int capacity) {
+        this(capacity, WaitStrategy.PARK);
+    }
+
+    public RingBufferQueue(int capacity, WaitStrategy waitStrategy) {
+        Validate.isTrue(capacity > 0 && capacity <= (1 << 30), "capacity must be between 1 and 2^30");
+        Validate.notNull(waitStrategy);
+
+        this.capacity = roundToPowerOfTwo(capacity);
+        this.mask = this.capacity - 1;
+        this.buffer = new Object[this.capacity];
+        this.sequences = new AtomicLongArray(this.capacity);
+        this.waitStrategy = waitStrategy;
+
+        for (int i = 0; i < this.capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    private static int roundToPowerOfTwo(int value) {
+        return value <= 2 ? 2 : Integer.highestOneBit(value - 1) << 1;
+    }
+
+    /**
+     * @return the number of slots in the ring, which may be larger than the requested capacity
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    @Override
+    public boolean offer(E e) {
+        Validate.notNull(e);
+
+        long position = tail.get();
+        for (;;) {
+            final int index = (int) (position & mask);
+            final long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    buffer[index] = e;
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                // the slot still holds an element from the previous lap; we're full
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        long position = head.get();
+        for (;;) {
+            final int index = (int) (position & mask);
+            final long difference = sequences.get(index) - (position + 1);
+            if (difference == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    final E e = (E) buffer[index];
+                    buffer[index] = null;
+                    sequences.set(index, position + capacity);
+                    return e;
+                }
+                position = head.get();
+            } else if (difference < 0) {
+                // nothing has been published into this slot yet; we're empty
+                return null;
+            } else {
+                position = head.get();
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E peek() {
+        final long position = head.get();
+        final int index = (int) (position & mask);
+        if (sequences.get(index) == position + 1) {
+            return (E) buffer[index];
+        }
+        return null;
+    }
+
+    @Override
+    public void put(E e) throws InterruptedException {
+        int attempt = 0;
+        while (!offer(e)) {
+            checkInterrupted();
+            waitStrategy.idle(attempt++);
+        }
+    }
+
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        int attempt = 0;
+        while (!offer(e)) {
+            checkInterrupted();
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            waitStrategy.idle(attempt++);
+        }
+        return true;
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        int attempt = 0;
+        E e;
+        while ((e = poll()) == null) {
+            checkInterrupted();
+            waitStrategy.idle(attempt++);
+        }
+        return e;
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        int attempt = 0;
+        E e;
+        while ((e = poll()) == null) {
+            checkInterrupted();
+            if (System.nanoTime() - deadline >= 0) {
+                return null;
+            }
+            waitStrategy.idle(attempt++);
+        }
+        return e;
+    }
+
+    private static void checkInterrupted() throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return capacity - size();
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        Validate.notNull(c);
+        Validate.isTrue(c != this, "cannot drain a queue into itself");
+
+        int drained = 0;
+        E e;
+        while (drained < maxElements && (e = poll()) != null) {
+            c.add(e);
+            drained++;
+        }
+        return drained;
+    }
+
+    /**
+     * @return the number of claimed slots not yet consumed; this reads two sequences and never blocks
+     */
+    @Override
+    public int size() {
+        for (;;) {
+            final long before = head.get();
+            final long claimed = tail.get();
+            final long after = head.get();
+            if (before == after) {
+                return (int) Math.max(0, Math.min(capacity, claimed - after));
+            }
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return tail.get() == head.get();
+    }
+
+    /**
+     * Returns a weakly consistent snapshot of the elements that were published at the time of the call.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public Iterator<E> iterator() {
+        final List<E> snapshot = new ArrayList<>();
+        final long end = tail.get();
+        for (long position = head.get(); position < end; position++) {
+            final int index = (int) (position & mask);
+            final Object e = buffer[index];
+            if (sequences.get(index) == position + 1 && e != null) {
+                snapshot.add((E) e);
+            }
+        }
+        return new Iterator<E>() {
+            private final Iterator<E> delegate = snapshot.iterator();
+
+            @Override
+            public boolean hasNext() {
+                return delegate.hasNext();
+            }
+
+            @Override
+            public E next() {
+                return delegate.next();
+            }
+        };
+    }
+
+    /**
+     * A sequence padded out to a cache line so the producer and consumer counters do not false-share.
+     */
+    @SuppressWarnings("unused")
+    private static final class Sequence extends AtomicLong {
+        private long p1, p2, p3, p4, p5, p6, p7;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers.queues;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * How a thread waits on a {@link RingBufferQueue} that is empty (consumers) or full (producers).
+ * None of the strategies require the other side to signal, so producers never touch a lock.
+ */
+public enum WaitStrategy {
+
+    /**
+     * Busy spins; lowest latency but burns a core while idle.
+     */
+    SPIN {
+        @Override
+        void idle(int attempt) {
+            // keep spinning
+        }
+    },
+
+    /**
+     * Spins briefly and then yields the processor between attempts.
+     */
+    YIELD {
+        @Override
+        void idle(int attempt) {
+            if (attempt >= SPIN_TRIES) {
+                Thread.yield();
+            }
+        }
+    },
+
+    /**
+     * Spins, then yields, then parks with an exponential backoff capped at {@link #MAX_PARK_NANOS}. This is the
+     * friendliest to the host when the queue is idle for long stretches.
+     */
+    PARK {
+        @Override
+        void idle(int attempt) {
+            if (attempt < SPIN_TRIES) {
+                return;
+            }
+            if (attempt < SPIN_TRIES + YIELD_TRIES) {
+                Thread.yield();
+                return;
+            }
+            final int shift = Math.min(attempt - SPIN_TRIES - YIELD_TRIES, 10);
+            LockSupport.parkNanos(Math.min(MIN_PARK_NANOS << shift, MAX_PARK_NANOS));
+        }
+    };
+
+    static final int SPIN_TRIES = 100;
+    static final int YIELD_TRIES = 100;
+    static final long MIN_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(1);
+    static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * Called each time an attempt to make progress failed.
+     *
+     * @param attempt number of consecutive failed attempts so far, starting at zero
+     */
+    abstract void idle(int attempt);
+}
@@ -0,0 +1,504 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers.spill;
+
+import com.expedia.www.haystack.client.metrics.*;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.zip.CRC32;
+
+/**
+ * A FIFO of byte records kept in fixed size, memory-mapped segment files under a disk budget.
+ * <p>
+ * Each segment starts with a header holding a magic number, a format version, a checkpointed write position, the
+ * replayed read position and a CRC over those fields. Each record is framed as a 4 byte length, a 4 byte CRC of
+ * the payload and the payload itself. Appends don't touch the header; it is rewritten when records are committed,
+ * when the segment is sealed and on close. On startup, segments are recovered by scanning records from the
+ * header's read position until the first one that doesn't check out, so a crash mid-append leaves the torn record
+ * out. A header failing its CRC is rebuilt the same way from the start of the segment, and that segment is replayed
+ * from its start, so delivery is at least once. Files that can't be segments, because they are too short to hold a
+ * header or can't be mapped, are renamed with a <code>.corrupt</code> suffix and left for inspection.
+ * <p>
+ * Segments are forced to disk once they fill up, by the appending thread but outside the buffer's lock, and on
+ * close. Between those points the data lives in the page cache, which survives a crash of the process but not of
+ * the host.
+ */
+public class SegmentedSpillBuffer implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SegmentedSpillBuffer.class);
+
+    static final int MAGIC = 0x48535350; // HSSP
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int RECORD_OVERHEAD = 8;
+    private static final String SUFFIX = ".spill";
+    private static final String CORRUPT_SUFFIX = ".corrupt";
+
+    private final File directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final Deque<Segment> segments;
+    private long nextSegmentId;
+    private boolean closed;
+
+    private final Counter appendCounter;
+    private final Counter appendBytesCounter;
+    private final Counter droppedCounter;
+    private final Counter commitCounter;
+    private final Counter corruptCounter;
+
+    public SegmentedSpillBuffer(Metrics metrics, File directory, int segmentSize, long diskBudget) throws IOException {
+        Validate.isTrue(segmentSize > HEADER_SIZE + RECORD_OVERHEAD, "segmentSize is too small");
+        Validate.isTrue(diskBudget >= segmentSize, "diskBudget must hold at least one segment");
+
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = (int) Math.min(Integer.MAX_VALUE, diskBudget / segmentSize);
+        this.segments = new ArrayDeque<>();
+
+        this.appendCounter = Counter.builder("spill").register(metrics);
+        this.appendBytesCounter = Counter.builder("spill").tag(new Tag("state", "bytes")).register(metrics);
+        this.droppedCounter = Counter.builder("spill").tag(new Tag("state", "dropped")).register(metrics);
+        this.commitCounter = Counter.builder("replay").register(metrics);
+        this.corruptCounter = Counter.builder("replay").tag(new Tag("state", "corrupt")).register(metrics);
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create spill directory " + directory);
+        }
+        recover();
+
+        // held in the registry; but we don't need a local reference
+        Gauge.builder("spillSegments", this, SegmentedSpillBuffer::segmentCount).register(metrics);
+        Gauge.builder("spillPendingBytes", this, SegmentedSpillBuffer::pendingBytes).register(metrics);
+    }
+
+    private void recover() throws IOException {
+        final File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            final long id;
+            try {
+                id = Long.parseLong(file.getName().substring(0, file.getName().length() - SUFFIX.length()));
+            } catch (NumberFormatException e) {
+                LOGGER.warn("Ignoring {} in the spill directory; it isn't named like a spill segment", file);
+                continue;
+            }
+            nextSegmentId = Math.max(nextSegmentId, id + 1);
+
+            if (file.length() < HEADER_SIZE + RECORD_OVERHEAD) {
+                // a crash between creating the file and mapping it leaves it empty
+                quarantine(file, "too short to hold a record");
+                continue;
+            }
+            final Segment segment;
+            try {
+                segment = Segment.open(file, segmentSize);
+            } catch (IOException e) {
+                quarantine(file, e.toString());
+                continue;
+            }
+            if (!segment.recover()) {
+                LOGGER.warn("Spill segment {} had a damaged header; replaying it from the start", file);
+                corruptCounter.increment();
+            }
+            if (segment.isFullyRead()) {
+                segment.delete();
+            } else {
+                segments.addLast(segment);
+            }
+        }
+        // always start writing into a fresh segment; a recovered tail may have a torn record after its end
+        for (Segment segment : segments) {
+            segment.seal();
+            segment.force();
+        }
+    }
+
+    private void quarantine(File file, String reason) {
+        corruptCounter.increment();
+        final File renamed = new File(file.getPath() + CORRUPT_SUFFIX);
+        if (file.renameTo(renamed)) {
+            LOGGER.warn("Spill segment {} can't be recovered ({}); moved it to {}", file, reason, renamed);
+        } else {
+            LOGGER.warn("Spill segment {} can't be recovered ({}) and couldn't be moved aside; skipping it", file, reason);
+        }
+    }
+
+    /**
+     * @param record payload to append; empty records are rejected, as recovery reads a zero length as corruption
+     * @return <code>true</code> if the record was stored, <code>false</code> if it was empty or didn't fit in the
+     * disk budget
+     */
+    public boolean append(byte[] record) {
+        final Segment filled;
+        final boolean appended;
+        synchronized (this) {
+            if (closed || record.length == 0 || record.length > segmentSize - HEADER_SIZE - RECORD_OVERHEAD) {
+                droppedCounter.increment();
+                return false;
+            }
+            Segment tail = segments.peekLast();
+            if (tail == null || tail.isSealed() || !tail.hasRoomFor(record.length)) {
+                filled = tail != null && !tail.isSealed() ? tail : null;
+                if (filled != null) {
+                    filled.seal();
+                }
+                tail = segments.size() < maxSegments ? createSegment() : null;
+            } else {
+                filled = null;
+            }
+            if (tail != null) {
+                tail.append(record);
+                appendCounter.increment();
+                appendBytesCounter.increment(record.length);
+            } else {
+                droppedCounter.increment();
+            }
+            appended = tail != null;
+        }
+        if (filled != null) {
+            // flushing a whole segment can take a while; peeks, commits and the next appends don't wait on it
+            filled.force();
+        }
+        return appended;
+    }
+
+    private Segment createSegment() {
+        final File file = new File(directory, String.format("%020d%s", nextSegmentId++, SUFFIX));
+        try {
+            final Segment segment = Segment.create(file, segmentSize);
+            segments.addLast(segment);
+            return segment;
+        } catch (IOException e) {
+            LOGGER.error("Unable to create spill segment {}", file, e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the oldest record that hasn't been committed yet, or <code>null</code> if there is none
+     */
+    public synchronized byte[] peek() {
+        while (!segments.isEmpty()) {
+            final Segment head = segments.peekFirst();
+            final byte[] record = head.peek();
+            if (record != null) {
+                return record;
+            }
+            if (head.hasUnreadBytes()) {
+                // the rest of this segment doesn't check out; skip it rather than stall replay forever
+                LOGGER.warn("Skipping corrupt records at the end of spill segment {}", head.file);
+                corruptCounter.increment();
+                head.skipToEnd();
+            }
+            if (!head.isSealed()) {
+                return null;
+            }
+            segments.pollFirst();
+            head.delete();
+        }
+        return null;
+    }
+
+    /**
+     * Marks the record returned by the last {@link #peek()} as replayed.
+     */
+    public synchronized void commit() {
+        final Segment head = segments.peekFirst();
+        if (head != null && head.commit()) {
+            commitCounter.increment();
+        }
+    }
+
+    public synchronized boolean isEmpty() {
+        return pendingBytes() == 0;
+    }
+
+    synchronized double segmentCount() {
+        return segments.size();
+    }
+
+    synchronized long pendingBytes() {
+        long pending = 0;
+        for (Segment segment : segments) {
+            pending += segment.unreadBytes();
+        }
+        return pending;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Segment segment : segments) {
+            segment.close();
+        }
+        segments.clear();
+    }
+
+    /**
+     * A single memory-mapped segment file.
+     */
+    private static final class Segment {
+        private final File file;
+        private final RandomAccessFile raf;
+        private final MappedByteBuffer buffer;
+        private final CRC32 crc = new CRC32();
+        private long writePosition;
+        private long readPosition;
+        private int peekedLength = -1;
+        private boolean sealed;
+
+        private Segment(File file, int size) throws IOException {
+            this.file = file;
+            this.raf = new RandomAccessFile(file, "rw");
+            this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            this.writePosition = HEADER_SIZE;
+            this.readPosition = HEADER_SIZE;
+        }
+
+        static Segment create(File file, int size) throws IOException {
+            final Segment segment = new Segment(file, size);
+            segment.writeHeader();
+            return segment;
+        }
+
+        static Segment open(File file, int size) throws IOException {
+            if (file.length() != size) {
+                // written with a different segment size; map it at its own size
+                size = (int) file.length();
+            }
+            return new Segment(file, size);
+        }
+
+        /**
+         * @return <code>false</code> if the header was damaged and had to be rebuilt
+         */
+        boolean recover() {
+            if (buffer.getInt(0) == MAGIC
+                    && buffer.getInt(4) == VERSION
+                    && buffer.getInt(24) == headerChecksum()) {
+                final long checkpoint = buffer.getLong(8);
+                readPosition = buffer.getLong(16);
+                if (HEADER_SIZE <= readPosition && readPosition <= checkpoint && checkpoint <= buffer.capacity()) {
+                    // appends don't move the header, so the records run past its checkpoint; verify them all in
+                    // case pages were lost
+                    writePosition = scan(readPosition, buffer.capacity());
+                    writeHeader();
+                    return true;
+                }
+            }
+            readPosition = HEADER_SIZE;
+            writePosition = scan(HEADER_SIZE, buffer.capacity());
+            writeHeader();
+            return false;
+        }
+
+        /**
+         * @return the end of the last valid record between <code>from</code> and <code>limit</code>
+         */
+        private long scan(long from, long limit) {
+            long position = from;
+            while (position + RECORD_OVERHEAD <= limit) {
+                final int length = buffer.getInt((int) position);
+                if (length <= 0 || position + RECORD_OVERHEAD + length > limit) {
+                    break;
+                }
+                if (checksum((int) position + RECORD_OVERHEAD, length) != buffer.getInt((int) position + 4)) {
+                    break;
+                }
+                position += RECORD_OVERHEAD + length;
+            }
+            return position;
+        }
+
+        boolean hasRoomFor(int length) {
+            return writePosition + RECORD_OVERHEAD + length <= buffer.capacity();
+        }
+
+        void append(byte[] record) {
+            final int position = (int) writePosition;
+            buffer.position(position + RECORD_OVERHEAD);
+            buffer.put(record);
+            buffer.putInt(position + 4, checksum(position + RECORD_OVERHEAD, record.length));
+            buffer.putInt(position, record.length);
+            writePosition += RECORD_OVERHEAD + record.length;
+        }
+
+        byte[] peek() {
+            if (readPosition + RECORD_OVERHEAD > writePosition) {
+                return null;
+            }
+            final int position = (int) readPosition;
+            final int length = buffer.getInt(position);
+            if (length <= 0 || readPosition + RECORD_OVERHEAD + length > writePosition
+                    || checksum(position + RECORD_OVERHEAD, length) != buffer.getInt(position + 4)) {
+                return null;
+            }
+            final byte[] record = new byte[length];
+            buffer.position(position + RECORD_OVERHEAD);
+            buffer.get(record);
+            peekedLength = length;
+            return record;
+        }
+
+        boolean commit() {
+            if (peekedLength < 0) {
+                return false;
+            }
+            readPosition += RECORD_OVERHEAD + peekedLength;
+            peekedLength = -1;
+            writeHeader();
+            return true;
+        }
+
+        void skipToEnd() {
+            readPosition = writePosition;
+            peekedLength = -1;
+            writeHeader();
+        }
+
+        boolean hasUnreadBytes() {
+            return readPosition < writePosition;
+        }
+
+        long unreadBytes() {
+            return writePosition - readPosition;
+        }
+
+        boolean isFullyRead() {
+            return readPosition >= writePosition;
+        }
+
+        boolean isSealed() {
+            return sealed;
+        }
+
+        void seal() {
+            sealed = true;
+            writeHeader();
+        }
+
+        void force() {
+            try {
+                buffer.force();
+            } catch (RuntimeException e) {
+                // the mapping may already be gone if the segment was replayed and deleted meanwhile
+                LOGGER.debug("Unable to force spill segment {} to disk", file, e);
+            }
+        }
+
+        private void writeHeader() {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putLong(8, writePosition);
+            buffer.putLong(16, readPosition);
+            buffer.putInt(24, headerChecksum());
+        }
+
+        private int headerChecksum() {
+            return checksum(0, 24);
+        }
+
+        private int checksum(int offset, int length) {
+            final ByteBuffer view = buffer.duplicate();
+            view.limit(offset + length).position(offset);
+            crc.reset();
+            crc.update(view);
+            return (int) crc.getValue();
+        }
+
+        void close() {
+            try {
+                writeHeader();
+                buffer.force();
+                raf.close();
+            } catch (IOException e) {
+                LOGGER.warn("Unable to close spill segment {}", file, e);
+            }
+        }
+
+        void delete() {
+            close();
+            if (!file.delete()) {
+                LOGGER.warn("Unable to delete replayed spill segment {}", file);
+            }
+        }
+    }
+
+    public static final class Builder {
+        private final Metrics metrics;
+        private final File directory;
+        private int segmentSize;
+        private long diskBudget;
+
+        public Builder(MetricsRegistry registry, File directory) {
+            this(new Metrics(registry, SegmentedSpillBuffer.class.getName(), Collections.emptyList()), directory);
+        }
+
+        public Builder(Metrics metrics, File directory) {
+            this.metrics = metrics;
+            this.directory = directory;
+            this.segmentSize = 16 * 1024 * 1024;
+            this.diskBudget = 16L * segmentSize;
+        }
+
+        /**
+         * @param segmentSize size of each memory-mapped segment file
+         * @return this builder instance
+         */
+        public Builder withSegmentSizeBytes(int segmentSize) {
+            this.segmentSize = segmentSize;
+            return this;
+        }
+
+        /**
+         * @param diskBudget total bytes the segments may take up; records beyond that are dropped
+         * @return this builder instance
+         */
+        public Builder withDiskBudgetBytes(long diskBudget) {
+            this.diskBudget = diskBudget;
+            return this;
+        }
+
+        public SegmentedSpillBuffer build() {
+            try {
+                return new SegmentedSpillBuffer(metrics, directory, segmentSize, diskBudget);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
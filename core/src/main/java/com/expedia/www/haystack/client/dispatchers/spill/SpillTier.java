@@ -0,0 +1,369 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers.spill;
+
+import com.expedia.www.haystack.client.Span;
+import com.expedia.www.haystack.client.dispatchers.Dispatcher;
+import com.expedia.www.haystack.client.dispatchers.formats.Format;
+import com.expedia.www.haystack.client.dispatchers.formats.ProtoBufFormat;
+import com.expedia.www.haystack.client.metrics.*;
+import com.expedia.www.haystack.client.metrics.Timer.Sample;
+import com.expedia.www.haystack.remote.clients.Client;
+import com.expedia.www.haystack.remote.clients.ClientException;
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.apache.commons.lang3.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An overflow tier for the RemoteDispatcher: spans that don't fit in the in-memory accept queue are encoded as
+ * protobuf and appended to a {@link SegmentedSpillBuffer}; a periodic {@link #replay()} sends them back out, in
+ * the order they were spilled, through a client that takes the encoded span.
+ * <p>
+ * {@link #spill(Span)} only hands the span to a bounded queue, so the thread that finished it never waits on
+ * encoding or on the disk; a single spill worker writes them out. Spans that don't fit in that queue are dropped.
+ * <p>
+ * Replay stops at the first failed send and picks up from the same record on the next run, so spilled spans
+ * sit on disk until the remote end accepts them again. After a failure, whether of a replayed send or one reported
+ * by the dispatcher through {@link #onSendFailure()}, replay backs off, doubling the wait up to
+ * {@value #MAX_BACKOFF_INTERVALS} replay intervals. A token bucket caps replay at <code>replayRatePerSecond</code>
+ * so draining a backlog doesn't swamp an agent that just came back.
+ */
+public class SpillTier implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SpillTier.class);
+    static final int MAX_BACKOFF_INTERVALS = 64;
+
+    private final SegmentedSpillBuffer buffer;
+    private final Client<com.expedia.open.tracing.Span> replayClient;
+    private final Format<com.expedia.open.tracing.Span> format;
+    private final int replayRatePerSecond;
+    private final long replayIntervalMillis;
+
+    private double tokens;
+    private long lastRefillNanos;
+    private volatile int failures;
+    private volatile long nextReplayNanos;
+
+    private final BlockingQueue<Span> pending;
+    private final AtomicInteger unwritten;
+    private final ExecutorService executor;
+    private final Future<?> spillTask;
+    private volatile boolean running;
+
+    private final Timer spillTimer;
+    private final Timer replayTimer;
+    private final Counter replayExceptionCounter;
+    private final Counter replayCorruptCounter;
+    private final Counter replayBackoffCounter;
+    private final Counter spillDroppedCounter;
+
+    public SpillTier(Metrics metrics, SegmentedSpillBuffer buffer, Client<com.expedia.open.tracing.Span> replayClient,
+                     Format<com.expedia.open.tracing.Span> format, int replayRatePerSecond, long replayIntervalMillis,
+                     int queueSize, ExecutorService executor) {
+        Validate.notNull(buffer);
+        Validate.notNull(replayClient);
+        Validate.isTrue(replayRatePerSecond > 0, "replayRatePerSecond must be positive");
+        Validate.isTrue(replayIntervalMillis > 0, "replayIntervalMillis must be positive");
+        Validate.isTrue(queueSize > 0, "queueSize must be positive");
+
+        this.buffer = buffer;
+        this.replayClient = replayClient;
+        this.format = format;
+        this.replayRatePerSecond = replayRatePerSecond;
+        this.replayIntervalMillis = replayIntervalMillis;
+        this.lastRefillNanos = System.nanoTime();
+
+        this.spillTimer = Timer.builder("spill").register(metrics);
+        this.replayTimer = Timer.builder("replay").register(metrics);
+        this.replayExceptionCounter = Counter.builder("replay").tag(new Tag("state", "exception")).register(metrics);
+        this.replayCorruptCounter = Counter.builder("replay").tag(new Tag("state", "corrupt")).register(metrics);
+        this.replayBackoffCounter = Counter.builder("replay").tag(new Tag("state", "backoff")).register(metrics);
+        this.spillDroppedCounter = Counter.builder("spill").tag(new Tag("state", "queueFull")).register(metrics);
+
+        this.pending = new ArrayBlockingQueue<>(queueSize);
+        this.unwritten = new AtomicInteger();
+        this.executor = executor;
+        this.running = true;
+        this.spillTask = executor.submit(this::writeSpilled);
+
+        // held in the registry; but we don't need a local reference
+        Gauge.builder("spillQueued", unwritten, AtomicInteger::get).register(metrics);
+    }
+
+    /**
+     * @param span span that didn't fit in memory; retained until it is written out, so the caller keeps its reference
+     * @return <code>true</code> if the span was queued to be written to disk, <code>false</code> if the spill queue
+     * is full or the tier is closed
+     */
+    public boolean spill(Span span) {
+        if (!running) {
+            return false;
+        }
+        span.retain();
+        unwritten.incrementAndGet();
+        if (pending.offer(span)) {
+            // close() may have drained the queue between our check and the offer; take the span back if nobody
+            // else has, otherwise whoever polled it writes and releases it
+            if (running || !pending.remove(span)) {
+                return true;
+            }
+            unwritten.decrementAndGet();
+            span.release();
+            return false;
+        }
+        unwritten.decrementAndGet();
+        span.release();
+        spillDroppedCounter.increment();
+        return false;
+    }
+
+    private void writeSpilled() {
+        final List<Span> batch = new ArrayList<>();
+        while (running || !pending.isEmpty()) {
+            try {
+                final Span first = pending.poll(replayIntervalMillis, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                pending.drainTo(batch);
+                for (Span span : batch) {
+                    write(span);
+                }
+            } catch (InterruptedException e) {
+                // close() drains whatever is left
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void write(Span span) {
+        try (Sample timer = spillTimer.start()) {
+            // a full disk budget is counted by the buffer
+            buffer.append(format.format(span).toByteArray());
+        } catch (RuntimeException e) {
+            LOGGER.error("Unable to spill span", e);
+        } finally {
+            span.release();
+            unwritten.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return spans handed to {@link #spill(Span)} that aren't on disk yet
+     */
+    int unwritten() {
+        return unwritten.get();
+    }
+
+    /**
+     * Sends as many spilled spans as the replay rate allows, oldest first. Does nothing while backing off from a
+     * failure.
+     *
+     * @return number of spans replayed
+     */
+    public synchronized int replay() {
+        if (failures > 0 && System.nanoTime() - nextReplayNanos < 0) {
+            return 0;
+        }
+        refill();
+        int replayed = 0;
+        while (tokens >= 1) {
+            final byte[] record = buffer.peek();
+            if (record == null) {
+                break;
+            }
+            try (Sample timer = replayTimer.start()) {
+                if (!replayClient.send(com.expedia.open.tracing.Span.parseFrom(record))) {
+                    replayExceptionCounter.increment();
+                    LOGGER.debug("Replay client didn't accept a spilled span; retrying after a backoff");
+                    onSendFailure();
+                    break;
+                }
+            } catch (InvalidProtocolBufferException e) {
+                // passed its checksum but doesn't parse; nothing a retry would fix
+                replayCorruptCounter.increment();
+                LOGGER.warn("Skipping spilled span that failed to parse", e);
+            } catch (ClientException e) {
+                replayExceptionCounter.increment();
+                LOGGER.debug("Replay client reported a failure; retrying after a backoff", e);
+                onSendFailure();
+                break;
+            }
+            buffer.commit();
+            tokens -= 1;
+            replayed++;
+        }
+        if (replayed > 0) {
+            onSendSuccess();
+        }
+        return replayed;
+    }
+
+    /**
+     * Holds replay off for a while; called when a send to the remote end failed, so spilled spans aren't sent to it
+     * while it is known to be failing.
+     */
+    public void onSendFailure() {
+        final int current = Math.min(failures + 1, Long.SIZE - 2);
+        failures = current;
+        final long intervals = Math.min(1L << (current - 1), MAX_BACKOFF_INTERVALS);
+        nextReplayNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(replayIntervalMillis * intervals);
+        replayBackoffCounter.increment();
+    }
+
+    /**
+     * Ends any backoff; called when a send to the remote end succeeded.
+     */
+    public void onSendSuccess() {
+        failures = 0;
+    }
+
+    private void refill() {
+        final long now = System.nanoTime();
+        final double elapsedSeconds = (now - lastRefillNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+        lastRefillNanos = now;
+        // allow at most one second worth of burst after an idle stretch
+        tokens = Math.min(replayRatePerSecond, tokens + elapsedSeconds * replayRatePerSecond);
+    }
+
+    public boolean isEmpty() {
+        return buffer.isEmpty();
+    }
+
+    public long getReplayIntervalMillis() {
+        return replayIntervalMillis;
+    }
+
+    /**
+     * Writes out the spans still queued, then closes the replay client and the spill files; anything not replayed
+     * yet is picked up on the next start.
+     */
+    @Override
+    public void close() throws ClientException {
+        running = false;
+        try {
+            spillTask.get(replayIntervalMillis * 10, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            LOGGER.warn("Spill worker didn't finish in time; writing the remaining spans on close", e);
+            spillTask.cancel(true);
+        }
+        try {
+            for (Span span = pending.poll(); span != null; span = pending.poll()) {
+                write(span);
+            }
+            replayClient.close();
+        } finally {
+            buffer.close();
+            try {
+                executor.shutdown();
+            } catch (SecurityException e) {
+                LOGGER.warn("Executor pool failed to close", e);
+            }
+        }
+    }
+
+    public static final class Builder {
+        private final Metrics metrics;
+        private final SegmentedSpillBuffer buffer;
+        private final Client<com.expedia.open.tracing.Span> replayClient;
+        private Format<com.expedia.open.tracing.Span> format;
+        private int replayRatePerSecond;
+        private long replayIntervalMillis;
+        private int queueSize;
+        private ExecutorService executor;
+
+        public Builder(MetricsRegistry registry, SegmentedSpillBuffer buffer, Client<com.expedia.open.tracing.Span> replayClient) {
+            this(new Metrics(registry, Dispatcher.class.getName(), Collections.singletonList(new Tag("type", "spill"))), buffer, replayClient);
+        }
+
+        public Builder(Metrics metrics, SegmentedSpillBuffer buffer, Client<com.expedia.open.tracing.Span> replayClient) {
+            this.metrics = metrics;
+            this.buffer = buffer;
+            this.replayClient = replayClient;
+            this.format = new ProtoBufFormat();
+            this.replayRatePerSecond = 1000;
+            this.replayIntervalMillis = 100;
+            this.queueSize = 1024;
+        }
+
+        /**
+         * @param replayRatePerSecond upper bound on spilled spans sent back out per second
+         * @return this builder instance
+         */
+        public Builder withReplayRatePerSecond(int replayRatePerSecond) {
+            this.replayRatePerSecond = replayRatePerSecond;
+            return this;
+        }
+
+        /**
+         * @param replayIntervalMillis how often the dispatcher tries to replay spilled spans
+         * @return this builder instance
+         */
+        public Builder withReplayIntervalMillis(long replayIntervalMillis) {
+            this.replayIntervalMillis = replayIntervalMillis;
+            return this;
+        }
+
+        public Builder withFormat(Format<com.expedia.open.tracing.Span> format) {
+            this.format = format;
+            return this;
+        }
+
+        /**
+         * @param queueSize spans waiting for the spill worker; further spans are dropped
+         * @return this builder instance
+         */
+        public Builder withQueueSize(int queueSize) {
+            this.queueSize = queueSize;
+            return this;
+        }
+
+        /**
+         * @param executor executor to run the spill worker on; it runs for the lifetime of the tier
+         * @return this builder instance
+         */
+        public Builder withExecutor(ExecutorService executor) {
+            this.executor = executor;
+            return this;
+        }
+
+        public SpillTier build() {
+            ExecutorService executor = this.executor;
+            if (executor == null) {
+                executor = Executors.newSingleThreadExecutor();
+            }
+            return new SpillTier(metrics, buffer, replayClient, format, replayRatePerSecond, replayIntervalMillis,
+                    queueSize, executor);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers.tail;
+
+import com.expedia.www.haystack.client.Span;
+import io.opentracing.tag.Tags;
+
+import java.util.List;
+
+/**
+ * Keeps traces with a span tagged <code>error=true</code>.
+ */
+public class ErrorTraceRule implements TraceRule {
+
+    @Override
+    public boolean keep(List<Span> spans) {
+        for (Span span : spans) {
+            final Object error = span.getTags().get(Tags.ERROR.getKey());
+            if (Boolean.TRUE.equals(error) || "true".equals(error)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers.tail;
+
+import com.expedia.www.haystack.client.Span;
+import org.apache.commons.lang3.Validate;
+
+import java.util.List;
+
+/**
+ * Keeps traces with a span that took at least a threshold.
+ */
+public class LatencyTraceRule implements TraceRule {
+    private final long thresholdMicros;
+
+    /**
+     * @param thresholdMicros shortest span duration, in microseconds, that keeps the trace
+     */
+    public LatencyTraceRule(long thresholdMicros) {
+        Validate.isTrue(thresholdMicros >= 0, "thresholdMicros can't be negative");
+        this.thresholdMicros = thresholdMicros;
+    }
+
+    @Override
+    public boolean keep(List<Span> spans) {
+        for (Span span : spans) {
+            final Long duration = span.getDuration();
+            if (duration != null && duration >= thresholdMicros) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers.tail;
+
+import com.expedia.www.haystack.client.Span;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Keeps traces with a span of one of the given operations.
+ */
+public class OperationTraceRule implements TraceRule {
+    private final Set<String> operationNames;
+
+    public OperationTraceRule(Collection<String> operationNames) {
+        this.operationNames = new HashSet<>(operationNames);
+    }
+
+    public OperationTraceRule(String... operationNames) {
+        this(Arrays.asList(operationNames));
+    }
+
+    @Override
+    public boolean keep(List<Span> spans) {
+        for (Span span : spans) {
+            if (operationNames.contains(span.getOperationName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
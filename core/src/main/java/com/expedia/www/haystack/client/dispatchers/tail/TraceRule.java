@@ -0,0 +1,35 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers.tail;
+
+import com.expedia.www.haystack.client.Span;
+
+import java.util.List;
+
+/**
+ * Decides whether a finished trace is worth exporting, with all of its spans in hand. Used by the
+ * {@link com.expedia.www.haystack.client.dispatchers.TailSamplingDispatcher}; a trace is kept when any of its rules
+ * keeps it.
+ */
+public interface TraceRule {
+
+    /**
+     * @param spans the trace's spans finished in this process, in the order they finished
+     * @return <code>true</code> to export the trace
+     */
+    boolean keep(List<Span> spans);
+}
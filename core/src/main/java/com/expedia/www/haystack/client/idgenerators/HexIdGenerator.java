@@ -0,0 +1,72 @@
+/*
+ * Copyright 2019 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.idgenerators;
+
+import com.expedia.www.haystack.client.Id;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Generates random B3 compatible hex ids as {@link Id}s, which render to upper case hex the first time they're read
+ * and not before; a span that is never reported or propagated never pays for its string.
+ * <p>
+ * Span ids are 64 bit. Trace ids are 64 bit, or a full 128 random bits when built with <code>traceId128</code>;
+ * unlike {@link HexcharIdGenerator}, whose two halves are each drawn below <code>Long.MAX_VALUE</code>, every bit
+ * of a 128 bit trace id is random.
+ */
+public class HexIdGenerator implements IdGenerator {
+    private final boolean traceId128;
+
+    public HexIdGenerator() {
+        this(true);
+    }
+
+    /**
+     * @param traceId128 whether trace ids are 128 bit (32 hex digits) rather than 64 bit (16 hex digits)
+     */
+    public HexIdGenerator(boolean traceId128) {
+        this.traceId128 = traceId128;
+    }
+
+    @Override
+    public Id generateTraceId() {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (traceId128) {
+            // only an all zero id reads as absent, so a zero high half is fine
+            return Id.ofHex(random.nextLong(), nonZero(random));
+        }
+        return Id.ofHex(nonZero(random));
+    }
+
+    @Override
+    public Id generateSpanId() {
+        return Id.ofHex(nonZero(ThreadLocalRandom.current()));
+    }
+
+    @Override
+    public Object generate() {
+        return generateTraceId();
+    }
+
+    private static long nonZero(ThreadLocalRandom random) {
+        long value = random.nextLong();
+        while (value == 0L) {
+            value = random.nextLong();
+        }
+        return value;
+    }
+}
@@ -21,32 +21,46 @@ import java.util.concurrent.ThreadLocalRandom;
 /**
  * Generates random and unique B3 compatible hexchar ids.
  * Note that traceId will be in 128 bit while spanId and parentSpanId will be 64 bit.
+ * <p>
+ * Ids are encoded through a digit table into a per-thread buffer, so each id costs one <code>String</code>.
+ *
+ * @see HexIdGenerator for ids that are only rendered when they're read
  */
 public class HexcharIdGenerator implements IdGenerator {
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+    private static final ThreadLocal<char[]> BUFFER = ThreadLocal.withInitial(() -> new char[32]);
 
     @Override
     public String generateTraceId() {
-        return String.format("%016X", nextRandomLong()).concat(String.format("%016X", nextRandomLong()));
+        final char[] chars = BUFFER.get();
+        encode(chars, 0, nextRandomLong());
+        encode(chars, 16, nextRandomLong());
+        return new String(chars, 0, 32);
     }
 
     @Override
     public String generateSpanId() {
-        return String.format("%016X", nextRandomLong());
+        final char[] chars = BUFFER.get();
+        encode(chars, 0, nextRandomLong());
+        return new String(chars, 0, 16);
     }
 
     @Override
     public Object generate() {
-        return String.format("%016X", nextRandomLong()).concat(String.format("%016X", nextRandomLong()));
+        return generateTraceId();
     }
 
     /**
      * Generates a new 64-bit id, taking care to dodge zero which can be confused with absent
      */
     private long nextRandomLong() {
-        long nextId = ThreadLocalRandom.current().nextLong(Long.MAX_VALUE);
-        while (nextId == 0L) {
-            nextId = ThreadLocalRandom.current().nextLong(Long.MAX_VALUE);
+        return ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+    }
+
+    private static void encode(char[] chars, int offset, long value) {
+        for (int i = offset + 15; i >= offset; i--) {
+            chars[i] = HEX_DIGITS[(int) (value & 0xF)];
+            value >>>= 4;
         }
-        return nextId;
     }
 }
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2019 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.idgenerators;
+
+import com.expedia.www.haystack.client.Id;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongSupplier;
+
+/**
+ * Generates roughly time ordered 128 bit trace ids and 64 bit span ids without any shared mutable state, so it
+ * scales with threads where {@link TimeBasedUUIDGenerator} serializes them.
+ * <p>
+ * A trace id is laid out, most significant bits first, as
+ * <pre>
+ *   48 bits  milliseconds since the epoch
+ *   16 bits  node: this process, from its pid and host name
+ *   24 bits  thread: drawn at random the first time a thread generates an id
+ *   40 bits  sequence: starts at a random point per thread and counts up
+ * </pre>
+ * and renders as 32 upper case hex digits, so ids sort by creation time as strings as well as numbers. Span ids are
+ * the low 64 bits (thread and sequence) alone.
+ * <p>
+ * Two ids collide only if they share the millisecond, the node, the randomly drawn thread bits and the sequence;
+ * within a thread the sequence never repeats before it wraps 2<sup>40</sup> ids later.
+ */
+public class TimeOrderedIdGenerator implements IdGenerator {
+    private static final long SEQUENCE_MASK = (1L << 40) - 1;
+
+    private final long node;
+    private final LongSupplier millis;
+    private final ThreadLocal<Sequence> sequences = ThreadLocal.withInitial(Sequence::new);
+
+    public TimeOrderedIdGenerator() {
+        this(ManagementFactory.getRuntimeMXBean().getName().hashCode());
+    }
+
+    /**
+     * @param node identifies this process among those generating ids; only the low 16 bits are used
+     */
+    public TimeOrderedIdGenerator(int node) {
+        this(node, System::currentTimeMillis);
+    }
+
+    TimeOrderedIdGenerator(int node, LongSupplier millis) {
+        this.node = node & 0xFFFFL;
+        this.millis = millis;
+    }
+
+    @Override
+    public Id generateTraceId() {
+        final long high = (millis.getAsLong() << 16) | node;
+        return Id.ofHex(high, sequences.get().next());
+    }
+
+    @Override
+    public Id generateSpanId() {
+        return Id.ofHex(sequences.get().next());
+    }
+
+    @Override
+    public Object generate() {
+        return generateTraceId();
+    }
+
+    private static final class Sequence {
+        private final long thread;
+        private long next;
+
+        Sequence() {
+            final ThreadLocalRandom random = ThreadLocalRandom.current();
+            this.thread = random.nextLong(1, 1L << 24) << 40;
+            this.next = random.nextLong();
+        }
+
+        long next() {
+            return thread | (next++ & SEQUENCE_MASK);
+        }
+    }
+}
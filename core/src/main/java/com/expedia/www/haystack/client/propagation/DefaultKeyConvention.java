@@ -30,6 +30,8 @@ public final class DefaultKeyConvention implements KeyConvention {
 
     private static final String PARENT_ID = "Parent-ID";
 
+    private static final String SAMPLED = "Sampled";
+
     @Override
     public String baggagePrefix() {
         return BAGGAGE_PREFIX;
@@ -65,4 +67,14 @@ public final class DefaultKeyConvention implements KeyConvention {
     public Collection<String> spanIdKeyAliases() {
         return Collections.unmodifiableCollection(Arrays.asList(SPAN_ID));
     }
+
+    @Override
+    public String sampledKey() {
+        return SAMPLED;
+    }
+
+    @Override
+    public Collection<String> sampledKeyAliases() {
+        return Collections.unmodifiableCollection(Arrays.asList(SAMPLED));
+    }
 }
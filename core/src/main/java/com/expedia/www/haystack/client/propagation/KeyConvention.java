@@ -17,6 +17,7 @@
 package com.expedia.www.haystack.client.propagation;
 
 import java.util.Collection;
+import java.util.Collections;
 
 /**
  * Encapsulates the various key names and prefixes used to propagate a
@@ -80,4 +81,25 @@ public interface KeyConvention {
      * @return The collection of keys used for parent-id
      */
     Collection<String> parentIdKeyAliases();
+
+    /**
+     * Provides the key used to propagate the sampling decision. Only
+     * unsampled contexts carry it; a context without it is sampled.
+     *
+     * @return The key used to propagate the sampled flag
+     */
+    default String sampledKey() {
+        return "Sampled";
+    }
+
+    /**
+     * Provides the key names used to describe the sampled flag in a
+     * carrier.  This list should include the value returned by
+     * <code>sampledKey()</code>.
+     *
+     * @return The collection of keys used for the sampled flag
+     */
+    default Collection<String> sampledKeyAliases() {
+        return Collections.singletonList(sampledKey());
+    }
 }
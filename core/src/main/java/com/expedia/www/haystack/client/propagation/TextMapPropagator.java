@@ -58,10 +58,14 @@ public class TextMapPropagator implements Injector<TextMap>, Extractor<TextMap>
 
     @Override
     public void inject(SpanContext context, TextMap carrier) {
-        put(carrier, convention.traceIdKey(), context.getTraceId().toString());
-        put(carrier, convention.spanIdKey(), context.getSpanId().toString());
-        if (context.getParentId() != null) {
-            put(carrier, convention.parentIdKey(), context.getParentId().toString());
+        put(carrier, convention.traceIdKey(), context.toTraceId());
+        put(carrier, convention.spanIdKey(), context.toSpanId());
+        if (context.getParentIdAsId() != null) {
+            put(carrier, convention.parentIdKey(), context.getParentIdAsId().toString());
+        }
+        if (!context.isSampled()) {
+            // sampled is the default, so carriers of sampled traces look as they always have
+            put(carrier, convention.sampledKey(), "0");
         }
 
         for (Map.Entry<String, String> baggage : context.baggageItems()) {
@@ -74,6 +78,7 @@ public class TextMapPropagator implements Injector<TextMap>, Extractor<TextMap>
         String traceId = null;
         String parentId = null;
         String spanId = null;
+        boolean sampled = true;
 
         final Map<String, String> baggage = new HashMap<>();
 
@@ -90,6 +95,8 @@ public class TextMapPropagator implements Injector<TextMap>, Extractor<TextMap>
                 parentId = valueCodex.decodeSpanId(entry.getValue());
             } else if (containsIgnoreCase(convention.spanIdKeyAliases(), decodedKeyLowerCase)) {
                 spanId = valueCodex.decodeSpanId(entry.getValue());
+            } else if (containsIgnoreCase(convention.sampledKeyAliases(), decodedKeyLowerCase)) {
+                sampled = isSampled(entry.getValue());
             }
         }
 
@@ -98,10 +105,14 @@ public class TextMapPropagator implements Injector<TextMap>, Extractor<TextMap>
             return null;
         }
 
-        SpanContext context = new SpanContext(traceId, spanId, parentId, true);
+        SpanContext context = new SpanContext(traceId, spanId, parentId, true, sampled);
         return context.addBaggage(baggage);
     }
 
+    private boolean isSampled(String value) {
+        return !("0".equals(value) || "false".equalsIgnoreCase(value));
+    }
+
     private boolean containsIgnoreCase(Collection<String> strings, String string) {
         return strings.stream().anyMatch(s -> s.equalsIgnoreCase(string));
     }
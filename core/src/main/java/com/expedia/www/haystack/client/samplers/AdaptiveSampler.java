@@ -0,0 +1,230 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.samplers;
+
+import com.expedia.www.haystack.client.Id;
+import com.expedia.www.haystack.client.dispatchers.RemoteDispatcher;
+import com.expedia.www.haystack.client.metrics.Counter;
+import com.expedia.www.haystack.client.metrics.Gauge;
+import com.expedia.www.haystack.client.metrics.Metrics;
+import com.expedia.www.haystack.client.metrics.MetricsRegistry;
+import com.expedia.www.haystack.client.metrics.Tag;
+import org.apache.commons.lang3.Validate;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Samples new traces with a probability that follows the dispatcher's backpressure, so an overloaded client sheds
+ * whole traces where they start, before any span work is done, instead of the dispatcher dropping random spans
+ * from the middle of traces once its queue is full.
+ * <p>
+ * The probability is adjusted at most once per interval, by whichever thread samples first after the interval
+ * ends (additive increase, multiplicative decrease). If the accept queue is fuller than
+ * <code>targetOccupancy</code>, or sends take longer than <code>maxSendLatencyMicros</code>, it is multiplied by
+ * <code>decreaseFactor</code>; otherwise it grows by <code>increaseStep</code>. It stays within
+ * <code>[minProbability, maxProbability]</code>.
+ * <p>
+ * Like {@link ProbabilisticSampler}, the decision is a function of the trace id at the current probability.
+ */
+public class AdaptiveSampler implements Sampler {
+    private final DoubleSupplier queueOccupancy;
+    private final LongSupplier sendLatencyMicros;
+    private final LongSupplier nanoTime;
+    private final double targetOccupancy;
+    private final long maxSendLatencyMicros;
+    private final double minProbability;
+    private final double maxProbability;
+    private final double increaseStep;
+    private final double decreaseFactor;
+    private final long adjustIntervalNanos;
+
+    private final AtomicLong nextAdjustment;
+    private volatile double probability;
+    private volatile long boundary;
+
+    private final Counter sampledCounter;
+    private final Counter droppedCounter;
+    private final Counter overloadCounter;
+
+    public AdaptiveSampler(Metrics metrics, DoubleSupplier queueOccupancy, LongSupplier sendLatencyMicros,
+                           double targetOccupancy, long maxSendLatencyMicros, double minProbability,
+                           double maxProbability, double increaseStep, double decreaseFactor,
+                           long adjustIntervalMillis) {
+        this(metrics, queueOccupancy, sendLatencyMicros, targetOccupancy, maxSendLatencyMicros, minProbability,
+             maxProbability, increaseStep, decreaseFactor, adjustIntervalMillis, System::nanoTime);
+    }
+
+    AdaptiveSampler(Metrics metrics, DoubleSupplier queueOccupancy, LongSupplier sendLatencyMicros,
+                    double targetOccupancy, long maxSendLatencyMicros, double minProbability,
+                    double maxProbability, double increaseStep, double decreaseFactor,
+                    long adjustIntervalMillis, LongSupplier nanoTime) {
+        Validate.isTrue(0 <= minProbability && minProbability <= maxProbability && maxProbability <= 1,
+                        "probabilities must satisfy 0 <= minProbability <= maxProbability <= 1");
+        Validate.isTrue(increaseStep > 0, "increaseStep must be positive");
+        Validate.isTrue(decreaseFactor > 0 && decreaseFactor < 1, "decreaseFactor must be between 0 and 1");
+        Validate.isTrue(adjustIntervalMillis > 0, "adjustIntervalMillis must be positive");
+
+        this.queueOccupancy = queueOccupancy;
+        this.sendLatencyMicros = sendLatencyMicros;
+        this.nanoTime = nanoTime;
+        this.targetOccupancy = targetOccupancy;
+        this.maxSendLatencyMicros = maxSendLatencyMicros;
+        this.minProbability = minProbability;
+        this.maxProbability = maxProbability;
+        this.increaseStep = increaseStep;
+        this.decreaseFactor = decreaseFactor;
+        this.adjustIntervalNanos = TimeUnit.MILLISECONDS.toNanos(adjustIntervalMillis);
+
+        this.nextAdjustment = new AtomicLong(nanoTime.getAsLong() + adjustIntervalNanos);
+        setProbability(maxProbability);
+
+        this.sampledCounter = Counter.builder("sampler").tag(new Tag("state", "sampled")).register(metrics);
+        this.droppedCounter = Counter.builder("sampler").tag(new Tag("state", "dropped")).register(metrics);
+        this.overloadCounter = Counter.builder("overload").register(metrics);
+
+        // held in the registry; but we don't need a local reference
+        Gauge.builder("samplingProbability", this, AdaptiveSampler::getProbability).register(metrics);
+    }
+
+    @Override
+    public boolean sample(Id traceId, String operationName) {
+        maybeAdjust();
+        final boolean sampled = probability >= 1
+                || (ProbabilisticSampler.mix(traceId.getHigh() ^ traceId.getLow()) >>> 1) < boundary;
+        (sampled ? sampledCounter : droppedCounter).increment();
+        return sampled;
+    }
+
+    public double getProbability() {
+        return probability;
+    }
+
+    private void maybeAdjust() {
+        final long now = nanoTime.getAsLong();
+        final long due = nextAdjustment.get();
+        // only the thread that moves the deadline adjusts, so each interval adjusts once
+        if (now - due < 0 || !nextAdjustment.compareAndSet(due, now + adjustIntervalNanos)) {
+            return;
+        }
+        if (isOverloaded()) {
+            setProbability(Math.max(minProbability, probability * decreaseFactor));
+            overloadCounter.increment();
+        } else {
+            setProbability(Math.min(maxProbability, probability + increaseStep));
+        }
+    }
+
+    private boolean isOverloaded() {
+        return queueOccupancy.getAsDouble() > targetOccupancy
+                || (maxSendLatencyMicros > 0 && sendLatencyMicros.getAsLong() > maxSendLatencyMicros);
+    }
+
+    private void setProbability(double probability) {
+        this.boundary = (long) (probability * Long.MAX_VALUE);
+        this.probability = probability;
+    }
+
+    public static final class Builder {
+        private final Metrics metrics;
+        private final DoubleSupplier queueOccupancy;
+        private final LongSupplier sendLatencyMicros;
+        private double targetOccupancy = 0.5;
+        private long maxSendLatencyMicros = 0;
+        private double minProbability = 0.01;
+        private double maxProbability = 1;
+        private double increaseStep = 0.05;
+        private double decreaseFactor = 0.5;
+        private long adjustIntervalMillis = 100;
+
+        public Builder(MetricsRegistry registry, RemoteDispatcher dispatcher) {
+            this(new Metrics(registry, AdaptiveSampler.class.getName(), Collections.emptyList()), dispatcher);
+        }
+
+        public Builder(Metrics metrics, RemoteDispatcher dispatcher) {
+            this(metrics, dispatcher::getQueueOccupancy, dispatcher::getSendLatencyMicros);
+        }
+
+        /**
+         * @param queueOccupancy share of the dispatch queue in use, between 0 and 1
+         * @param sendLatencyMicros recent send latency
+         */
+        public Builder(Metrics metrics, DoubleSupplier queueOccupancy, LongSupplier sendLatencyMicros) {
+            this.metrics = metrics;
+            this.queueOccupancy = queueOccupancy;
+            this.sendLatencyMicros = sendLatencyMicros;
+        }
+
+        /**
+         * @param targetOccupancy queue occupancy, between 0 and 1, above which the probability is cut
+         * @return this builder instance
+         */
+        public Builder withTargetOccupancy(double targetOccupancy) {
+            this.targetOccupancy = targetOccupancy;
+            return this;
+        }
+
+        /**
+         * @param maxSendLatencyMicros send latency above which the probability is cut; zero ignores latency
+         * @return this builder instance
+         */
+        public Builder withMaxSendLatencyMicros(long maxSendLatencyMicros) {
+            this.maxSendLatencyMicros = maxSendLatencyMicros;
+            return this;
+        }
+
+        /**
+         * @param minProbability the probability is never cut below this
+         * @param maxProbability the probability starts at and never grows above this
+         * @return this builder instance
+         */
+        public Builder withProbabilityRange(double minProbability, double maxProbability) {
+            this.minProbability = minProbability;
+            this.maxProbability = maxProbability;
+            return this;
+        }
+
+        /**
+         * @param increaseStep added to the probability after an interval without overload
+         * @param decreaseFactor the probability is multiplied by this after an interval with overload
+         * @return this builder instance
+         */
+        public Builder withSteps(double increaseStep, double decreaseFactor) {
+            this.increaseStep = increaseStep;
+            this.decreaseFactor = decreaseFactor;
+            return this;
+        }
+
+        /**
+         * @param adjustIntervalMillis shortest time between two adjustments
+         * @return this builder instance
+         */
+        public Builder withAdjustIntervalMillis(long adjustIntervalMillis) {
+            this.adjustIntervalMillis = adjustIntervalMillis;
+            return this;
+        }
+
+        public AdaptiveSampler build() {
+            return new AdaptiveSampler(metrics, queueOccupancy, sendLatencyMicros, targetOccupancy,
+                    maxSendLatencyMicros, minProbability, maxProbability, increaseStep, decreaseFactor,
+                    adjustIntervalMillis);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.samplers;
+
+import com.expedia.www.haystack.client.Id;
+
+/**
+ * Records every trace or none of them.
+ */
+public class ConstantSampler implements Sampler {
+    private final boolean decision;
+
+    public ConstantSampler(boolean decision) {
+        this.decision = decision;
+    }
+
+    @Override
+    public boolean sample(Id traceId, String operationName) {
+        return decision;
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.samplers;
+
+import com.expedia.www.haystack.client.Id;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Records a fixed share of traces. The decision is a function of the trace id's bits alone, so tracers sampling at
+ * the same probability agree on a trace without having to propagate the decision.
+ * <p>
+ * The trace id is hashed first, so ids with predictable bits, like time based UUIDs, still sample evenly.
+ */
+public class ProbabilisticSampler implements Sampler {
+    private final double probability;
+    private final long boundary;
+
+    /**
+     * @param probability share of traces to record, between 0 and 1
+     */
+    public ProbabilisticSampler(double probability) {
+        Validate.isTrue(probability >= 0 && probability <= 1, "probability must be between 0 and 1");
+        this.probability = probability;
+        this.boundary = (long) (probability * Long.MAX_VALUE);
+    }
+
+    public double getProbability() {
+        return probability;
+    }
+
+    @Override
+    public boolean sample(Id traceId, String operationName) {
+        if (probability >= 1) {
+            return true;
+        }
+        return (mix(traceId.getHigh() ^ traceId.getLow()) >>> 1) < boundary;
+    }
+
+    // the 64-bit finalizer of MurmurHash3
+    static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.samplers;
+
+import com.expedia.www.haystack.client.Id;
+import com.expedia.www.haystack.client.metrics.Counter;
+import com.expedia.www.haystack.client.metrics.Gauge;
+import com.expedia.www.haystack.client.metrics.Metrics;
+import com.expedia.www.haystack.client.metrics.MetricsRegistry;
+import com.expedia.www.haystack.client.metrics.Tag;
+import org.apache.commons.lang3.Validate;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Records at most a fixed number of new traces per second for each operation, so a few hot operations (health
+ * checks, cache lookups) can't crowd out the rest. Each operation has its own lock-free token bucket holding up to
+ * one second of its rate; an optional global bucket caps the total on top.
+ * <p>
+ * The operation table is bounded: once <code>maxOperations</code> operations have buckets, the traces of any other
+ * operation share a single bucket, reported as the {@value #OTHER_OPERATIONS} operation. That keeps memory and the
+ * number of metrics bounded when operation names carry ids or urls. Operations given a rate of their own get their
+ * bucket up front and don't count towards the limit, so a flood of other names can't take their rate away.
+ * <p>
+ * Every decision is counted per operation as <code>sampler{operation=...,state=sampled|dropped}</code>.
+ */
+public class RateLimitingSampler implements Sampler {
+    static final String OTHER_OPERATIONS = "_other";
+
+    private final Metrics metrics;
+    private final LongSupplier nanoTime;
+    private final double defaultRate;
+    private final int maxOperations;
+    private final TokenBucket globalBucket;
+    private final Map<String, Operation> configuredOperations;
+    private final ConcurrentHashMap<String, Operation> operations;
+    private final Operation otherOperations;
+
+    public RateLimitingSampler(Metrics metrics, Map<String, Double> operationRates, double defaultRate,
+                               double globalRate, int maxOperations) {
+        this(metrics, operationRates, defaultRate, globalRate, maxOperations, System::nanoTime);
+    }
+
+    RateLimitingSampler(Metrics metrics, Map<String, Double> operationRates, double defaultRate,
+                        double globalRate, int maxOperations, LongSupplier nanoTime) {
+        Validate.isTrue(maxOperations > 0, "maxOperations must be positive");
+
+        this.metrics = metrics;
+        this.nanoTime = nanoTime;
+        this.defaultRate = defaultRate;
+        this.maxOperations = maxOperations;
+        this.globalBucket = globalRate > 0 ? new TokenBucket(globalRate, globalRate, nanoTime) : null;
+        this.operations = new ConcurrentHashMap<>();
+        this.otherOperations = newOperation(OTHER_OPERATIONS, defaultRate);
+        // only read from here on, so a plain map is safe to share
+        this.configuredOperations = new HashMap<>();
+        for (Map.Entry<String, Double> rate : operationRates.entrySet()) {
+            configuredOperations.put(rate.getKey(), newOperation(rate.getKey(), rate.getValue()));
+        }
+
+        // held in the registry; but we don't need a local reference
+        Gauge.builder("samplerOperations", operations, Map::size).register(metrics);
+    }
+
+    @Override
+    public boolean sample(Id traceId, String operationName) {
+        final Operation operation = operationFor(operationName);
+        // the operation's own limit first, so a throttled hot operation doesn't use up the global allowance; a
+        // trace the global cap refuses gives the operation its token back
+        boolean sampled = operation.bucket.tryTake();
+        if (sampled && globalBucket != null && !globalBucket.tryTake()) {
+            operation.bucket.giveBack();
+            sampled = false;
+        }
+        (sampled ? operation.sampledCounter : operation.droppedCounter).increment();
+        return sampled;
+    }
+
+    private Operation operationFor(String operationName) {
+        if (operationName == null) {
+            return otherOperations;
+        }
+        final Operation configured = configuredOperations.get(operationName);
+        if (configured != null) {
+            return configured;
+        }
+        final Operation operation = operations.get(operationName);
+        if (operation != null) {
+            return operation;
+        }
+        // racing threads may each add one past the limit; the table stays bounded all the same
+        if (operations.size() >= maxOperations) {
+            return otherOperations;
+        }
+        return operations.computeIfAbsent(operationName, name -> newOperation(name, defaultRate));
+    }
+
+    private Operation newOperation(String operationName, double rate) {
+        return new Operation(new TokenBucket(rate, rate, nanoTime),
+                Counter.builder("sampler").tag(new Tag("operation", operationName)).tag(new Tag("state", "sampled")).register(metrics),
+                Counter.builder("sampler").tag(new Tag("operation", operationName)).tag(new Tag("state", "dropped")).register(metrics));
+    }
+
+    int operationCount() {
+        return operations.size();
+    }
+
+    private static final class Operation {
+        private final TokenBucket bucket;
+        private final Counter sampledCounter;
+        private final Counter droppedCounter;
+
+        private Operation(TokenBucket bucket, Counter sampledCounter, Counter droppedCounter) {
+            this.bucket = bucket;
+            this.sampledCounter = sampledCounter;
+            this.droppedCounter = droppedCounter;
+        }
+    }
+
+    public static final class Builder {
+        private final Metrics metrics;
+        private final Map<String, Double> operationRates = new HashMap<>();
+        private double defaultRate = 10;
+        private double globalRate = 0;
+        private int maxOperations = 1000;
+
+        public Builder(MetricsRegistry registry) {
+            this(new Metrics(registry, RateLimitingSampler.class.getName(), Collections.emptyList()));
+        }
+
+        public Builder(Metrics metrics) {
+            this.metrics = metrics;
+        }
+
+        /**
+         * @param tracesPerSecond traces recorded per second for operations without a rate of their own
+         * @return this builder instance
+         */
+        public Builder withDefaultRate(double tracesPerSecond) {
+            this.defaultRate = tracesPerSecond;
+            return this;
+        }
+
+        /**
+         * @param operationName operation to limit
+         * @param tracesPerSecond traces recorded per second for the operation; zero records none
+         * @return this builder instance
+         */
+        public Builder withOperationRate(String operationName, double tracesPerSecond) {
+            operationRates.put(operationName, tracesPerSecond);
+            return this;
+        }
+
+        /**
+         * @param tracesPerSecond traces recorded per second across all operations; zero for no global cap
+         * @return this builder instance
+         */
+        public Builder withGlobalRate(double tracesPerSecond) {
+            this.globalRate = tracesPerSecond;
+            return this;
+        }
+
+        /**
+         * @param maxOperations operations given a bucket of their own; the rest share one
+         * @return this builder instance
+         */
+        public Builder withMaxOperations(int maxOperations) {
+            this.maxOperations = maxOperations;
+            return this;
+        }
+
+        public RateLimitingSampler build() {
+            return new RateLimitingSampler(metrics, operationRates, defaultRate, globalRate, maxOperations);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.samplers;
+
+import com.expedia.www.haystack.client.Id;
+
+/**
+ * Decides, once per trace, whether its spans are recorded and dispatched. The tracer asks when it starts a root
+ * span; child spans and spans continuing a propagated context inherit the decision.
+ */
+public interface Sampler {
+
+    /**
+     * @param traceId the new trace's id
+     * @param operationName operation name of the trace's first span
+     * @return <code>true</code> to record the trace
+     */
+    boolean sample(Id traceId, String operationName);
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.samplers;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Lock-free token bucket, kept as the time at which the bucket is next full (the generic cell rate algorithm). A
+ * take is one read of the clock and one compare-and-set, retried only when another thread took a token meanwhile.
+ */
+final class TokenBucket {
+    private final LongSupplier nanoTime;
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    private final AtomicLong fullAt;
+
+    /**
+     * @param perSecond tokens added per second; zero or less never gives a token
+     * @param burst tokens the bucket holds when full, at least one
+     * @param nanoTime source of {@link System#nanoTime()}
+     */
+    TokenBucket(double perSecond, double burst, LongSupplier nanoTime) {
+        this.nanoTime = nanoTime;
+        this.intervalNanos = perSecond <= 0 ? Long.MAX_VALUE : (long) Math.max(1, Math.min(1e9 / perSecond, Long.MAX_VALUE / 4));
+        this.toleranceNanos = perSecond <= 0 ? -1 : (long) ((Math.max(1, burst) - 1) * intervalNanos);
+        this.fullAt = new AtomicLong(nanoTime.getAsLong());
+    }
+
+    boolean tryTake() {
+        if (toleranceNanos < 0) {
+            return false;
+        }
+        final long now = nanoTime.getAsLong();
+        while (true) {
+            final long current = fullAt.get();
+            final long base = current - now > 0 ? current : now;
+            if (base - now > toleranceNanos) {
+                return false;
+            }
+            if (fullAt.compareAndSet(current, base + intervalNanos)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Returns a token this caller took but didn't use. The bucket never ends up fuller than full, so a token given
+     * back after it would have refilled anyway is lost.
+     */
+    void giveBack() {
+        if (toleranceNanos < 0) {
+            return;
+        }
+        final long now = nanoTime.getAsLong();
+        while (true) {
+            final long current = fullAt.get();
+            if (current - now <= 0) {
+                return;
+            }
+            final long returned = current - intervalNanos;
+            if (fullAt.compareAndSet(current, returned - now > 0 ? returned : now)) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client;
+
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+public class IdTest {
+
+    @Test
+    public void testLongIdsRenderInDecimal() {
+        final Long value = 8123456789012345678L;
+        final Id id = Id.from(value);
+
+        assertEquals(value.toString(), id.toString());
+        assertSame(id.toString(), id.toString());
+        assertSame(value, id.toObject());
+        assertEquals(value.longValue(), id.getLow());
+        assertEquals(Id.of(8123456789012345678L), id);
+        assertEquals(value, Id.of(8123456789012345678L).toObject());
+    }
+
+    @Test
+    public void testUuidIdsRenderLikeTheUuid() {
+        final UUID uuid = UUID.fromString("8557731e-cce9-45c2-9485-1fd86f5116ca");
+        final Id id = Id.of(uuid);
+
+        assertEquals(uuid.toString(), id.toString());
+        assertEquals(uuid.getMostSignificantBits(), id.getHigh());
+        assertEquals(uuid.getLeastSignificantBits(), id.getLow());
+        assertEquals(uuid, id.toObject());
+    }
+
+    @Test
+    public void testHexIdsRenderInUpperCase() {
+        assertEquals(String.format("%016X", 0xABCL), Id.ofHex(0xABCL).toString());
+        assertEquals(String.format("%016X%016X", 1L, Long.MAX_VALUE), Id.ofHex(1L, Long.MAX_VALUE).toString());
+    }
+
+    @Test
+    public void testParsedIdsKeepTheirText() {
+        final Id uuid = Id.parse("8557731e-cce9-45c2-9485-1fd86f5116ca");
+        assertEquals("8557731e-cce9-45c2-9485-1fd86f5116ca", uuid.toObject());
+        assertEquals(0x8557731ecce945c2L, uuid.getHigh());
+        assertEquals(0x94851fd86f5116caL, uuid.getLow());
+
+        final Id hex = Id.parse("00000000000000FF");
+        assertEquals(0, hex.getHigh());
+        assertEquals(0xFF, hex.getLow());
+
+        assertEquals(1234, Id.parse("1234").getLow());
+        assertEquals(Id.parse("not-a-number").getLow(), Id.parse("not-a-number").getLow());
+    }
+
+    @Test
+    public void testIdsOfDifferentKindsAreNotEqual() {
+        assertNotEquals(Id.of(1234), Id.parse("1234"));
+        assertNotEquals(Id.parse("00000000000000ff"), Id.parse("00000000000000FF"));
+        assertEquals(Id.parse("abc"), Id.from("abc"));
+    }
+
+    @Test
+    public void testSpanContextKeepsTheObjectAccessors() {
+        final SpanContext context = new SpanContext(1L, 2L, null);
+
+        assertEquals(1L, context.getTraceId());
+        assertEquals(2L, context.getSpanId());
+        assertEquals(null, context.getParentId());
+        assertEquals("1", context.toTraceId());
+        assertEquals(Id.of(2), context.getSpanIdAsId());
+        assertEquals(new SpanContext(Id.of(1), Id.of(2), null), context);
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client;
+
+import com.expedia.www.haystack.client.dispatchers.InMemoryDispatcher;
+import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
+import com.expedia.www.haystack.client.samplers.ConstantSampler;
+import io.opentracing.propagation.Format;
+import io.opentracing.propagation.TextMapAdapter;
+import io.opentracing.tag.Tags;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+public class SamplingTest {
+
+    private InMemoryDispatcher dispatcher;
+    private Tracer sampledTracer;
+    private Tracer unsampledTracer;
+
+    @Before
+    public void setUp() {
+        NoopMetricsRegistry metrics = new NoopMetricsRegistry();
+        dispatcher = new InMemoryDispatcher.Builder(metrics).build();
+        sampledTracer = new Tracer.Builder(metrics, "TestService", dispatcher).build();
+        unsampledTracer = new Tracer.Builder(metrics, "TestService", dispatcher)
+                .withSampler(new ConstantSampler(false))
+                .build();
+    }
+
+    @Test
+    public void testUnsampledSpansKeepNothingAndAreNotDispatched() {
+        Span root = unsampledTracer.buildSpan("root").withTag("builder", "tag").start();
+        Span child = unsampledTracer.buildSpan("child").asChildOf(root).start();
+        child.setTag("key", "value");
+        child.log("event");
+        child.finish();
+        root.finish();
+
+        Assert.assertFalse(root.context().isSampled());
+        Assert.assertFalse(child.context().isSampled());
+        Assert.assertEquals(root.context().getTraceIdAsId(), child.context().getTraceIdAsId());
+        Assert.assertTrue(root.getTags().isEmpty());
+        Assert.assertTrue(child.getTags().isEmpty());
+        Assert.assertTrue(child.getLogs().isEmpty());
+        Assert.assertNotNull(child.getDuration());
+        Assert.assertTrue(dispatcher.getReceivedSpans().isEmpty());
+    }
+
+    @Test
+    public void testBuilderOfAnUnsampledChildKeepsOnlyTheSpanKind() {
+        Span root = unsampledTracer.buildSpan("root").start();
+        Tracer.SpanBuilder builder = unsampledTracer.buildSpan("child")
+                .asChildOf(root)
+                .withTag("key", "value")
+                .withTag(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_SERVER);
+
+        Assert.assertEquals(Collections.singletonMap(Tags.SPAN_KIND.getKey(), Tags.SPAN_KIND_SERVER), builder.tags);
+        Span child = builder.start();
+        Assert.assertTrue(child.getTags().isEmpty());
+        Assert.assertEquals(root.context().getSpanId(), child.context().getSpanId());
+    }
+
+    @Test
+    public void testSampledSpansAreDispatched() {
+        Span root = sampledTracer.buildSpan("root").start();
+        root.setTag("key", "value");
+        root.finish();
+
+        Assert.assertTrue(root.context().isSampled());
+        Assert.assertEquals("value", root.getTags().get("key"));
+        Assert.assertEquals(1, dispatcher.getReceivedSpans().size());
+    }
+
+    @Test
+    public void testUnsampledDecisionIsPropagated() {
+        Span root = unsampledTracer.buildSpan("root").start();
+        Map<String, String> carrierValues = new HashMap<>();
+        unsampledTracer.inject(root.context(), Format.Builtin.TEXT_MAP, new TextMapAdapter(carrierValues));
+
+        Assert.assertEquals("0", carrierValues.get("Sampled"));
+
+        // the receiving side samples everything on its own, but honours the caller's decision
+        SpanContext extracted = sampledTracer.extract(Format.Builtin.TEXT_MAP, new TextMapAdapter(carrierValues));
+        Assert.assertFalse(extracted.isSampled());
+
+        Span server = sampledTracer.buildSpan("server").asChildOf(extracted).start();
+        server.finish();
+
+        Assert.assertFalse(server.context().isSampled());
+        Assert.assertTrue(dispatcher.getReceivedSpans().isEmpty());
+    }
+
+    @Test
+    public void testSampledDecisionIsPropagatedByDefault() {
+        Span root = sampledTracer.buildSpan("root").start();
+        Map<String, String> carrierValues = new HashMap<>();
+        sampledTracer.inject(root.context(), Format.Builtin.HTTP_HEADERS, new TextMapAdapter(carrierValues));
+
+        Assert.assertFalse(carrierValues.containsKey("Sampled"));
+
+        SpanContext extracted = unsampledTracer.extract(Format.Builtin.HTTP_HEADERS, new TextMapAdapter(carrierValues));
+        Assert.assertTrue(extracted.isSampled());
+        Span server = unsampledTracer.buildSpan("server").asChildOf(extracted).start();
+        Assert.assertTrue(server.context().isSampled());
+    }
+}
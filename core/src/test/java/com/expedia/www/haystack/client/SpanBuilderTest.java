@@ -220,6 +220,26 @@ public class SpanBuilderTest {
         Assert.assertEquals(1L, tags.get("number-key"));
     }
 
+    @Test
+    public void testSubclassesSeeTheTagsAsAMap() {
+        final Tracer.SpanBuilder builder = new Tracer.SpanBuilder(tracer, new SystemClock(), "subclassed") {
+            @Override
+            public Tracer.SpanBuilder withTag(String key, String value) {
+                tags.put(key, value.toUpperCase());
+                return this;
+            }
+        };
+        Assert.assertTrue(builder.tags.isEmpty());
+
+        builder.withTag("string-key", "string-value").withTag("number-key", 1L);
+        Assert.assertEquals("STRING-VALUE", builder.tags.get("string-key"));
+        Assert.assertEquals(1L, builder.tags.remove("number-key"));
+
+        final Span span = builder.start();
+        Assert.assertEquals(1, span.getTags().size());
+        Assert.assertEquals("STRING-VALUE", span.getTags().get("string-key"));
+    }
+
     @Test
     public void testLongIdPropagationThroughoutTheTrace() {
         Span parent = tracer.buildSpan("parent").start();
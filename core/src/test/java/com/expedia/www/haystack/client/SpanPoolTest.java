@@ -0,0 +1,183 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client;
+
+import com.expedia.www.haystack.client.dispatchers.ChainedDispatcher;
+import com.expedia.www.haystack.client.dispatchers.Dispatcher;
+import com.expedia.www.haystack.client.dispatchers.NoopDispatcher;
+import com.expedia.www.haystack.client.metrics.MetricsRegistry;
+import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
+import com.expedia.www.haystack.client.samplers.ConstantSampler;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class SpanPoolTest {
+    private MetricsRegistry metrics;
+
+    @Before
+    public void setUp() {
+        metrics = new NoopMetricsRegistry();
+    }
+
+    private Tracer tracer(SpanPool pool, Dispatcher dispatcher) {
+        return new Tracer.Builder(metrics, "pooled", dispatcher).withSpanPool(pool).build();
+    }
+
+    @Test
+    public void testReleasedSpanIsRecycledClean() {
+        final Tracer tracer = tracer(new SpanPool.Builder(metrics).build(), new NoopDispatcher());
+
+        final Span first = tracer.buildSpan("first").withTag("tagged", true).start();
+        first.log("event");
+        first.finish();
+
+        final Span second = tracer.buildSpan("second").start();
+        Assert.assertSame(first, second);
+        Assert.assertEquals("second", second.getOperationName());
+        Assert.assertTrue(second.getTags().isEmpty());
+        Assert.assertTrue(second.getLogs().isEmpty());
+        Assert.assertNull(second.getDuration());
+
+        second.setTag("reused", 1);
+        second.finish();
+    }
+
+    @Test
+    public void testBuilderTagsStayWithTheirSpan() {
+        final HoldingDispatcher holding = new HoldingDispatcher();
+        final Tracer tracer = tracer(new SpanPool.Builder(metrics).build(), holding);
+
+        final Span first = tracer.buildSpan("first").withTag("first", true).start();
+        final Span second = tracer.buildSpan("second").withTag("second", true).start();
+
+        Assert.assertEquals(Collections.singletonMap("first", true), first.getTags());
+        Assert.assertEquals(Collections.singletonMap("second", true), second.getTags());
+        first.finish();
+        second.finish();
+    }
+
+    @Test
+    public void testSpanReleasedOnAnotherThreadComesBackThroughTheSharedRing() throws InterruptedException {
+        final HoldingDispatcher holding = new HoldingDispatcher();
+        final Tracer tracer = tracer(new SpanPool.Builder(metrics).build(), holding);
+
+        final Span first = tracer.buildSpan("first").start();
+        first.finish();
+        final Thread sender = new Thread(holding::releaseAll);
+        sender.start();
+        sender.join();
+
+        Assert.assertSame(first, tracer.buildSpan("second").start());
+    }
+
+    @Test
+    public void testSpanIsRecycledOnlyOnceEveryDispatcherReleasedIt() {
+        final HoldingDispatcher holding = new HoldingDispatcher();
+        final Tracer tracer = tracer(new SpanPool.Builder(metrics).build(),
+                new ChainedDispatcher(new NoopDispatcher(), holding));
+
+        final Span first = tracer.buildSpan("first").start();
+        first.finish();
+        final Span second = tracer.buildSpan("second").start();
+        Assert.assertNotSame(first, second);
+        Assert.assertEquals("first", first.getOperationName());
+
+        holding.releaseAll();
+        Assert.assertSame(first, tracer.buildSpan("third").start());
+    }
+
+    @Test
+    public void testUnsampledSpanIsRecycledWhenFinished() {
+        final Tracer tracer = new Tracer.Builder(metrics, "pooled", new HoldingDispatcher())
+                .withSampler(new ConstantSampler(false))
+                .withSpanPool(new SpanPool.Builder(metrics).build())
+                .build();
+
+        final Span first = tracer.buildSpan("first").start();
+        first.finish();
+        Assert.assertSame(first, tracer.buildSpan("second").start());
+    }
+
+    @Test
+    public void testDebugModeCatchesUseAfterRelease() {
+        final Tracer tracer = tracer(new SpanPool.Builder(metrics).withDebug(true).build(), new NoopDispatcher());
+
+        final Tracer.SpanBuilder builder = tracer.buildSpan("first");
+        final Span span = builder.start();
+        span.finish();
+
+        Assert.assertNotSame(span, tracer.buildSpan("second").start());
+        expectIllegalState(span::context);
+        expectIllegalState(span::getTags);
+        expectIllegalState(() -> span.setTag("late", "tag"));
+        expectIllegalState(span::release);
+        expectIllegalState(builder::start);
+    }
+
+    private static void expectIllegalState(Runnable use) {
+        try {
+            use.run();
+            Assert.fail("expected an IllegalStateException");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testBuildersStayWithTheirTracer() {
+        final SpanPool pool = new SpanPool.Builder(metrics).build();
+        final Tracer first = tracer(pool, new NoopDispatcher());
+        final Tracer second = tracer(pool, new NoopDispatcher());
+
+        first.buildSpan("first").start().finish();
+        final Tracer.SpanBuilder builder = second.buildSpan("second");
+        Assert.assertSame(second, builder.tracer);
+        builder.start().finish();
+    }
+
+    /**
+     * Keeps the spans it is handed, like a dispatcher that sends them later.
+     */
+    private static final class HoldingDispatcher implements Dispatcher {
+        private final List<Span> spans = new ArrayList<>();
+
+        @Override
+        public synchronized void dispatch(Span span) {
+            spans.add(span);
+        }
+
+        synchronized void releaseAll() {
+            for (Span span : spans) {
+                span.release();
+            }
+            spans.clear();
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void flush() {
+        }
+    }
+}
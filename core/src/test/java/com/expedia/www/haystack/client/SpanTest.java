@@ -28,6 +28,7 @@ import org.junit.Test;
 import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 
 import io.opentracing.tag.StringTag;
 import io.opentracing.tag.Tag;
@@ -100,6 +101,15 @@ public class SpanTest {
     Assert.assertEquals(value, span.getTags().get(key));
   }
 
+  @Test
+  public void testTagForPrimitiveNumbers() {
+    span.setTag("long", 3L);
+    span.setTag("double", 0.5d);
+    Assert.assertEquals(3L, span.getTags().get("long"));
+    Assert.assertEquals(0.5d, span.getTags().get("double"));
+    Assert.assertEquals(TagStore.LONG, span.snapshot().getTagStore().type(0));
+  }
+
   @Test
   public void testTagForString() {
     String key = "key-name";
@@ -148,6 +158,26 @@ public class SpanTest {
     Assert.assertEquals(0, logs.size());
   }
 
+  @Test
+  public void testEventLogReadsAsFields() {
+    span.log(1L, "event");
+
+    LogData log = span.getLogs().get(0);
+    Assert.assertEquals("event", log.getEvent());
+    Assert.assertEquals(Collections.singletonMap("event", null), log.getFields());
+    Assert.assertEquals(new LogData(1L, Collections.singletonMap("event", null)), log);
+  }
+
+  @Test
+  public void testLogDataKeepsItsBoxedSignatures() {
+    final Long timestamp = 42L;
+    final LogData log = new LogData(timestamp, "event");
+
+    Assert.assertEquals(timestamp, log.getTimestamp());
+    Assert.assertEquals(42L, log.getTimestampMicros());
+    Assert.assertEquals(new LogData(42L, "event"), log);
+  }
+
   @Test(expected = IllegalStateException.class)
   public void testSetOperationNameAfterFinish() {
     span.finish();
@@ -198,4 +228,64 @@ public class SpanTest {
     Assert.assertEquals(1, dispatcher.getFlushedSpans().size());
     Assert.assertEquals(1, dispatcher.getReceivedSpans().size());
   }
+
+  @Test
+  public void testSnapshotOfAnOpenSpanIsUnaffectedByLaterWrites() {
+    span.setTag("before", "snapshot");
+    span.log(1L, "event");
+
+    Span.Snapshot snapshot = span.snapshot();
+    span.setTag("after", "snapshot");
+    span.log(2L, "event");
+
+    Assert.assertEquals(Collections.singletonMap("before", "snapshot"), snapshot.getTags());
+    Assert.assertEquals(1, snapshot.getLogs().size());
+    Assert.assertFalse(snapshot.isFinished());
+    Assert.assertEquals("TestOperation", snapshot.getOperationName());
+    Assert.assertEquals("TestService", snapshot.getServiceName());
+  }
+
+  @Test
+  public void testSnapshotOfAFinishedSpan() {
+    Span span = tracer.buildSpan("op-name").withStartTimestamp(1L).start();
+    span.setTag("key", 1);
+    span.finish(3L);
+
+    Span.Snapshot snapshot = span.snapshot();
+    Assert.assertTrue(snapshot.isFinished());
+    Assert.assertEquals(2L, snapshot.getDuration());
+    Assert.assertEquals(Collections.singletonMap("key", 1), snapshot.getTags());
+    Assert.assertEquals(span.context(), snapshot.context());
+  }
+
+  @Test
+  public void testConcurrentWritersAreAllRecorded() throws InterruptedException {
+    final int threads = 4;
+    final int tagsPerThread = 1000;
+    final CountDownLatch start = new CountDownLatch(1);
+    final Thread[] writers = new Thread[threads];
+    for (int t = 0; t < threads; t++) {
+      final int thread = t;
+      writers[t] = new Thread(() -> {
+        try {
+          start.await();
+        } catch (InterruptedException e) {
+          return;
+        }
+        for (int i = 0; i < tagsPerThread; i++) {
+          span.setTag("tag-" + thread + "-" + i, i);
+          span.log(i, "event");
+        }
+      });
+      writers[t].start();
+    }
+    start.countDown();
+    for (Thread writer : writers) {
+      writer.join();
+    }
+    span.finish();
+
+    Assert.assertEquals(threads * tagsPerThread, span.getTags().size());
+    Assert.assertEquals(threads * tagsPerThread, span.getLogs().size());
+  }
 }
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client;
+
+import com.expedia.www.haystack.client.dispatchers.NoopDispatcher;
+import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class SystemClockTest {
+    private static final long START_MILLIS = 1_500_000_000_000L;
+
+    private long wallMillis;
+    private long nanos;
+    private SystemClock clock;
+
+    @Before
+    public void setUp() {
+        wallMillis = START_MILLIS;
+        nanos = 42;
+        clock = new SystemClock(() -> wallMillis, () -> nanos, 1000, 500, 128000);
+    }
+
+    private void advance(long micros) {
+        nanos += TimeUnit.MICROSECONDS.toNanos(micros);
+        wallMillis = START_MILLIS + TimeUnit.NANOSECONDS.toMillis(nanos - 42);
+    }
+
+    @Test
+    public void testMicrosecondResolution() {
+        final long start = clock.microTime();
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toMicros(START_MILLIS), start);
+
+        advance(250);
+        Assert.assertEquals(start + 250, clock.microTime());
+        advance(1);
+        Assert.assertEquals(start + 251, clock.microTime());
+    }
+
+    @Test
+    public void testWallClockSteppedBackIsSlewedNotFollowed() {
+        final long start = clock.microTime();
+        advance(TimeUnit.SECONDS.toMicros(1));
+        wallMillis -= 50;
+
+        long last = clock.microTime();
+        for (int i = 0; i < 100; i++) {
+            nanos += TimeUnit.MILLISECONDS.toNanos(10);
+            wallMillis += 10;
+            final long now = clock.microTime();
+            Assert.assertTrue("time went backwards", now > last);
+            last = now;
+        }
+        // two seconds in, at most two resyncs' worth of correction was applied
+        final long elapsed = last - start;
+        Assert.assertTrue(elapsed >= TimeUnit.SECONDS.toMicros(2) - 1000);
+        Assert.assertTrue(elapsed < TimeUnit.SECONDS.toMicros(2));
+    }
+
+    @Test
+    public void testDriftIsCorrectedGradually() {
+        final long start = clock.microTime();
+        // the wall clock runs 5 ms ahead of the nano timer
+        nanos += TimeUnit.SECONDS.toNanos(1);
+        wallMillis += 1005;
+        clock.microTime();
+
+        for (int i = 0; i < 20; i++) {
+            nanos += TimeUnit.SECONDS.toNanos(1);
+            wallMillis += 1000;
+            clock.microTime();
+        }
+        final long offset = clock.microTime() - start - TimeUnit.SECONDS.toMicros(21);
+        Assert.assertTrue("offset " + offset, offset > 4000 && offset <= 5500);
+    }
+
+    @Test
+    public void testLargeErrorReanchorsInOneStep() {
+        clock.microTime();
+        nanos += TimeUnit.SECONDS.toNanos(1);
+        wallMillis += TimeUnit.HOURS.toMillis(1);
+
+        Assert.assertEquals(TimeUnit.MILLISECONDS.toMicros(wallMillis), clock.microTime());
+    }
+
+    @Test
+    public void testWallClockSetBackNeverStepsTheClockBack() {
+        final long start = clock.microTime();
+        nanos += TimeUnit.SECONDS.toNanos(1);
+        wallMillis -= TimeUnit.HOURS.toMillis(1);
+
+        long last = start;
+        for (int i = 0; i < 10; i++) {
+            final long now = clock.microTime();
+            Assert.assertTrue("time went backwards", now > last);
+            last = now;
+            nanos += TimeUnit.SECONDS.toNanos(1);
+            wallMillis += 1000;
+        }
+        // slewed by at most the correction limit per resync interval
+        Assert.assertTrue(last - start >= TimeUnit.SECONDS.toMicros(10) - 10 * 500);
+    }
+
+    @Test
+    public void testSpanLogsUseTheTracerClock() {
+        final Tracer tracer = new Tracer.Builder(new NoopMetricsRegistry(), "clock", new NoopDispatcher())
+                .withClock(clock)
+                .build();
+        final Span span = tracer.buildSpan("op").start();
+        advance(10);
+        span.log("event");
+
+        Assert.assertEquals(span.getStartTime() + 10, span.getLogs().get(0).getTimestampMicros());
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TagStoreTest {
+
+    @Test
+    public void testPrimitiveTagsAreStoredByType() {
+        final TagStore tags = new TagStore();
+        tags.put("string", "value");
+        tags.put("long", Long.MIN_VALUE);
+        tags.put("double", 2.5d);
+        tags.put("boolean", true);
+
+        assertEquals(4, tags.size());
+        assertEquals(TagStore.STRING, tags.type(0));
+        assertEquals("value", tags.objectValue(0));
+        assertEquals(TagStore.LONG, tags.type(1));
+        assertEquals(Long.MIN_VALUE, tags.longValue(1));
+        assertEquals(TagStore.DOUBLE, tags.type(2));
+        assertEquals(2.5d, tags.doubleValue(2), 0);
+        assertEquals(TagStore.BOOLEAN, tags.type(3));
+        assertTrue(tags.booleanValue(3));
+    }
+
+    @Test
+    public void testBoxedValuesAreUnboxedAndComeBackAsSet() {
+        final Map<String, Object> values = new LinkedHashMap<>();
+        values.put("long", 1L);
+        values.put("int", 1);
+        values.put("short", (short) 1);
+        values.put("double", 2d);
+        values.put("float", 2f);
+        values.put("boolean", false);
+        values.put("other", new BigDecimal("1.5"));
+        values.put("null", null);
+
+        final TagStore tags = new TagStore();
+        tags.putAll(values);
+
+        assertEquals(TagStore.LONG, tags.type(1));
+        assertEquals(TagStore.LONG, tags.type(2));
+        assertEquals(TagStore.DOUBLE, tags.type(4));
+        assertEquals(TagStore.OTHER, tags.type(6));
+        assertEquals(TagStore.OTHER, tags.type(7));
+        assertEquals(values, tags.asMap());
+        assertEquals(Integer.valueOf(1), tags.asMap().get("int"));
+        assertEquals(Float.valueOf(2f), tags.asMap().get("float"));
+    }
+
+    @Test
+    public void testSettingAKeyAgainReplacesItInPlace() {
+        final TagStore tags = new TagStore();
+        tags.put("first", 1L);
+        tags.put("second", "value");
+        tags.put("first", "replaced");
+
+        assertEquals(2, tags.size());
+        assertEquals("first", tags.key(0));
+        assertEquals(TagStore.STRING, tags.type(0));
+        assertEquals("replaced", tags.asMap().get("first"));
+    }
+
+    @Test
+    public void testGrowsAndCopies() {
+        final TagStore tags = new TagStore();
+        for (int i = 0; i < 100; i++) {
+            tags.put("key-" + i, i);
+        }
+        final TagStore copy = tags.copy();
+        tags.put("key-100", 100);
+
+        assertEquals(101, tags.size());
+        assertEquals(100, copy.size());
+        assertEquals(99L, copy.longValue(99));
+        assertFalse(copy.asMap().containsKey("key-100"));
+        assertNull(copy.asMap().get("missing"));
+    }
+
+    @Test
+    public void testRemoveKeepsTheOtherTagsInOrder() {
+        final TagStore tags = new TagStore();
+        tags.put("first", 1);
+        tags.put("second", "two");
+        tags.put("third", 3.0);
+
+        assertEquals("two", tags.remove("second"));
+        assertNull(tags.remove("second"));
+        assertEquals(2, tags.size());
+        assertEquals("third", tags.key(1));
+        assertEquals(3.0, tags.asMap().get("third"));
+    }
+}
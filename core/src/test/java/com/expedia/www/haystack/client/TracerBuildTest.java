@@ -17,6 +17,7 @@
 package com.expedia.www.haystack.client;
 
 import com.expedia.www.haystack.client.dispatchers.NoopDispatcher;
+import com.expedia.www.haystack.client.idgenerators.HexIdGenerator;
 import com.expedia.www.haystack.client.idgenerators.HexcharIdGenerator;
 import com.expedia.www.haystack.client.idgenerators.IdGenerator;
 import com.expedia.www.haystack.client.idgenerators.LongIdGenerator;
@@ -74,4 +75,30 @@ public class TracerBuildTest {
         Assert.assertNotNull(tracer);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testHexcharIdGeneratorFormat(){
+        IdGenerator idGenerator = new HexcharIdGenerator();
+        Assert.assertTrue(idGenerator.generateTraceId().toString().matches("[0-9A-F]{32}"));
+        Assert.assertTrue(idGenerator.generateSpanId().toString().matches("[0-9A-F]{16}"));
+    }
+
+    @Test
+    public void testTracerBuildHexIdGenerator(){
+        Tracer tracer = new Tracer.Builder(new NoopMetricsRegistry(), "TestTracer", new NoopDispatcher())
+                .withIdGenerator(new HexIdGenerator())
+                .build();
+        Span span = tracer.buildSpan("hex-ids").start();
+        Assert.assertTrue(span.context().toTraceId().matches("[0-9A-F]{32}"));
+        Assert.assertTrue(span.context().toSpanId().matches("[0-9A-F]{16}"));
+        Assert.assertEquals(span.context().toTraceId(), span.context().getTraceId());
+
+        Span child = tracer.buildSpan("hex-ids-child").asChildOf(span).start();
+        Assert.assertSame(span.context().getTraceIdAsId(), child.context().getTraceIdAsId());
+    }
+
+    @Test
+    public void testHexIdGenerator64BitTraceIds(){
+        IdGenerator idGenerator = new HexIdGenerator(false);
+        Assert.assertTrue(idGenerator.generateTraceId().toString().matches("[0-9A-F]{16}"));
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.awaitility.Awaitility;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.expedia.www.haystack.client.Tracer;
+import com.expedia.www.haystack.client.metrics.MetricsRegistry;
+import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
+
+public class BufferedDispatcherTest {
+    private MetricsRegistry metrics;
+    private InMemoryDispatcher sink;
+    private BufferedDispatcher dispatcher;
+    private Tracer tracer;
+    private final long sweepInterval = 50;
+    private final int bufferSize = 4;
+
+    @Before
+    public void setUp() {
+        metrics = new NoopMetricsRegistry();
+        sink = new InMemoryDispatcher.Builder(metrics).build();
+        dispatcher = new BufferedDispatcher.Builder(metrics, sink)
+            .withBufferSize(bufferSize)
+            .withSweepIntervalMillis(TimeUnit.MINUTES.toMillis(10))
+            .build();
+        tracer = new Tracer.Builder(metrics, "buffered-dispatcher", dispatcher).build();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        dispatcher.close();
+    }
+
+    @Test
+    public void testFullBufferIsPublishedAsOneChunk() {
+        for (int i = 0; i < bufferSize - 1; i++) {
+            tracer.buildSpan("buffered-" + i).start().finish();
+        }
+        Assert.assertEquals(0, sink.getReceivedSpans().size());
+
+        tracer.buildSpan("fills-the-buffer").start().finish();
+        Assert.assertEquals(bufferSize, sink.getReceivedSpans().size());
+    }
+
+    @Test
+    public void testFlushDrainsPartialBuffers() throws IOException {
+        tracer.buildSpan("partial").start().finish();
+        Assert.assertEquals(0, sink.getReceivedSpans().size());
+
+        dispatcher.flush();
+        Assert.assertEquals(1, sink.getFlushedSpans().size());
+    }
+
+    @Test
+    public void testSweepPublishesBuffersOfIdleAndDeadThreads() throws InterruptedException, IOException {
+        dispatcher.close();
+        dispatcher = new BufferedDispatcher.Builder(metrics, sink)
+            .withBufferSize(bufferSize)
+            .withSweepIntervalMillis(sweepInterval)
+            .build();
+        tracer = new Tracer.Builder(metrics, "buffered-dispatcher", dispatcher).build();
+
+        Thread worker = new Thread(() -> tracer.buildSpan("from-dead-thread").start().finish());
+        worker.start();
+        worker.join();
+        tracer.buildSpan("from-idle-thread").start().finish();
+
+        Awaitility.await()
+            .atMost(sweepInterval * 20, TimeUnit.MILLISECONDS)
+            .until(() -> sink.getReceivedSpans().size() == 2);
+    }
+
+    @Test
+    public void testSweepPublishesBuffersOfThreadsWritingSlowly() {
+        tracer.buildSpan("first").start().finish();
+        dispatcher.sweep();
+        Assert.assertEquals(0, sink.getReceivedSpans().size());
+
+        // still written to every interval, but the first span has now waited a whole sweep
+        tracer.buildSpan("second").start().finish();
+        dispatcher.sweep();
+        Assert.assertEquals(2, sink.getReceivedSpans().size());
+    }
+
+    @Test
+    public void testClosedDispatcherPassesSpansThrough() throws IOException {
+        tracer.buildSpan("before-close").start().finish();
+        dispatcher.close();
+        Assert.assertEquals(1, sink.getReceivedSpans().size());
+
+        tracer.buildSpan("after-close").start().finish();
+        Assert.assertEquals(2, sink.getReceivedSpans().size());
+    }
+}
@@ -17,7 +17,10 @@
 package com.expedia.www.haystack.client.dispatchers;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.awaitility.Awaitility;
 import org.junit.Assert;
@@ -27,9 +30,13 @@ import org.junit.Test;
 import com.expedia.www.haystack.client.Span;
 import com.expedia.www.haystack.client.Tracer;
 import com.expedia.www.haystack.client.dispatchers.clients.InMemoryClient;
+import com.expedia.www.haystack.client.dispatchers.queues.WaitStrategy;
 import com.expedia.www.haystack.client.metrics.LoggingMetricsRegistry;
 import com.expedia.www.haystack.client.metrics.MetricsRegistry;
 import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
+import com.expedia.www.haystack.remote.clients.Client;
+import com.expedia.www.haystack.remote.clients.ClientException;
+import com.expedia.www.haystack.remote.clients.ResilientClient;
 
 public class RemoteDispatcherTest {
     private MetricsRegistry metrics;
@@ -106,6 +113,137 @@ public class RemoteDispatcherTest {
         Assert.assertEquals(0, client.getReceivedSpans().size());
     }
 
+    @Test
+    public void testOpenCircuitShedsSpansWithoutCallingTheClient() throws IOException {
+        final AtomicInteger attempts = new AtomicInteger();
+        final Client<Span> failing = new Client<Span>() {
+            @Override
+            public boolean send(Span span) {
+                throw new ClientException("agent unavailable");
+            }
+
+            @Override
+            public boolean send(Collection<Span> spans) {
+                attempts.incrementAndGet();
+                throw new ClientException("agent unavailable");
+            }
+
+            @Override
+            public void close() {
+            }
+
+            @Override
+            public void flush() {
+            }
+        };
+        final Client<Span> resilient = new ResilientClient.Builder<>(metrics, failing)
+            .withMaxRetries(0)
+            .withFailureThreshold(1)
+            .withOpenDurationMillis(TimeUnit.MINUTES.toMillis(1))
+            .build();
+
+        dispatcher = new RemoteDispatcher.Builder(metrics, resilient)
+            .withBlockingQueueLimit(queueSize)
+            .build();
+        tracer = new Tracer.Builder(metrics, "remote-dispatcher", dispatcher).build();
+
+        for (int i = 0; i < 10; i++) {
+            tracer.buildSpan("shed-span-" + i).start().finish();
+        }
+        dispatcher.close();
+
+        Assert.assertEquals(1, attempts.get());
+    }
+
+    @Test
+    public void testWholeBatchesAreHandedToTheClient() throws IOException {
+        final AtomicInteger singleSends = new AtomicInteger();
+        final AtomicInteger batchedSpans = new AtomicInteger();
+        final Client<Span> batching = new Client<Span>() {
+            @Override
+            public boolean send(Span span) {
+                singleSends.incrementAndGet();
+                return true;
+            }
+
+            @Override
+            public boolean send(Collection<Span> spans) {
+                batchedSpans.addAndGet(spans.size());
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+
+            @Override
+            public void flush() {
+            }
+        };
+
+        dispatcher = new RemoteDispatcher.Builder(metrics, batching)
+            .withBlockingQueueLimit(queueSize)
+            .withMaxBatchSize(10)
+            .build();
+        tracer = new Tracer.Builder(metrics, "remote-dispatcher", dispatcher).build();
+
+        for (int i = 0; i < queueSize; i++) {
+            tracer.buildSpan("batched-span-" + i).start().finish();
+        }
+        dispatcher.close();
+
+        Assert.assertEquals(0, singleSends.get());
+        Assert.assertEquals(queueSize, batchedSpans.get());
+    }
+
+    @Test
+    public void testReportsQueueOccupancyAndSendLatency() throws IOException {
+        final CountDownLatch release = new CountDownLatch(1);
+        final Client<Span> slow = new Client<Span>() {
+            @Override
+            public boolean send(Span span) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+
+            @Override
+            public void flush() {
+            }
+        };
+
+        final RemoteDispatcher remote = new RemoteDispatcher.Builder(metrics, slow)
+            .withBlockingQueueLimit(queueSize)
+            .withMaxBatchSize(1)
+            .build();
+        dispatcher = remote;
+        tracer = new Tracer.Builder(metrics, "remote-dispatcher", dispatcher).build();
+
+        Assert.assertEquals(0, remote.getQueueOccupancy(), 0);
+        Assert.assertEquals(0, remote.getSendLatencyMicros());
+
+        // the first span is taken by the sender, which then blocks in the client
+        tracer.buildSpan("blocking-span").start().finish();
+        Awaitility.await().atMost(1, TimeUnit.SECONDS).until(() -> remote.getQueueOccupancy() == 0);
+        for (int i = 0; i < queueSize / 2; i++) {
+            tracer.buildSpan("queued-span-" + i).start().finish();
+        }
+        Assert.assertEquals(0.5, remote.getQueueOccupancy(), 0);
+
+        release.countDown();
+        dispatcher.close();
+
+        Assert.assertEquals(0, remote.getQueueOccupancy(), 0);
+        Assert.assertTrue(remote.getSendLatencyMicros() > 0);
+    }
+
     @Test
     public void testClosedDispatcherRejectsAdditionalSpans() throws IOException {
         Span span = tracer.buildSpan("happy-path").start();
@@ -120,6 +258,45 @@ public class RemoteDispatcherTest {
         Assert.assertEquals(1, client.getFlushedSpans().size());
     }
 
+    @Test
+    public void testMultipleSenderWorkersDrainTheQueue() throws IOException {
+        dispatcher = new RemoteDispatcher.Builder(metrics, client)
+            .withFlushIntervalMillis(flushInterval)
+            .withBlockingQueueLimit(queueSize)
+            .withSenderThreadCount(4)
+            .withMaxBatchSize(10)
+            .build();
+        tracer = new Tracer.Builder(metrics, "remote-dispatcher", dispatcher).build();
+
+        final int createdSpans = queueSize;
+        for (int i = 0; i < createdSpans; i++) {
+            Span span = tracer.buildSpan("worker-span-" + i).start();
+            dispatcher.dispatch(span);
+        }
+        dispatcher.close();
+
+        Assert.assertEquals(createdSpans, client.getTotalSpans().size());
+    }
+
+    @Test
+    public void testRingBufferQueueDrainsOnClose() throws IOException {
+        dispatcher = new RemoteDispatcher.Builder(metrics, client)
+            .withFlushIntervalMillis(flushInterval)
+            .withRingBufferQueue(queueSize, WaitStrategy.PARK)
+            .withSenderThreadCount(2)
+            .build();
+        tracer = new Tracer.Builder(metrics, "remote-dispatcher", dispatcher).build();
+
+        final int createdSpans = queueSize;
+        for (int i = 0; i < createdSpans; i++) {
+            Span span = tracer.buildSpan("ring-span-" + i).start();
+            dispatcher.dispatch(span);
+        }
+        dispatcher.close();
+
+        Assert.assertEquals(createdSpans, client.getTotalSpans().size());
+    }
+
     @Test
     public void testBuilderDefaults() throws IOException {
         dispatcher = new RemoteDispatcher.Builder(metrics, client).build();
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.awaitility.Awaitility;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.expedia.www.haystack.client.Span;
+import com.expedia.www.haystack.client.Tracer;
+import com.expedia.www.haystack.client.dispatchers.tail.ErrorTraceRule;
+import com.expedia.www.haystack.client.dispatchers.tail.LatencyTraceRule;
+import com.expedia.www.haystack.client.metrics.MetricsRegistry;
+import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
+
+import io.opentracing.tag.Tags;
+
+public class TailSamplingDispatcherTest {
+    private MetricsRegistry metrics;
+    private InMemoryDispatcher sink;
+    private TailSamplingDispatcher dispatcher;
+    private Tracer tracer;
+
+    @Before
+    public void setUp() {
+        metrics = new NoopMetricsRegistry();
+        sink = new InMemoryDispatcher.Builder(metrics).build();
+        dispatcher = builder().build();
+        tracer = new Tracer.Builder(metrics, "tail-sampling-dispatcher", dispatcher).build();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        dispatcher.close();
+    }
+
+    private TailSamplingDispatcher.Builder builder() {
+        return new TailSamplingDispatcher.Builder(metrics, sink)
+            .withRule(new ErrorTraceRule())
+            .withRule(new LatencyTraceRule(TimeUnit.SECONDS.toMicros(1)))
+            .withSweepIntervalMillis(TimeUnit.MINUTES.toMillis(10));
+    }
+
+    private void rebuild(TailSamplingDispatcher.Builder builder) throws IOException {
+        dispatcher.close();
+        dispatcher = builder.build();
+        tracer = new Tracer.Builder(metrics, "tail-sampling-dispatcher", dispatcher).build();
+    }
+
+    private Span child(Span parent, String operationName, long durationMicros) {
+        final long start = parent.getStartTime();
+        final Span child = tracer.buildSpan(operationName).asChildOf(parent).withStartTimestamp(start).start();
+        child.finish(start + durationMicros);
+        return child;
+    }
+
+    @Test
+    public void testTraceWithAnErrorIsKeptWhole() {
+        final Span root = tracer.buildSpan("root").start();
+        child(root, "fast", 10);
+        final Span failed = tracer.buildSpan("failed").asChildOf(root).start();
+        Tags.ERROR.set(failed, true);
+        failed.finish();
+        Assert.assertEquals(0, sink.getReceivedSpans().size());
+
+        root.finish();
+        Assert.assertEquals(3, sink.getReceivedSpans().size());
+        Assert.assertEquals(0, dispatcher.pendingTraces());
+        Assert.assertEquals(0, dispatcher.bufferedBytes());
+    }
+
+    @Test
+    public void testFastTraceIsDropped() {
+        final Span root = tracer.buildSpan("root").start();
+        child(root, "fast", 10);
+        root.finish(root.getStartTime() + 20);
+
+        Assert.assertEquals(0, sink.getReceivedSpans().size());
+        Assert.assertEquals(0, dispatcher.pendingTraces());
+    }
+
+    @Test
+    public void testSlowTraceIsKept() {
+        final Span root = tracer.buildSpan("root").start();
+        child(root, "slow", TimeUnit.SECONDS.toMicros(2));
+        root.finish(root.getStartTime() + TimeUnit.SECONDS.toMicros(2));
+
+        Assert.assertEquals(2, sink.getReceivedSpans().size());
+    }
+
+    @Test
+    public void testSpanFinishingAfterItsKeptTraceFollowsTheDecision() {
+        final Span root = tracer.buildSpan("root").start();
+        final Span straggler = tracer.buildSpan("straggler").asChildOf(root).start();
+        Tags.ERROR.set(root, true);
+        root.finish();
+        Assert.assertEquals(1, sink.getReceivedSpans().size());
+
+        straggler.finish();
+        Assert.assertEquals(2, sink.getReceivedSpans().size());
+        Assert.assertEquals(0, dispatcher.pendingTraces());
+    }
+
+    @Test
+    public void testOldestDecisionsAreForgottenFirst() throws IOException {
+        rebuild(builder().withMaxDecisions(2));
+
+        final Span[] stragglers = new Span[3];
+        for (int i = 0; i < stragglers.length; i++) {
+            final Span root = tracer.buildSpan("root-" + i).start();
+            stragglers[i] = tracer.buildSpan("straggler-" + i).asChildOf(root).start();
+            Tags.ERROR.set(root, true);
+            root.finish();
+        }
+        Assert.assertEquals(3, sink.getReceivedSpans().size());
+
+        // the two latest decisions are still known, so their stragglers go straight through
+        stragglers[2].finish();
+        stragglers[1].finish();
+        Assert.assertEquals(5, sink.getReceivedSpans().size());
+        Assert.assertEquals(0, dispatcher.pendingTraces());
+
+        // the first decision was forgotten; its straggler waits to be decided again
+        stragglers[0].finish();
+        Assert.assertEquals(5, sink.getReceivedSpans().size());
+        Assert.assertEquals(1, dispatcher.pendingTraces());
+    }
+
+    @Test
+    public void testTraceWithoutItsRootIsDecidedOnTimeout() throws IOException {
+        rebuild(builder().withTraceTimeoutMillis(50).withSweepIntervalMillis(20));
+
+        final Span root = tracer.buildSpan("root").start();
+        child(root, "slow", TimeUnit.SECONDS.toMicros(2));
+        Assert.assertEquals(1, dispatcher.pendingTraces());
+
+        Awaitility.await()
+            .atMost(5, TimeUnit.SECONDS)
+            .until(() -> sink.getReceivedSpans().size() == 1);
+        Assert.assertEquals(0, dispatcher.pendingTraces());
+    }
+
+    @Test
+    public void testOldestTracesAreDecidedWhenOverTheMemoryBudget() throws IOException {
+        rebuild(builder().withMemoryBudgetBytes(1024));
+
+        final Span first = tracer.buildSpan("first").start();
+        child(first, "slow", TimeUnit.SECONDS.toMicros(2));
+        int traces = 1;
+        while (dispatcher.pendingTraces() == traces) {
+            final Span root = tracer.buildSpan("root").start();
+            child(root, "fast", 10);
+            traces++;
+        }
+
+        Assert.assertEquals(1, sink.getReceivedSpans().size());
+        Assert.assertEquals("slow", sink.getReceivedSpans().get(0).getOperationName());
+        Assert.assertTrue(dispatcher.bufferedBytes() <= 1024);
+    }
+
+    @Test
+    public void testCloseDecidesPendingTraces() throws IOException {
+        final Span root = tracer.buildSpan("root").start();
+        child(root, "slow", TimeUnit.SECONDS.toMicros(2));
+        Assert.assertEquals(0, sink.getReceivedSpans().size());
+
+        dispatcher.close();
+        Assert.assertEquals(1, sink.getReceivedSpans().size());
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers.clients;
+
+import com.expedia.www.haystack.client.Span;
+import com.expedia.www.haystack.client.Tracer;
+import com.expedia.www.haystack.client.dispatchers.RemoteDispatcher;
+import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
+import com.expedia.www.haystack.remote.clients.ClientException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class AsyncHttpCollectorClientTest {
+    private NoopMetricsRegistry metrics;
+    private TestCollector collector;
+    private String endpoint;
+    private final List<com.expedia.open.tracing.Span> received = new CopyOnWriteArrayList<>();
+    private volatile CountDownLatch release = new CountDownLatch(0);
+
+    @Before
+    public void setUp() throws IOException {
+        metrics = new NoopMetricsRegistry();
+        collector = new TestCollector(metrics, "async-http", 8, (exchange) -> {
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            received.add(com.expedia.open.tracing.Span.parseFrom(exchange.getRequestBody()));
+        });
+        endpoint = collector.endpoint();
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        collector.close();
+    }
+
+    private Span finishedSpan(String operation) {
+        return collector.finishedSpan(operation);
+    }
+
+    @Test
+    public void testSendAsyncCompletesWhenTheCollectorAccepts() throws Exception {
+        final AsyncHttpCollectorClient client = new AsyncHttpCollectorClient.Builder(metrics, endpoint).build();
+
+        final CompletableFuture<Boolean> sent = client.sendAsync(finishedSpan("happy-path"));
+        Assert.assertTrue(sent.get(10, TimeUnit.SECONDS));
+        Assert.assertEquals("happy-path", received.get(0).getOperationName());
+        client.close();
+    }
+
+    @Test
+    public void testSendAsyncFailsOnErrorStatus() throws Exception {
+        collector.status.set(503);
+        final AsyncHttpCollectorClient client = new AsyncHttpCollectorClient.Builder(metrics, endpoint).build();
+
+        try {
+            client.sendAsync(finishedSpan("sad-path")).get(10, TimeUnit.SECONDS);
+            Assert.fail("expected the future to fail");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof ClientException);
+        }
+        client.close();
+    }
+
+    @Test
+    public void testSendReportsAFailureSynchronously() {
+        collector.status.set(503);
+        final AsyncHttpCollectorClient client = new AsyncHttpCollectorClient.Builder(metrics, endpoint).build();
+
+        try {
+            client.send(finishedSpan("sad-path"));
+            Assert.fail("expected the failure to be thrown");
+        } catch (ClientException e) {
+            Assert.assertTrue(e.getMessage().contains("503"));
+        }
+        client.close();
+    }
+
+    @Test
+    public void testBatchSendWaitsForEveryResponse() {
+        final AsyncHttpCollectorClient client = new AsyncHttpCollectorClient.Builder(metrics, endpoint).build();
+
+        Assert.assertTrue(client.send(Arrays.asList(finishedSpan("first"), finishedSpan("second"), finishedSpan("third"))));
+        Assert.assertEquals(3, received.size());
+        client.close();
+    }
+
+    @Test
+    public void testFlushIsNotStarvedBySteadySends() throws Exception {
+        final AsyncHttpCollectorClient client = new AsyncHttpCollectorClient.Builder(metrics, endpoint)
+                .withMaxInFlight(2)
+                .withFlushTimeoutMillis(TimeUnit.SECONDS.toMillis(5))
+                .build();
+        final AtomicBoolean sending = new AtomicBoolean(true);
+        final List<Thread> senders = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            final Thread sender = new Thread(() -> {
+                while (sending.get()) {
+                    client.sendAsync(finishedSpan("steady"));
+                }
+            });
+            sender.start();
+            senders.add(sender);
+        }
+        Thread.sleep(50);
+
+        try {
+            client.flush();
+        } finally {
+            sending.set(false);
+            for (Thread sender : senders) {
+                sender.join(TimeUnit.SECONDS.toMillis(10));
+            }
+        }
+        client.close();
+    }
+
+    @Test
+    public void testInFlightRequestsAreCappedAndFlushWaitsForThem() throws Exception {
+        release = new CountDownLatch(1);
+        final AsyncHttpCollectorClient client = new AsyncHttpCollectorClient.Builder(metrics, endpoint)
+                .withMaxInFlight(2)
+                .withHeaders(Collections.singletonMap("client-id", "async-test"))
+                .build();
+
+        client.sendAsync(finishedSpan("first"));
+        client.sendAsync(finishedSpan("second"));
+        final Thread third = new Thread(() -> client.sendAsync(finishedSpan("third")));
+        third.start();
+        third.join(200);
+        Assert.assertTrue("third send should block on the in-flight cap", third.isAlive());
+
+        release.countDown();
+        third.join(TimeUnit.SECONDS.toMillis(10));
+        client.flush();
+        Assert.assertEquals(3, received.size());
+        client.close();
+    }
+
+    @Test
+    public void testRemoteDispatcherDrainsThroughTheAsyncClient() throws Exception {
+        final AsyncHttpCollectorClient client = new AsyncHttpCollectorClient.Builder(metrics, endpoint).build();
+        final RemoteDispatcher dispatcher = new RemoteDispatcher.Builder(metrics, client).build();
+        final Tracer tracer = new Tracer.Builder(metrics, "async-http", dispatcher).build();
+
+        for (int i = 0; i < 50; i++) {
+            tracer.buildSpan("dispatched-" + i).start().finish();
+        }
+        dispatcher.close();
+        Assert.assertEquals(50, received.size());
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers.clients;
+
+import com.expedia.www.haystack.client.Span;
+import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
+import com.expedia.www.haystack.remote.clients.BaseBatchingHttpClient.Compression;
+import com.expedia.www.haystack.remote.clients.BatchRetainedException;
+import com.expedia.www.haystack.remote.clients.ClientException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.GZIPInputStream;
+
+public class BatchingHttpCollectorClientTest {
+    private NoopMetricsRegistry metrics;
+    private TestCollector collector;
+    private String endpoint;
+    private final List<List<com.expedia.open.tracing.Span>> requests = new CopyOnWriteArrayList<>();
+    private final List<String> encodings = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        metrics = new NoopMetricsRegistry();
+        collector = new TestCollector(metrics, "batching-http", 1, (exchange) -> {
+            final String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+            encodings.add(String.valueOf(encoding));
+            InputStream body = exchange.getRequestBody();
+            if ("gzip".equals(encoding)) {
+                body = new GZIPInputStream(body);
+            }
+            final List<com.expedia.open.tracing.Span> spans = new ArrayList<>();
+            com.expedia.open.tracing.Span span;
+            while ((span = com.expedia.open.tracing.Span.parseDelimitedFrom(body)) != null) {
+                spans.add(span);
+            }
+            requests.add(spans);
+        });
+        endpoint = collector.endpoint();
+    }
+
+    @After
+    public void tearDown() {
+        collector.close();
+    }
+
+    private Span finishedSpan(String operation) {
+        return collector.finishedSpan(operation);
+    }
+
+    @Test
+    public void testSpansAreHeldUntilTheBatchFills() {
+        final BatchingHttpCollectorClient client = new BatchingHttpCollectorClient.Builder(metrics, endpoint)
+                .withMaxBatch(3, 1024 * 1024)
+                .withLingerMillis(60_000)
+                .withCompression(Compression.NONE, 0)
+                .build();
+
+        client.send(finishedSpan("first"));
+        client.send(finishedSpan("second"));
+        Assert.assertTrue(requests.isEmpty());
+
+        client.send(finishedSpan("third"));
+        Assert.assertEquals(1, requests.size());
+        Assert.assertEquals(3, requests.get(0).size());
+        Assert.assertEquals("third", requests.get(0).get(2).getOperationName());
+        Assert.assertEquals("null", encodings.get(0));
+        client.close();
+    }
+
+    @Test
+    public void testFlushPostsAPartialBatch() {
+        final BatchingHttpCollectorClient client = new BatchingHttpCollectorClient.Builder(metrics, endpoint)
+                .withLingerMillis(60_000)
+                .build();
+
+        client.send(Arrays.asList(finishedSpan("first"), finishedSpan("second")));
+        Assert.assertTrue(requests.isEmpty());
+
+        client.flush();
+        Assert.assertEquals(1, requests.size());
+        Assert.assertEquals(2, requests.get(0).size());
+
+        client.flush();
+        Assert.assertEquals("an empty flush posts nothing", 1, requests.size());
+        client.close();
+    }
+
+    @Test
+    public void testLargeBatchesAreCompressed() {
+        final BatchingHttpCollectorClient client = new BatchingHttpCollectorClient.Builder(metrics, endpoint)
+                .withMaxBatch(100, 1024 * 1024)
+                .withCompression(Compression.GZIP, 256)
+                .build();
+
+        final List<Span> spans = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            spans.add(finishedSpan("compressible-operation-name"));
+        }
+        client.send(spans);
+
+        Assert.assertEquals(1, requests.size());
+        Assert.assertEquals(100, requests.get(0).size());
+        Assert.assertEquals("gzip", encodings.get(0));
+        Assert.assertTrue(client.compressionRatio() > 1);
+        Assert.assertTrue(client.bytesPerSpan() > 0);
+        client.close();
+    }
+
+    @Test
+    public void testLingeringSpanIsPostedByTheNextSend() throws Exception {
+        final BatchingHttpCollectorClient client = new BatchingHttpCollectorClient.Builder(metrics, endpoint)
+                .withLingerMillis(100)
+                .build();
+
+        client.send(finishedSpan("first"));
+        Assert.assertTrue(requests.isEmpty());
+        Thread.sleep(200);
+        client.send(finishedSpan("second"));
+        Assert.assertEquals(1, requests.size());
+        Assert.assertEquals(2, requests.get(0).size());
+        client.close();
+    }
+
+    @Test(expected = ClientException.class)
+    public void testErrorStatusFailsTheFlush() {
+        collector.status.set(503);
+        final BatchingHttpCollectorClient client = new BatchingHttpCollectorClient.Builder(metrics, endpoint).build();
+
+        client.send(finishedSpan("sad-path"));
+        client.flush();
+    }
+
+    @Test
+    public void testFailedBatchIsKeptAndPostedAgain() {
+        final BatchingHttpCollectorClient client = new BatchingHttpCollectorClient.Builder(metrics, endpoint)
+                .withMaxBatch(2, 1024 * 1024)
+                .withLingerMillis(60_000)
+                .withCompression(Compression.NONE, 0)
+                .build();
+
+        collector.status.set(503);
+        try {
+            client.send(Arrays.asList(finishedSpan("first"), finishedSpan("second")));
+            Assert.fail("expected the failed post to be reported");
+        } catch (BatchRetainedException e) {
+            // expected
+        }
+
+        collector.status.set(200);
+        client.send(finishedSpan("third"));
+        client.flush();
+        Assert.assertEquals(3, requests.size());
+        Assert.assertEquals("first", requests.get(1).get(0).getOperationName());
+        Assert.assertEquals(2, requests.get(1).size());
+        Assert.assertEquals("third", requests.get(2).get(0).getOperationName());
+        client.close();
+    }
+
+    @Test
+    public void testOldestKeptBatchIsDroppedPastTheBound() {
+        final BatchingHttpCollectorClient client = new BatchingHttpCollectorClient.Builder(metrics, endpoint)
+                .withMaxBatch(1, 1024 * 1024)
+                .withMaxRetainedBatches(1)
+                .withCompression(Compression.NONE, 0)
+                .build();
+
+        collector.status.set(503);
+        for (String operation : Arrays.asList("dropped", "kept")) {
+            try {
+                client.send(finishedSpan(operation));
+            } catch (BatchRetainedException e) {
+                // expected
+            }
+        }
+
+        collector.status.set(200);
+        requests.clear();
+        client.flush();
+        Assert.assertEquals(1, requests.size());
+        Assert.assertEquals("kept", requests.get(0).get(0).getOperationName());
+        client.close();
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers.clients;
+
+import com.expedia.www.haystack.client.Span;
+import com.expedia.www.haystack.client.Tracer;
+import com.expedia.www.haystack.client.dispatchers.InMemoryDispatcher;
+import com.expedia.www.haystack.client.metrics.MetricsRegistry;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A local collector endpoint for the http client tests. Every request is handed to the test's reader, then
+ * answered with whatever {@link #status} is set to.
+ */
+class TestCollector implements Closeable {
+    interface RequestReader {
+        void read(HttpExchange exchange) throws IOException;
+    }
+
+    final AtomicInteger status = new AtomicInteger(200);
+    private final Tracer tracer;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    TestCollector(MetricsRegistry metrics, String serviceName, int threads, RequestReader reader) throws IOException {
+        tracer = new Tracer.Builder(metrics, serviceName, new InMemoryDispatcher.Builder(metrics).build()).build();
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/span", (exchange) -> {
+            reader.read(exchange);
+            exchange.sendResponseHeaders(status.get(), -1);
+            exchange.close();
+        });
+        executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    String endpoint() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/span";
+    }
+
+    Span finishedSpan(String operation) {
+        final Span span = tracer.buildSpan(operation).start();
+        span.finish();
+        return span;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers.formats;
+
+import com.expedia.www.haystack.client.Span;
+import com.expedia.www.haystack.client.Tracer;
+import com.expedia.www.haystack.client.dispatchers.InMemoryDispatcher;
+import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
+import com.google.common.collect.ImmutableMap;
+import com.google.protobuf.CodedOutputStream;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class ProtoBufEncoderTest {
+    private Tracer tracer;
+    private ProtoBufFormat format;
+    private ProtoBufEncoder encoder;
+
+    @Before
+    public void setup() {
+        NoopMetricsRegistry metrics = new NoopMetricsRegistry();
+        tracer = new Tracer.Builder(metrics, "protobuf-encoder-tests", new InMemoryDispatcher.Builder(metrics).build()).build();
+        format = new ProtoBufFormat();
+        encoder = new ProtoBufEncoder();
+    }
+
+    private void assertSameBytes(Span span) throws Exception {
+        assertArrayEquals(format.format(span).toByteArray(), encoder.encode(span));
+
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        format.format(span).writeDelimitedTo(expected);
+        final ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        final CodedOutputStream out = CodedOutputStream.newInstance(actual);
+        encoder.writeDelimitedTo(span, out);
+        out.flush();
+        assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+    }
+
+    @Test
+    public void testMinimalSpan() throws Exception {
+        final Span span = tracer.buildSpan("minimal").start();
+        span.finish();
+        assertSameBytes(span);
+    }
+
+    @Test
+    public void testUnfinishedChildSpan() throws Exception {
+        final Span parent = tracer.buildSpan("parent").start();
+        final Span child = tracer.buildSpan("child").asChildOf(parent).start();
+        assertSameBytes(child);
+    }
+
+    @Test
+    public void testTagsOfEveryType() throws Exception {
+        final Span span = tracer.buildSpan("tags").start();
+        span.setTag("string", "value1");
+        span.setTag("empty-string", "");
+        span.setTag("boolean", true);
+        span.setTag("false", false);
+        span.setTag("long", Long.MIN_VALUE);
+        span.setTag("int", -1);
+        span.setTag("short", Short.parseShort("0"));
+        span.setTag("double", 2.5d);
+        span.setTag("float", 0.0f);
+        span.setTag("unicode", "café ☃ 😀");
+        span.finish();
+        assertSameBytes(span);
+    }
+
+    @Test
+    public void testLogsAndBaggage() throws Exception {
+        final Span span = tracer.buildSpan("logs").start();
+        span.setBaggageItem("baggage-key", "baggage-value");
+        span.log("event");
+        span.log(42L, ImmutableMap.<String, Object>builder()
+                .put("string", "value1")
+                .put("long", 1L)
+                .put("double", 2d)
+                .put("object", new StringBuilder("to-string"))
+                .build());
+        final Map<String, Object> nullValue = new HashMap<>();
+        nullValue.put("message", null);
+        span.log(0L, nullValue);
+        span.log(1L, Collections.singletonMap("", "empty-key"));
+        span.finish();
+        assertSameBytes(span);
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers.formats;
+
+import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
+import com.google.protobuf.ByteString;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class Utf8CacheTest {
+    private NoopMetricsRegistry metrics;
+
+    @Before
+    public void setup() {
+        metrics = new NoopMetricsRegistry();
+    }
+
+    @Test
+    public void testRepeatedLookupsReturnTheSameBytes() {
+        final Utf8Cache cache = new Utf8Cache.Builder(metrics).build();
+
+        final ByteString first = cache.get("service-café");
+        assertEquals(ByteString.copyFromUtf8("service-café"), first);
+        assertSame(first, cache.get("service-café"));
+        assertNull(cache.get(null));
+    }
+
+    @Test
+    public void testCacheStaysWithinItsBound() {
+        final Utf8Cache cache = new Utf8Cache.Builder(metrics).withMaxEntries(4).build();
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(ByteString.copyFromUtf8("operation-" + i), cache.get("operation-" + i));
+        }
+        assertEquals(4, cache.size());
+    }
+
+    @Test
+    public void testNamesInUseOutliveOneOffNames() {
+        final Utf8Cache cache = new Utf8Cache.Builder(metrics).withMaxEntries(4).build();
+        final ByteString service = cache.get("service");
+        final ByteString operation = cache.get("operation");
+
+        for (int i = 0; i < 100; i++) {
+            cache.get("/orders/" + i);
+            assertSame(service, cache.get("service"));
+            assertSame(operation, cache.get("operation"));
+        }
+        assertEquals(4, cache.size());
+    }
+
+    @Test
+    public void testLongStringsAreNotCached() {
+        final Utf8Cache cache = new Utf8Cache.Builder(metrics).withMaxLength(16).build();
+        final String url = "/orders/" + StringUtils.repeat('1', 32);
+
+        final ByteString first = cache.get(url);
+        assertEquals(ByteString.copyFromUtf8(url), first);
+        assertNotSame(first, cache.get(url));
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers.overflow;
+
+import com.expedia.www.haystack.client.Span;
+import com.expedia.www.haystack.client.Tracer;
+import com.expedia.www.haystack.client.dispatchers.NoopDispatcher;
+import com.expedia.www.haystack.client.dispatchers.overflow.OverflowPolicy.Outcome;
+import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class OverflowPolicyTest {
+    private Tracer tracer;
+    private BlockingQueue<Span> queue;
+    private Span first;
+    private Span second;
+
+    @Before
+    public void setUp() {
+        tracer = new Tracer.Builder(new NoopMetricsRegistry(), "overflow-policy", new NoopDispatcher()).build();
+        queue = new ArrayBlockingQueue<>(1);
+        first = tracer.buildSpan("first").start();
+        second = tracer.buildSpan("second").start();
+    }
+
+    @Test
+    public void testDropNewest() {
+        OverflowPolicy policy = new DropNewestPolicy();
+        Assert.assertEquals(Outcome.ACCEPTED, policy.offer(queue, first));
+        Assert.assertEquals(Outcome.REJECTED, policy.offer(queue, second));
+        Assert.assertSame(first, queue.peek());
+    }
+
+    @Test
+    public void testDropOldest() {
+        OverflowPolicy policy = new DropOldestPolicy();
+        Assert.assertEquals(Outcome.ACCEPTED, policy.offer(queue, first));
+        Assert.assertEquals(Outcome.EVICTED, policy.offer(queue, second));
+        Assert.assertSame(second, queue.peek());
+    }
+
+    @Test
+    public void testBlockWithTimeout() {
+        OverflowPolicy policy = new BlockWithTimeoutPolicy(10);
+        Assert.assertEquals(Outcome.ACCEPTED, policy.offer(queue, first));
+        Assert.assertEquals(Outcome.TIMED_OUT, policy.offer(queue, second));
+        Assert.assertSame(first, queue.peek());
+    }
+
+    @Test
+    public void testSampleDownShedsAboveTheHighWaterMark() {
+        queue = new ArrayBlockingQueue<>(4);
+        OverflowPolicy policy = new SampleDownPolicy(0.5);
+        policy.bind(queue);
+        for (int i = 0; i < 2; i++) {
+            Assert.assertEquals(Outcome.ACCEPTED, policy.offer(queue, first));
+        }
+
+        int sampledOut = 0;
+        for (int i = 0; i < 100; i++) {
+            Outcome outcome = policy.offer(queue, second);
+            if (outcome == Outcome.SAMPLED_OUT) {
+                sampledOut++;
+            }
+        }
+        // at the mark spans are still admitted, above it they're sampled and once full all are sampled out
+        Assert.assertEquals(4, queue.size());
+        Assert.assertEquals(98, sampledOut);
+    }
+
+    @Test
+    public void testSampleDownReadsTheCapacityOnlyWhenBound() {
+        final AtomicInteger capacityReads = new AtomicInteger();
+        queue = new ArrayBlockingQueue<Span>(4) {
+            @Override
+            public int remainingCapacity() {
+                capacityReads.incrementAndGet();
+                return super.remainingCapacity();
+            }
+        };
+        OverflowPolicy policy = new SampleDownPolicy(0.5);
+        policy.bind(queue);
+        for (int i = 0; i < 10; i++) {
+            policy.offer(queue, first);
+        }
+        Assert.assertEquals(1, capacityReads.get());
+    }
+}
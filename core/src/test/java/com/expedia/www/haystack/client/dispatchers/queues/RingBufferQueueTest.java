@@ -0,0 +1,128 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers.queues;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class RingBufferQueueTest {
+
+    @Test
+    public void testCapacityIsRoundedToPowerOfTwo() {
+        Assert.assertEquals(2, new RingBufferQueue<>(1).capacity());
+        Assert.assertEquals(8, new RingBufferQueue<>(5).capacity());
+        Assert.assertEquals(1024, new RingBufferQueue<>(1000).capacity());
+    }
+
+    @Test
+    public void testFifoAndBounded() {
+        RingBufferQueue<Integer> queue = new RingBufferQueue<>(4, WaitStrategy.SPIN);
+        for (int i = 0; i < 4; i++) {
+            Assert.assertTrue(queue.offer(i));
+        }
+        Assert.assertFalse(queue.offer(4));
+        Assert.assertEquals(4, queue.size());
+        Assert.assertEquals(0, queue.remainingCapacity());
+        Assert.assertEquals((Integer) 0, queue.peek());
+
+        for (int i = 0; i < 4; i++) {
+            Assert.assertEquals((Integer) i, queue.poll());
+        }
+        Assert.assertNull(queue.poll());
+        Assert.assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testDrainToRespectsMaxElements() {
+        RingBufferQueue<Integer> queue = new RingBufferQueue<>(16);
+        for (int i = 0; i < 10; i++) {
+            queue.offer(i);
+        }
+
+        List<Integer> drained = new ArrayList<>();
+        Assert.assertEquals(3, queue.drainTo(drained, 3));
+        Assert.assertEquals(7, queue.drainTo(drained));
+        Assert.assertEquals(10, drained.size());
+        Assert.assertEquals((Integer) 9, drained.get(9));
+    }
+
+    @Test
+    public void testTimedPollAndOfferGiveUp() throws InterruptedException {
+        RingBufferQueue<Integer> queue = new RingBufferQueue<>(2, WaitStrategy.PARK);
+        Assert.assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+        queue.put(1);
+        queue.put(2);
+        Assert.assertFalse(queue.offer(3, 10, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testConcurrentProducersAndConsumersLoseNothing() throws InterruptedException {
+        final int producers = 4;
+        final int perProducer = 10000;
+        final RingBufferQueue<Integer> queue = new RingBufferQueue<>(64, WaitStrategy.YIELD);
+        final Set<Integer> consumed = new HashSet<>();
+        final CountDownLatch done = new CountDownLatch(producers);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            final int base = p * perProducer;
+            threads.add(new Thread(() -> {
+                try {
+                    for (int i = 0; i < perProducer; i++) {
+                        queue.put(base + i);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }));
+        }
+        for (int c = 0; c < 2; c++) {
+            threads.add(new Thread(() -> {
+                List<Integer> local = new ArrayList<>();
+                try {
+                    while (done.getCount() > 0 || !queue.isEmpty()) {
+                        Integer value = queue.poll(1, TimeUnit.MILLISECONDS);
+                        if (value != null) {
+                            local.add(value);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                synchronized (consumed) {
+                    consumed.addAll(local);
+                }
+            }));
+        }
+
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join(TimeUnit.SECONDS.toMillis(30));
+        }
+
+        Assert.assertEquals(producers * perProducer, consumed.size());
+    }
+}
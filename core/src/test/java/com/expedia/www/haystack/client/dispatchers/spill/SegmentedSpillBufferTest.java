@@ -0,0 +1,235 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers.spill;
+
+import com.expedia.www.haystack.client.metrics.MetricsRegistry;
+import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+public class SegmentedSpillBufferTest {
+    private static final int SEGMENT_SIZE = 256;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MetricsRegistry metrics;
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        metrics = new NoopMetricsRegistry();
+        directory = folder.newFolder("spill");
+    }
+
+    private SegmentedSpillBuffer open(long budget) {
+        return new SegmentedSpillBuffer.Builder(metrics, directory)
+                .withSegmentSizeBytes(SEGMENT_SIZE)
+                .withDiskBudgetBytes(budget)
+                .build();
+    }
+
+    private static byte[] record(int i) {
+        return ("record-" + i).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String replayOne(SegmentedSpillBuffer buffer) {
+        final byte[] record = buffer.peek();
+        Assert.assertNotNull(record);
+        buffer.commit();
+        return new String(record, StandardCharsets.UTF_8);
+    }
+
+    private static void rewriteCheckpoint(File segment, long writePosition) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.seek(8);
+            file.writeLong(writePosition);
+            final byte[] header = new byte[24];
+            file.seek(0);
+            file.readFully(header);
+            final CRC32 crc = new CRC32();
+            crc.update(header);
+            file.writeInt((int) crc.getValue());
+        }
+    }
+
+    @Test
+    public void testRecordsAreReplayedInOrderAcrossSegments() {
+        final SegmentedSpillBuffer buffer = open(SEGMENT_SIZE * 8);
+        for (int i = 0; i < 30; i++) {
+            Assert.assertTrue(buffer.append(record(i)));
+        }
+        Assert.assertTrue(directory.listFiles().length > 1);
+
+        for (int i = 0; i < 30; i++) {
+            Assert.assertEquals("record-" + i, replayOne(buffer));
+        }
+        Assert.assertNull(buffer.peek());
+        Assert.assertTrue(buffer.isEmpty());
+        buffer.close();
+    }
+
+    @Test
+    public void testPeekWithoutCommitReturnsTheSameRecord() {
+        final SegmentedSpillBuffer buffer = open(SEGMENT_SIZE);
+        buffer.append(record(1));
+        buffer.append(record(2));
+
+        Assert.assertArrayEquals(record(1), buffer.peek());
+        Assert.assertArrayEquals(record(1), buffer.peek());
+        buffer.commit();
+        Assert.assertArrayEquals(record(2), buffer.peek());
+        buffer.close();
+    }
+
+    @Test
+    public void testAppendsBeyondTheDiskBudgetAreDropped() {
+        final SegmentedSpillBuffer buffer = open(SEGMENT_SIZE);
+        int appended = 0;
+        while (buffer.append(record(appended))) {
+            appended++;
+        }
+        Assert.assertTrue(appended > 0);
+        Assert.assertEquals(1, directory.listFiles().length);
+        Assert.assertFalse(buffer.append(new byte[SEGMENT_SIZE]));
+        buffer.close();
+    }
+
+    @Test
+    public void testEmptyRecordIsRejectedAndDoesntHideLaterOnes() {
+        final SegmentedSpillBuffer buffer = open(SEGMENT_SIZE);
+        Assert.assertTrue(buffer.append(record(1)));
+        Assert.assertFalse(buffer.append(new byte[0]));
+        Assert.assertTrue(buffer.append(record(2)));
+        buffer.close();
+
+        final SegmentedSpillBuffer reopened = open(SEGMENT_SIZE);
+        Assert.assertEquals("record-1", replayOne(reopened));
+        Assert.assertEquals("record-2", replayOne(reopened));
+        reopened.close();
+    }
+
+    @Test
+    public void testUnreplayedRecordsSurviveAReopen() {
+        SegmentedSpillBuffer buffer = open(SEGMENT_SIZE * 8);
+        for (int i = 0; i < 10; i++) {
+            buffer.append(record(i));
+        }
+        for (int i = 0; i < 4; i++) {
+            replayOne(buffer);
+        }
+        buffer.close();
+
+        buffer = open(SEGMENT_SIZE * 8);
+        for (int i = 4; i < 10; i++) {
+            Assert.assertEquals("record-" + i, replayOne(buffer));
+        }
+        Assert.assertNull(buffer.peek());
+
+        buffer.append(record(10));
+        Assert.assertEquals("record-10", replayOne(buffer));
+        buffer.close();
+    }
+
+    @Test
+    public void testDamagedHeaderIsRebuiltFromTheRecords() throws IOException {
+        SegmentedSpillBuffer buffer = open(SEGMENT_SIZE);
+        buffer.append(record(1));
+        buffer.append(record(2));
+        buffer.close();
+
+        final File segment = directory.listFiles()[0];
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.seek(8);
+            file.writeLong(-1L);
+        }
+
+        buffer = open(SEGMENT_SIZE);
+        Assert.assertEquals("record-1", replayOne(buffer));
+        Assert.assertEquals("record-2", replayOne(buffer));
+        Assert.assertNull(buffer.peek());
+        buffer.close();
+    }
+
+    @Test
+    public void testUnrecoverableFilesDontStopRecovery() throws IOException {
+        SegmentedSpillBuffer buffer = open(SEGMENT_SIZE * 2);
+        buffer.append(record(1));
+        buffer.close();
+
+        Assert.assertTrue(new File(directory, "stray.spill").createNewFile());
+        final File empty = new File(directory, String.format("%020d.spill", 7));
+        Assert.assertTrue(empty.createNewFile());
+
+        buffer = open(SEGMENT_SIZE * 2);
+        Assert.assertEquals("record-1", replayOne(buffer));
+        Assert.assertTrue(buffer.append(record(2)));
+        Assert.assertEquals("record-2", replayOne(buffer));
+        buffer.close();
+
+        Assert.assertFalse(empty.exists());
+        Assert.assertTrue(new File(directory, empty.getName() + ".corrupt").exists());
+        Assert.assertTrue(new File(directory, "stray.spill").exists());
+    }
+
+    @Test
+    public void testRecordsAppendedAfterTheHeaderCheckpointAreRecovered() throws IOException {
+        SegmentedSpillBuffer buffer = open(SEGMENT_SIZE);
+        buffer.append(record(1));
+        buffer.append(record(2));
+        buffer.close();
+
+        // as if the process died before the header was rewritten: the checkpoint only covers the first record
+        final File segment = directory.listFiles()[0];
+        rewriteCheckpoint(segment,
+                SegmentedSpillBuffer.HEADER_SIZE + SegmentedSpillBuffer.RECORD_OVERHEAD + record(1).length);
+
+        buffer = open(SEGMENT_SIZE);
+        Assert.assertEquals("record-1", replayOne(buffer));
+        Assert.assertEquals("record-2", replayOne(buffer));
+        Assert.assertNull(buffer.peek());
+        buffer.close();
+    }
+
+    @Test
+    public void testTornRecordIsDiscardedOnRecovery() throws IOException {
+        SegmentedSpillBuffer buffer = open(SEGMENT_SIZE);
+        buffer.append(record(1));
+        buffer.append(record(2));
+        buffer.close();
+
+        final int second = SegmentedSpillBuffer.HEADER_SIZE + SegmentedSpillBuffer.RECORD_OVERHEAD + record(1).length;
+        try (RandomAccessFile file = new RandomAccessFile(directory.listFiles()[0], "rw")) {
+            file.seek(second + SegmentedSpillBuffer.RECORD_OVERHEAD);
+            file.write('X');
+        }
+
+        buffer = open(SEGMENT_SIZE);
+        Assert.assertEquals("record-1", replayOne(buffer));
+        Assert.assertNull(buffer.peek());
+        buffer.close();
+    }
+}
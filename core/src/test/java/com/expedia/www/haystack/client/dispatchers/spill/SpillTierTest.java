@@ -0,0 +1,237 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.dispatchers.spill;
+
+import com.expedia.www.haystack.client.Span;
+import com.expedia.www.haystack.client.Tracer;
+import com.expedia.www.haystack.client.dispatchers.Dispatcher;
+import com.expedia.www.haystack.client.dispatchers.NoopDispatcher;
+import com.expedia.www.haystack.client.dispatchers.RemoteDispatcher;
+import com.expedia.www.haystack.client.dispatchers.clients.InMemoryClient;
+import com.expedia.www.haystack.client.metrics.MetricsRegistry;
+import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
+import com.expedia.www.haystack.remote.clients.Client;
+import com.expedia.www.haystack.remote.clients.ClientException;
+import org.awaitility.Awaitility;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class SpillTierTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MetricsRegistry metrics;
+    private SegmentedSpillBuffer buffer;
+    private ReplayClient replayClient;
+    private Tracer tracer;
+
+    @Before
+    public void setUp() throws IOException {
+        metrics = new NoopMetricsRegistry();
+        buffer = new SegmentedSpillBuffer.Builder(metrics, folder.newFolder("spill"))
+                .withSegmentSizeBytes(64 * 1024)
+                .build();
+        replayClient = new ReplayClient();
+        tracer = new Tracer.Builder(metrics, "spill-tier", new NoopDispatcher()).build();
+    }
+
+    private static void awaitWritten(SpillTier spill) {
+        Awaitility.await()
+                .atMost(5, TimeUnit.SECONDS)
+                .until(() -> spill.unwritten() == 0);
+    }
+
+    @Test
+    public void testReplayStopsAtTheFirstFailureAndResumesInOrder() throws ClientException {
+        final SpillTier spill = new SpillTier.Builder(metrics, buffer, replayClient).build();
+        for (int i = 0; i < 5; i++) {
+            Assert.assertTrue(spill.spill(tracer.buildSpan("spilled-" + i).start()));
+        }
+        awaitWritten(spill);
+
+        replayClient.failing = true;
+        Assert.assertEquals(0, spill.replay());
+        Assert.assertFalse(spill.isEmpty());
+
+        replayClient.failing = false;
+        Awaitility.await()
+                .atMost(5, TimeUnit.SECONDS)
+                .until(() -> spill.replay() >= 0 && spill.isEmpty());
+        Assert.assertEquals(5, replayClient.received.size());
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals("spilled-" + i, replayClient.received.get(i).getOperationName());
+        }
+        spill.close();
+    }
+
+    @Test
+    public void testRecordIsKeptWhenTheSendIsNotAccepted() throws ClientException {
+        final SpillTier spill = new SpillTier.Builder(metrics, buffer, replayClient).build();
+        spill.spill(tracer.buildSpan("spilled").start());
+        awaitWritten(spill);
+
+        replayClient.rejecting = true;
+        Assert.assertEquals(0, spill.replay());
+        Assert.assertTrue(replayClient.received.isEmpty());
+        Assert.assertFalse(spill.isEmpty());
+
+        // backing off after the rejection
+        replayClient.rejecting = false;
+        Assert.assertEquals(0, spill.replay());
+        Awaitility.await()
+                .atMost(5, TimeUnit.SECONDS)
+                .until(() -> spill.replay() == 1);
+        Assert.assertTrue(spill.isEmpty());
+        spill.close();
+    }
+
+    @Test
+    public void testReplayIsHeldOffWhileTheMainClientFails() throws ClientException {
+        final SpillTier spill = new SpillTier.Builder(metrics, buffer, replayClient).build();
+        spill.spill(tracer.buildSpan("spilled").start());
+        awaitWritten(spill);
+
+        spill.onSendFailure();
+        Assert.assertEquals(0, spill.replay());
+        spill.onSendSuccess();
+        Assert.assertEquals(1, spill.replay());
+        spill.close();
+    }
+
+    @Test
+    public void testSpillsBeyondTheQueueAreDropped() throws ClientException, InterruptedException {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.submit(() -> {
+            blocked.await();
+            return null;
+        });
+        final SpillTier spill = new SpillTier.Builder(metrics, buffer, replayClient)
+                .withQueueSize(2)
+                .withExecutor(executor)
+                .build();
+
+        Assert.assertTrue(spill.spill(tracer.buildSpan("queued-1").start()));
+        Assert.assertTrue(spill.spill(tracer.buildSpan("queued-2").start()));
+        Assert.assertFalse(spill.spill(tracer.buildSpan("dropped").start()));
+
+        blocked.countDown();
+        awaitWritten(spill);
+        Assert.assertEquals(2, spill.replay());
+        spill.close();
+    }
+
+    @Test
+    public void testSpillsRacingCloseAreWrittenOrHandedBack() throws Exception {
+        final SpillTier spill = new SpillTier.Builder(metrics, buffer, replayClient).build();
+        final Thread spiller = new Thread(() -> {
+            while (spill.spill(tracer.buildSpan("racing").start())) {
+                Thread.yield();
+            }
+        });
+        spiller.start();
+        Thread.sleep(20);
+
+        spill.close();
+        spiller.join(TimeUnit.SECONDS.toMillis(5));
+        Assert.assertFalse(spiller.isAlive());
+        Assert.assertEquals(0, spill.unwritten());
+    }
+
+    @Test
+    public void testReplayRateIsBounded() throws ClientException, InterruptedException {
+        final SpillTier spill = new SpillTier.Builder(metrics, buffer, replayClient)
+                .withReplayRatePerSecond(10)
+                .build();
+        for (int i = 0; i < 100; i++) {
+            spill.spill(tracer.buildSpan("spilled-" + i).start());
+        }
+        awaitWritten(spill);
+
+        Thread.sleep(1500);
+        Assert.assertTrue(spill.replay() <= 10);
+        Assert.assertTrue(spill.replay() <= 1);
+        spill.close();
+    }
+
+    @Test
+    public void testRemoteDispatcherSpillsOverflowAndReplaysIt() throws IOException {
+        // client allows zero messages and blocks, so everything past the accept queue overflows
+        final InMemoryClient client = new InMemoryClient.Builder(metrics).withLimit(0).build();
+        final SpillTier spill = new SpillTier.Builder(metrics, buffer, replayClient)
+                .withReplayIntervalMillis(10)
+                .build();
+        final Dispatcher dispatcher = new RemoteDispatcher.Builder(metrics, client)
+                .withBlockingQueueLimit(5)
+                .withShutdownTimeoutMillis(100)
+                .withSpillTier(spill)
+                .build();
+        tracer = new Tracer.Builder(metrics, "spill-tier", dispatcher).build();
+
+        for (int i = 0; i < 20; i++) {
+            tracer.buildSpan("overflow-" + i).start().finish();
+        }
+
+        // how many spans the blocked sender holds depends on scheduling; the last one always overflows
+        Awaitility.await()
+                .atMost(5, TimeUnit.SECONDS)
+                .until(() -> !replayClient.received.isEmpty()
+                        && "overflow-19".equals(replayClient.received.get(replayClient.received.size() - 1).getOperationName()));
+        Assert.assertTrue(replayClient.received.size() >= 10);
+        dispatcher.close();
+        Assert.assertTrue(replayClient.closed);
+    }
+
+    private static final class ReplayClient implements Client<com.expedia.open.tracing.Span> {
+        private final List<com.expedia.open.tracing.Span> received = new CopyOnWriteArrayList<>();
+        private volatile boolean failing;
+        private volatile boolean rejecting;
+        private volatile boolean closed;
+
+        @Override
+        public synchronized boolean send(com.expedia.open.tracing.Span span) throws ClientException {
+            if (failing) {
+                throw new ClientException("replay target is down");
+            }
+            if (rejecting) {
+                return false;
+            }
+            received.add(span);
+            return true;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        @Override
+        public void flush() {
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2019 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.idgenerators;
+
+import com.expedia.www.haystack.client.Id;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class TimeOrderedIdGeneratorTest {
+
+    @Test
+    public void testTraceIdsCarryTimeAndNode() {
+        final TimeOrderedIdGenerator generator = new TimeOrderedIdGenerator(0x1234ABCD, () -> 0x0102030405L);
+
+        final Id traceId = generator.generateTraceId();
+        Assert.assertEquals((0x0102030405L << 16) | 0xABCD, traceId.getHigh());
+        Assert.assertTrue(traceId.toString().matches("[0-9A-F]{32}"));
+        Assert.assertTrue(generator.generateSpanId().toString().matches("[0-9A-F]{16}"));
+    }
+
+    @Test
+    public void testTraceIdsSortByTime() {
+        final AtomicLong clock = new AtomicLong(1_000);
+        final TimeOrderedIdGenerator generator = new TimeOrderedIdGenerator(7, clock::get);
+
+        final List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            clock.addAndGet(1 + i % 3);
+            ids.add(generator.generateTraceId().toString());
+        }
+        final List<String> sorted = new ArrayList<>(ids);
+        sorted.sort(null);
+        Assert.assertEquals(ids, sorted);
+    }
+
+    @Test
+    public void testIdsAreUniqueAcrossThreads() throws InterruptedException {
+        final TimeOrderedIdGenerator generator = new TimeOrderedIdGenerator();
+        final Set<Id> ids = ConcurrentHashMap.newKeySet();
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            final Thread thread = new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    ids.add(generator.generateTraceId());
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(80_000, ids.size());
+    }
+}
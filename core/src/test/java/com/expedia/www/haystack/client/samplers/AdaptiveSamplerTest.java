@@ -0,0 +1,106 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.samplers;
+
+import com.expedia.www.haystack.client.Id;
+import com.expedia.www.haystack.client.idgenerators.LongIdGenerator;
+import com.expedia.www.haystack.client.metrics.Metrics;
+import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class AdaptiveSamplerTest {
+    private static final Id TRACE_ID = Id.of(42L);
+
+    private AtomicLong nanoTime;
+    private volatile double occupancy;
+    private volatile long sendLatencyMicros;
+    private AdaptiveSampler sampler;
+
+    @Before
+    public void setUp() {
+        nanoTime = new AtomicLong();
+        sampler = new AdaptiveSampler(new Metrics(new NoopMetricsRegistry(), "sampler", Collections.emptyList()),
+                () -> occupancy, () -> sendLatencyMicros, 0.5, 10_000, 0.01, 1, 0.1, 0.5, 100, nanoTime::get);
+    }
+
+    private void nextInterval() {
+        nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+        sampler.sample(TRACE_ID, "op");
+    }
+
+    @Test
+    public void testCutsProbabilityWhileTheQueueIsFull() {
+        Assert.assertEquals(1, sampler.getProbability(), 0);
+
+        occupancy = 0.9;
+        sampler.sample(TRACE_ID, "op");
+        Assert.assertEquals("adjusts only once the interval is over", 1, sampler.getProbability(), 0);
+
+        nextInterval();
+        Assert.assertEquals(0.5, sampler.getProbability(), 1e-9);
+        nextInterval();
+        Assert.assertEquals(0.25, sampler.getProbability(), 1e-9);
+        for (int i = 0; i < 20; i++) {
+            nextInterval();
+        }
+        Assert.assertEquals(0.01, sampler.getProbability(), 1e-9);
+    }
+
+    @Test
+    public void testCutsProbabilityWhileSendsAreSlow() {
+        sendLatencyMicros = 50_000;
+        nextInterval();
+        Assert.assertEquals(0.5, sampler.getProbability(), 1e-9);
+    }
+
+    @Test
+    public void testRecoversStepByStep() {
+        occupancy = 0.9;
+        nextInterval();
+        nextInterval();
+
+        occupancy = 0.1;
+        nextInterval();
+        Assert.assertEquals(0.35, sampler.getProbability(), 1e-9);
+        for (int i = 0; i < 20; i++) {
+            nextInterval();
+        }
+        Assert.assertEquals(1, sampler.getProbability(), 0);
+    }
+
+    @Test
+    public void testSamplesAtTheCurrentProbability() {
+        occupancy = 0.9;
+        nextInterval();
+        nextInterval();
+
+        final LongIdGenerator generator = new LongIdGenerator();
+        int sampled = 0;
+        for (int i = 0; i < 100_000; i++) {
+            if (sampler.sample(Id.from(generator.generateTraceId()), "op")) {
+                sampled++;
+            }
+        }
+        Assert.assertEquals(0.25, sampled / 100_000.0, 0.01);
+    }
+}
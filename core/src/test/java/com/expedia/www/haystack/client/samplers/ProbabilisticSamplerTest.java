@@ -0,0 +1,82 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.samplers;
+
+import com.expedia.www.haystack.client.Id;
+import com.expedia.www.haystack.client.idgenerators.LongIdGenerator;
+import com.expedia.www.haystack.client.idgenerators.TimeBasedUUIDGenerator;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ProbabilisticSamplerTest {
+    private static final int TRACES = 100_000;
+
+    @Test
+    public void testBounds() {
+        final Sampler never = new ProbabilisticSampler(0);
+        final Sampler always = new ProbabilisticSampler(1);
+        final LongIdGenerator generator = new LongIdGenerator();
+        for (int i = 0; i < 1000; i++) {
+            final Id traceId = Id.from(generator.generateTraceId());
+            Assert.assertFalse(never.sample(traceId, "op"));
+            Assert.assertTrue(always.sample(traceId, "op"));
+        }
+    }
+
+    @Test
+    public void testSamplesTheConfiguredShare() {
+        final Sampler sampler = new ProbabilisticSampler(0.25);
+        final LongIdGenerator generator = new LongIdGenerator();
+        int sampled = 0;
+        for (int i = 0; i < TRACES; i++) {
+            if (sampler.sample(Id.from(generator.generateTraceId()), "op")) {
+                sampled++;
+            }
+        }
+        Assert.assertEquals(0.25, (double) sampled / TRACES, 0.01);
+    }
+
+    @Test
+    public void testSamplesTimeBasedIdsEvenly() {
+        final Sampler sampler = new ProbabilisticSampler(0.1);
+        final TimeBasedUUIDGenerator generator = new TimeBasedUUIDGenerator();
+        int sampled = 0;
+        for (int i = 0; i < TRACES; i++) {
+            if (sampler.sample(Id.from(generator.generateTraceId()), "op")) {
+                sampled++;
+            }
+        }
+        Assert.assertEquals(0.1, (double) sampled / TRACES, 0.01);
+    }
+
+    @Test
+    public void testDecisionDependsOnTheTraceIdOnly() {
+        final Sampler first = new ProbabilisticSampler(0.5);
+        final Sampler second = new ProbabilisticSampler(0.5);
+        final LongIdGenerator generator = new LongIdGenerator();
+        for (int i = 0; i < 1000; i++) {
+            final Object traceId = generator.generateTraceId();
+            Assert.assertEquals(first.sample(Id.from(traceId), "op"),
+                    second.sample(Id.from(traceId), "other-op"));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsProbabilityAboveOne() {
+        new ProbabilisticSampler(1.5);
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.client.samplers;
+
+import com.expedia.www.haystack.client.Id;
+import com.expedia.www.haystack.client.metrics.Counter;
+import com.expedia.www.haystack.client.metrics.Metrics;
+import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
+import com.expedia.www.haystack.client.metrics.Tag;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+public class RateLimitingSamplerTest {
+    private static final Id TRACE_ID = Id.of(42L);
+
+    private AtomicLong nanoTime;
+    private Map<String, Counter> counters;
+    private Metrics metrics;
+
+    @Before
+    public void setUp() {
+        nanoTime = new AtomicLong(-TimeUnit.DAYS.toNanos(1));
+        counters = new HashMap<>();
+        metrics = new Metrics(new NoopMetricsRegistry() {
+            @Override
+            public Counter counter(String name, Collection<Tag> tags) {
+                final String key = name + tags.stream().map(t -> t.key() + "=" + t.value()).collect(Collectors.joining(",", "{", "}"));
+                return counters.computeIfAbsent(key, k -> new CountingCounter());
+            }
+        }, "sampler", Collections.emptyList());
+    }
+
+    private RateLimitingSampler sampler(Map<String, Double> operationRates, double defaultRate, double globalRate, int maxOperations) {
+        return new RateLimitingSampler(metrics, operationRates, defaultRate, globalRate, maxOperations, nanoTime::get);
+    }
+
+    private int sampled(Sampler sampler, String operationName, int traces) {
+        int sampled = 0;
+        for (int i = 0; i < traces; i++) {
+            if (sampler.sample(TRACE_ID, operationName)) {
+                sampled++;
+            }
+        }
+        return sampled;
+    }
+
+    @Test
+    public void testLimitsEachOperationToItsRate() {
+        final RateLimitingSampler sampler = sampler(Collections.singletonMap("health", 2.0), 5, 0, 10);
+
+        Assert.assertEquals(2, sampled(sampler, "health", 10));
+        Assert.assertEquals(5, sampled(sampler, "search", 10));
+
+        nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+        Assert.assertEquals(1, sampled(sampler, "health", 10));
+
+        nanoTime.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        Assert.assertEquals("a bucket holds one second of its rate", 2, sampled(sampler, "health", 10));
+
+        Assert.assertEquals(5, counters.get("sampler.sampler{operation=health,state=sampled}").count(), 0);
+        Assert.assertEquals(25, counters.get("sampler.sampler{operation=health,state=dropped}").count(), 0);
+    }
+
+    @Test
+    public void testZeroRateRecordsNothing() {
+        final RateLimitingSampler sampler = sampler(Collections.singletonMap("health", 0.0), 5, 0, 10);
+
+        Assert.assertEquals(0, sampled(sampler, "health", 10));
+        nanoTime.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        Assert.assertEquals(0, sampled(sampler, "health", 10));
+    }
+
+    @Test
+    public void testGlobalRateCapsAllOperations() {
+        final RateLimitingSampler sampler = sampler(Collections.emptyMap(), 10, 3, 10);
+
+        Assert.assertEquals(3, sampled(sampler, "first", 2) + sampled(sampler, "second", 2) + sampled(sampler, "third", 2));
+    }
+
+    @Test
+    public void testGlobalRefusalDoesntSpendTheOperationsToken() {
+        final RateLimitingSampler sampler = sampler(Collections.singletonMap("checkout", 1.0), 10, 4, 10);
+
+        Assert.assertEquals(4, sampled(sampler, "search", 4));
+        Assert.assertEquals(0, sampled(sampler, "checkout", 3));
+
+        nanoTime.addAndGet(TimeUnit.MILLISECONDS.toNanos(250));
+        Assert.assertEquals("the refused traces gave the token back", 1, sampled(sampler, "checkout", 3));
+    }
+
+    @Test
+    public void testOperationsBeyondTheLimitShareABucket() {
+        final RateLimitingSampler sampler = sampler(Collections.emptyMap(), 1, 0, 2);
+
+        Assert.assertEquals(1, sampled(sampler, "first", 5));
+        Assert.assertEquals(1, sampled(sampler, "second", 5));
+        Assert.assertEquals(1, sampled(sampler, "/users/1", 5));
+        Assert.assertEquals(0, sampled(sampler, "/users/2", 5));
+        Assert.assertEquals(0, sampled(sampler, null, 5));
+
+        Assert.assertEquals(2, sampler.operationCount());
+        Assert.assertEquals(1, counters.get("sampler.sampler{operation=" + RateLimitingSampler.OTHER_OPERATIONS + ",state=sampled}").count(), 0);
+        Assert.assertEquals(14, counters.get("sampler.sampler{operation=" + RateLimitingSampler.OTHER_OPERATIONS + ",state=dropped}").count(), 0);
+        Assert.assertFalse(counters.containsKey("sampler.sampler{operation=/users/1,state=sampled}"));
+    }
+
+    @Test
+    public void testConfiguredOperationsKeepTheirRateBeyondTheLimit() {
+        final RateLimitingSampler sampler = sampler(Collections.singletonMap("checkout", 3.0), 1, 0, 1);
+
+        Assert.assertEquals(1, sampled(sampler, "/users/1", 5));
+        Assert.assertEquals(1, sampled(sampler, "/users/2", 5));
+        Assert.assertEquals(0, sampled(sampler, "/users/3", 5));
+        Assert.assertEquals(3, sampled(sampler, "checkout", 5));
+        Assert.assertEquals(1, sampler.operationCount());
+    }
+
+    private static final class CountingCounter implements Counter {
+        private double count;
+
+        @Override
+        public void increment(double amount) {
+            count += amount;
+        }
+
+        @Override
+        public void decrement(double amount) {
+            count -= amount;
+        }
+
+        @Override
+        public double count() {
+            return count;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.remote.clients;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A Client that doesn't wait for the remote endpoint: sends return as soon as the request is issued and the
+ * outcome is reported through the returned future. {@link #flush()} waits for every request in flight.
+ */
+public interface AsyncClient<R> extends Client<R> {
+
+    /**
+     * Issues the send without waiting for the endpoint. May block the caller while the client is at its limit of
+     * requests in flight.
+     *
+     * @param span Span to send off to the endpoint
+     * @return a future completed with <code>true</code> once the endpoint accepted the span, or completed
+     *         exceptionally with a <code>ClientException</code> if it didn't
+     */
+    CompletableFuture<Boolean> sendAsync(R span);
+}
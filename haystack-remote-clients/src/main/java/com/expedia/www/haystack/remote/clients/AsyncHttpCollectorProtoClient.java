@@ -0,0 +1,50 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.remote.clients;
+
+import com.expedia.open.tracing.Span;
+import com.expedia.www.haystack.client.metrics.Metrics;
+import com.expedia.www.haystack.client.metrics.MetricsRegistry;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+
+import java.util.Map;
+
+public class AsyncHttpCollectorProtoClient extends BaseAsyncHttpClient<Span> {
+    public AsyncHttpCollectorProtoClient(Metrics metrics, String endpoint, Map<String, String> headers,
+                                         CloseableHttpAsyncClient httpClient, int maxInFlight, long flushTimeoutMillis) {
+        super(metrics, endpoint, headers, httpClient, maxInFlight, flushTimeoutMillis);
+    }
+
+    @Override
+    protected byte[] encode(Span span) {
+        return span.toByteArray();
+    }
+
+    public static final class Builder extends BaseAsyncHttpClient.Builder<Builder> {
+        public Builder(MetricsRegistry registry, String endpoint) {
+            super(registry, endpoint);
+        }
+
+        public Builder(Metrics metrics, String endpoint) {
+            super(metrics, endpoint);
+        }
+
+        public AsyncHttpCollectorProtoClient build() {
+            return new AsyncHttpCollectorProtoClient(metrics, endpoint, headers, buildHttpClient(), maxInFlight, flushTimeoutMillis);
+        }
+    }
+}
@@ -0,0 +1,372 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.remote.clients;
+
+import com.expedia.www.haystack.client.metrics.*;
+import org.apache.commons.lang3.Validate;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Posts spans to the http collector without waiting for each response.
+ * <p>
+ * Requests go out over a keep-alive pool of up to <code>maxConnections</code> connections, all to the one
+ * collector route. A semaphore caps the number of requests in flight. Once the cap is reached, senders block until
+ * a response frees a slot, which pushes back on the dispatcher instead of queueing without bound inside the
+ * client. {@link #flush()} waits until every request in flight has completed; slots are handed out in order, so
+ * sends that arrive while a flush waits queue behind it instead of keeping it waiting for good.
+ * <p>
+ * Only {@link #sendAsync(Object)} is fire-and-forget. {@link #send(Object)} waits for the response, and reports a
+ * failure by throwing, as the {@link Client} contract asks.
+ */
+public abstract class BaseAsyncHttpClient<R> implements AsyncClient<R> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BaseAsyncHttpClient.class);
+
+    private final String endpoint;
+    private final BasicHeader[] headers;
+    private final CloseableHttpAsyncClient httpClient;
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+    private final long flushTimeoutMillis;
+
+    private final Timer sendTimer;
+    private final Counter sendExceptionCounter;
+    private final Counter sendThrottledCounter;
+    private final Timer flushTimer;
+    private final Counter flushTimeoutCounter;
+
+    public BaseAsyncHttpClient(Metrics metrics, String endpoint, Map<String, String> headers,
+                               CloseableHttpAsyncClient httpClient, int maxInFlight, long flushTimeoutMillis) {
+        Validate.notEmpty(endpoint, "Haystack collector endpoint can't be empty");
+        Validate.isTrue(maxInFlight > 0, "maxInFlight must be positive");
+
+        this.endpoint = endpoint;
+        this.headers = headers.entrySet().stream()
+                .map((entry) -> new BasicHeader(entry.getKey(), entry.getValue()))
+                .collect(Collectors.toList())
+                .toArray(new BasicHeader[0]);
+        this.httpClient = httpClient;
+        this.maxInFlight = maxInFlight;
+        // fair, so a flush waiting for every slot isn't overtaken by new sends
+        this.inFlight = new Semaphore(maxInFlight, true);
+        this.flushTimeoutMillis = flushTimeoutMillis;
+
+        this.sendTimer = Timer.builder("send").register(metrics);
+        this.sendExceptionCounter = Counter.builder("send").tag(new Tag("state", "exception")).register(metrics);
+        this.sendThrottledCounter = Counter.builder("send").tag(new Tag("state", "throttled")).register(metrics);
+        this.flushTimer = Timer.builder("flush").register(metrics);
+        this.flushTimeoutCounter = Counter.builder("flush").tag(new Tag("state", "timeout")).register(metrics);
+
+        // held in the registry; but we don't need a local reference
+        Gauge.builder("inFlight", inFlight, (semaphore) -> (this.maxInFlight - semaphore.availablePermits()))
+                .register(metrics);
+
+        httpClient.start();
+    }
+
+    /**
+     * @param span span to send
+     * @return the request body for the span
+     */
+    protected abstract byte[] encode(R span);
+
+    /**
+     * Waits for the collector's response.
+     *
+     * @throws ClientException if the span couldn't be encoded or sent, or the collector refused it
+     */
+    @Override
+    public boolean send(R span) throws ClientException {
+        return await(sendAsync(span));
+    }
+
+    /**
+     * Issues every request before waiting on any of them, so the batch shares the keep-alive pool and the
+     * requests in flight.
+     *
+     * @throws ClientException the first failure, once every request has completed
+     */
+    @Override
+    public boolean send(Collection<R> spans) throws ClientException {
+        final List<CompletableFuture<Boolean>> results = new ArrayList<>(spans.size());
+        for (R span : spans) {
+            results.add(sendAsync(span));
+        }
+        boolean sent = true;
+        ClientException failure = null;
+        for (CompletableFuture<Boolean> result : results) {
+            try {
+                sent &= await(result);
+            } catch (ClientException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return sent;
+    }
+
+    private static boolean await(CompletableFuture<Boolean> result) throws ClientException {
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof ClientException) {
+                throw (ClientException) e.getCause();
+            }
+            throw new ClientException(e.getMessage(), e.getCause());
+        }
+    }
+
+    @Override
+    public CompletableFuture<Boolean> sendAsync(R span) {
+        final CompletableFuture<Boolean> result = new CompletableFuture<>();
+        final byte[] body;
+        try {
+            body = encode(span);
+            // the timed form, unlike tryAcquire(), waits its turn behind a flush
+            if (!inFlight.tryAcquire(0, TimeUnit.MILLISECONDS)) {
+                sendThrottledCounter.increment();
+                inFlight.acquire();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            sendExceptionCounter.increment();
+            result.completeExceptionally(new ClientException("Interrupted waiting for a request slot", e));
+            return result;
+        } catch (RuntimeException e) {
+            sendExceptionCounter.increment();
+            result.completeExceptionally(new ClientException(e.getMessage(), e));
+            return result;
+        }
+
+        final HttpPost post = new HttpPost(endpoint);
+        if (headers.length > 0) {
+            post.setHeaders(headers);
+        }
+        final ByteArrayEntity entity = new ByteArrayEntity(body);
+        entity.setContentType("application/octet-stream");
+        post.setEntity(entity);
+
+        final long start = System.nanoTime();
+        try {
+            httpClient.execute(post, new FutureCallback<HttpResponse>() {
+                @Override
+                public void completed(HttpResponse response) {
+                    final int statusCode = response.getStatusLine() == null ? 0 : response.getStatusLine().getStatusCode();
+                    EntityUtils.consumeQuietly(response.getEntity());
+                    if (statusCode >= 200 && statusCode < 300) {
+                        release(start);
+                        result.complete(true);
+                    } else {
+                        fail(start, new ClientException(String.format(
+                                "Failed sending span to http collector endpoint=%s, http status code=%d", endpoint, statusCode)));
+                    }
+                }
+
+                @Override
+                public void failed(Exception e) {
+                    fail(start, new ClientException(
+                            String.format("Failed sending span to http collector endpoint=%s", endpoint), e));
+                }
+
+                @Override
+                public void cancelled() {
+                    fail(start, new ClientException(
+                            String.format("Request to http collector endpoint=%s was cancelled", endpoint)));
+                }
+
+                private void fail(long start, ClientException e) {
+                    sendExceptionCounter.increment();
+                    release(start);
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RuntimeException e) {
+            // the client was closed or its reactor stopped
+            release(start);
+            sendExceptionCounter.increment();
+            result.completeExceptionally(new ClientException(e.getMessage(), e));
+        }
+        return result;
+    }
+
+    private void release(long start) {
+        sendTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        inFlight.release();
+    }
+
+    /**
+     * Waits up to <code>flushTimeoutMillis</code> for every request in flight to complete.
+     */
+    @Override
+    public void flush() throws ClientException {
+        try (Timer.Sample timer = flushTimer.start()) {
+            if (!inFlight.tryAcquire(maxInFlight, flushTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                flushTimeoutCounter.increment();
+                throw new ClientException(String.format("Timed out waiting on %d requests in flight to endpoint=%s",
+                        maxInFlight - inFlight.availablePermits(), endpoint));
+            }
+            inFlight.release(maxInFlight);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ClientException("Interrupted waiting on requests in flight", e);
+        }
+    }
+
+    @Override
+    public void close() throws ClientException {
+        try {
+            flush();
+        } catch (ClientException e) {
+            LOGGER.warn("Closing with requests still in flight", e);
+        } finally {
+            try {
+                httpClient.close();
+            } catch (IOException e) {
+                /* be quiet */
+            }
+        }
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * Typed on the concrete builder so the shared options chain into the subclass' <code>build()</code>.
+     */
+    @SuppressWarnings("unchecked")
+    public static abstract class Builder<B extends Builder<B>> {
+        protected final Metrics metrics;
+        protected final String endpoint;
+        protected Map<String, String> headers = new HashMap<>();
+        protected int maxConnections = 8;
+        protected int maxInFlight = 64;
+        protected long connectTimeoutMillis = TimeUnit.SECONDS.toMillis(5);
+        protected long socketTimeoutMillis = TimeUnit.SECONDS.toMillis(10);
+        protected long flushTimeoutMillis = TimeUnit.SECONDS.toMillis(30);
+
+        // either build a client or provide one
+        protected CloseableHttpAsyncClient httpClient;
+
+        protected Builder(MetricsRegistry registry, String endpoint) {
+            this(new Metrics(registry, Client.class.getName(), Arrays.asList(new Tag("type", "http-async"))), endpoint);
+        }
+
+        protected Builder(Metrics metrics, String endpoint) {
+            this.metrics = metrics;
+            this.endpoint = endpoint;
+        }
+
+        public B withHeaders(Map<String, String> headers) {
+            this.headers = headers;
+            return (B) this;
+        }
+
+        /**
+         * @param maxConnections size of the keep-alive pool to the collector
+         * @return this builder instance
+         */
+        public B withMaxConnections(int maxConnections) {
+            this.maxConnections = maxConnections;
+            return (B) this;
+        }
+
+        /**
+         * @param maxInFlight requests that may be awaiting a response before senders block
+         * @return this builder instance
+         */
+        public B withMaxInFlight(int maxInFlight) {
+            this.maxInFlight = maxInFlight;
+            return (B) this;
+        }
+
+        public B withConnectTimeoutMillis(long connectTimeoutMillis) {
+            this.connectTimeoutMillis = connectTimeoutMillis;
+            return (B) this;
+        }
+
+        public B withSocketTimeoutMillis(long socketTimeoutMillis) {
+            this.socketTimeoutMillis = socketTimeoutMillis;
+            return (B) this;
+        }
+
+        /**
+         * @param flushTimeoutMillis how long a flush waits for requests in flight
+         * @return this builder instance
+         */
+        public B withFlushTimeoutMillis(long flushTimeoutMillis) {
+            this.flushTimeoutMillis = flushTimeoutMillis;
+            return (B) this;
+        }
+
+        public B withHttpClient(CloseableHttpAsyncClient httpClient) {
+            this.httpClient = httpClient;
+            return (B) this;
+        }
+
+        protected CloseableHttpAsyncClient buildHttpClient() {
+            if (httpClient != null) {
+                return httpClient;
+            }
+            final IOReactorConfig reactorConfig = IOReactorConfig.custom()
+                    .setConnectTimeout((int) connectTimeoutMillis)
+                    .setSoTimeout((int) socketTimeoutMillis)
+                    .setSoKeepAlive(true)
+                    .setTcpNoDelay(true)
+                    .build();
+            final RequestConfig requestConfig = RequestConfig.custom()
+                    .setConnectTimeout((int) connectTimeoutMillis)
+                    .setSocketTimeout((int) socketTimeoutMillis)
+                    .build();
+            return HttpAsyncClients.custom()
+                    .setDefaultIOReactorConfig(reactorConfig)
+                    .setDefaultRequestConfig(requestConfig)
+                    .setMaxConnTotal(maxConnections)
+                    .setMaxConnPerRoute(maxConnections)
+                    .setKeepAliveStrategy(DefaultConnectionKeepAliveStrategy.INSTANCE)
+                    .build();
+        }
+    }
+}
@@ -0,0 +1,448 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.remote.clients;
+
+import com.expedia.open.tracing.Span;
+import com.expedia.www.haystack.client.metrics.*;
+import com.google.protobuf.CodedOutputStream;
+import org.apache.commons.lang3.Validate;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Collects spans into one request body and posts many spans per request to the http collector.
+ * <p>
+ * The body is a stream of length-delimited protobuf spans, the framing of
+ * {@link com.google.protobuf.MessageLite#writeDelimitedTo}, sent as {@value #DELIMITED_CONTENT_TYPE}. A batch is
+ * posted when it reaches <code>maxBatchSpans</code> or <code>maxBatchBytes</code>, when a send finds the oldest
+ * pending span older than <code>lingerMillis</code>, and on every {@link #flush()}. Bodies of at least
+ * <code>compressionThreshold</code> bytes are compressed as configured.
+ * <p>
+ * A batch whose post fails is kept, up to <code>maxRetainedBatches</code> of them, and posted again before the
+ * next batch and on the next flush; past that, the oldest kept batch is dropped. The failed send throws a
+ * {@link BatchRetainedException}, so callers count the failure without sending the spans again.
+ */
+public abstract class BaseBatchingHttpClient<R> extends BaseHttpClient implements Client<R> {
+    public static final String DELIMITED_CONTENT_TYPE = "application/x-protobuf-delimited";
+    protected static final int DEFAULT_MAX_RETAINED_BATCHES = 4;
+
+    public enum Compression {
+        NONE(null),
+        GZIP("gzip");
+
+        private final String contentEncoding;
+
+        Compression(String contentEncoding) {
+            this.contentEncoding = contentEncoding;
+        }
+
+        String contentEncoding() {
+            return contentEncoding;
+        }
+    }
+
+    private final int maxBatchSpans;
+    private final int maxBatchBytes;
+    private final long lingerNanos;
+    private final Compression compression;
+    private final int compressionThreshold;
+    private final int maxRetainedBatches;
+
+    private final ByteArrayOutputStream pending;
+    private final CodedOutputStream pendingOut;
+    private int pendingSpans;
+    private long oldestPendingNanos;
+    private final Deque<Batch> retained;
+
+    private final Timer sendTimer;
+    private final Counter sendExceptionCounter;
+    private final Counter batchSizeCounter;
+    private final Counter retainedCounter;
+    private final Counter droppedCounter;
+    private final LongAdder spansSent;
+    private final LongAdder rawBytesSent;
+    private final LongAdder wireBytesSent;
+
+    public BaseBatchingHttpClient(Metrics metrics, String endpoint, Map<String, String> headers, CloseableHttpClient httpClient,
+                                  int maxBatchSpans, int maxBatchBytes, long lingerMillis,
+                                  Compression compression, int compressionThreshold) {
+        this(metrics, endpoint, headers, httpClient, maxBatchSpans, maxBatchBytes, lingerMillis, compression,
+                compressionThreshold, DEFAULT_MAX_RETAINED_BATCHES);
+    }
+
+    public BaseBatchingHttpClient(Metrics metrics, String endpoint, Map<String, String> headers, CloseableHttpClient httpClient,
+                                  int maxBatchSpans, int maxBatchBytes, long lingerMillis,
+                                  Compression compression, int compressionThreshold, int maxRetainedBatches) {
+        super(endpoint, headers, httpClient);
+        Validate.isTrue(maxBatchSpans > 0, "maxBatchSpans must be positive");
+        Validate.isTrue(maxBatchBytes > 0, "maxBatchBytes must be positive");
+        Validate.isTrue(maxRetainedBatches >= 0, "maxRetainedBatches can't be negative");
+
+        this.maxBatchSpans = maxBatchSpans;
+        this.maxBatchBytes = maxBatchBytes;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+        this.compression = compression;
+        this.compressionThreshold = compressionThreshold;
+        this.maxRetainedBatches = maxRetainedBatches;
+        this.retained = new ArrayDeque<>();
+        this.pending = new ByteArrayOutputStream(Math.min(maxBatchBytes, 64 * 1024));
+        this.pendingOut = CodedOutputStream.newInstance(pending);
+
+        this.sendTimer = Timer.builder("send").register(metrics);
+        this.sendExceptionCounter = Counter.builder("send").tag(new Tag("state", "exception")).register(metrics);
+        this.batchSizeCounter = Counter.builder("batchSize").register(metrics);
+        this.retainedCounter = Counter.builder("batch").tag(new Tag("state", "retained")).register(metrics);
+        this.droppedCounter = Counter.builder("batch").tag(new Tag("state", "dropped")).register(metrics);
+        this.spansSent = new LongAdder();
+        this.rawBytesSent = new LongAdder();
+        this.wireBytesSent = new LongAdder();
+
+        // held in the registry; but we don't need a local reference
+        Gauge.builder("bytes", rawBytesSent, LongAdder::sum).tag(new Tag("state", "raw")).register(metrics);
+        Gauge.builder("bytes", wireBytesSent, LongAdder::sum).tag(new Tag("state", "wire")).register(metrics);
+        Gauge.builder("compressionRatio", this, BaseBatchingHttpClient::compressionRatio).register(metrics);
+        Gauge.builder("bytesPerSpan", this, BaseBatchingHttpClient::bytesPerSpan).register(metrics);
+        Gauge.builder("retainedBatches", this, BaseBatchingHttpClient::retainedBatches).register(metrics);
+    }
+
+    /**
+     * @param span span to add to the batch
+     * @return the span as the collector's protobuf message
+     */
+    protected abstract Span toProto(R span);
+
+    /**
+     * Writes the span's size as a varint followed by the span. Subclasses that can write the span straight to the
+     * wire override this to skip building the protobuf message.
+     *
+     * @param span span to add to the batch
+     * @param out stream over the pending batch; called with the batch lock held
+     * @throws IOException if the stream fails
+     */
+    protected void writeDelimited(R span, CodedOutputStream out) throws IOException {
+        out.writeMessageNoTag(toProto(span));
+    }
+
+    @Override
+    public boolean send(R span) throws ClientException {
+        final Batch ready;
+        synchronized (this) {
+            append(span);
+            ready = takeIfReady();
+        }
+        return ready == null || postRetainedAnd(ready);
+    }
+
+    @Override
+    public boolean send(Collection<R> spans) throws ClientException {
+        boolean sent = true;
+        ClientException failure = null;
+        for (R span : spans) {
+            final Batch ready;
+            synchronized (this) {
+                append(span);
+                ready = takeIfReady();
+            }
+            if (ready != null) {
+                try {
+                    sent &= postRetainedAnd(ready);
+                } catch (ClientException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return sent;
+    }
+
+    /**
+     * Posts the kept batches and whatever is pending, regardless of size or age.
+     */
+    @Override
+    public void flush() throws ClientException {
+        final Batch batch;
+        synchronized (this) {
+            batch = take();
+        }
+        if (batch != null) {
+            postRetainedAnd(batch);
+        } else {
+            postRetained();
+        }
+    }
+
+    @Override
+    public void close() throws ClientException {
+        try {
+            flush();
+        } finally {
+            super.close();
+        }
+    }
+
+    private void append(R span) {
+        try {
+            writeDelimited(span, pendingOut);
+            pendingOut.flush();
+        } catch (IOException e) {
+            // a ByteArrayOutputStream doesn't throw
+            throw new ClientException(e.getMessage(), e);
+        }
+        if (pendingSpans++ == 0) {
+            oldestPendingNanos = System.nanoTime();
+        }
+    }
+
+    private Batch takeIfReady() {
+        if (pendingSpans >= maxBatchSpans
+                || pending.size() >= maxBatchBytes
+                || System.nanoTime() - oldestPendingNanos >= lingerNanos) {
+            return take();
+        }
+        return null;
+    }
+
+    private Batch take() {
+        if (pendingSpans == 0) {
+            return null;
+        }
+        final Batch batch = new Batch(pending.toByteArray(), pendingSpans);
+        pending.reset();
+        pendingSpans = 0;
+        return batch;
+    }
+
+    /**
+     * Posts the kept batches, oldest first, then <code>batch</code>; stops at the first failure and keeps every
+     * batch not posted yet.
+     */
+    private boolean postRetainedAnd(Batch batch) throws ClientException {
+        try {
+            postRetained();
+        } catch (BatchRetainedException e) {
+            throw retain(batch, e);
+        }
+        try {
+            return post(batch);
+        } catch (ClientException e) {
+            throw retain(batch, e);
+        }
+    }
+
+    private void postRetained() throws ClientException {
+        while (true) {
+            final Batch batch;
+            synchronized (this) {
+                batch = retained.pollFirst();
+            }
+            if (batch == null) {
+                return;
+            }
+            try {
+                post(batch);
+            } catch (ClientException e) {
+                synchronized (this) {
+                    retained.addFirst(batch);
+                }
+                throw new BatchRetainedException("Failed posting a kept batch; keeping it for the next send", e);
+            }
+        }
+    }
+
+    /**
+     * Keeps a batch that failed or wasn't attempted, dropping the oldest kept one once the bound is reached.
+     *
+     * @return the exception to report the failure with
+     */
+    private synchronized ClientException retain(Batch batch, ClientException failure) {
+        if (retained.size() >= maxRetainedBatches) {
+            final Batch dropped = retained.pollFirst();
+            if (dropped == null) {
+                // nothing may be kept at all
+                droppedCounter.increment(batch.spans);
+                return failure;
+            }
+            droppedCounter.increment(dropped.spans);
+        }
+        retained.addLast(batch);
+        retainedCounter.increment(batch.spans);
+        return failure instanceof BatchRetainedException
+                ? failure
+                : new BatchRetainedException("Failed posting a batch of " + batch.spans + " spans; keeping it for the next send", failure);
+    }
+
+    synchronized int retainedBatches() {
+        return retained.size();
+    }
+
+    private boolean post(Batch batch) throws ClientException {
+        final byte[] body;
+        final String contentEncoding;
+        if (compression != Compression.NONE && batch.body.length >= compressionThreshold) {
+            body = gzip(batch.body);
+            contentEncoding = compression.contentEncoding();
+        } else {
+            body = batch.body;
+            contentEncoding = null;
+        }
+
+        try (Timer.Sample timer = sendTimer.start()) {
+            final boolean sent = post(body, DELIMITED_CONTENT_TYPE, contentEncoding);
+            batchSizeCounter.increment(batch.spans);
+            spansSent.add(batch.spans);
+            rawBytesSent.add(batch.body.length);
+            wireBytesSent.add(body.length);
+            return sent;
+        } catch (ClientException e) {
+            sendExceptionCounter.increment();
+            throw e;
+        }
+    }
+
+    private static byte[] gzip(byte[] raw) {
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(raw);
+        } catch (IOException e) {
+            throw new ClientException("Failed compressing the batch", e);
+        }
+        return compressed.toByteArray();
+    }
+
+    /**
+     * @return uncompressed over sent bytes for everything posted so far
+     */
+    public double compressionRatio() {
+        final long wire = wireBytesSent.sum();
+        return wire == 0 ? 1 : (double) rawBytesSent.sum() / wire;
+    }
+
+    /**
+     * @return bytes on the wire per span for everything posted so far
+     */
+    public double bytesPerSpan() {
+        final long spans = spansSent.sum();
+        return spans == 0 ? 0 : (double) wireBytesSent.sum() / spans;
+    }
+
+    private static final class Batch {
+        private final byte[] body;
+        private final int spans;
+
+        Batch(byte[] body, int spans) {
+            this.body = body;
+            this.spans = spans;
+        }
+    }
+
+    /**
+     * Typed on the concrete builder so the shared options chain into the subclass' <code>build()</code>.
+     */
+    @SuppressWarnings("unchecked")
+    public static abstract class Builder<B extends Builder<B>> {
+        protected final Metrics metrics;
+        protected final String endpoint;
+        protected Map<String, String> headers = new HashMap<>();
+        protected CloseableHttpClient httpClient;
+        protected int maxBatchSpans = 500;
+        protected int maxBatchBytes = 512 * 1024;
+        protected long lingerMillis = 200;
+        protected Compression compression = Compression.GZIP;
+        protected int compressionThreshold = 1024;
+        protected int maxRetainedBatches = DEFAULT_MAX_RETAINED_BATCHES;
+
+        protected Builder(MetricsRegistry registry, String endpoint) {
+            this(new Metrics(registry, Client.class.getName(), Arrays.asList(new Tag("type", "http-batch"))), endpoint);
+        }
+
+        protected Builder(Metrics metrics, String endpoint) {
+            this.metrics = metrics;
+            this.endpoint = endpoint;
+        }
+
+        public B withHeaders(Map<String, String> headers) {
+            this.headers = headers;
+            return (B) this;
+        }
+
+        public B withHttpClient(CloseableHttpClient httpClient) {
+            this.httpClient = httpClient;
+            return (B) this;
+        }
+
+        /**
+         * @param maxBatchSpans spans per request
+         * @param maxBatchBytes uncompressed bytes per request; a batch is posted once it crosses this
+         * @return this builder instance
+         */
+        public B withMaxBatch(int maxBatchSpans, int maxBatchBytes) {
+            this.maxBatchSpans = maxBatchSpans;
+            this.maxBatchBytes = maxBatchBytes;
+            return (B) this;
+        }
+
+        /**
+         * @param lingerMillis how long the first span of a batch waits for company before the next send posts it;
+         *                     an idle client holds its batch until the next {@link Client#flush()}
+         * @return this builder instance
+         */
+        public B withLingerMillis(long lingerMillis) {
+            this.lingerMillis = lingerMillis;
+            return (B) this;
+        }
+
+        /**
+         * @param compression how to compress request bodies
+         * @param compressionThreshold smallest body, in bytes, that gets compressed
+         * @return this builder instance
+         */
+        public B withCompression(Compression compression, int compressionThreshold) {
+            this.compression = compression;
+            this.compressionThreshold = compressionThreshold;
+            return (B) this;
+        }
+
+        /**
+         * @param maxRetainedBatches batches kept after a failed post to be posted again; zero drops them
+         * @return this builder instance
+         */
+        public B withMaxRetainedBatches(int maxRetainedBatches) {
+            this.maxRetainedBatches = maxRetainedBatches;
+            return (B) this;
+        }
+
+        protected CloseableHttpClient buildHttpClient() {
+            return httpClient != null ? httpClient : HttpClients.createDefault();
+        }
+    }
+}
@@ -28,7 +28,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 abstract public class BaseGrpcClient<R> implements Client<R> {
     private static final Logger LOGGER = LoggerFactory.getLogger(BaseGrpcClient.class);
@@ -40,6 +42,8 @@ abstract public class BaseGrpcClient<R> implements Client<R> {
 
     protected final Timer sendTimer;
     protected final Counter sendExceptionCounter;
+    protected final Timer batchTimer;
+    protected final Counter batchSizeCounter;
     protected final Timer closeTimer;
     protected final Counter closeTimeoutCounter;
     protected final Counter closeInterruptedCounter;
@@ -57,6 +61,8 @@ abstract public class BaseGrpcClient<R> implements Client<R> {
 
         this.sendTimer = Timer.builder("send").register(metrics);
         this.sendExceptionCounter = Counter.builder("send").tag(new Tag("state", "exception")).register(metrics);
+        this.batchTimer = Timer.builder("batch").register(metrics);
+        this.batchSizeCounter = Counter.builder("batchSize").register(metrics);
         this.closeTimer = Timer.builder("close").register(metrics);
         this.closeTimeoutCounter = Counter.builder("close").tag(new Tag("state", "timeout")).register(metrics);
         this.closeInterruptedCounter = Counter.builder("close").tag(new Tag("state", "interrupted")).register(metrics);
@@ -64,6 +70,32 @@ abstract public class BaseGrpcClient<R> implements Client<R> {
         this.flushCounter = Counter.builder("flush").register(metrics);
     }
 
+    /**
+     * Issues one asynchronous dispatch per span under a single timer sample; the calls are pipelined over the
+     * channel rather than waiting on each other.
+     */
+    protected boolean dispatch(Collection<R> spans, Function<? super R, com.expedia.open.tracing.Span> encoder) throws ClientException {
+        ClientException failure = null;
+        try (Timer.Sample timer = batchTimer.start()) {
+            batchSizeCounter.increment(spans.size());
+            for (R span : spans) {
+                try {
+                    stub.dispatch(encoder.apply(span), observer);
+                } catch (Exception e) {
+                    sendExceptionCounter.increment();
+                    if (failure == null) {
+                        failure = new ClientException(e.getMessage(), e);
+                    }
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        // always true
+        return true;
+    }
+
     public void close() {
         try (Timer.Sample timer = closeTimer.start()) {
             channel.shutdown();
@@ -32,6 +32,10 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.stream.Collectors;
 
+/**
+ * Posts one span per request. Batches go through the default {@link Client#send(java.util.Collection)}, one post per
+ * span; {@link BaseBatchingHttpClient} is the client that posts a batch in one request.
+ */
 public abstract class BaseHttpClient {
     private final String endpoint;
     private final BasicHeader[] headers;
@@ -68,12 +72,26 @@ public abstract class BaseHttpClient {
     }
 
     public boolean send(final byte[] spanBytes) throws ClientException {
+        return post(spanBytes, "application/octet-stream", null);
+    }
+
+    /**
+     * @param body request body
+     * @param contentType content type of the body
+     * @param contentEncoding value of the <code>Content-Encoding</code> header, or <code>null</code> for none
+     * @return <code>true</code> if the collector answered with a 2xx status
+     * @throws ClientException if the request failed or the collector answered with any other status
+     */
+    protected boolean post(final byte[] body, final String contentType, final String contentEncoding) throws ClientException {
         final HttpPost post = new HttpPost(endpoint);
         if (headers != null && headers.length > 0) {
             post.setHeaders(headers);
         }
-        final ByteArrayEntity entity = new ByteArrayEntity(spanBytes);
-        entity.setContentType("application/octet-stream");
+        final ByteArrayEntity entity = new ByteArrayEntity(body);
+        entity.setContentType(contentType);
+        if (contentEncoding != null) {
+            entity.setContentEncoding(contentEncoding);
+        }
         post.setEntity(entity);
         CloseableHttpResponse response = null;
         try {
@@ -0,0 +1,27 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.remote.clients;
+
+/**
+ * Thrown when posting a batch failed but the client kept the batch and posts it again on a later send or flush.
+ * Callers should count the failure but not send the spans again.
+ */
+public class BatchRetainedException extends ClientException {
+    public BatchRetainedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.remote.clients;
+
+import com.expedia.open.tracing.Span;
+import com.expedia.www.haystack.client.metrics.Metrics;
+import com.expedia.www.haystack.client.metrics.MetricsRegistry;
+import org.apache.http.impl.client.CloseableHttpClient;
+
+import java.util.Map;
+
+public class BatchingHttpCollectorProtoClient extends BaseBatchingHttpClient<Span> {
+    public BatchingHttpCollectorProtoClient(Metrics metrics, String endpoint, Map<String, String> headers, CloseableHttpClient httpClient,
+                                            int maxBatchSpans, int maxBatchBytes, long lingerMillis,
+                                            Compression compression, int compressionThreshold) {
+        super(metrics, endpoint, headers, httpClient, maxBatchSpans, maxBatchBytes, lingerMillis, compression, compressionThreshold);
+    }
+
+    public BatchingHttpCollectorProtoClient(Metrics metrics, String endpoint, Map<String, String> headers, CloseableHttpClient httpClient,
+                                            int maxBatchSpans, int maxBatchBytes, long lingerMillis,
+                                            Compression compression, int compressionThreshold, int maxRetainedBatches) {
+        super(metrics, endpoint, headers, httpClient, maxBatchSpans, maxBatchBytes, lingerMillis, compression,
+                compressionThreshold, maxRetainedBatches);
+    }
+
+    @Override
+    protected Span toProto(Span span) {
+        return span;
+    }
+
+    public static final class Builder extends BaseBatchingHttpClient.Builder<Builder> {
+        public Builder(MetricsRegistry registry, String endpoint) {
+            super(registry, endpoint);
+        }
+
+        public Builder(Metrics metrics, String endpoint) {
+            super(metrics, endpoint);
+        }
+
+        public BatchingHttpCollectorProtoClient build() {
+            return new BatchingHttpCollectorProtoClient(metrics, endpoint, headers, buildHttpClient(),
+                    maxBatchSpans, maxBatchBytes, lingerMillis, compression, compressionThreshold, maxRetainedBatches);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.remote.clients;
+
+import org.apache.commons.lang3.Validate;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Tracks consecutive send failures and stops traffic to an endpoint that keeps failing.
+ * <p>
+ * The breaker opens after <code>failureThreshold</code> consecutive failures. Once <code>openDuration</code> has
+ * passed it goes half-open and lets a single probe through: success closes it, failure opens it again. The
+ * closed state is checked without taking a lock, so a healthy endpoint pays a volatile read per send.
+ */
+public class CircuitBreaker {
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openDurationNanos;
+    private final LongSupplier nanoClock;
+
+    private volatile State state = State.CLOSED;
+    private volatile int consecutiveFailures;
+    private long openedAtNanos;
+    private boolean probeInFlight;
+    private long openedCount;
+
+    public CircuitBreaker(int failureThreshold, long openDurationMillis) {
+        this(failureThreshold, openDurationMillis, System::nanoTime);
+    }
+
+    CircuitBreaker(int failureThreshold, long openDurationMillis, LongSupplier nanoClock) {
+        Validate.isTrue(failureThreshold > 0, "failureThreshold must be positive");
+        Validate.isTrue(openDurationMillis >= 0, "openDurationMillis can't be negative");
+
+        this.failureThreshold = failureThreshold;
+        this.openDurationNanos = TimeUnit.MILLISECONDS.toNanos(openDurationMillis);
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * @return <code>true</code> if a send may be attempted now
+     */
+    public boolean tryAcquire() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+        synchronized (this) {
+            switch (state) {
+                case CLOSED:
+                    return true;
+                case OPEN:
+                    if (nanoClock.getAsLong() - openedAtNanos < openDurationNanos) {
+                        return false;
+                    }
+                    state = State.HALF_OPEN;
+                    probeInFlight = true;
+                    return true;
+                default:
+                    if (probeInFlight) {
+                        return false;
+                    }
+                    probeInFlight = true;
+                    return true;
+            }
+        }
+    }
+
+    public void onSuccess() {
+        if (state == State.CLOSED && consecutiveFailures == 0) {
+            return;
+        }
+        synchronized (this) {
+            consecutiveFailures = 0;
+            probeInFlight = false;
+            state = State.CLOSED;
+        }
+    }
+
+    public synchronized void onFailure() {
+        switch (state) {
+            case CLOSED:
+                consecutiveFailures++;
+                if (consecutiveFailures >= failureThreshold) {
+                    open();
+                }
+                break;
+            case HALF_OPEN:
+                open();
+                break;
+            default:
+                // already open; a send that was in flight when it opened
+        }
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAtNanos = nanoClock.getAsLong();
+        probeInFlight = false;
+        openedCount++;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return how many times the breaker has opened
+     */
+    public synchronized long getOpenedCount() {
+        return openedCount;
+    }
+}
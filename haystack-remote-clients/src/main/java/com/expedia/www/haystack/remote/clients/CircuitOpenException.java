@@ -0,0 +1,48 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.remote.clients;
+
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * Thrown instead of attempting a send while a {@link CircuitBreaker} is open, so callers can shed or buffer the
+ * span right away. Also thrown when a send failed and opened the breaker, so the spans weren't retried.
+ */
+public class CircuitOpenException extends ClientException {
+    private final Collection<?> unsent;
+
+    public CircuitOpenException(String message) {
+        this(message, Collections.emptyList(), null);
+    }
+
+    /**
+     * @param unsent the spans that weren't delivered, as they were handed to the client
+     */
+    public CircuitOpenException(String message, Collection<?> unsent, Throwable cause) {
+        super(message, cause);
+        this.unsent = unsent;
+    }
+
+    /**
+     * @return the spans that weren't delivered, as they were handed to the client; empty if the caller should
+     * assume none of what it sent was
+     */
+    public Collection<?> getUnsent() {
+        return unsent;
+    }
+}
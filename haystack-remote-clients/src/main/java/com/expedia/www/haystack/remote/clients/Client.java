@@ -18,6 +18,7 @@ package com.expedia.www.haystack.remote.clients;
 
 import java.io.Closeable;
 import java.io.Flushable;
+import java.util.Collection;
 
 /**
  * A Client is how a RemoteDispatcher sends it's finished spans to a remote endpoint
@@ -40,4 +41,34 @@ public interface Client<R> extends Closeable, Flushable {
      * @throws ClientException throws a <code>ClientException</code> if an exception occured
      */
     boolean send(R span) throws ClientException;
+
+    /**
+     * Sends a batch of spans. Every span in the batch is attempted even if an earlier one fails; the first failure
+     * is rethrown once the batch is done. Implementations must not hold on to the collection after returning, the
+     * caller reuses it for the next batch.
+     * <p>
+     * The default sends the spans one by one; clients override it to amortize per-call work over the batch.
+     *
+     * @param spans Spans to send off to the endpoint
+     * @return Returns <code>true</code> if every span was sent successfully,
+     *         <code>false</code> if any was unsuccessful
+     * @throws ClientException the first <code>ClientException</code> raised while sending the batch
+     */
+    default boolean send(Collection<R> spans) throws ClientException {
+        boolean sent = true;
+        ClientException failure = null;
+        for (R span : spans) {
+            try {
+                sent &= send(span);
+            } catch (ClientException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return sent;
+    }
 }
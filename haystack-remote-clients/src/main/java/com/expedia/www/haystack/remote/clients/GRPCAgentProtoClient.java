@@ -28,6 +28,9 @@ import com.expedia.www.haystack.client.metrics.Timer.Sample;
 import io.grpc.ManagedChannel;
 import io.grpc.stub.StreamObserver;
 
+import java.util.Collection;
+import java.util.function.Function;
+
 public class GRPCAgentProtoClient extends BaseGrpcClient<Span> {
     public GRPCAgentProtoClient(Metrics metrics,
                                 ManagedChannel channel,
@@ -49,6 +52,11 @@ public class GRPCAgentProtoClient extends BaseGrpcClient<Span> {
         return true;
     }
 
+    @Override
+    public boolean send(Collection<Span> spans) throws ClientException {
+        return dispatch(spans, Function.identity());
+    }
+
     public static final class Builder extends BaseGrpcClient.Builder {
         public Builder(MetricsRegistry metrics, ManagedChannel channel) {
             super(metrics, channel);
@@ -0,0 +1,288 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.remote.clients;
+
+import com.expedia.www.haystack.client.metrics.*;
+import org.apache.commons.lang3.Validate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Wraps a {@link Client} with retries and a {@link CircuitBreaker}.
+ * <p>
+ * A failed send, one that throws a {@link ClientException} or returns <code>false</code>, is retried up to
+ * <code>maxRetries</code> times after a full-jitter exponential backoff. Retries also draw from a shared budget that
+ * successful sends refill by <code>retryBudgetRatio</code> tokens each, so during an outage retries can't multiply
+ * the load on the endpoint. While the breaker is open, sends fail immediately with a {@link CircuitOpenException}
+ * instead of waiting on a connection that won't succeed.
+ * <p>
+ * A batch goes to the delegate's own {@link Client#send(Collection)} and is retried whole. When a failure opens
+ * the breaker, the retries stop and the {@link CircuitOpenException} carries the batch, so the caller can buffer
+ * it. A {@link BatchRetainedException} is never retried here; the delegate already holds those spans and posts them
+ * again itself.
+ * <p>
+ * The decorator only sees what the delegate's <code>send</code> reports, so the delegate must report a failure by
+ * throwing or returning <code>false</code> before it returns. A fire-and-forget delegate gives the breaker nothing to
+ * act on; wrapping an {@link AsyncClient} only covers its synchronous <code>send</code>, not
+ * {@link AsyncClient#sendAsync(Object)}.
+ */
+public class ResilientClient<R> implements Client<R> {
+    private final Client<R> delegate;
+    private final CircuitBreaker breaker;
+    private final int maxRetries;
+    private final long baseBackoffMillis;
+    private final long maxBackoffMillis;
+    private final double retryBudgetRatio;
+    private final double maxRetryBudget;
+
+    private double retryBudget;
+
+    private final Counter retryCounter;
+    private final Counter retryExhaustedCounter;
+    private final Counter retryInterruptedCounter;
+    private final Counter shedCounter;
+
+    public ResilientClient(Metrics metrics, Client<R> delegate, CircuitBreaker breaker, int maxRetries,
+                           long baseBackoffMillis, long maxBackoffMillis, double retryBudgetRatio, int maxRetryBudget) {
+        Validate.notNull(delegate);
+        Validate.notNull(breaker);
+        Validate.isTrue(maxRetries >= 0, "maxRetries can't be negative");
+        Validate.isTrue(0 < baseBackoffMillis && baseBackoffMillis <= maxBackoffMillis, "backoff must be positive and base <= max");
+
+        this.delegate = delegate;
+        this.breaker = breaker;
+        this.maxRetries = maxRetries;
+        this.baseBackoffMillis = baseBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.retryBudgetRatio = retryBudgetRatio;
+        this.maxRetryBudget = maxRetryBudget;
+        this.retryBudget = maxRetryBudget;
+
+        this.retryCounter = Counter.builder("retry").register(metrics);
+        this.retryExhaustedCounter = Counter.builder("retry").tag(new Tag("state", "exhausted")).register(metrics);
+        this.retryInterruptedCounter = Counter.builder("retry").tag(new Tag("state", "interrupted")).register(metrics);
+        this.shedCounter = Counter.builder("send").tag(new Tag("state", "shed")).register(metrics);
+
+        for (CircuitBreaker.State state : CircuitBreaker.State.values()) {
+            // held in the registry; but we don't need a local reference
+            Gauge.builder("circuit", breaker, (b) -> (b.getState() == state ? 1 : 0))
+                    .tag(new Tag("state", state.name().toLowerCase()))
+                    .register(metrics);
+        }
+        Gauge.builder("circuitOpened", breaker, CircuitBreaker::getOpenedCount).register(metrics);
+    }
+
+    @Override
+    public boolean send(R span) throws ClientException {
+        final Collection<R> unsent = Collections.singletonList(span);
+        if (!breaker.tryAcquire()) {
+            shedCounter.increment();
+            throw new CircuitOpenException("Circuit is open; not sending to the endpoint", unsent, null);
+        }
+        return attempt(() -> delegate.send(span), unsent);
+    }
+
+    /**
+     * Throws a {@link CircuitOpenException} carrying the whole batch if the circuit is open when the batch starts,
+     * or if a failed attempt opens it.
+     */
+    @Override
+    public boolean send(Collection<R> spans) throws ClientException {
+        if (!breaker.tryAcquire()) {
+            shedCounter.increment(spans.size());
+            throw new CircuitOpenException("Circuit is open; not sending to the endpoint", new ArrayList<>(spans), null);
+        }
+        return attempt(() -> delegate.send(spans), spans);
+    }
+
+    private boolean attempt(BooleanSupplier send, Collection<R> spans) throws ClientException {
+        int attempt = 0;
+        while (true) {
+            final boolean sent;
+            try {
+                sent = send.getAsBoolean();
+            } catch (BatchRetainedException e) {
+                // the delegate kept the spans; sending them again would post them twice
+                breaker.onFailure();
+                throw e;
+            } catch (ClientException e) {
+                breaker.onFailure();
+                if (!shouldRetry(attempt++, spans, e)) {
+                    throw e;
+                }
+                retryCounter.increment();
+                continue;
+            } catch (RuntimeException e) {
+                // not a failure we retry, but it must not leave a half-open probe hanging
+                breaker.onFailure();
+                throw e;
+            }
+            if (sent) {
+                breaker.onSuccess();
+                depositRetryBudget();
+                return true;
+            }
+            // a refused send is a failure too; it must neither close the breaker nor refill the budget
+            breaker.onFailure();
+            if (!shouldRetry(attempt++, spans, null)) {
+                return false;
+            }
+            retryCounter.increment();
+        }
+    }
+
+    /**
+     * Decides whether a failed attempt is retried, backing off first if so. Throws a {@link CircuitOpenException}
+     * if the failure opened the breaker; <code>cause</code> is null when the delegate returned <code>false</code>.
+     */
+    private boolean shouldRetry(int attempt, Collection<R> spans, ClientException cause) {
+        if (breaker.getState() != CircuitBreaker.State.CLOSED) {
+            shedCounter.increment(spans.size());
+            // copied, as callers reuse their batch once we return
+            throw new CircuitOpenException("Circuit opened; not retrying the send", new ArrayList<>(spans), cause);
+        }
+        if (attempt >= maxRetries) {
+            return false;
+        }
+        if (!withdrawRetryBudget()) {
+            retryExhaustedCounter.increment();
+            return false;
+        }
+        return backoff(attempt);
+    }
+
+    private boolean backoff(int attempt) {
+        final long ceiling = Math.min(maxBackoffMillis, baseBackoffMillis << Math.min(attempt, 30));
+        try {
+            TimeUnit.MILLISECONDS.sleep(ThreadLocalRandom.current().nextLong(ceiling + 1));
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            retryInterruptedCounter.increment();
+            return false;
+        }
+    }
+
+    private synchronized void depositRetryBudget() {
+        if (retryBudget < maxRetryBudget) {
+            retryBudget = Math.min(maxRetryBudget, retryBudget + retryBudgetRatio);
+        }
+    }
+
+    private synchronized boolean withdrawRetryBudget() {
+        if (retryBudget < 1) {
+            return false;
+        }
+        retryBudget -= 1;
+        return true;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return breaker;
+    }
+
+    @Override
+    public void flush() throws ClientException {
+        delegate.flush();
+    }
+
+    @Override
+    public void close() throws ClientException {
+        delegate.close();
+    }
+
+    public static final class Builder<R> {
+        private final Metrics metrics;
+        private final Client<R> delegate;
+        private int maxRetries = 3;
+        private long baseBackoffMillis = 50;
+        private long maxBackoffMillis = TimeUnit.SECONDS.toMillis(2);
+        private double retryBudgetRatio = 0.1;
+        private int maxRetryBudget = 100;
+        private int failureThreshold = 5;
+        private long openDurationMillis = TimeUnit.SECONDS.toMillis(5);
+
+        public Builder(MetricsRegistry registry, Client<R> delegate) {
+            this(new Metrics(registry, Client.class.getName(), Arrays.asList(new Tag("type", "resilient"))), delegate);
+        }
+
+        public Builder(Metrics metrics, Client<R> delegate) {
+            this.metrics = metrics;
+            this.delegate = delegate;
+        }
+
+        /**
+         * @param maxRetries retries per span after the first attempt fails
+         * @return this builder instance
+         */
+        public Builder<R> withMaxRetries(int maxRetries) {
+            this.maxRetries = maxRetries;
+            return this;
+        }
+
+        /**
+         * @param baseBackoffMillis backoff ceiling for the first retry; doubles with every further retry
+         * @param maxBackoffMillis upper bound on the backoff ceiling
+         * @return this builder instance
+         */
+        public Builder<R> withBackoffMillis(long baseBackoffMillis, long maxBackoffMillis) {
+            this.baseBackoffMillis = baseBackoffMillis;
+            this.maxBackoffMillis = maxBackoffMillis;
+            return this;
+        }
+
+        /**
+         * @param retryBudgetRatio retries earned per successful send
+         * @param maxRetryBudget most retries that can be banked
+         * @return this builder instance
+         */
+        public Builder<R> withRetryBudget(double retryBudgetRatio, int maxRetryBudget) {
+            this.retryBudgetRatio = retryBudgetRatio;
+            this.maxRetryBudget = maxRetryBudget;
+            return this;
+        }
+
+        /**
+         * @param failureThreshold consecutive failures that open the circuit
+         * @return this builder instance
+         */
+        public Builder<R> withFailureThreshold(int failureThreshold) {
+            this.failureThreshold = failureThreshold;
+            return this;
+        }
+
+        /**
+         * @param openDurationMillis how long the circuit stays open before a probe is let through
+         * @return this builder instance
+         */
+        public Builder<R> withOpenDurationMillis(long openDurationMillis) {
+            this.openDurationMillis = openDurationMillis;
+            return this;
+        }
+
+        public ResilientClient<R> build() {
+            return new ResilientClient<>(metrics, delegate, new CircuitBreaker(failureThreshold, openDurationMillis),
+                                         maxRetries, baseBackoffMillis, maxBackoffMillis, retryBudgetRatio, maxRetryBudget);
+        }
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright 2018 Expedia, Inc.
+ *
+ *       Licensed under the Apache License, Version 2.0 (the "License");
+ *       you may not use this file except in compliance with the License.
+ *       You may obtain a copy of the License at
+ *
+ *           http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *       Unless required by applicable law or agreed to in writing, software
+ *       distributed under the License is distributed on an "AS IS" BASIS,
+ *       WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *       See the License for the specific language governing permissions and
+ *       limitations under the License.
+ *
+ */
+package com.expedia.www.haystack.remote.clients;
+
+import com.expedia.www.haystack.client.metrics.Metrics;
+import com.expedia.www.haystack.client.metrics.NoopMetricsRegistry;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ResilientClientTest {
+    private Metrics metrics;
+    private FlakyClient delegate;
+
+    @Before
+    public void setUp() {
+        metrics = new Metrics(new NoopMetricsRegistry(), Client.class.getName(), Collections.emptyList());
+        delegate = new FlakyClient();
+    }
+
+    @Test
+    public void testTransientFailureIsRetried() {
+        delegate.failuresLeft = 2;
+        final ResilientClient<String> client = new ResilientClient.Builder<>(metrics, delegate)
+                .withMaxRetries(3)
+                .withBackoffMillis(1, 5)
+                .build();
+
+        Assert.assertTrue(client.send("span"));
+        Assert.assertEquals(3, delegate.attempts);
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, client.getCircuitBreaker().getState());
+    }
+
+    @Test
+    public void testRetriesStopAtMaxRetries() {
+        delegate.failuresLeft = Integer.MAX_VALUE;
+        final ResilientClient<String> client = new ResilientClient.Builder<>(metrics, delegate)
+                .withMaxRetries(2)
+                .withBackoffMillis(1, 5)
+                .withFailureThreshold(100)
+                .build();
+
+        try {
+            client.send("span");
+            Assert.fail("expected the last failure to be rethrown");
+        } catch (ClientException e) {
+            Assert.assertFalse(e instanceof CircuitOpenException);
+        }
+        Assert.assertEquals(3, delegate.attempts);
+    }
+
+    @Test
+    public void testRetryBudgetBoundsRetriesAcrossSpans() {
+        delegate.failuresLeft = Integer.MAX_VALUE;
+        final ResilientClient<String> client = new ResilientClient.Builder<>(metrics, delegate)
+                .withMaxRetries(5)
+                .withBackoffMillis(1, 1)
+                .withRetryBudget(0.1, 2)
+                .withFailureThreshold(100)
+                .build();
+
+        for (int i = 0; i < 4; i++) {
+            try {
+                client.send("span-" + i);
+            } catch (ClientException e) {
+                // expected
+            }
+        }
+        // four first attempts plus the two banked retries
+        Assert.assertEquals(6, delegate.attempts);
+    }
+
+    @Test
+    public void testRefusedSendIsAFailure() {
+        delegate.failuresLeft = Integer.MAX_VALUE;
+        delegate.refuses = true;
+        final ResilientClient<String> client = new ResilientClient.Builder<>(metrics, delegate)
+                .withMaxRetries(1)
+                .withBackoffMillis(1, 1)
+                .withFailureThreshold(4)
+                .withOpenDurationMillis(TimeUnit.MINUTES.toMillis(1))
+                .build();
+
+        Assert.assertFalse(client.send("span-0"));
+        Assert.assertEquals(2, delegate.attempts);
+        try {
+            client.send("span-1");
+            Assert.fail("expected the refusals to open the circuit");
+        } catch (CircuitOpenException e) {
+            Assert.assertNull(e.getCause());
+            Assert.assertEquals(Collections.singletonList("span-1"), new ArrayList<>(e.getUnsent()));
+        }
+        Assert.assertEquals(CircuitBreaker.State.OPEN, client.getCircuitBreaker().getState());
+    }
+
+    @Test
+    public void testOpenCircuitShedsWithoutCallingTheDelegate() {
+        delegate.failuresLeft = Integer.MAX_VALUE;
+        final ResilientClient<String> client = new ResilientClient.Builder<>(metrics, delegate)
+                .withMaxRetries(0)
+                .withBackoffMillis(1, 1)
+                .withFailureThreshold(2)
+                .withOpenDurationMillis(TimeUnit.MINUTES.toMillis(1))
+                .build();
+
+        try {
+            client.send("span-0");
+            Assert.fail("expected the failure to be rethrown");
+        } catch (ClientException e) {
+            Assert.assertFalse(e instanceof CircuitOpenException);
+        }
+        try {
+            client.send("span-1");
+            Assert.fail("expected the failure that opened the circuit to be reported");
+        } catch (CircuitOpenException e) {
+            Assert.assertEquals(Collections.singletonList("span-1"), new ArrayList<>(e.getUnsent()));
+        }
+        Assert.assertEquals(CircuitBreaker.State.OPEN, client.getCircuitBreaker().getState());
+
+        try {
+            client.send("shed");
+            Assert.fail("expected the span to be shed");
+        } catch (CircuitOpenException e) {
+            // expected
+        }
+        Assert.assertEquals(2, delegate.attempts);
+    }
+
+    @Test
+    public void testBatchIsShedWholeWhileTheCircuitIsOpen() {
+        delegate.failuresLeft = Integer.MAX_VALUE;
+        final ResilientClient<String> client = new ResilientClient.Builder<>(metrics, delegate)
+                .withMaxRetries(0)
+                .withBackoffMillis(1, 1)
+                .withFailureThreshold(1)
+                .withOpenDurationMillis(TimeUnit.MINUTES.toMillis(1))
+                .build();
+
+        try {
+            client.send(Arrays.asList("a", "b", "c"));
+            Assert.fail("expected the batch to be shed");
+        } catch (CircuitOpenException e) {
+            // the failure opened the circuit, so the whole batch comes back for the caller to buffer
+            Assert.assertEquals(Arrays.asList("a", "b", "c"), new ArrayList<>(e.getUnsent()));
+        }
+        Assert.assertEquals(1, delegate.batches);
+
+        try {
+            client.send(Arrays.asList("d", "e"));
+            Assert.fail("expected the batch to be shed");
+        } catch (CircuitOpenException e) {
+            Assert.assertEquals(Arrays.asList("d", "e"), new ArrayList<>(e.getUnsent()));
+        }
+        Assert.assertEquals(1, delegate.batches);
+    }
+
+    @Test
+    public void testBatchIsRetriedWholeThroughTheDelegate() {
+        delegate.failuresLeft = 1;
+        final ResilientClient<String> client = new ResilientClient.Builder<>(metrics, delegate)
+                .withMaxRetries(2)
+                .withBackoffMillis(1, 5)
+                .withFailureThreshold(100)
+                .build();
+
+        Assert.assertTrue(client.send(Arrays.asList("a", "b", "c")));
+        Assert.assertEquals(2, delegate.batches);
+        Assert.assertEquals(0, delegate.attempts);
+    }
+
+    @Test
+    public void testRetainedBatchIsNotRetried() {
+        delegate.failuresLeft = Integer.MAX_VALUE;
+        delegate.retains = true;
+        final ResilientClient<String> client = new ResilientClient.Builder<>(metrics, delegate)
+                .withMaxRetries(3)
+                .withBackoffMillis(1, 5)
+                .withFailureThreshold(100)
+                .build();
+
+        try {
+            client.send(Arrays.asList("a", "b"));
+            Assert.fail("expected the retained failure to be rethrown");
+        } catch (BatchRetainedException e) {
+            // expected
+        }
+        Assert.assertEquals(1, delegate.batches);
+    }
+
+    @Test
+    public void testHalfOpenProbeClosesOrReopensTheCircuit() {
+        final AtomicLong now = new AtomicLong();
+        final CircuitBreaker breaker = new CircuitBreaker(1, 100, now::get);
+
+        breaker.onFailure();
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        Assert.assertFalse(breaker.tryAcquire());
+
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+        Assert.assertTrue(breaker.tryAcquire());
+        Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        Assert.assertFalse("only one probe at a time", breaker.tryAcquire());
+
+        breaker.onFailure();
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        Assert.assertEquals(2, breaker.getOpenedCount());
+
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+        Assert.assertTrue(breaker.tryAcquire());
+        breaker.onSuccess();
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        Assert.assertTrue(breaker.tryAcquire());
+    }
+
+    private static final class FlakyClient implements Client<String> {
+        private int failuresLeft;
+        private int attempts;
+        private int batches;
+        private boolean retains;
+        private boolean refuses;
+
+        @Override
+        public boolean send(Collection<String> spans) throws ClientException {
+            batches++;
+            if (failuresLeft > 0) {
+                failuresLeft--;
+                if (retains) {
+                    throw new BatchRetainedException("agent unavailable; batch kept", null);
+                }
+                throw new ClientException("agent unavailable");
+            }
+            return true;
+        }
+
+        @Override
+        public boolean send(String span) throws ClientException {
+            attempts++;
+            if (failuresLeft > 0) {
+                failuresLeft--;
+                if (refuses) {
+                    return false;
+                }
+                throw new ClientException("agent unavailable");
+            }
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void flush() {
+        }
+    }
+}